@@ -0,0 +1,46 @@
+package peerlinkfilesharingsystem.Config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.mail.javamail.JavaMailSender;
+import peerlinkfilesharingsystem.Service.MailService.PlatformThreadMailSender;
+
+/**
+ * Execution mode, switched with spring.threads.virtual.enabled.
+ *
+ * With it on, Spring Boot runs Tomcat request handling, @Scheduled jobs
+ * (FileCleanUp, dictionary training) and MVC async work such as streamed
+ * downloads on virtual threads, and {@link peerlinkfilesharingsystem.Service.UploadFinalizationService.UploadFinalizationService}
+ * finalizes uploads on them too. Compression stays on the compression queue's
+ * platform workers: it is CPU-bound and that pool is what bounds it.
+ *
+ * Code that blocks while holding a lock uses ReentrantLock rather than
+ * synchronized, so a virtual thread waiting on a file or JDBC call unmounts
+ * instead of pinning its carrier. Code we do not own that blocks inside
+ * synchronized - the SMTP transport - is handed to platform threads here.
+ */
+@Configuration
+@Slf4j
+public class ExecutionModeConfig {
+
+    @Bean
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public static BeanPostProcessor platformThreadMailSenderPostProcessor(Environment environment) {
+        int threads = environment.getProperty("mail.send-threads", Integer.class, 4);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof JavaMailSender mailSender && !(bean instanceof PlatformThreadMailSender)) {
+                    log.info("Virtual threads enabled: mail sends of '{}' run on {} platform threads", beanName, threads);
+                    return new PlatformThreadMailSender(mailSender, threads);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -14,6 +14,7 @@
     import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
     import org.springframework.security.web.SecurityFilterChain;
     import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+    import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
     import org.springframework.web.cors.CorsConfiguration;
     import org.springframework.web.cors.CorsConfigurationSource;
     import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
@@ -28,6 +29,9 @@
         @Autowired
         private JwtFilter jwtFilter;
     
+        @Autowired
+        private UploadAdmissionFilter uploadAdmissionFilter;
+
         @Autowired
         private UserPrincipleService userPrincipleService;
 
@@ -58,6 +62,7 @@
                     .sessionManagement(session ->
                             session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                     .addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class)
+                    .addFilterAfter(uploadAdmissionFilter, BasicAuthenticationFilter.class)
                     .build();
         }
     
@@ -101,7 +106,11 @@
                     "X-Chunk-Size",
                     "X-Network-Condition",
                     "X-Original-Size",
-                    "X-Compressed-Size"
+                    "X-Compressed-Size",
+                    "Accept-Ranges",
+                    "Content-Range",
+                    "Content-Encoding",
+                    "ETag"
             ));
     
             UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
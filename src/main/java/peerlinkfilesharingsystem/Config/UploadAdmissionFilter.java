@@ -0,0 +1,173 @@
+package peerlinkfilesharingsystem.Config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+import peerlinkfilesharingsystem.Exception.StorageQuotaExceededException;
+import peerlinkfilesharingsystem.Model.Users;
+import peerlinkfilesharingsystem.Repo.UserRepo;
+import peerlinkfilesharingsystem.Service.StorageQuotaService.StorageQuotaService;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Turns uploads away before their body is read. Sits after the JWT and basic
+ * authentication filters, so the caller is known, and ahead of multipart
+ * parsing, which would otherwise spool the whole body to disk first.
+ *
+ * Every POST/PUT under /files/upload must be authenticated (401) and declare a
+ * Content-Length within the multipart request limit (413). New files
+ * (/files/upload and /files/upload/raw) must also carry a Content-Length (411)
+ * and fit the user's quota and the disk (507), counting the uploads admitted
+ * before them; the room stays reserved until the request completes. Refusals
+ * close the connection, so the container only swallows up to its
+ * max-swallow-size of the unread body instead of keeping the socket alive for
+ * the rest of it.
+ */
+@Component
+@Slf4j
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+    private static final String UPLOAD_PATH = "/files/upload";
+    private static final String RAW_UPLOAD_PATH = "/files/upload/raw";
+
+    @Autowired
+    private StorageQuotaService storageQuotaService;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${spring.servlet.multipart.max-request-size:10GB}")
+    private DataSize maxRequestSize;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String method = request.getMethod();
+        return !("POST".equals(method) || "PUT".equals(method))
+                || !request.getRequestURI().startsWith(UPLOAD_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain)
+            throws ServletException, IOException {
+
+        String path = request.getRequestURI();
+        long contentLength = request.getContentLengthLong();
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()
+                || authentication instanceof AnonymousAuthenticationToken) {
+            reject(request, response, HttpStatus.UNAUTHORIZED, "UNAUTHENTICATED",
+                    "Authentication is required to upload");
+            return;
+        }
+
+        if (contentLength > maxRequestSize.toBytes()) {
+            reject(request, response, HttpStatus.PAYLOAD_TOO_LARGE, "FILE_TOO_LARGE",
+                    "Upload failed: File Size Exceeded");
+            return;
+        }
+
+        boolean newFile = path.equals(UPLOAD_PATH) || path.equals(RAW_UPLOAD_PATH);
+        StorageQuotaService.Reservation reservation = null;
+        if (newFile) {
+            if (contentLength < 0) {
+                reject(request, response, HttpStatus.LENGTH_REQUIRED, "LENGTH_REQUIRED",
+                        "Upload failed: Content-Length is required");
+                return;
+            }
+            Users users = userRepo.findByUsername(authentication.getName());
+            if (users == null) {
+                reject(request, response, HttpStatus.UNAUTHORIZED, "UNAUTHENTICATED", "User Not Found");
+                return;
+            }
+            try {
+                reservation = storageQuotaService.reserve(users.getId(), contentLength);
+            } catch (StorageQuotaExceededException e) {
+                reject(request, response, HttpStatus.INSUFFICIENT_STORAGE, "INSUFFICIENT_STORAGE",
+                        "Upload failed: " + e.getMessage());
+                return;
+            }
+            // The upload marks it persisted once its row is saved
+            request.setAttribute(StorageQuotaService.RESERVATION_ATTRIBUTE, reservation);
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (reservation != null) {
+                releaseOnCompletion(request, reservation);
+            }
+        }
+    }
+
+    /**
+     * A raw upload goes async and is still receiving its body when the chain returns.
+     */
+    private void releaseOnCompletion(HttpServletRequest request, StorageQuotaService.Reservation reservation) {
+        if (!request.isAsyncStarted()) {
+            reservation.close();
+            return;
+        }
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                reservation.close();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                reservation.close();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                reservation.close();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response, HttpStatus status,
+                        String errorCode, String message) throws IOException {
+        log.warn("Upload refused before reading its body - {} {} ({} bytes): {} {}",
+                request.getMethod(), request.getRequestURI(), request.getContentLengthLong(),
+                status.value(), message);
+        Map<String, Object> errorResponse = new LinkedHashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("error", errorCode);
+        errorResponse.put("message", message);
+
+        response.setStatus(status.value());
+        // Don't keep reading an unwanted body just to reuse the connection
+        response.setHeader(HttpHeaders.CONNECTION, "close");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), errorResponse);
+    }
+}
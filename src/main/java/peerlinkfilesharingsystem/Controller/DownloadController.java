@@ -4,9 +4,12 @@ import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
 import peerlinkfilesharingsystem.Model.ChunkedDownloadResource;
 import peerlinkfilesharingsystem.Model.FileDownload;
 import peerlinkfilesharingsystem.Model.FileShare;
@@ -14,9 +17,16 @@ import peerlinkfilesharingsystem.Model.FileTransferEntity;
 import peerlinkfilesharingsystem.Repo.FileDownloadRepo;
 import peerlinkfilesharingsystem.Repo.FileShareRepo;
 import peerlinkfilesharingsystem.Service.FileDownloadService.FileDownloadService;
+import peerlinkfilesharingsystem.Service.FileDownloadService.StoredFileResource;
+import peerlinkfilesharingsystem.Service.FileDownloadService.ZeroCopyTransfer;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -92,24 +102,13 @@ public class DownloadController {
 
             log.info("[{}] Building HTTP response...", downloadId);
 
-            InputStreamResource inputStreamResource = new InputStreamResource(resource.getInputStream());
-
             log.info("========== DOWNLOAD SUCCESS ==========");
             FileDownload fileDownload = fileDownloadRepo.findTopByTransferIdOrderByIdDesc(transferId);
             fileDownload.setTransferDurationSeconds(LocalDateTime.now());
 //            fileDownload.setTransferDurationSeconds(Duration.between(LocalDateTime.now(),fileDownload.getTransferDurationSeconds()));
             fileDownload.setStoragePath(transfer.getStoragePath());
             fileDownloadRepo.save(fileDownload);
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=\"" + resource.getFileName() + "\"")
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
-                    .header("X-Download-Id", downloadId)
-                    .header("X-Chunk-Size", String.valueOf(resource.getChunkSize()))
-                    .header("X-Network-Condition", resource.getNetworkCondition())
-                    .header("X-Original-Size", String.valueOf(resource.getOriginalSizeBytes()))
-                    .header("X-Compressed-Size", String.valueOf(resource.getCompressedSizeBytes()))
-                    .body(inputStreamResource);
+            return buildDownloadResponse(resource, transfer, downloadId, request);
 
         } catch (Exception e) {
             log.error("========== DOWNLOAD FAILED ==========", e);
@@ -326,8 +325,6 @@ public class DownloadController {
 
             log.info("[{}] Building HTTP response...", shareId);
 
-            InputStreamResource inputStreamResource = new InputStreamResource(resource.getInputStream());
-
             log.info("========== DOWNLOAD SUCCESS ==========");
             FileDownload fileDownload = fileDownloadRepo.findByTransferId(transfer.getTransferId());
             if (fileDownload != null) {
@@ -335,16 +332,7 @@ public class DownloadController {
                 fileDownload.setStoragePath(transfer.getStoragePath());
                 fileDownloadRepo.save(fileDownload);
             }
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=\"" + resource.getFileName() + "\"")
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
-                    .header("X-Download-Id", shareId)
-                    .header("X-Chunk-Size", String.valueOf(resource.getChunkSize()))
-                    .header("X-Network-Condition", resource.getNetworkCondition())
-                    .header("X-Original-Size", String.valueOf(resource.getOriginalSizeBytes()))
-                    .header("X-Compressed-Size", String.valueOf(resource.getCompressedSizeBytes()))
-                    .body(inputStreamResource);
+            return buildDownloadResponse(resource, transfer, shareId, request);
 
         } catch (Exception e) {
             log.error("========== DOWNLOAD FAILED ==========", e);
@@ -354,6 +342,189 @@ public class DownloadController {
     }
 
 
+    /**
+     * Full 200 or partial 206 response for a stored file.
+     *
+     * The body is a {@link org.springframework.core.io.Resource}, so Spring MVC
+     * answers a Range header itself: 206 with Content-Range for one range,
+     * multipart/byteranges for several, 416 when unsatisfiable. If-Range is
+     * checked here - when the validator no longer matches, the range is ignored
+     * and the whole file is sent.
+     *
+     * Full downloads of GZIP-stored files go out as stored with Content-Encoding: gzip
+     * when the client accepts it, so the server neither inflates nor ships the larger
+     * decoded form. Ranges always address the decoded bytes.
+     *
+     * Bytes that go out exactly as stored (STORE files, gzip pass-through) use the
+     * container's sendfile through {@link ZeroCopyTransfer} when the connector has it;
+     * otherwise they take the Resource path like everything else.
+     */
+    private ResponseEntity<?> buildDownloadResponse(ChunkedDownloadResource resource, FileTransferEntity transfer,
+                                                    String downloadId, HttpServletRequest request) throws IOException {
+        // Stored content never changes for a transferId, so a strong validator is safe
+        String eTag = "\"" + transfer.getTransferId() + "-" + transfer.getFileSize() + "\"";
+        long lastModified = transfer.getCompletedAt() != null
+                ? transfer.getCompletedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : -1;
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + resource.getFileName() + "\"")
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .eTag(eTag)
+                .header("X-Download-Id", downloadId)
+                .header("X-Chunk-Size", String.valueOf(resource.getChunkSize()))
+                .header("X-Network-Condition", resource.getNetworkCondition())
+                .header("X-Original-Size", String.valueOf(resource.getOriginalSizeBytes()))
+                .header("X-Compressed-Size", String.valueOf(resource.getCompressedSizeBytes()));
+        if (lastModified > 0) {
+            response.lastModified(lastModified);
+        }
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        StoredFileResource storedFile = resource.getResource();
+
+        if (range == null && storedFile.isGzipEncoded() && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            log.info("[{}] Client accepts gzip - sending stored bytes without decompressing", downloadId);
+            // Different bytes than the decoded representation, so a different validator; and the
+            // stored bytes change when the blob is re-encoded (rebase, deferred compression), which
+            // always moves it to a new file name
+            response.eTag("\"" + transfer.getTransferId() + "-" + transfer.getFileSize() + "-gzip-"
+                            + Integer.toHexString(storedFile.getStoragePath().hashCode()) + "\"")
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            StoredFileResource asStored = storedFile.asStoredEncoding();
+            if (canZeroCopy(request, asStored.contentLength())) {
+                return zeroCopyResponse(response, asStored, 0, asStored.contentLength(), request);
+            }
+            return response.body(asStored);
+        }
+
+        boolean staleRange = range != null
+                && !ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), eTag, lastModified);
+        if (staleRange) {
+            log.info("[{}] If-Range validator is stale - ignoring Range and sending the full file", downloadId);
+        }
+
+        // STORE files are byte-identical on disk, so full and single-range downloads skip the JVM entirely
+        if (storedFile.getCodec() == CompressionCodec.STORE && canZeroCopy(request, storedFile.contentLength())) {
+            long length = storedFile.contentLength();
+            if (range == null || staleRange) {
+                return zeroCopyResponse(response, storedFile, 0, length, request);
+            }
+            long[] region = singleRange(range, length);
+            if (region != null) {
+                log.info("[{}] Range request: {}", downloadId, range);
+                ResponseEntity.BodyBuilder partial = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .headers(response.build().getHeaders())
+                        .header(HttpHeaders.CONTENT_RANGE,
+                                "bytes " + region[0] + "-" + (region[0] + region[1] - 1) + "/" + length);
+                return zeroCopyResponse(partial, storedFile, region[0], region[1], request);
+            }
+        }
+
+        if (staleRange) {
+            // InputStreamResource is not range-processed by Spring, so this stays a plain 200
+            return response
+                    .contentLength(resource.getOriginalSizeBytes())
+                    .body(new InputStreamResource(storedFile.getInputStream()));
+        }
+
+        if (range != null) {
+            log.info("[{}] Range request: {}", downloadId, range);
+        }
+        return response.body(storedFile);
+    }
+
+    /**
+     * Zero-copy is only used for plain GETs of files worth it, on a connector with
+     * sendfile. Conditional requests go through Spring so 304 handling stays in one
+     * place, and HEAD must not send a body. Everything else takes the Resource path.
+     */
+    private boolean canZeroCopy(HttpServletRequest request, long length) {
+        return ZeroCopyTransfer.isSendfileSupported(request)
+                && "GET".equals(request.getMethod())
+                && request.getHeader(HttpHeaders.IF_NONE_MATCH) == null
+                && request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) == null
+                && length >= ZeroCopyTransfer.MIN_ZERO_COPY_BYTES;
+    }
+
+    /**
+     * Hands [start, start + length) of the stored file to the container's sendfile.
+     */
+    private ResponseEntity<?> zeroCopyResponse(ResponseEntity.BodyBuilder response, StoredFileResource storedFile,
+                                               long start, long length, HttpServletRequest request) throws IOException {
+        response.contentLength(length);
+        ZeroCopyTransfer.dispatchSendfile(request, storedFile.getStoragePath(), start, length,
+                storedFile.getFilename());
+        // No body: the connector writes the file region after the headers
+        return response.build();
+    }
+
+    /**
+     * Start and length of a single satisfiable byte range, or null when the header
+     * asks for several ranges or is invalid - Spring answers those (multipart or 416).
+     */
+    private long[] singleRange(String rangeHeader, long length) {
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            if (ranges.size() != 1) {
+                return null;
+            }
+            long start = ranges.get(0).getRangeStart(length);
+            long end = ranges.get(0).getRangeEnd(length);
+            if (start >= length || end < start) {
+                return null;
+            }
+            return new long[]{start, end - start + 1};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip")) {
+                continue;
+            }
+            // "gzip;q=0" explicitly refuses the coding
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean ifRangeMatches(String ifRange, String eTag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range requires strong comparison, a weak tag never matches
+            return ifRange.equals(eTag);
+        }
+        try {
+            long since = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return lastModified > 0 && since / 1000 == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
     private Map<String, Object> buildErrorResponse(String message, String errorCode) {
         Map<String, Object> errorResponse = new HashMap<>();
         errorResponse.put("success", false);
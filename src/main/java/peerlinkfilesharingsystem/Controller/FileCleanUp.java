@@ -3,16 +3,30 @@ package peerlinkfilesharingsystem.Controller;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.RestController;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.CompressionQueueService.CompressionQueueService;
+import peerlinkfilesharingsystem.Service.DeltaStorageService.DeltaStorageService;
 import peerlinkfilesharingsystem.Service.FileStorageService.FileStorageService;
+import peerlinkfilesharingsystem.Service.IntelligencePredictionService.IntelligencePredictionService;
 
 @RestController
 @Slf4j
 public class FileCleanUp {
 
     private final FileStorageService fileDownloadService;
+    private final DeltaStorageService deltaStorageService;
+    private final IntelligencePredictionService intelligencePredictionService;
+    private final CompressionQueueService compressionQueueService;
+    private final BlobStoreService blobStoreService;
 
-    public FileCleanUp(FileStorageService fileStorageService) {
+    public FileCleanUp(FileStorageService fileStorageService, DeltaStorageService deltaStorageService,
+                       IntelligencePredictionService intelligencePredictionService,
+                       CompressionQueueService compressionQueueService, BlobStoreService blobStoreService) {
         this.fileDownloadService = fileStorageService;
+        this.deltaStorageService = deltaStorageService;
+        this.intelligencePredictionService = intelligencePredictionService;
+        this.compressionQueueService = compressionQueueService;
+        this.blobStoreService = blobStoreService;
     }
 
 //        @Scheduled(cron = "0 * * * * *")
@@ -32,4 +46,24 @@ public class FileCleanUp {
         log.debug("Deleting expired files");
         fileDownloadService.deleteUnsuccessfulFilesinTransferEntity();
     }
+    @Scheduled(cron = "${storage.delta.rebase-cron:0 30 3 * * *}")
+    public void rebaseDeepDeltaChains(){
+        log.debug("Rebasing deep delta chains");
+        deltaStorageService.rebaseDeepChains();
+    }
+    @Scheduled(cron = "0 15 * * * *")
+    public void deleteRetiredBlobFiles(){
+        log.debug("Deleting replaced blob encodings past their grace period");
+        blobStoreService.deleteRetiredFiles();
+    }
+    @Scheduled(cron = "${storage.dictionary.rebuild-cron:0 0 4 * * *}")
+    public void rebuildPresetDictionaries(){
+        log.debug("Rebuilding preset compression dictionaries");
+        intelligencePredictionService.learnPresetDictionaries();
+    }
+    @Scheduled(fixedDelayString = "${compression.queue.deferred-scan-ms:60000}")
+    public void compressDeferredBlobs(){
+        log.debug("Compressing blobs stored raw under load");
+        compressionQueueService.compressDeferredBlobs();
+    }
 }
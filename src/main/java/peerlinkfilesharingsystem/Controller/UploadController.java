@@ -1,16 +1,44 @@
 package peerlinkfilesharingsystem.Controller;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import peerlinkfilesharingsystem.Dto.FileUploadResponse;
+import peerlinkfilesharingsystem.Dto.InstantUploadProof;
+import peerlinkfilesharingsystem.Dto.InstantUploadRequest;
+import peerlinkfilesharingsystem.Dto.InstantUploadResponse;
+import peerlinkfilesharingsystem.Dto.UploadSessionRequest;
+import peerlinkfilesharingsystem.Dto.UploadSessionResponse;
+import peerlinkfilesharingsystem.Exception.CompressionOverloadedException;
+import peerlinkfilesharingsystem.Exception.StorageQuotaExceededException;
+import peerlinkfilesharingsystem.Exception.UnauthorizedFileAccessException;
+import peerlinkfilesharingsystem.Exception.UploadRateLimitedException;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Service.DeltaUploadService.DeltaUploadService;
 import peerlinkfilesharingsystem.Service.FileUploadService.FileUploadService;
+import peerlinkfilesharingsystem.Service.InstantUploadService.InstantUploadService;
+import peerlinkfilesharingsystem.Service.RawUploadService.RawUploadService;
+import peerlinkfilesharingsystem.Service.TransferStatusService.TransferStatusService;
+import peerlinkfilesharingsystem.Service.UploadFinalizationService.UploadFinalizationService;
+import peerlinkfilesharingsystem.Service.UploadSessionService.UploadSessionService;
 
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/files")
@@ -18,17 +46,43 @@ import java.util.UUID;
 public class UploadController {
 
     private FileUploadService fileUploadService;
-    public UploadController(FileUploadService fileUploadService) {
+    private UploadSessionService uploadSessionService;
+    private InstantUploadService instantUploadService;
+    private DeltaUploadService deltaUploadService;
+    private UploadFinalizationService uploadFinalizationService;
+    private TransferStatusService transferStatusService;
+    private RawUploadService rawUploadService;
+
+    @Value("${upload.raw.timeout-ms:3600000}")
+    private long rawUploadTimeoutMs;
+
+    public UploadController(FileUploadService fileUploadService, UploadSessionService uploadSessionService,
+                            InstantUploadService instantUploadService, DeltaUploadService deltaUploadService,
+                            UploadFinalizationService uploadFinalizationService,
+                            TransferStatusService transferStatusService,
+                            RawUploadService rawUploadService) {
         this.fileUploadService = fileUploadService;
+        this.uploadSessionService = uploadSessionService;
+        this.instantUploadService = instantUploadService;
+        this.deltaUploadService = deltaUploadService;
+        this.uploadFinalizationService = uploadFinalizationService;
+        this.transferStatusService = transferStatusService;
+        this.rawUploadService = rawUploadService;
     }
 
+    /**
+     * With "Prefer: respond-async" the upload is answered 202 as soon as its bytes
+     * are on disk; Location points at the transfer status to poll.
+     */
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public FileUploadResponse uploadFile(
             @RequestPart(value = "file", required = true) MultipartFile file,
             @RequestHeader(value = "X-Network-Speed", defaultValue = "50.0") Double networkSpeedMbps,
             @RequestHeader(value = "X-Latency-Ms", defaultValue = "50") Integer latencyMs,
             @RequestHeader(value = "X-Device-Type", defaultValue = "DESKTOP") String deviceType,
-            HttpServletRequest request) {
+            @RequestHeader(value = "Prefer", required = false) String prefer,
+            HttpServletRequest request,
+            HttpServletResponse response) {
 
         String clientIp = request.getRemoteAddr();
         String correlationId = UUID.randomUUID().toString();
@@ -56,12 +110,34 @@ public class UploadController {
                 ).getBody();
             }
                 log.info("=== NEW UPLOAD DETECTED ===");
+            if (respondAsync(prefer)) {
+                FileTransferEntity received = fileUploadService.receiveFile(
+                        file, latencyMs, networkSpeedMbps, deviceType, clientIp);
+                if (received == null) {
+                    response.setStatus(HttpStatus.UNAUTHORIZED.value());
+                    return FileUploadResponse.builder()
+                            .success(false)
+                            .message("Upload failed: Invalid Access")
+                            .build();
+                }
+                response.setStatus(HttpStatus.ACCEPTED.value());
+                response.setHeader(HttpHeaders.LOCATION, statusLocation(received.getTransferId()));
+                return uploadFinalizationService.finalizeInBackground(received);
+            }
             FileUploadResponse fileUploadResponse  = fileUploadService.handleFile(
                     file, latencyMs, networkSpeedMbps, deviceType, clientIp);
             if (fileUploadResponse ==  null) {
                 return (FileUploadResponse) ResponseEntity.status(HttpStatus.UNAUTHORIZED);
             }
                 return ResponseEntity.ok(fileUploadResponse).getBody();
+        }catch (CompressionOverloadedException e){
+            log.warn("[{}] Upload rejected - {}", correlationId, e.getMessage());
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            return FileUploadResponse.builder()
+                    .success(false)
+                    .message("Upload failed: " + e.getMessage())
+                    .build();
         }catch (Exception e){
             log.error("Error uploading file", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(
@@ -74,6 +150,68 @@ public class UploadController {
 
     }
 
+    /**
+     * Single-shot upload of a raw body with a Content-Length. The body is read with
+     * non-blocking servlet I/O straight into the staging file, so a slow client holds
+     * no thread while its bytes trickle in. Answers 200 once the upload is stored, or
+     * 202 with a status Location as soon as the bytes are on disk under
+     * "Prefer: respond-async".
+     */
+    @PutMapping(value = "/upload/raw", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public DeferredResult<ResponseEntity<?>> uploadRaw(
+            @RequestHeader(value = "X-File-Name") String fileName,
+            @RequestHeader(value = "X-Network-Speed", defaultValue = "50.0") Double networkSpeedMbps,
+            @RequestHeader(value = "X-Latency-Ms", defaultValue = "50") Integer latencyMs,
+            @RequestHeader(value = "X-Device-Type", defaultValue = "DESKTOP") String deviceType,
+            @RequestHeader(value = "Prefer", required = false) String prefer,
+            HttpServletRequest request) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(rawUploadTimeoutMs);
+        long contentLength = request.getContentLengthLong();
+        log.info("Raw upload started - File: {}, Size: {} bytes, IP: {}", fileName, contentLength, request.getRemoteAddr());
+        if (contentLength <= 0) {
+            result.setResult(ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).body(
+                    FileUploadResponse.builder()
+                            .success(false)
+                            .message("Upload failed: Content-Length is required and can't be 0")
+                            .build()));
+            return result;
+        }
+        if (contentLength > 10 * 1024 * 1024 * 1024L) {
+            result.setResult(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(
+                    FileUploadResponse.builder()
+                            .success(false)
+                            .message("Upload failed: File Size Exceeded")
+                            .build()));
+            return result;
+        }
+
+        try {
+            FileTransferEntity transfer = fileUploadService.beginStagedUpload(
+                    fileName, contentLength, latencyMs, networkSpeedMbps, deviceType, request.getRemoteAddr());
+            if (transfer == null) {
+                result.setResult(ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(
+                        FileUploadResponse.builder()
+                                .success(false)
+                                .message("Upload failed: Invalid Access")
+                                .build()));
+                return result;
+            }
+            boolean async = respondAsync(prefer);
+            rawUploadService.receive(request, transfer)
+                    .thenCompose(received -> async
+                            ? CompletableFuture.completedFuture(ResponseEntity.accepted()
+                                    .header(HttpHeaders.LOCATION, statusLocation(received.getTransferId()))
+                                    .body(uploadFinalizationService.finalizeInBackground(received)))
+                            : uploadFinalizationService.finalizeOnWorker(received).thenApply(ResponseEntity::ok))
+                    .whenComplete((response, error) -> result.setResult(error == null
+                            ? response
+                            : uploadErrorResponse("Raw upload failed", unwrap(error))));
+        } catch (Exception e) {
+            result.setResult(uploadErrorResponse("Raw upload failed", e));
+        }
+        return result;
+    }
+
     @GetMapping("/history")
     public ResponseEntity<?> getTransferHistory(
             @RequestParam(defaultValue = "10") Integer limit) {
@@ -85,12 +223,245 @@ public class UploadController {
         }
     }
 
+    /**
+     * Instant upload: hash and size first. The answer is always a proof-of-possession
+     * challenge; a refused proof (403) means the file must be uploaded normally.
+     */
+    @PostMapping("/upload/instant")
+    public ResponseEntity<?> requestInstantUpload(
+            @RequestBody InstantUploadRequest instantRequest,
+            @RequestHeader(value = "X-Network-Speed", defaultValue = "50.0") Double networkSpeedMbps,
+            @RequestHeader(value = "X-Latency-Ms", defaultValue = "50") Integer latencyMs,
+            @RequestHeader(value = "X-Device-Type", defaultValue = "DESKTOP") String deviceType,
+            HttpServletRequest request) {
+        try {
+            InstantUploadResponse response = instantUploadService.requestInstantUpload(
+                    instantRequest, latencyMs, networkSpeedMbps, deviceType, request.getRemoteAddr());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return uploadErrorResponse("Instant upload check failed", e);
+        }
+    }
+
+    @PostMapping("/upload/instant/{challengeId}")
+    public ResponseEntity<?> completeInstantUpload(
+            @PathVariable String challengeId,
+            @RequestBody InstantUploadProof proof) {
+        try {
+            return ResponseEntity.ok(instantUploadService.completeInstantUpload(challengeId, proof.getRangeHash()));
+        } catch (Exception e) {
+            return uploadErrorResponse("Instant upload failed", e);
+        }
+    }
+
+    /**
+     * Resumable upload: create a session, PUT chunks (any order, in parallel),
+     * GET the session to see which chunks are missing, then commit.
+     */
+    @PostMapping("/upload/sessions")
+    public ResponseEntity<?> createUploadSession(
+            @RequestBody UploadSessionRequest sessionRequest,
+            @RequestHeader(value = "X-Network-Speed", defaultValue = "50.0") Double networkSpeedMbps,
+            @RequestHeader(value = "X-Latency-Ms", defaultValue = "50") Integer latencyMs,
+            @RequestHeader(value = "X-Device-Type", defaultValue = "DESKTOP") String deviceType,
+            HttpServletRequest request) {
+        try {
+            UploadSessionResponse response = uploadSessionService.createSession(
+                    sessionRequest, latencyMs, networkSpeedMbps, deviceType, request.getRemoteAddr());
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (Exception e) {
+            return uploadErrorResponse("Upload session could not be created", e);
+        }
+    }
+
+    @PutMapping(value = "/upload/sessions/{transferId}/chunks/{chunkIndex}",
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String transferId,
+            @PathVariable int chunkIndex,
+            HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(uploadSessionService.writeChunk(
+                    transferId, chunkIndex, request.getInputStream(), request.getContentLengthLong()));
+        } catch (Exception e) {
+            return uploadErrorResponse("Chunk " + chunkIndex + " of " + transferId + " failed", e);
+        }
+    }
+
+    @GetMapping("/upload/sessions/{transferId}")
+    public ResponseEntity<?> getUploadSession(@PathVariable String transferId) {
+        try {
+            return ResponseEntity.ok(uploadSessionService.getSessionStatus(transferId));
+        } catch (Exception e) {
+            return uploadErrorResponse("Upload session lookup failed", e);
+        }
+    }
+
+    @PostMapping("/upload/sessions/{transferId}/commit")
+    public ResponseEntity<?> commitUploadSession(
+            @PathVariable String transferId,
+            @RequestHeader(value = "Prefer", required = false) String prefer) {
+        try {
+            if (respondAsync(prefer)) {
+                return ResponseEntity.accepted()
+                        .header(HttpHeaders.LOCATION, statusLocation(transferId))
+                        .body(uploadSessionService.commitSession(transferId, true));
+            }
+            return ResponseEntity.ok(uploadSessionService.commitSession(transferId, false));
+        } catch (Exception e) {
+            return uploadErrorResponse("Upload session commit failed", e);
+        }
+    }
+
+    @DeleteMapping("/upload/sessions/{transferId}")
+    public ResponseEntity<?> abortUploadSession(@PathVariable String transferId) {
+        try {
+            uploadSessionService.abortSession(transferId);
+            return ResponseEntity.noContent().build();
+        } catch (Exception e) {
+            return uploadErrorResponse("Upload session abort failed", e);
+        }
+    }
+
+    /**
+     * Delta upload, step 1: block signatures of the base version - given by transfer id,
+     * or the latest upload with the same file name. The base actually used comes back in
+     * X-Base-Transfer-Id.
+     */
+    @GetMapping("/upload/delta/signatures")
+    public ResponseEntity<?> getDeltaSignatures(
+            @RequestParam(required = false) String baseTransferId,
+            @RequestParam(required = false) String fileName) {
+        try {
+            FileTransferEntity base = deltaUploadService.resolveBase(baseTransferId, fileName);
+            StreamingResponseBody body = out -> deltaUploadService.writeSignatures(base, out);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .header("X-Base-Transfer-Id", base.getTransferId())
+                    .header("X-Delta-Block-Size", String.valueOf(deltaUploadService.signatureBlockSize(base)))
+                    .body(body);
+        } catch (Exception e) {
+            return uploadErrorResponse("Delta signatures failed", e);
+        }
+    }
+
+    /**
+     * Delta upload, step 2: literal bytes and base block references. The new version is
+     * rebuilt, verified against its announced SHA-256 and stored as a new transfer.
+     */
+    @PostMapping(value = "/upload/delta/{baseTransferId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadDelta(
+            @PathVariable String baseTransferId,
+            @RequestHeader(value = "X-File-Name", required = false) String fileName,
+            @RequestHeader(value = "X-Network-Speed", defaultValue = "50.0") Double networkSpeedMbps,
+            @RequestHeader(value = "X-Latency-Ms", defaultValue = "50") Integer latencyMs,
+            @RequestHeader(value = "X-Device-Type", defaultValue = "DESKTOP") String deviceType,
+            HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(deltaUploadService.applyDelta(baseTransferId, request.getInputStream(),
+                    fileName, latencyMs, networkSpeedMbps, deviceType, request.getRemoteAddr()));
+        } catch (Exception e) {
+            return uploadErrorResponse("Delta upload failed", e);
+        }
+    }
 
+    /**
+     * Where an upload stands: UPLOADING, RECEIVED, COMPRESSING, COMPLETED or FAILED,
+     * with the compression progress while it runs.
+     */
+    @GetMapping("/transfers/{transferId}/status")
+    public ResponseEntity<?> getTransferStatus(@PathVariable String transferId) {
+        try {
+            return ResponseEntity.ok(transferStatusService.getStatus(transferId));
+        } catch (Exception e) {
+            return uploadErrorResponse("Transfer status lookup failed", e);
+        }
+    }
 
+    /**
+     * The same as a Server-Sent Events stream: "status" on every state change,
+     * "progress" while compressing; closed once the transfer is finished.
+     */
+    @GetMapping(value = "/transfers/{transferId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> followTransfer(@PathVariable String transferId) {
+        try {
+            return ResponseEntity.ok(transferStatusService.follow(transferId));
+        } catch (UnauthorizedFileAccessException e) {
+            log.warn("Transfer events refused: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (Exception e) {
+            log.error("Transfer events failed", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
 
+    // RFC 7240: the client would rather get 202 now than wait for compression
+    private static boolean respondAsync(String prefer) {
+        return prefer != null && prefer.toLowerCase().contains("respond-async");
+    }
 
+    private static Exception unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof UncheckedIOException unchecked) {
+            return unchecked.getCause();
+        }
+        return cause instanceof Exception exception ? exception : new RuntimeException(cause);
+    }
 
+    private static String statusLocation(String transferId) {
+        return "/files/transfers/" + transferId + "/status";
+    }
 
+    private ResponseEntity<?> uploadErrorResponse(String context, Exception e) {
+        HttpStatus status;
+        String errorCode;
+        if (e instanceof UnauthorizedFileAccessException) {
+            status = HttpStatus.FORBIDDEN;
+            errorCode = "ACCESS_DENIED";
+        } else if (e instanceof CompressionOverloadedException) {
+            status = HttpStatus.SERVICE_UNAVAILABLE;
+            errorCode = "COMPRESSION_OVERLOADED";
+        } else if (e instanceof StorageQuotaExceededException) {
+            status = HttpStatus.INSUFFICIENT_STORAGE;
+            errorCode = "INSUFFICIENT_STORAGE";
+        } else if (e instanceof UploadRateLimitedException) {
+            status = HttpStatus.TOO_MANY_REQUESTS;
+            errorCode = "TOO_MANY_REQUESTS";
+        } else if (e instanceof TimeoutException) {
+            status = HttpStatus.REQUEST_TIMEOUT;
+            errorCode = "UPLOAD_TIMEOUT";
+        } else if (e instanceof IllegalStateException) {
+            status = HttpStatus.CONFLICT;
+            errorCode = "UPLOAD_CONFLICT";
+        } else if (e instanceof IllegalArgumentException) {
+            status = HttpStatus.BAD_REQUEST;
+            errorCode = "INVALID_UPLOAD_REQUEST";
+        } else {
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+            errorCode = "UPLOAD_ERROR";
+        }
+        if (status.is5xxServerError()) {
+            log.error(context, e);
+        } else {
+            log.warn("{}: {}", context, e.getMessage());
+        }
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("error", errorCode);
+        errorResponse.put("message", context + ": " + e.getMessage());
+        if (e instanceof CompressionOverloadedException overloaded) {
+            return ResponseEntity.status(status)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(overloaded.getRetryAfterSeconds()))
+                    .body(errorResponse);
+        }
+        if (e instanceof UploadRateLimitedException limited) {
+            return ResponseEntity.status(status)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(limited.getRetryAfterSeconds()))
+                    .body(errorResponse);
+        }
+        return ResponseEntity.status(status).body(errorResponse);
+    }
 
 }
-
@@ -17,6 +17,7 @@ import java.time.LocalDateTime;
         private Long fileSizeBytes;
         private Long compressedSizeBytes;
         private String compressionRatioPercent;
+        private String appliedCodec;
         private Integer appliedCompressionLevel;
         private Integer appliedChunkSize;
         private Boolean success;
@@ -0,0 +1,15 @@
+package peerlinkfilesharingsystem.Dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class InstantUploadProof {
+    // SHA-256 of the decoded nonce followed by bytes [proofOffset, proofOffset + proofLength) of the file, hex
+    private String rangeHash;
+}
@@ -0,0 +1,17 @@
+package peerlinkfilesharingsystem.Dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class InstantUploadRequest {
+    private String fileName;
+    private Long fileSize;
+    // SHA-256 of the whole file, hex
+    private String contentHash;
+}
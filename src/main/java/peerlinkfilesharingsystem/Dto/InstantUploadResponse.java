@@ -0,0 +1,22 @@
+package peerlinkfilesharingsystem.Dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class InstantUploadResponse {
+    private String challengeId;
+    // Hex; the proof is computed over these bytes followed by the range
+    private String nonce;
+    private Long proofOffset;
+    private Integer proofLength;
+    private LocalDateTime expiresAt;
+    private String message;
+}
@@ -0,0 +1,26 @@
+package peerlinkfilesharingsystem.Dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TransferStatusResponse {
+    private String transferId;
+    private String fileName;
+    private String status;
+    private Long fileSizeBytes;
+    private Long bytesProcessed;
+    private Integer progressPercent;
+    private Long compressedSizeBytes;
+    private String appliedCodec;
+    private String message;
+    private LocalDateTime completedAt;
+    private LocalDateTime updatedAt;
+}
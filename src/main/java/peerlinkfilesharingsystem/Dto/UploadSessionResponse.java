@@ -0,0 +1,27 @@
+package peerlinkfilesharingsystem.Dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadSessionResponse {
+    private String transferId;
+    private String fileName;
+    private Long fileSizeBytes;
+    private Integer chunkSize;
+    private Integer totalChunks;
+    private Integer receivedChunks;
+    private List<Integer> missingChunks;
+    private String status;
+    private LocalDateTime expiresAt;
+    private Boolean success;
+    private String message;
+}
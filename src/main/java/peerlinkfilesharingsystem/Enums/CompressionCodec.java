@@ -0,0 +1,10 @@
+package peerlinkfilesharingsystem.Enums;
+
+public enum CompressionCodec {
+    STORE,          // Raw bytes, no compression
+    GZIP,           // Deflate at the predicted level (1-9)
+    GZIP_HUFFMAN,   // Huffman-only deflate - cheapest pass that still shrinks data
+    CDC,            // Content-defined chunks in the shared chunk store; the file itself is a manifest
+    DELTA,          // GZIP'd rsync delta against another stored blob (the previous version)
+    DEFLATE_DICT    // zlib deflate primed with the file type's preset dictionary - small text files
+}
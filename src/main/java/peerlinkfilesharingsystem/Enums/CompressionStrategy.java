@@ -0,0 +1,8 @@
+package peerlinkfilesharingsystem.Enums;
+
+public enum CompressionStrategy {
+    SKIP,   // Already compressed - level 1
+    HIGH,   // Text/code - level 6-9
+    MEDIUM, // Images/PDFs - level 3-6
+    LOW     // Unknown - level 2-4
+}
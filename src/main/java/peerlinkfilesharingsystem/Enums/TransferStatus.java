@@ -0,0 +1,43 @@
+package peerlinkfilesharingsystem.Enums;
+
+/**
+ * Lifecycle of a FileTransferEntity. Only the moves in {@link #canMoveTo} are
+ * allowed; rows written before the status was tracked have none and may move
+ * anywhere.
+ */
+public enum TransferStatus {
+    UPLOADING,      // Upload session open, chunks still arriving
+    RECEIVED,       // Every byte durably staged, waiting for compression
+    COMPRESSING,    // Being compressed and checksummed into the blob store
+    COMPLETED,      // Stored and downloadable
+    FAILED,         // Finalization failed; the transfer is cleaned up
+    EXPIRED;        // Past expiresAt, stored content released
+
+    public boolean canMoveTo(TransferStatus next) {
+        switch (this) {
+            case UPLOADING:
+                return next == RECEIVED || next == FAILED || next == EXPIRED;
+            case RECEIVED:
+                return next == COMPRESSING || next == FAILED || next == EXPIRED;
+            case COMPRESSING:
+                // Back to RECEIVED when the compression queue turned it away for now
+                return next == COMPLETED || next == RECEIVED || next == FAILED;
+            case COMPLETED:
+            case FAILED:
+                return next == EXPIRED;
+            default:
+                return false;
+        }
+    }
+
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED || this == EXPIRED;
+    }
+
+    /**
+     * True while the transfer's content is not stored yet, so it cannot be downloaded.
+     */
+    public static boolean isPending(TransferStatus status) {
+        return status == UPLOADING || status == RECEIVED || status == COMPRESSING;
+    }
+}
@@ -0,0 +1,21 @@
+package peerlinkfilesharingsystem.Exception;
+
+/**
+ * The compression queue cannot take another upload right now. Surfaced as
+ * 503 Service Unavailable with a Retry-After of retryAfterSeconds.
+ */
+public class CompressionOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public CompressionOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
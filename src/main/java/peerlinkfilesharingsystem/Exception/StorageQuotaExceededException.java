@@ -0,0 +1,14 @@
+package peerlinkfilesharingsystem.Exception;
+
+/**
+ * An upload would not fit: the user's storage quota or the server's disk is
+ * full. Surfaced as 507 Insufficient Storage.
+ */
+public class StorageQuotaExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StorageQuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,21 @@
+package peerlinkfilesharingsystem.Exception;
+
+/**
+ * The user has asked for more than their share of some upload step for now.
+ * Surfaced as 429 Too Many Requests with a Retry-After of retryAfterSeconds.
+ */
+public class UploadRateLimitedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public UploadRateLimitedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -4,14 +4,14 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import java.io.InputStream;
+import peerlinkfilesharingsystem.Service.FileDownloadService.StoredFileResource;
 
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class ChunkedDownloadResource {
-    private InputStream inputStream;
+    private StoredFileResource resource;
     private String fileName;
     private Long originalSizeBytes;
     private Long compressedSizeBytes;
@@ -0,0 +1,47 @@
+package peerlinkfilesharingsystem.Model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * One version of the preset deflate dictionary for a file type. Only the newest
+ * version of a type is active (used for new uploads); older versions are kept
+ * while stored blobs were compressed with them.
+ */
+@Entity
+@Table(name = "compression_dictionary", indexes = {
+        @Index(name = "idx_dictionary_filetype_version", columnList = "fileType, version", unique = true)
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CompressionDictionary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @Column(length = 50, nullable = false)
+    private String fileType;
+    @Column(nullable = false)
+    private Integer version;
+    // zlib DICTID (Adler-32 of content) - written into every stream compressed with it
+    @Column(nullable = false)
+    private Long dictId;
+    @Lob
+    @Column(columnDefinition = "MEDIUMBLOB", nullable = false)
+    private byte[] content;
+    private Integer sampleCount;
+    // Held-out samples: % smaller than deflate without a dictionary
+    private Double sampleGainPercent;
+    @Builder.Default
+    private Boolean active = true;
+    @CreationTimestamp
+    private LocalDateTime createdAt;
+}
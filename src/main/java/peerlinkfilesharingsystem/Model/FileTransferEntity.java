@@ -6,7 +6,9 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.hibernate.annotations.CreationTimestamp;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
 import peerlinkfilesharingsystem.Enums.MarkFileAs;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
 
 import java.time.LocalDateTime;
 import java.util.UUID;
@@ -27,8 +29,14 @@ public class FileTransferEntity {
     private Long fileSize;
     private String fileType;
     private Integer compressionLevel;
+    @Enumerated(EnumType.STRING)
+    private CompressionCodec codec;
     private Integer chunkSize;
     private Integer noOfChunksUploaded;
+    // Upload sessions: bit i set once chunk i is durably written (BitSet.toByteArray layout)
+    @Lob
+    @Column(columnDefinition = "MEDIUMBLOB")
+    private byte[] receivedChunks;
     private Double networkSpeedMbps;
     private Integer latencyMs;
     private Double packetLossPercentage;
@@ -44,9 +52,13 @@ public class FileTransferEntity {
     private LocalDateTime expiresAt;
     private UUID userId;
     private MarkFileAs markFileAs = MarkFileAs.PRIVATE;
-    private String status;
+    @Enumerated(EnumType.STRING)
+    private TransferStatus status;
     private LocalDateTime completedAt;
     private String storagePath;
+    // SHA-256 of the original bytes; set when storagePath is a shared blob (see StoredBlob)
+    @Column(length = 64)
+    private String contentHash;
     @Column(nullable = false)
     private String clientIp;
     private Boolean deleted = false;
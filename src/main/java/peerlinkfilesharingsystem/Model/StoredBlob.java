@@ -0,0 +1,55 @@
+package peerlinkfilesharingsystem.Model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+
+import java.time.LocalDateTime;
+
+/**
+ * One physical stored file, shared by every FileTransferEntity whose original
+ * bytes hash to contentHash (SHA-256, hex). Deleted when refCount drops to 0.
+ *
+ * A DELTA blob is stored as a delta against baseContentHash and holds one
+ * reference on that base; chainDepth counts the deltas down to a full blob.
+ * A DEFLATE_DICT blob records the CompressionDictionary it was compressed with.
+ * A STORE blob with a deferredCodec was stored raw because the compression queue
+ * was overloaded; it is compressed with that codec and level once the queue is idle.
+ */
+@Entity
+@Table(name = "stored_blob")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StoredBlob {
+
+    @Id
+    @Column(length = 64)
+    private String contentHash;
+    @Column(nullable = false)
+    private String storagePath;
+    @Enumerated(EnumType.STRING)
+    private CompressionCodec codec;
+    @Column(nullable = false)
+    private Long originalSize;
+    @Column(nullable = false)
+    private Long storedSize;
+    @Column(nullable = false)
+    private Integer refCount;
+    @Column(length = 64)
+    private String baseContentHash;
+    @Builder.Default
+    private Integer chainDepth = 0;
+    private Long dictionaryId;
+    @Enumerated(EnumType.STRING)
+    private CompressionCodec deferredCodec;
+    private Integer deferredCompressionLevel;
+    @CreationTimestamp
+    private LocalDateTime createdAt;
+    private LocalDateTime lastReferencedAt;
+}
@@ -0,0 +1,20 @@
+package peerlinkfilesharingsystem.Repo;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import peerlinkfilesharingsystem.Model.CompressionDictionary;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface CompressionDictionaryRepo extends JpaRepository<CompressionDictionary, Long> {
+
+    List<CompressionDictionary> findByActiveTrue();
+
+    Optional<CompressionDictionary> findFirstByFileTypeOrderByVersionDesc(String fileType);
+
+    Optional<CompressionDictionary> findFirstByDictId(Long dictId);
+
+    List<CompressionDictionary> findByFileTypeAndActiveFalse(String fileType);
+}
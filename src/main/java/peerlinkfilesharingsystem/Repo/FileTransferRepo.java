@@ -1,13 +1,18 @@
 package peerlinkfilesharingsystem.Repo;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
 import peerlinkfilesharingsystem.Model.FileTransferEntity;
 
 import java.io.File;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -35,12 +40,46 @@ public interface FileTransferRepo extends JpaRepository<FileTransferEntity,UUID>
 
     Optional<FileTransferEntity> findByTransferId(String transferId);
 
+    Optional<FileTransferEntity> findFirstByUserIdAndFileNameAndSuccessTrueAndDeletedFalseOrderByCompletedAtDesc(
+            UUID userId, String fileName);
+
     @Query("SELECT CASE WHEN COUNT(f) > 0 THEN true ELSE false END FROM FileShare f WHERE f.ShareId = :shareId")
     boolean checkShareId(@Param("shareId") Long shareId);
 
 
 
-    List<FileTransferEntity> findBySuccessFalseOrStatus(String failed);
+    List<FileTransferEntity> findBySuccessFalseOrStatus(TransferStatus failed);
+
+    List<FileTransferEntity> findByStatusInAndDeletedFalse(Collection<TransferStatus> statuses);
 
     List<FileTransferEntity> findByExpiresAtBeforeAndDeletedFalse(LocalDateTime now);
+
+    // Original bytes a user currently holds: every live transfer except those that failed or expired
+    @Query("SELECT COALESCE(SUM(f.fileSize), 0) FROM FileTransferEntity f WHERE f.userId = :userId " +
+            "AND f.deleted = false AND (f.status IS NULL OR f.status NOT IN :released)")
+    long sumHeldBytes(@Param("userId") UUID userId,
+                      @Param("released") Collection<TransferStatus> released);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileTransferEntity f SET f.receivedChunks = :receivedChunks, " +
+            "f.noOfChunksUploaded = :chunkCount WHERE f.transferId = :transferId")
+    int updateReceivedChunks(@Param("transferId") String transferId,
+                             @Param("receivedChunks") byte[] receivedChunks,
+                             @Param("chunkCount") Integer chunkCount);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileTransferEntity f SET f.codec = :codec, f.storagePath = :storagePath " +
+            "WHERE f.contentHash = :contentHash")
+    int updateStoredEncoding(@Param("contentHash") String contentHash,
+                             @Param("codec") CompressionCodec codec,
+                             @Param("storagePath") String storagePath);
+
+    List<FileTransferEntity> findTop2ByUserIdAndFileNameAndSuccessTrueAndDeletedFalseOrderByCompletedAtDesc(
+            UUID userId, String fileName);
+
+    // Recent small uploads of one type: the samples preset dictionaries are trained on
+    List<FileTransferEntity> findTop200ByFileTypeAndSuccessTrueAndDeletedFalseAndFileSizeLessThanEqualOrderByCompletedAtDesc(
+            String fileType, Long maxFileSize);
 }
@@ -0,0 +1,19 @@
+package peerlinkfilesharingsystem.Repo;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import peerlinkfilesharingsystem.Model.StoredBlob;
+
+import java.util.List;
+
+@Repository
+public interface StoredBlobRepo extends JpaRepository<StoredBlob, String> {
+
+    List<StoredBlob> findByBaseContentHash(String baseContentHash);
+
+    List<StoredBlob> findByChainDepthGreaterThanOrderByChainDepthAsc(Integer chainDepth);
+
+    boolean existsByDictionaryId(Long dictionaryId);
+
+    List<StoredBlob> findTop20ByDeferredCodecIsNotNullOrderByCreatedAtAsc();
+}
@@ -0,0 +1,740 @@
+package peerlinkfilesharingsystem.Service.BlobStoreService;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Model.StoredBlob;
+import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+import peerlinkfilesharingsystem.Repo.StoredBlobRepo;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.ChunkStoreService.ChunkStoreService;
+import peerlinkfilesharingsystem.Service.CompressionService.BlockIndex;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionPipeline;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionStats;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed storage under the upload directory.
+ *
+ * Every stored file lives once at blobs/ab/cd/<sha256> (plus its block index),
+ * no matter how many transfers point at it. Uploads are compressed into a
+ * staging file first; when the finished hash already has a blob the staging
+ * file is dropped and the existing blob gets one more reference. A blob is
+ * only deleted when its last reference is released.
+ *
+ * Reference changes and blob creation are serialised through this service so
+ * a concurrent upload and expiry of the same content cannot race.
+ *
+ * An in-memory hash -> size index mirrors the blob table, so "is this content
+ * stored?" is answered without a database round trip; only hits touch the DB.
+ *
+ * A CDC blob is a chunk manifest; deleting it hands its chunk references back
+ * to the {@link ChunkStoreService}. A blob can later be swapped between its full
+ * form and a DELTA against another blob, or from a raw STORE file written under
+ * load to its deferred compressed form; transfers pointing at it are updated in
+ * the same step.
+ *
+ * Every swap writes the new encoding under a new file name and retires the old
+ * file instead of deleting it; so does releasing the last reference. Downloads
+ * resolve a storage path once and then reopen it (per Range region, per
+ * backward COPY of a delta decoded against it), so the old file has to outlive
+ * them. Retired files are listed in blobs/retired.log and deleted after
+ * storage.blob.retired-grace-minutes, or at the next start, when nothing can be
+ * reading them.
+ */
+@Service
+@Slf4j
+public class BlobStoreService {
+
+    private static final String BLOB_DIRECTORY = "blobs";
+    private static final String STAGING_DIRECTORY = "tmp";
+    private static final int HASH_BUFFER_SIZE = 256 * 1024;
+    private static final String DELTA_SUFFIX = ".delta";
+    private static final String PACKED_SUFFIX = ".packed";
+    private static final String FULL_SUFFIX = ".full";
+    private static final String RETIRED_JOURNAL = "retired.log";
+
+    private final StoredBlobRepo storedBlobRepo;
+    private final ChunkStoreService chunkStoreService;
+    private final FileTransferRepo fileTransferRepo;
+    private final BufferPoolService bufferPoolService;
+    private final TransactionTemplate transactionTemplate;
+    @Value("${file.storage.path:./uploads}")
+    private String baseUploadDirectory;
+    @Value("${storage.blob.retired-grace-minutes:720}")
+    private long retiredGraceMinutes;
+
+    // contentHash -> original size of every stored blob
+    private final ConcurrentHashMap<String, Long> contentIndex = new ConcurrentHashMap<>();
+    // Serializes blob changes; a lock rather than synchronized so virtual threads can unmount during file and JDBC I/O
+    private final ReentrantLock lock = new ReentrantLock();
+    // Replaced encodings waiting out their grace period; guarded by lock
+    private final List<RetiredFile> retired = new ArrayList<>();
+    // storagePath -> open read leases; a leased retired file outlives its grace period
+    private final ConcurrentHashMap<String, Integer> readLeases = new ConcurrentHashMap<>();
+
+    public BlobStoreService(StoredBlobRepo storedBlobRepo, ChunkStoreService chunkStoreService,
+                            FileTransferRepo fileTransferRepo, BufferPoolService bufferPoolService,
+                            TransactionTemplate transactionTemplate) {
+        this.storedBlobRepo = storedBlobRepo;
+        this.chunkStoreService = chunkStoreService;
+        this.fileTransferRepo = fileTransferRepo;
+        this.bufferPoolService = bufferPoolService;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @PostConstruct
+    public void loadContentIndex() {
+        storedBlobRepo.findAll().forEach(blob -> contentIndex.put(blob.getContentHash(), blob.getOriginalSize()));
+        log.info("Blob content index loaded: {} blobs", contentIndex.size());
+        deleteRetiredFromLastRun();
+    }
+
+    /**
+     * Memory-only check whether content with this hash and original size is stored.
+     */
+    public boolean isStored(String contentHash, long originalSize) {
+        Long storedSize = contentIndex.get(contentHash);
+        return storedSize != null && storedSize == originalSize;
+    }
+
+    /**
+     * Where an upload is compressed to before its hash is known. Same file system
+     * as the blobs, so adopting it is a rename.
+     */
+    public String stagingPathFor(String transferId) throws IOException {
+        Path staging = Paths.get(baseUploadDirectory, BLOB_DIRECTORY, STAGING_DIRECTORY);
+        Files.createDirectories(staging);
+        return staging.resolve(transferId).toString();
+    }
+
+    /**
+     * Turns a finished staging file into a reference: either adopts it as a new blob
+     * or, when the content is already stored, deletes it and references the existing blob.
+     */
+    public StoredBlob storeOrReference(String stagingPath, CompressionStats stats) throws IOException {
+        return storeOrReference(stagingPath, stats, null);
+    }
+
+    /**
+     * {@link #storeOrReference(String, CompressionStats)} that also records the blob's
+     * hash on the holder transfer and saves it in the transaction that takes the reference.
+     * A transfer with a saved contentHash therefore always holds exactly one
+     * reference, which is what lets an interrupted finalization resume without
+     * taking another. A new blob's file is on disk before its row is written.
+     */
+    public StoredBlob storeOrReference(String stagingPath, CompressionStats stats,
+                                       FileTransferEntity holder) throws IOException {
+        lock.lock();
+        try {
+            String contentHash = stats.getContentHash();
+            StoredBlob existing = referenceExisting(contentHash, holder);
+            if (existing != null) {
+                deleteFiles(stagingPath, stats.getCodec());
+                log.info("Deduplicated upload → blob {} ({} references, {} MB not stored again)",
+                        contentHash, existing.getRefCount(), stats.getBytesWritten() / 1024 / 1024);
+                return existing;
+            }
+
+            Path blobPath = blobPathFor(contentHash);
+            Files.createDirectories(blobPath.getParent());
+            if (Files.exists(blobPath)) {
+                // A released earlier copy of this content is still in its grace period
+                blobPath = newEncodingPath(contentHash, "");
+            }
+            Path stagingIndex = Paths.get(BlockIndex.indexPathFor(stagingPath));
+            if (Files.exists(stagingIndex)) {
+                Files.move(stagingIndex, Paths.get(BlockIndex.indexPathFor(blobPath.toString())),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(Paths.get(stagingPath), blobPath, StandardCopyOption.REPLACE_EXISTING);
+            forceToDisk(blobPath);
+
+            StoredBlob blob = StoredBlob.builder()
+                    .contentHash(contentHash)
+                    .storagePath(blobPath.toString())
+                    .codec(stats.getCodec())
+                    .originalSize(stats.getBytesRead())
+                    .storedSize(stats.getBytesWritten())
+                    .refCount(1)
+                    .dictionaryId(stats.getDictionaryId())
+                    .lastReferencedAt(LocalDateTime.now())
+                    .build();
+            transactionTemplate.executeWithoutResult(status -> {
+                storedBlobRepo.save(blob);
+                recordHolder(holder, blob);
+            });
+            contentIndex.put(contentHash, blob.getOriginalSize());
+            log.info("New blob stored: {} ({} MB)", contentHash, stats.getBytesWritten() / 1024 / 1024);
+            return blob;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The stored blob for a hash without taking a reference, or null.
+     */
+    public StoredBlob findBlob(String contentHash) {
+        if (!contentIndex.containsKey(contentHash)) {
+            return null;
+        }
+        return storedBlobRepo.findById(contentHash).orElse(null);
+    }
+
+    /**
+     * The dictionary recorded for the blob whose current file is storagePath, or null
+     * for a retired encoding, a file outside the blob tree or a blob without one.
+     */
+    public Long findDictionaryId(String storagePath) {
+        // Every blob file name starts with its content hash
+        String fileName = Paths.get(storagePath).getFileName().toString();
+        if (fileName.length() < 64) {
+            return null;
+        }
+        StoredBlob blob = findBlob(fileName.substring(0, 64));
+        return blob != null && storagePath.equals(blob.getStoragePath()) ? blob.getDictionaryId() : null;
+    }
+
+    /**
+     * Adds a reference to an already stored blob, or returns null when the content
+     * is not stored (or its file has gone missing).
+     */
+    public StoredBlob referenceExisting(String contentHash) {
+        return referenceExisting(contentHash, null);
+    }
+
+    /**
+     * {@link #referenceExisting(String)} that saves the blob's hash on the holder
+     * transfer in the same transaction as the new reference.
+     */
+    public StoredBlob referenceExisting(String contentHash, FileTransferEntity holder) {
+        lock.lock();
+        try {
+            if (!contentIndex.containsKey(contentHash)) {
+                return null;
+            }
+            Optional<StoredBlob> blobOpt = storedBlobRepo.findById(contentHash);
+            if (blobOpt.isEmpty()) {
+                return null;
+            }
+            StoredBlob blob = blobOpt.get();
+            if (!new File(blob.getStoragePath()).isFile()) {
+                log.warn("Blob {} is missing on disk - dropping its record", contentHash);
+                storedBlobRepo.delete(blob);
+                contentIndex.remove(contentHash);
+                return null;
+            }
+            blob.setRefCount(blob.getRefCount() + 1);
+            blob.setLastReferencedAt(LocalDateTime.now());
+            return transactionTemplate.execute(status -> {
+                StoredBlob saved = storedBlobRepo.save(blob);
+                recordHolder(holder, saved);
+                return saved;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops one reference; the blob file and its index are retired with the last one.
+     * A delta decoded against this blob may still be reopening it.
+     *
+     * @return true when the last reference was released
+     */
+    public boolean release(String contentHash) {
+        return release(contentHash, null, false);
+    }
+
+    /**
+     * {@link #release(String)} that clears the hash on the holder transfer - or deletes
+     * the holder row - in the same transaction as the dropped reference, so a crash
+     * cannot leave a row that would release it a second time.
+     */
+    public boolean release(String contentHash, FileTransferEntity holder, boolean deleteHolder) {
+        lock.lock();
+        try {
+            List<StoredBlob> removed = transactionTemplate.execute(status -> {
+                List<StoredBlob> lastReleased = new ArrayList<>();
+                dropReference(contentHash, lastReleased);
+                releaseHolder(holder, deleteHolder);
+                return lastReleased;
+            });
+
+            // Only after the commit: a rolled back release must leave the files in place
+            for (StoredBlob blob : removed) {
+                contentIndex.remove(blob.getContentHash());
+                retire(blob.getStoragePath(), blob.getCodec());
+                log.info("Last reference released - blob {} removed", blob.getContentHash());
+            }
+            return !removed.isEmpty() && removed.get(0).getContentHash().equals(contentHash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called in a transaction; a delta's base loses its reference along with the delta.
+     */
+    private void dropReference(String contentHash, List<StoredBlob> lastReleased) {
+        Optional<StoredBlob> blobOpt = storedBlobRepo.findById(contentHash);
+        if (blobOpt.isEmpty()) {
+            log.warn("Release of unknown blob {}", contentHash);
+            return;
+        }
+        StoredBlob blob = blobOpt.get();
+        int remaining = blob.getRefCount() - 1;
+        if (remaining > 0) {
+            blob.setRefCount(remaining);
+            storedBlobRepo.save(blob);
+            log.info("Released blob {} → {} references left", contentHash, remaining);
+            return;
+        }
+
+        storedBlobRepo.delete(blob);
+        lastReleased.add(blob);
+        if (blob.getCodec() == CompressionCodec.DELTA && blob.getBaseContentHash() != null) {
+            dropReference(blob.getBaseContentHash(), lastReleased);
+        }
+    }
+
+    /**
+     * Replaces a full blob's file with a delta against baseContentHash, taking a
+     * reference on the base.
+     *
+     * @return false when either blob is gone or the blob is a delta already
+     */
+    public boolean replaceWithDelta(String contentHash, String deltaStagingPath,
+                                    String baseContentHash) throws IOException {
+        lock.lock();
+        try {
+            StoredBlob blob = storedBlobRepo.findById(contentHash).orElse(null);
+            if (blob == null || blob.getCodec() == CompressionCodec.DELTA || blob.getCodec() == CompressionCodec.CDC
+                    || chainContains(baseContentHash, contentHash)) {
+                return false;
+            }
+            StoredBlob base = referenceExisting(baseContentHash);
+            if (base == null) {
+                return false;
+            }
+
+            Path deltaPath = newEncodingPath(contentHash, DELTA_SUFFIX);
+            Files.move(Paths.get(deltaStagingPath), deltaPath);
+            forceToDisk(deltaPath);
+            String oldPath = blob.getStoragePath();
+            CompressionCodec oldCodec = blob.getCodec();
+            long oldSize = blob.getStoredSize();
+
+            blob.setStoragePath(deltaPath.toString());
+            blob.setCodec(CompressionCodec.DELTA);
+            blob.setStoredSize(Files.size(deltaPath));
+            blob.setBaseContentHash(baseContentHash);
+            blob.setChainDepth(base.getChainDepth() + 1);
+            blob.setDeferredCodec(null);
+            blob.setDeferredCompressionLevel(null);
+            storedBlobRepo.save(blob);
+            fileTransferRepo.updateStoredEncoding(contentHash, CompressionCodec.DELTA, deltaPath.toString());
+            retire(oldPath, oldCodec);
+
+            log.info("Blob {} stored as delta against {} (depth {}): {} KB → {} KB",
+                    contentHash, baseContentHash, blob.getChainDepth(), oldSize / 1024, blob.getStoredSize() / 1024);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces a delta blob with a full encoding of the same content (rebasing),
+     * releasing its base. Deltas stacked on it get shallower by its old depth.
+     */
+    public boolean replaceWithFull(String contentHash, String stagingPath,
+                                   CompressionStats stats) throws IOException {
+        lock.lock();
+        try {
+            StoredBlob blob = storedBlobRepo.findById(contentHash).orElse(null);
+            if (blob == null || blob.getCodec() != CompressionCodec.DELTA || !contentHash.equals(stats.getContentHash())) {
+                return false;
+            }
+
+            Path blobPath = newEncodingPath(contentHash, FULL_SUFFIX);
+            Path stagingIndex = Paths.get(BlockIndex.indexPathFor(stagingPath));
+            if (Files.exists(stagingIndex)) {
+                Files.move(stagingIndex, Paths.get(BlockIndex.indexPathFor(blobPath.toString())));
+            }
+            Files.move(Paths.get(stagingPath), blobPath);
+            forceToDisk(blobPath);
+            String deltaPath = blob.getStoragePath();
+            String baseContentHash = blob.getBaseContentHash();
+            int oldDepth = blob.getChainDepth();
+
+            blob.setStoragePath(blobPath.toString());
+            blob.setCodec(stats.getCodec());
+            blob.setStoredSize(stats.getBytesWritten());
+            blob.setBaseContentHash(null);
+            blob.setChainDepth(0);
+            storedBlobRepo.save(blob);
+            fileTransferRepo.updateStoredEncoding(contentHash, stats.getCodec(), blobPath.toString());
+            retire(deltaPath, CompressionCodec.DELTA);
+            shiftChainDepth(contentHash, -oldDepth);
+            if (baseContentHash != null) {
+                release(baseContentHash);
+            }
+
+            log.info("Delta blob {} rebased to a full {} blob ({} KB)", contentHash, stats.getCodec(),
+                    stats.getBytesWritten() / 1024);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a raw STORE blob as waiting for compression with the given codec and level.
+     */
+    public void deferCompression(String contentHash, CompressionCodec codec, int compressionLevel) {
+        lock.lock();
+        try {
+            StoredBlob blob = storedBlobRepo.findById(contentHash).orElse(null);
+            if (blob == null || blob.getCodec() != CompressionCodec.STORE) {
+                return;
+            }
+            blob.setDeferredCodec(codec);
+            blob.setDeferredCompressionLevel(compressionLevel);
+            storedBlobRepo.save(blob);
+            log.info("Blob {} stored raw - {} level {} deferred until the compression queue is idle",
+                    contentHash, codec, compressionLevel);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces a raw blob whose compression was deferred with its compressed form.
+     * The compressed file gets its own name and the raw file is retired, so a
+     * download that already resolved the raw path (or read the old codec) finishes
+     * on the raw bytes, whether it opens them now or for a later Range region.
+     *
+     * @return false when the blob is gone or no longer waiting for compression
+     */
+    public boolean replaceDeferred(String contentHash, String stagingPath,
+                                   CompressionStats stats) throws IOException {
+        lock.lock();
+        try {
+            StoredBlob blob = storedBlobRepo.findById(contentHash).orElse(null);
+            if (blob == null || blob.getCodec() != CompressionCodec.STORE || blob.getDeferredCodec() == null
+                    || !contentHash.equals(stats.getContentHash())) {
+                return false;
+            }
+
+            Path packedPath = newEncodingPath(contentHash, PACKED_SUFFIX);
+            Path stagingIndex = Paths.get(BlockIndex.indexPathFor(stagingPath));
+            if (Files.exists(stagingIndex)) {
+                Files.move(stagingIndex, Paths.get(BlockIndex.indexPathFor(packedPath.toString())));
+            }
+            Files.move(Paths.get(stagingPath), packedPath);
+            forceToDisk(packedPath);
+            String rawPath = blob.getStoragePath();
+
+            blob.setStoragePath(packedPath.toString());
+            blob.setCodec(stats.getCodec());
+            blob.setStoredSize(stats.getBytesWritten());
+            blob.setDictionaryId(stats.getDictionaryId());
+            blob.setDeferredCodec(null);
+            blob.setDeferredCompressionLevel(null);
+            storedBlobRepo.save(blob);
+            fileTransferRepo.updateStoredEncoding(contentHash, stats.getCodec(), packedPath.toString());
+            retire(rawPath, CompressionCodec.STORE);
+
+            log.info("Deferred compression of blob {} done: {} KB raw → {} KB {}", contentHash,
+                    blob.getOriginalSize() / 1024, stats.getBytesWritten() / 1024, stats.getCodec());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes a staging file that was not adopted as a blob, handing back the
+     * chunk references of a CDC manifest.
+     */
+    public void discardStaging(String stagingPath, CompressionCodec codec) {
+        deleteFiles(stagingPath, codec);
+    }
+
+    /**
+     * Points a transfer at where its content lives now. The blob is the source of
+     * truth: delta conversion and rebasing move it after the transfer was written.
+     */
+    public void syncStoredEncoding(FileTransferEntity transfer) {
+        if (transfer.getContentHash() == null) {
+            return;
+        }
+        StoredBlob blob = findBlob(transfer.getContentHash());
+        if (blob != null) {
+            transfer.setStoragePath(blob.getStoragePath());
+            transfer.setCodec(blob.getCodec());
+        }
+    }
+
+    private boolean chainContains(String fromContentHash, String contentHash) {
+        String current = fromContentHash;
+        while (current != null) {
+            if (current.equals(contentHash)) {
+                return true;
+            }
+            current = storedBlobRepo.findById(current).map(StoredBlob::getBaseContentHash).orElse(null);
+        }
+        return false;
+    }
+
+    private void shiftChainDepth(String baseContentHash, int delta) {
+        for (StoredBlob dependent : storedBlobRepo.findByBaseContentHash(baseContentHash)) {
+            dependent.setChainDepth(dependent.getChainDepth() + delta);
+            storedBlobRepo.save(dependent);
+            shiftChainDepth(dependent.getContentHash(), delta);
+        }
+    }
+
+    /**
+     * SHA-256 of a file's bytes, hex - the same key the compression pipeline produces.
+     */
+    public String hashFile(String path) throws IOException {
+        MessageDigest digest = CompressionPipeline.newContentDigest();
+        byte[] buffer = bufferPoolService.acquire(HASH_BUFFER_SIZE);
+        try (InputStream in = new FileInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer, 0, HASH_BUFFER_SIZE)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            bufferPoolService.release(buffer);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Keeps a blob file on disk until the lease is closed, even past the grace period
+     * should it be retired meanwhile. Held in memory only: a crash or a dropped request
+     * leaves nothing behind to leak.
+     */
+    public ReadLease leaseForRead(String storagePath) {
+        readLeases.merge(storagePath, 1, Integer::sum);
+        AtomicBoolean closed = new AtomicBoolean();
+        return () -> {
+            if (closed.compareAndSet(false, true)) {
+                readLeases.computeIfPresent(storagePath, (path, count) -> count > 1 ? count - 1 : null);
+            }
+        };
+    }
+
+    public interface ReadLease extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Deletes retired encodings whose grace period is over. A file that cannot be
+     * deleted yet (Windows refuses while a download has it open) stays listed.
+     */
+    public void deleteRetiredFiles() {
+        lock.lock();
+        try {
+            if (retired.isEmpty()) {
+                return;
+            }
+            long cutoff = System.currentTimeMillis() - retiredGraceMinutes * 60_000;
+            int before = retired.size();
+            retired.removeIf(file -> file.retiredAtMillis() <= cutoff && !readLeases.containsKey(file.path())
+                    && deleteRetired(file));
+            if (retired.size() != before) {
+                log.info("Deleted {} retired blob files, {} still in their grace period",
+                        before - retired.size(), retired.size());
+                writeRetiredJournal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordHolder(FileTransferEntity holder, StoredBlob blob) {
+        if (holder == null) {
+            return;
+        }
+        // Only the hash: the holder's storagePath still names its staged original until it completes
+        holder.setContentHash(blob.getContentHash());
+        fileTransferRepo.save(holder);
+    }
+
+    private void releaseHolder(FileTransferEntity holder, boolean deleteHolder) {
+        if (holder == null) {
+            return;
+        }
+        if (deleteHolder) {
+            fileTransferRepo.delete(holder);
+        } else {
+            holder.setContentHash(null);
+            fileTransferRepo.save(holder);
+        }
+    }
+
+    /**
+     * Forces a file just moved into the blob tree, its block index and the new
+     * directory entry to disk, so what depends on it next - a COMPLETED transfer,
+     * a deleted staging copy, a retired older encoding - cannot outlive it in a crash.
+     */
+    private void forceToDisk(Path file) throws IOException {
+        forceFile(file);
+        Path index = Paths.get(BlockIndex.indexPathFor(file.toString()));
+        if (Files.exists(index)) {
+            forceFile(index);
+        }
+        try (FileChannel directory = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Windows cannot open a directory as a channel; NTFS journals the rename itself
+            log.debug("Directory {} not forced: {}", file.getParent(), e.getMessage());
+        }
+    }
+
+    private static void forceFile(Path file) throws IOException {
+        // Opened for writing because Windows will not flush a read-only handle; nothing is written
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private Path blobPathFor(String contentHash) {
+        return Paths.get(baseUploadDirectory, BLOB_DIRECTORY,
+                contentHash.substring(0, 2), contentHash.substring(2, 4), contentHash);
+    }
+
+    /**
+     * A file name no earlier encoding of this blob used, so a retired file is never overwritten.
+     */
+    private Path newEncodingPath(String contentHash, String suffix) throws IOException {
+        Path blobPath = blobPathFor(contentHash);
+        Files.createDirectories(blobPath.getParent());
+        while (true) {
+            Path candidate = Paths.get(blobPath + suffix + "-"
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xffffffffL));
+            if (!Files.exists(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    /**
+     * Called with the lock held, after the blob row no longer points at path.
+     */
+    private void retire(String path, CompressionCodec codec) {
+        RetiredFile file = new RetiredFile(path, codec, System.currentTimeMillis());
+        retired.add(file);
+        try {
+            Path journal = Paths.get(baseUploadDirectory, BLOB_DIRECTORY, RETIRED_JOURNAL);
+            Files.writeString(journal, journalLine(file), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // Still deleted after the grace period; only a restart before then would leak it
+            log.warn("Could not journal retired blob file {}: {}", path, e.getMessage());
+        }
+        log.info("Retired blob file {} - deleted in {} minutes", path, retiredGraceMinutes);
+    }
+
+    private boolean deleteRetired(RetiredFile file) {
+        deleteFiles(file.path(), file.codec());
+        return !new File(file.path()).exists();
+    }
+
+    private void deleteRetiredFromLastRun() {
+        Path journal = Paths.get(baseUploadDirectory, BLOB_DIRECTORY, RETIRED_JOURNAL);
+        if (!Files.isRegularFile(journal)) {
+            return;
+        }
+        lock.lock();
+        try {
+            int deleted = 0;
+            for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 3) {
+                    continue;
+                }
+                RetiredFile file = new RetiredFile(fields[2], CompressionCodec.valueOf(fields[1]),
+                        Long.parseLong(fields[0]));
+                // Nothing is reading yet, so the grace period does not apply
+                if (deleteRetired(file)) {
+                    deleted++;
+                } else {
+                    retired.add(file);
+                }
+            }
+            writeRetiredJournal();
+            log.info("Deleted {} blob files retired before the last shutdown", deleted);
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Could not read the retired blob journal {}", journal, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeRetiredJournal() {
+        Path journal = Paths.get(baseUploadDirectory, BLOB_DIRECTORY, RETIRED_JOURNAL);
+        Path temp = Paths.get(journal + ".tmp");
+        StringBuilder lines = new StringBuilder();
+        retired.forEach(file -> lines.append(journalLine(file)));
+        try {
+            Files.writeString(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not rewrite the retired blob journal: {}", e.getMessage());
+        }
+    }
+
+    private static String journalLine(RetiredFile file) {
+        return file.retiredAtMillis() + "\t" + file.codec() + "\t" + file.path() + "\n";
+    }
+
+    private record RetiredFile(String path, CompressionCodec codec, long retiredAtMillis) {
+    }
+
+    private boolean deleteFiles(String path, CompressionCodec codec) {
+        if (codec == CompressionCodec.CDC) {
+            try {
+                chunkStoreService.releaseManifest(path);
+            } catch (IOException e) {
+                log.error("Could not release chunks of manifest {} - they stay stored", path, e);
+            }
+        }
+        File index = new File(BlockIndex.indexPathFor(path));
+        if (index.exists() && !index.delete()) {
+            log.warn("Could not delete block index: {}", index.getPath());
+        }
+        return new File(path).delete();
+    }
+}
@@ -0,0 +1,172 @@
+package peerlinkfilesharingsystem.Service.BlockCacheService;
+
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompressed view of a stored file read block by block through the
+ * {@link BlockCacheService}.
+ *
+ * Cached blocks are copied straight out of their direct buffers. On a miss the
+ * block is decoded from the file's own decoder - opened on first use and kept
+ * while reads move forward, so a cold sequential download decodes the file
+ * once - and handed to the cache. skip() only moves the position; the decoder
+ * catches up (by its own seeking skip) when a block actually has to be decoded.
+ */
+class BlockCacheInputStream extends InputStream {
+
+    private final BlockCacheService cache;
+    private final String storagePath;
+    private final long length;
+    private final BlockCacheService.Decoder decoder;
+    private final BufferPoolService bufferPool;
+    private final int blockSize;
+    private final byte[] single = new byte[1];
+
+    private long position = 0;
+    private InputStream decoded;
+    private long decodedPosition = 0;
+
+    // The block reads are served from: pinned in the cache, or freshly decoded into decodedBlock
+    private long currentIndex = -1;
+    private BlockCacheService.Block pinned;
+    private byte[] decodedBlock;
+    private int currentLength;
+    private boolean closed = false;
+
+    BlockCacheInputStream(BlockCacheService cache, String storagePath, long length,
+                          BlockCacheService.Decoder decoder, BufferPoolService bufferPool) {
+        this.cache = cache;
+        this.storagePath = storagePath;
+        this.length = length;
+        this.decoder = decoder;
+        this.bufferPool = bufferPool;
+        this.blockSize = cache.getBlockSize();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (position >= length) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        long index = position / blockSize;
+        if (index != currentIndex) {
+            loadBlock(index);
+        }
+        int offsetInBlock = (int) (position - index * blockSize);
+        int n = Math.min(len, currentLength - offsetInBlock);
+        if (pinned != null) {
+            pinned.copyTo(offsetInBlock, b, off, n);
+            cache.recordServed(n);
+        } else {
+            System.arraycopy(decodedBlock, offsetInBlock, b, off, n);
+        }
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        if (closed || currentIndex != position / blockSize) {
+            return 0;
+        }
+        return (int) (currentLength - (position - currentIndex * blockSize));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        unpinCurrent();
+        if (decodedBlock != null) {
+            bufferPool.release(decodedBlock);
+            decodedBlock = null;
+        }
+        if (decoded != null) {
+            decoded.close();
+        }
+    }
+
+    private void loadBlock(long index) throws IOException {
+        unpinCurrent();
+        currentIndex = -1;
+        BlockCacheService.Block block = cache.pin(storagePath, index);
+        if (block != null) {
+            pinned = block;
+            currentLength = block.length();
+            currentIndex = index;
+            return;
+        }
+
+        long blockStart = index * blockSize;
+        int blockLength = (int) Math.min(blockSize, length - blockStart);
+        if (decoded == null || decodedPosition > blockStart) {
+            if (decoded != null) {
+                decoded.close();
+            }
+            decoded = decoder.open();
+            decodedPosition = 0;
+        }
+        skipDecodedTo(blockStart);
+        if (decodedBlock == null) {
+            decodedBlock = bufferPool.acquire(blockSize);
+        }
+        int filled = 0;
+        while (filled < blockLength) {
+            int n = decoded.read(decodedBlock, filled, blockLength - filled);
+            if (n == -1) {
+                throw new EOFException("Stored file " + storagePath + " ended at "
+                        + (decodedPosition + filled) + " of " + length + " bytes");
+            }
+            filled += n;
+        }
+        decodedPosition += filled;
+        cache.put(storagePath, index, decodedBlock, blockLength);
+        currentLength = blockLength;
+        currentIndex = index;
+    }
+
+    private void skipDecodedTo(long target) throws IOException {
+        while (decodedPosition < target) {
+            long skipped = decoded.skip(target - decodedPosition);
+            if (skipped <= 0) {
+                if (decoded.read() == -1) {
+                    throw new EOFException("Stored file " + storagePath + " ended at " + decodedPosition
+                            + " of " + length + " bytes");
+                }
+                skipped = 1;
+            }
+            decodedPosition += skipped;
+        }
+    }
+
+    private void unpinCurrent() {
+        if (pinned != null) {
+            cache.unpin(pinned);
+            pinned = null;
+        }
+    }
+}
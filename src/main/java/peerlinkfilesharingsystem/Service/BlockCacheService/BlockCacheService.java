@@ -0,0 +1,475 @@
+package peerlinkfilesharingsystem.Service.BlockCacheService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap cache of decompressed blocks of hot downloads.
+ *
+ * A stored file is cut into fixed blocks of its original bytes (blockSize);
+ * each cached block lives in a pooled direct buffer keyed by the file's storage
+ * path and block index. The storage path stands for the content: blobs are
+ * content-addressed and shared by every transfer of the same bytes, so one hot
+ * file is cached once however many transfers point at it.
+ *
+ * Eviction is W-TinyLFU under a byte budget: new blocks enter a small LRU
+ * window; a block leaving the window only enters the main segmented LRU
+ * (probation, then protected once hit again) if a Count-Min frequency sketch
+ * says it is used more often than the blocks it would push out. Entries are
+ * charged their buffer's capacity, so a file's short last block costs less
+ * than a full one. A one-off scan through a large file therefore cannot flush
+ * the blocks of the files that carry the traffic.
+ *
+ * Readers pin a block while copying out of it; an evicted block's buffer goes
+ * back to the {@link BufferPoolService} once its last reader lets go. The
+ * pool's outstanding direct bytes include what the cache holds.
+ *
+ * Metrics: peerlink.download.cache.requests (result=hit|miss),
+ * peerlink.download.cache.hit.ratio, peerlink.download.cache.served.bytes,
+ * peerlink.download.cache.size.bytes, peerlink.download.cache.entries and
+ * peerlink.download.cache.evictions.
+ */
+@Service
+@Slf4j
+public class BlockCacheService {
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.80;
+
+    private final BufferPoolService bufferPoolService;
+    private final boolean enabled;
+    private final int blockSize;
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long protectedMaxBytes;
+    private final int minDownloadCount;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<BlockKey, Block> blocks = new HashMap<>();
+    private final BlockList window = new BlockList();
+    private final BlockList probation = new BlockList();
+    private final BlockList protectedBlocks = new BlockList();
+    private final FrequencySketch sketch;
+    private long windowBytes = 0;
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter servedBytes;
+    private final Counter evictions;
+    private final MeterRegistry meterRegistry;
+
+    public BlockCacheService(BufferPoolService bufferPoolService, MeterRegistry meterRegistry,
+                             @Value("${download.cache.enabled:true}") boolean enabled,
+                             @Value("${download.cache.max-mb:256}") long maxMb,
+                             @Value("${download.cache.block-kb:256}") int blockKb,
+                             @Value("${download.cache.min-download-count:3}") int minDownloadCount) {
+        this.bufferPoolService = bufferPoolService;
+        this.enabled = enabled && maxMb > 0;
+        this.blockSize = Math.min(Math.max(blockKb, 4), BufferPoolService.MAX_CLASS_SIZE / 1024) * 1024;
+        this.maxBytes = maxMb * 1024 * 1024;
+        this.windowMaxBytes = Math.max(blockSize, (long) (maxBytes * WINDOW_SHARE));
+        this.protectedMaxBytes = (long) ((maxBytes - windowMaxBytes) * PROTECTED_SHARE);
+        this.minDownloadCount = minDownloadCount;
+        this.meterRegistry = meterRegistry;
+        this.sketch = new FrequencySketch(Math.max(64, maxBytes / blockSize));
+
+        this.hits = Counter.builder("peerlink.download.cache.requests").tag("result", "hit")
+                .description("Block lookups answered from the download cache").register(meterRegistry);
+        this.misses = Counter.builder("peerlink.download.cache.requests").tag("result", "miss")
+                .description("Block lookups that had to decompress from disk").register(meterRegistry);
+        this.servedBytes = Counter.builder("peerlink.download.cache.served.bytes")
+                .description("Original bytes served from cached blocks").baseUnit("bytes").register(meterRegistry);
+        this.evictions = Counter.builder("peerlink.download.cache.evictions")
+                .description("Blocks evicted or refused admission").register(meterRegistry);
+
+        log.info("Download block cache {}: {} MB budget, {} KB blocks, files downloaded {}+ times",
+                this.enabled ? "enabled" : "disabled", maxMb, blockSize / 1024, minDownloadCount);
+    }
+
+    /**
+     * Size and hit-ratio gauges; they hold on to the cache, so they are not registered from the constructor.
+     */
+    @PostConstruct
+    public void registerCacheGauges() {
+        Gauge.builder("peerlink.download.cache.hit.ratio", this, cache -> {
+                    double total = cache.hits.count() + cache.misses.count();
+                    return total == 0 ? 0 : cache.hits.count() / total;
+                })
+                .description("Share of block lookups answered from the cache").register(meterRegistry);
+        Gauge.builder("peerlink.download.cache.size.bytes", this, BlockCacheService::getSizeBytes)
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("peerlink.download.cache.entries", this, BlockCacheService::getEntryCount)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Whether downloads of this transfer should go through the cache: it is
+     * compressed (STORE files are sent straight from disk) and popular enough.
+     */
+    public boolean shouldCache(FileTransferEntity transfer, CompressionCodec codec) {
+        return enabled
+                && codec != CompressionCodec.STORE
+                && transfer.getDownloadCount() >= minDownloadCount;
+    }
+
+    /**
+     * The decompressed file as a stream that serves cached blocks and fills the
+     * cache with the ones it has to decode. {@code decoder} opens a fresh decoded
+     * stream from the start of the file; it is only called on a miss.
+     */
+    public InputStream open(String storagePath, long originalSizeBytes, Decoder decoder) {
+        return new BlockCacheInputStream(this, storagePath, originalSizeBytes, decoder, bufferPoolService);
+    }
+
+    /**
+     * Opens the decoded stored file from its first byte.
+     */
+    public interface Decoder {
+        InputStream open() throws IOException;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * A cached block pinned for reading, or null on a miss. Pair with {@link #unpin}.
+     */
+    Block pin(String storagePath, long blockIndex) {
+        BlockKey key = new BlockKey(storagePath, blockIndex);
+        lock.lock();
+        try {
+            sketch.increment(key.hashCode());
+            Block block = blocks.get(key);
+            if (block == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            onHit(block);
+            block.pins++;
+            return block;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unpin(Block block) {
+        lock.lock();
+        try {
+            block.pins--;
+            if (block.pins == 0 && block.evicted) {
+                freeBuffer(block);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void recordServed(int bytes) {
+        servedBytes.increment(bytes);
+    }
+
+    /**
+     * Copies a freshly decoded block into the cache; it starts in the window.
+     */
+    void put(String storagePath, long blockIndex, byte[] data, int length) {
+        BlockKey key = new BlockKey(storagePath, blockIndex);
+        ByteBuffer buffer = bufferPoolService.acquireDirect(length);
+        buffer.put(data, 0, length).flip();
+        lock.lock();
+        try {
+            if (blocks.containsKey(key)) {
+                // Another download decoded it meanwhile
+                bufferPoolService.release(buffer);
+                return;
+            }
+            Block block = new Block(key, buffer, length);
+            blocks.put(key, block);
+            block.queue = window;
+            window.addFirst(block);
+            windowBytes += block.weight;
+            while (windowBytes > windowMaxBytes && !window.isEmpty()) {
+                Block candidate = window.removeLast();
+                windowBytes -= candidate.weight;
+                admitToMain(candidate);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onHit(Block block) {
+        if (block.queue == window) {
+            window.moveToFirst(block);
+        } else if (block.queue == probation) {
+            probation.remove(block);
+            probationBytes -= block.weight;
+            block.queue = protectedBlocks;
+            protectedBlocks.addFirst(block);
+            protectedBytes += block.weight;
+            while (protectedBytes > protectedMaxBytes && protectedBlocks.size() > 1) {
+                Block demoted = protectedBlocks.removeLast();
+                protectedBytes -= demoted.weight;
+                demoted.queue = probation;
+                probation.addFirst(demoted);
+                probationBytes += demoted.weight;
+            }
+        } else {
+            protectedBlocks.moveToFirst(block);
+        }
+    }
+
+    /**
+     * TinyLFU admission: the window's victim displaces main-segment victims only
+     * while it is used more often than each of them.
+     */
+    private void admitToMain(Block candidate) {
+        long mainMaxBytes = maxBytes - windowMaxBytes;
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+        while (probationBytes + protectedBytes + candidate.weight > mainMaxBytes) {
+            BlockList victims = !probation.isEmpty() ? probation : protectedBlocks;
+            if (victims.isEmpty()) {
+                break;
+            }
+            Block victim = victims.peekLast();
+            if (sketch.frequency(victim.key.hashCode()) >= candidateFrequency) {
+                evict(candidate);
+                return;
+            }
+            victims.removeLast();
+            if (victims == probation) {
+                probationBytes -= victim.weight;
+            } else {
+                protectedBytes -= victim.weight;
+            }
+            evict(victim);
+        }
+        if (probationBytes + protectedBytes + candidate.weight > mainMaxBytes) {
+            evict(candidate);
+            return;
+        }
+        candidate.queue = probation;
+        probation.addFirst(candidate);
+        probationBytes += candidate.weight;
+    }
+
+    private void evict(Block block) {
+        blocks.remove(block.key);
+        block.queue = null;
+        block.evicted = true;
+        evictions.increment();
+        if (block.pins == 0) {
+            freeBuffer(block);
+        }
+    }
+
+    private void freeBuffer(Block block) {
+        if (block.buffer != null) {
+            bufferPoolService.release(block.buffer);
+            block.buffer = null;
+        }
+    }
+
+    public long getSizeBytes() {
+        lock.lock();
+        try {
+            return windowBytes + probationBytes + protectedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return blocks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record BlockKey(String storagePath, long blockIndex) {
+    }
+
+    /**
+     * One cached block. Everything but the buffer contents is guarded by the cache lock.
+     */
+    static final class Block {
+        private final BlockKey key;
+        private final long weight;
+        private final int length;
+        private ByteBuffer buffer;
+        private BlockList queue;
+        private Block prev;
+        private Block next;
+        private int pins = 0;
+        private boolean evicted = false;
+
+        private Block(BlockKey key, ByteBuffer buffer, int length) {
+            this.key = key;
+            this.buffer = buffer;
+            this.length = length;
+            this.weight = buffer.capacity();
+        }
+
+        int length() {
+            return length;
+        }
+
+        /**
+         * Copies from a pinned block; the duplicate keeps concurrent readers' positions apart.
+         */
+        void copyTo(int blockOffset, byte[] dst, int off, int len) {
+            buffer.duplicate().position(blockOffset).get(dst, off, len);
+        }
+    }
+
+    /**
+     * Intrusive doubly linked LRU list, most recent first.
+     */
+    private static final class BlockList {
+        private Block head;
+        private Block tail;
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Block peekLast() {
+            return tail;
+        }
+
+        void addFirst(Block block) {
+            block.prev = null;
+            block.next = head;
+            if (head != null) {
+                head.prev = block;
+            } else {
+                tail = block;
+            }
+            head = block;
+            size++;
+        }
+
+        Block removeLast() {
+            Block block = tail;
+            remove(block);
+            return block;
+        }
+
+        void remove(Block block) {
+            if (block.prev != null) {
+                block.prev.next = block.next;
+            } else {
+                head = block.next;
+            }
+            if (block.next != null) {
+                block.next.prev = block.prev;
+            } else {
+                tail = block.prev;
+            }
+            block.prev = null;
+            block.next = null;
+            size--;
+        }
+
+        void moveToFirst(Block block) {
+            if (head != block) {
+                remove(block);
+                addFirst(block);
+            }
+        }
+    }
+
+    /**
+     * Count-Min sketch of access frequencies with four rows of 4-bit counters
+     * (capped at 15). All counters are halved once the sample count reaches ten
+     * times the width, so old popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleLimit;
+        private int samples = 0;
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.min(1 << 24, Math.max(16, expectedEntries)) * 2 - 1);
+            // 16 counters per long
+            this.table = new long[Math.max(1, width / 4)];
+            this.mask = table.length * 16 - 1;
+            this.sampleLimit = 10 * width;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                added |= incrementAt(indexOf(hash, row));
+            }
+            if (added && ++samples >= sampleLimit) {
+                halve();
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, counterAt(indexOf(hash, row)));
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h ^= h >>> 32;
+            return (int) h & mask;
+        }
+
+        private boolean incrementAt(int counter) {
+            int word = counter >>> 4;
+            int shift = (counter & 15) << 2;
+            if (((table[word] >>> shift) & 0xf) == 0xf) {
+                return false;
+            }
+            table[word] += 1L << shift;
+            return true;
+        }
+
+        private int counterAt(int counter) {
+            return (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xf);
+        }
+
+        private void halve() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            samples /= 2;
+        }
+    }
+}
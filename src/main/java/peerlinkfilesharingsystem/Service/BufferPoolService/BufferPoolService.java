@@ -0,0 +1,179 @@
+package peerlinkfilesharingsystem.Service.BufferPoolService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of transfer buffers, so uploads and downloads stop allocating a
+ * chunk-sized array (up to several MB) each: under many concurrent transfers
+ * those churn the young generation and large ones go straight to the old one.
+ *
+ * Buffers come in power-of-two size classes from MIN_CLASS_SIZE to
+ * MAX_CLASS_SIZE; {@link #acquire(int)} rounds up, so callers must track their
+ * own length and never rely on buffer.length being what they asked for. A
+ * released buffer goes back to its class while the pool retains less than its
+ * cap, otherwise it is left to the GC. Larger requests are plain allocations.
+ *
+ * Heap arrays serve the stream copy loops; direct buffers serve FileChannel
+ * I/O, which would otherwise copy through a JDK-internal temporary direct
+ * buffer cached per thread.
+ *
+ * Metrics (tag kind=heap|direct): peerlink.buffer.pool.hits / misses,
+ * peerlink.buffer.pool.outstanding.bytes (acquired, not yet released - grows
+ * steadily when a caller leaks) and peerlink.buffer.pool.retained.bytes.
+ */
+@Service
+@Slf4j
+public class BufferPoolService {
+
+    public static final int MIN_CLASS_SIZE = 4 * 1024;
+    public static final int MAX_CLASS_SIZE = 16 * 1024 * 1024;
+    private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_CLASS_SHIFT + 1;
+    // Small classes would otherwise get thousands of slots out of the byte cap
+    private static final int MAX_SLOTS_PER_CLASS = 256;
+
+    private final boolean enabled;
+    private final Pool<byte[]> heap;
+    private final Pool<ByteBuffer> direct;
+
+    public BufferPoolService(MeterRegistry meterRegistry,
+                             @Value("${buffers.pool.enabled:true}") boolean enabled,
+                             @Value("${buffers.pool.max-retained-heap-mb:256}") long maxRetainedHeapMb,
+                             @Value("${buffers.pool.max-retained-direct-mb:64}") long maxRetainedDirectMb) {
+        this.enabled = enabled;
+        this.heap = new Pool<>("heap", maxRetainedHeapMb * 1024 * 1024, meterRegistry);
+        this.direct = new Pool<>("direct", maxRetainedDirectMb * 1024 * 1024, meterRegistry);
+        log.info("Buffer pool {}: {} - {} KB classes, heap cap {} MB, direct cap {} MB",
+                enabled ? "enabled" : "disabled", MIN_CLASS_SIZE / 1024, MAX_CLASS_SIZE / 1024,
+                maxRetainedHeapMb, maxRetainedDirectMb);
+    }
+
+    /**
+     * A heap array of at least minCapacity bytes. Give it back with {@link #release(byte[])}.
+     */
+    public byte[] acquire(int minCapacity) {
+        int sizeClass = sizeClassOf(minCapacity);
+        if (enabled && sizeClass >= 0) {
+            byte[] buffer = heap.take(sizeClass);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        int capacity = sizeClass >= 0 ? classSize(sizeClass) : minCapacity;
+        heap.recordMiss(capacity);
+        return new byte[capacity];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer != null) {
+            heap.give(buffer, buffer.length, enabled);
+        }
+    }
+
+    /**
+     * A cleared direct buffer with at least minCapacity bytes, limited to exactly
+     * minCapacity. Give it back with {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquireDirect(int minCapacity) {
+        int sizeClass = sizeClassOf(minCapacity);
+        ByteBuffer buffer = enabled && sizeClass >= 0 ? direct.take(sizeClass) : null;
+        if (buffer == null) {
+            int capacity = sizeClass >= 0 ? classSize(sizeClass) : minCapacity;
+            direct.recordMiss(capacity);
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear().limit(minCapacity);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect()) {
+            direct.give(buffer, buffer.capacity(), enabled);
+        }
+    }
+
+    /**
+     * Size class index for a request, or -1 when it is larger than the largest class.
+     */
+    static int sizeClassOf(int minCapacity) {
+        if (minCapacity > MAX_CLASS_SIZE) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(MIN_CLASS_SIZE, minCapacity) - 1);
+        return shift - MIN_CLASS_SHIFT;
+    }
+
+    static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_CLASS_SHIFT);
+    }
+
+    /**
+     * Free lists of one kind of buffer, one bounded queue per size class.
+     */
+    private static final class Pool<T> {
+        private final ArrayBlockingQueue<T>[] freeLists;
+        private final long maxRetainedBytes;
+        private final AtomicLong retainedBytes = new AtomicLong();
+        private final AtomicLong outstandingBytes = new AtomicLong();
+        private final Counter hits;
+        private final Counter misses;
+
+        @SuppressWarnings("unchecked")
+        Pool(String kind, long maxRetainedBytes, MeterRegistry meterRegistry) {
+            this.maxRetainedBytes = maxRetainedBytes;
+            this.freeLists = (ArrayBlockingQueue<T>[]) new ArrayBlockingQueue<?>[CLASS_COUNT];
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                long slots = Math.max(1, Math.min(MAX_SLOTS_PER_CLASS, maxRetainedBytes / classSize(i)));
+                freeLists[i] = new ArrayBlockingQueue<>((int) slots);
+            }
+            this.hits = Counter.builder("peerlink.buffer.pool.hits").tag("kind", kind)
+                    .description("Buffers served from the pool").register(meterRegistry);
+            this.misses = Counter.builder("peerlink.buffer.pool.misses").tag("kind", kind)
+                    .description("Buffers that had to be allocated").register(meterRegistry);
+            Gauge.builder("peerlink.buffer.pool.outstanding.bytes", outstandingBytes, AtomicLong::get)
+                    .tag("kind", kind).baseUnit("bytes")
+                    .description("Bytes of buffers acquired and not yet released").register(meterRegistry);
+            Gauge.builder("peerlink.buffer.pool.retained.bytes", retainedBytes, AtomicLong::get)
+                    .tag("kind", kind).baseUnit("bytes")
+                    .description("Bytes of free buffers held for reuse").register(meterRegistry);
+        }
+
+        T take(int sizeClass) {
+            T buffer = freeLists[sizeClass].poll();
+            if (buffer == null) {
+                return null;
+            }
+            int size = classSize(sizeClass);
+            retainedBytes.addAndGet(-size);
+            outstandingBytes.addAndGet(size);
+            hits.increment();
+            return buffer;
+        }
+
+        void recordMiss(int capacity) {
+            outstandingBytes.addAndGet(capacity);
+            misses.increment();
+        }
+
+        void give(T buffer, int capacity, boolean pooling) {
+            outstandingBytes.addAndGet(-capacity);
+            int sizeClass = sizeClassOf(capacity);
+            // Only exact class sizes fit a free list; anything else was a one-off
+            if (!pooling || sizeClass < 0 || classSize(sizeClass) != capacity) {
+                return;
+            }
+            if (retainedBytes.addAndGet(capacity) > maxRetainedBytes || !freeLists[sizeClass].offer(buffer)) {
+                retainedBytes.addAndGet(-capacity);
+            }
+        }
+    }
+}
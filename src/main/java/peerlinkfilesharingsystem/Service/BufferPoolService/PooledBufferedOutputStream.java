@@ -0,0 +1,82 @@
+package peerlinkfilesharingsystem.Service.BufferPoolService;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * BufferedOutputStream whose buffer is borrowed from the {@link BufferPoolService}
+ * and given back on close. Writes at least as large as the buffer go straight
+ * through, as with BufferedOutputStream.
+ */
+public class PooledBufferedOutputStream extends FilterOutputStream {
+
+    private final BufferPoolService bufferPool;
+    private final int size;
+    private byte[] buffer;
+    private int count = 0;
+
+    public PooledBufferedOutputStream(OutputStream out, BufferPoolService bufferPool, int size) {
+        super(out);
+        this.bufferPool = bufferPool;
+        this.size = size;
+        this.buffer = bufferPool.acquire(size);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == size) {
+            flushBuffer();
+        }
+        ensureOpen()[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len >= size) {
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > size - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            bufferPool.release(buffer);
+            buffer = null;
+            out.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(ensureOpen(), 0, count);
+            count = 0;
+        }
+    }
+
+    private byte[] ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,173 @@
+package peerlinkfilesharingsystem.Service.ChunkStoreService;
+
+/**
+ * Compact in-memory chunk index: open addressing with linear probing over
+ * parallel primitive arrays, about 36 bytes per chunk and no per-entry
+ * objects, so hundreds of millions of chunks fit without GC pressure and a
+ * lookup is a few array reads.
+ *
+ * Keys are the first 128 bits of a chunk's SHA-256 (collision odds stay
+ * negligible far beyond the index's size). A slot is empty when its reference
+ * count is 0. Not thread-safe; {@link ChunkStoreService} serialises access.
+ */
+final class ChunkIndex {
+
+    private static final int MIN_CAPACITY = 1 << 16;
+    private static final double MAX_LOAD = 0.7;
+
+    private long[] keyHigh;
+    private long[] keyLow;
+    private int[] packIds;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] refCounts;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    ChunkIndex() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Slot holding the key, or -1.
+     */
+    int find(long high, long low) {
+        int slot = (int) high & mask;
+        while (refCounts[slot] != 0) {
+            if (keyHigh[slot] == high && keyLow[slot] == low) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts a key that is not in the index yet.
+     */
+    void insert(long high, long low, int packId, long offset, int length, int refCount) {
+        if (size >= resizeAt) {
+            grow();
+        }
+        int slot = (int) high & mask;
+        while (refCounts[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keyHigh[slot] = high;
+        keyLow[slot] = low;
+        packIds[slot] = packId;
+        offsets[slot] = offset;
+        lengths[slot] = length;
+        refCounts[slot] = refCount;
+        size++;
+    }
+
+    /**
+     * Adds delta to the slot's count; at zero or below the entry is removed.
+     *
+     * @return the new count
+     */
+    int addRefs(int slot, int delta) {
+        int count = refCounts[slot] + delta;
+        if (count <= 0) {
+            remove(slot);
+            return 0;
+        }
+        refCounts[slot] = count;
+        return count;
+    }
+
+    int packId(int slot) {
+        return packIds[slot];
+    }
+
+    long offset(int slot) {
+        return offsets[slot];
+    }
+
+    int length(int slot) {
+        return lengths[slot];
+    }
+
+    int refCount(int slot) {
+        return refCounts[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(EntryVisitor visitor) {
+        for (int slot = 0; slot <= mask; slot++) {
+            if (refCounts[slot] != 0) {
+                visitor.visit(keyHigh[slot], keyLow[slot], packIds[slot], offsets[slot], lengths[slot], refCounts[slot]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryVisitor {
+        void visit(long high, long low, int packId, long offset, int length, int refCount);
+    }
+
+    /**
+     * Backward-shift deletion: later entries of the probe run move up so lookups
+     * never need tombstones.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        refCounts[hole] = 0;
+        size--;
+        int next = hole;
+        while (true) {
+            next = (next + 1) & mask;
+            if (refCounts[next] == 0) {
+                return;
+            }
+            int home = (int) keyHigh[next] & mask;
+            boolean staysPut = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+            if (staysPut) {
+                continue;
+            }
+            keyHigh[hole] = keyHigh[next];
+            keyLow[hole] = keyLow[next];
+            packIds[hole] = packIds[next];
+            offsets[hole] = offsets[next];
+            lengths[hole] = lengths[next];
+            refCounts[hole] = refCounts[next];
+            refCounts[next] = 0;
+            hole = next;
+        }
+    }
+
+    private void grow() {
+        long[] oldHigh = keyHigh;
+        long[] oldLow = keyLow;
+        int[] oldPacks = packIds;
+        long[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        int[] oldRefs = refCounts;
+
+        allocate(oldRefs.length * 2);
+        for (int slot = 0; slot < oldRefs.length; slot++) {
+            if (oldRefs[slot] != 0) {
+                insert(oldHigh[slot], oldLow[slot], oldPacks[slot], oldOffsets[slot], oldLengths[slot], oldRefs[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keyHigh = new long[capacity];
+        keyLow = new long[capacity];
+        packIds = new int[capacity];
+        offsets = new long[capacity];
+        lengths = new int[capacity];
+        refCounts = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+        resizeAt = (int) (capacity * MAX_LOAD);
+    }
+}
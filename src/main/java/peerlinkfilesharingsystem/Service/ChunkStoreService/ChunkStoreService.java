@@ -0,0 +1,407 @@
+package peerlinkfilesharingsystem.Service.ChunkStoreService;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Service.CompressionService.ChunkManifest;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Deduplicated storage for content-defined chunks.
+ *
+ * Every distinct chunk is stored once as a GZIP member appended to a pack file
+ * (chunks/packs/pack-N.dat, rolled at 256 MB) and reference-counted: each
+ * manifest entry pointing at a chunk holds one reference. When the last
+ * reference of every chunk in a pack is gone, the pack file is deleted.
+ *
+ * The index is held in memory ({@link ChunkIndex}) and made durable through an
+ * append-only log (chunks/chunk-index.log) of new chunks and reference
+ * changes, replayed at startup and compacted into a snapshot when it has grown
+ * well past the live entries. Log and pack are forced to disk when an upload
+ * finishes; members are CRC-checked on read.
+ */
+@Service
+@Slf4j
+public class ChunkStoreService {
+
+    private static final String CHUNK_DIRECTORY = "chunks";
+    private static final String PACK_DIRECTORY = "packs";
+    private static final String INDEX_LOG = "chunk-index.log";
+    private static final long PACK_TARGET_BYTES = 256L * 1024 * 1024;
+
+    private static final byte RECORD_ENTRY = 1;
+    private static final byte RECORD_REF = 2;
+    private static final int ENTRY_RECORD_BYTES = 1 + 16 + 4 + 8 + 4 + 4;
+    private static final int REF_RECORD_BYTES = 1 + 16 + 4;
+
+    @Value("${file.storage.path:./uploads}")
+    private String baseUploadDirectory;
+
+    // Not synchronized: pack and log writes under a monitor would pin virtual threads to their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ChunkIndex index = new ChunkIndex();
+    private final Map<Integer, Integer> liveChunksPerPack = new HashMap<>();
+
+    private Path packDirectory;
+    private Path logPath;
+    private FileOutputStream logFile;
+    private DataOutputStream logOut;
+    private long logRecords = 0;
+
+    private int currentPackId;
+    private FileChannel currentPack;
+    private long currentPackSize;
+
+    /**
+     * Where a chunk's GZIP member sits.
+     */
+    public static final class ChunkLocation {
+        public final int packId;
+        public final long offset;
+        public final int length;
+
+        ChunkLocation(int packId, long offset, int length) {
+            this.packId = packId;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        lock.lock();
+        try {
+            Path chunkDirectory = Paths.get(baseUploadDirectory, CHUNK_DIRECTORY);
+            packDirectory = chunkDirectory.resolve(PACK_DIRECTORY);
+            logPath = chunkDirectory.resolve(INDEX_LOG);
+            Files.createDirectories(packDirectory);
+
+            boolean logIntact = replayLog();
+            index.forEach((high, low, packId, offset, length, refCount) ->
+                    liveChunksPerPack.merge(packId, 1, Integer::sum));
+
+            // A cut log may have lost the entries of live chunks; their packs must not look dead
+            int lastPackId = deleteDeadPacks(logIntact);
+            if (logRecords > 2L * index.size() + 100_000) {
+                compactLog();
+            }
+
+            logFile = new FileOutputStream(logPath.toFile(), true);
+            logOut = new DataOutputStream(new BufferedOutputStream(logFile, 64 * 1024));
+            startPack(lastPackId + 1);
+
+            log.info("Chunk store opened: {} chunks in {} packs", index.size(), liveChunksPerPack.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (logOut != null) {
+                sync();
+                logOut.close();
+                currentPack.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes one more reference on a stored chunk.
+     *
+     * @return false when the chunk is not stored and has to be added with {@link #storeChunk}
+     */
+    public boolean addRefIfPresent(long keyHigh, long keyLow) throws IOException {
+        lock.lock();
+        try {
+            int slot = index.find(keyHigh, keyLow);
+            if (slot < 0) {
+                return false;
+            }
+            index.addRefs(slot, 1);
+            logRef(keyHigh, keyLow, 1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a new chunk (an encoded GZIP member: the first length bytes of
+     * member) holding one reference. If a concurrent upload stored the same
+     * chunk first, only the reference is taken.
+     *
+     * @return true when the member was appended, false when it was already stored
+     */
+    public boolean storeChunk(long keyHigh, long keyLow, byte[] member, int length) throws IOException {
+        lock.lock();
+        try {
+            if (addRefIfPresent(keyHigh, keyLow)) {
+                return false;
+            }
+            if (currentPackSize > 0 && currentPackSize + length > PACK_TARGET_BYTES) {
+                currentPack.force(false);
+                currentPack.close();
+                startPack(currentPackId + 1);
+            }
+
+            long offset = currentPackSize;
+            ByteBuffer source = ByteBuffer.wrap(member, 0, length);
+            while (source.hasRemaining()) {
+                currentPack.write(source, offset + source.position());
+            }
+            currentPackSize += length;
+
+            index.insert(keyHigh, keyLow, currentPackId, offset, length, 1);
+            liveChunksPerPack.merge(currentPackId, 1, Integer::sum);
+            logOut.writeByte(RECORD_ENTRY);
+            writeEntry(logOut, keyHigh, keyLow, currentPackId, offset, length, 1);
+            logRecords++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ChunkLocation locate(long keyHigh, long keyLow) {
+        lock.lock();
+        try {
+            int slot = index.find(keyHigh, keyLow);
+            return slot < 0 ? null : new ChunkLocation(index.packId(slot), index.offset(slot), index.length(slot));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops one reference; the chunk leaves the index with its last one.
+     */
+    public void release(long keyHigh, long keyLow) throws IOException {
+        lock.lock();
+        try {
+            int slot = index.find(keyHigh, keyLow);
+            if (slot < 0) {
+                log.warn("Release of unknown chunk {}{}", Long.toHexString(keyHigh), Long.toHexString(keyLow));
+                return;
+            }
+            int packId = index.packId(slot);
+            logRef(keyHigh, keyLow, -1);
+            if (index.addRefs(slot, -1) == 0) {
+                int live = liveChunksPerPack.merge(packId, -1, Integer::sum);
+                if (live <= 0 && packId != currentPackId) {
+                    liveChunksPerPack.remove(packId);
+                    // The release must be durable first: replaying the entry without it would point into a deleted pack
+                    sync();
+                    Files.deleteIfExists(packPath(packId));
+                    log.info("Deleted empty chunk pack {}", packId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases every chunk reference a manifest holds - used when the manifest is deleted.
+     */
+    public void releaseManifest(String manifestPath) throws IOException {
+        ChunkManifest manifest = ChunkManifest.load(manifestPath);
+        lock.lock();
+        try {
+            for (int i = 0; i < manifest.getChunkCount(); i++) {
+                release(manifest.keyHigh(i), manifest.keyLow(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.info("Released {} chunk references of {}", manifest.getChunkCount(), manifestPath);
+    }
+
+    /**
+     * Forces appended chunks and index records to disk.
+     */
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            currentPack.force(false);
+            logOut.flush();
+            logFile.getChannel().force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path packPath(int packId) {
+        return packDirectory.resolve("pack-" + packId + ".dat");
+    }
+
+    public int getChunkCount() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void logRef(long keyHigh, long keyLow, int delta) throws IOException {
+        logOut.writeByte(RECORD_REF);
+        logOut.writeLong(keyHigh);
+        logOut.writeLong(keyLow);
+        logOut.writeInt(delta);
+        logRecords++;
+    }
+
+    private static void writeEntry(DataOutputStream out, long keyHigh, long keyLow, int packId,
+                                   long offset, int length, int refCount) throws IOException {
+        out.writeLong(keyHigh);
+        out.writeLong(keyLow);
+        out.writeInt(packId);
+        out.writeLong(offset);
+        out.writeInt(length);
+        out.writeInt(refCount);
+    }
+
+    /**
+     * Rebuilds the index from the log. A torn or corrupt tail is cut off, so the
+     * records appended after this start stay readable on the next one.
+     *
+     * @return false when part of the log had to be cut off
+     */
+    private boolean replayLog() throws IOException {
+        if (!Files.exists(logPath)) {
+            return true;
+        }
+        long intactBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath), 64 * 1024))) {
+            while (true) {
+                byte type = in.readByte();
+                long keyHigh = in.readLong();
+                long keyLow = in.readLong();
+                if (type == RECORD_ENTRY) {
+                    int packId = in.readInt();
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    int refCount = in.readInt();
+                    if (index.find(keyHigh, keyLow) < 0) {
+                        index.insert(keyHigh, keyLow, packId, offset, length, refCount);
+                    }
+                    intactBytes += ENTRY_RECORD_BYTES;
+                } else if (type == RECORD_REF) {
+                    int delta = in.readInt();
+                    int slot = index.find(keyHigh, keyLow);
+                    if (slot >= 0) {
+                        index.addRefs(slot, delta);
+                    }
+                    intactBytes += REF_RECORD_BYTES;
+                } else {
+                    log.warn("Chunk index log corrupt after {} records - ignoring the rest", logRecords);
+                    break;
+                }
+                logRecords++;
+            }
+        } catch (EOFException e) {
+            // End of log, or a record cut short by a crash - everything before it is intact
+        }
+
+        long logSize = Files.size(logPath);
+        if (logSize > intactBytes) {
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                channel.truncate(intactBytes);
+                channel.force(false);
+            }
+            log.warn("Chunk index log: cut {} bytes of torn records after {} records", logSize - intactBytes,
+                    logRecords);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes pack files no live chunk points into, or only finds the highest
+     * pack id when {@code delete} is false.
+     *
+     * @return the highest pack id found on disk
+     */
+    private int deleteDeadPacks(boolean delete) throws IOException {
+        int lastPackId = -1;
+        try (Stream<Path> packs = Files.list(packDirectory)) {
+            for (Path pack : (Iterable<Path>) packs::iterator) {
+                String name = pack.getFileName().toString();
+                if (!name.startsWith("pack-") || !name.endsWith(".dat")) {
+                    continue;
+                }
+                int packId = Integer.parseInt(name.substring(5, name.length() - 4));
+                lastPackId = Math.max(lastPackId, packId);
+                if (delete && !liveChunksPerPack.containsKey(packId)) {
+                    Files.delete(pack);
+                    log.info("Deleted unreferenced chunk pack {}", packId);
+                }
+            }
+        }
+        return lastPackId;
+    }
+
+    /**
+     * Rewrites the log as one entry record per live chunk.
+     */
+    private void compactLog() throws IOException {
+        Path snapshot = logPath.resolveSibling(INDEX_LOG + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(snapshot), 64 * 1024))) {
+            IOException[] failure = new IOException[1];
+            index.forEach((high, low, packId, offset, length, refCount) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    out.writeByte(RECORD_ENTRY);
+                    writeEntry(out, high, low, packId, offset, length, refCount);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        // Snapshot and its directory entry on disk before it replaces the log, and the rename after
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        forceDirectory(logPath.getParent());
+        Files.move(snapshot, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(logPath.getParent());
+        log.info("Chunk index log compacted: {} records → {}", logRecords, index.size());
+        logRecords = index.size();
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not possible on Windows, where the rename is journalled anyway
+            log.debug("Could not force directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void startPack(int packId) throws IOException {
+        currentPackId = packId;
+        currentPack = FileChannel.open(packPath(packId),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        currentPackSize = currentPack.size();
+    }
+}
@@ -0,0 +1,245 @@
+package peerlinkfilesharingsystem.Service.CodecPoolService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of reusable Deflater and Inflater instances.
+ *
+ * Every Deflater holds about 256 KB of native zlib state (window plus hash
+ * chains), an Inflater about 40 KB, and neither is freed until end() - or,
+ * when an exception path skips it, until the GC gets round to the instance.
+ * Reusing a few instances per level/strategy keeps that memory flat under load.
+ *
+ * Codecs are borrowed as a {@link Lease}; closing the lease resets the codec
+ * and puts it back (or ends it when its free list is full). A lease that becomes
+ * unreachable without being closed is reported as leaked, counted, and its
+ * codec ended, so a forgotten close costs one warning rather than native memory.
+ *
+ * Metrics (tag type=deflater|inflater): peerlink.codec.pool.live (instances
+ * not yet ended), .idle, .native.bytes (estimated from live instances),
+ * .created and .leaked.
+ */
+@Service
+@Slf4j
+public class CodecPoolService {
+
+    // zlib's own estimates for windowBits 15, memLevel 8, plus the stream state
+    static final long DEFLATER_NATIVE_BYTES = (1 << 17) + (1 << 17) + 6 * 1024;
+    static final long INFLATER_NATIVE_BYTES = (1 << 15) + 7 * 1024;
+
+    private static final Cleaner LEAK_DETECTOR = Cleaner.create();
+
+    private final boolean trackLeakSites;
+    private final KindPool<Deflater> deflaters;
+    private final KindPool<Inflater> inflaters;
+
+    public CodecPoolService(MeterRegistry meterRegistry,
+                            @Value("${codecs.pool.max-idle-per-key:16}") int maxIdlePerKey,
+                            @Value("${codecs.pool.track-leak-sites:false}") boolean trackLeakSites) {
+        this.trackLeakSites = trackLeakSites;
+        this.deflaters = new KindPool<>("deflater", DEFLATER_NATIVE_BYTES, maxIdlePerKey,
+                CodecPoolService::newDeflater, Deflater::reset, Deflater::end, meterRegistry);
+        this.inflaters = new KindPool<>("inflater", INFLATER_NATIVE_BYTES, maxIdlePerKey,
+                key -> new Inflater(key == 1), Inflater::reset, Inflater::end, meterRegistry);
+        log.info("Codec pool: up to {} idle codecs per level/strategy{}", maxIdlePerKey,
+                trackLeakSites ? ", recording borrow sites for leak reports" : "");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deflaters.endIdle();
+        inflaters.endIdle();
+    }
+
+    /**
+     * @param nowrap true for raw deflate (GZIP members), false for a zlib stream
+     */
+    public Lease<Deflater> borrowDeflater(int level, int strategy, boolean nowrap) {
+        return deflaters.borrow(deflaterKey(level, strategy, nowrap), trackLeakSites);
+    }
+
+    public Lease<Inflater> borrowInflater(boolean nowrap) {
+        return inflaters.borrow(nowrap ? 1 : 0, trackLeakSites);
+    }
+
+    // Level -1..9, strategy 0..2 and nowrap packed into one int
+    private static int deflaterKey(int level, int strategy, boolean nowrap) {
+        return ((level + 1) << 3) | (strategy << 1) | (nowrap ? 1 : 0);
+    }
+
+    private static Deflater newDeflater(int key) {
+        Deflater deflater = new Deflater((key >>> 3) - 1, (key & 1) == 1);
+        deflater.setStrategy((key >>> 1) & 3);
+        return deflater;
+    }
+
+    /**
+     * A borrowed codec. Use it only until {@link #close()}, which hands it back.
+     */
+    public static final class Lease<T> implements AutoCloseable {
+        private final T codec;
+        private final int key;
+        private final KindPool<T> pool;
+        private final LeakWatch<T> watch;
+        private final Cleaner.Cleanable cleanable;
+        private boolean closed = false;
+
+        private Lease(T codec, int key, KindPool<T> pool, boolean trackSite) {
+            this.codec = codec;
+            this.key = key;
+            this.pool = pool;
+            this.watch = new LeakWatch<>(codec, pool, trackSite ? new Throwable("Borrowed here") : null);
+            this.cleanable = LEAK_DETECTOR.register(this, watch);
+        }
+
+        public T get() {
+            if (closed) {
+                throw new IllegalStateException("Codec lease already closed");
+            }
+            return codec;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            watch.returned = true;
+            cleanable.clean();
+            pool.giveBack(key, codec);
+        }
+    }
+
+    /**
+     * Runs when a lease is closed or, if it never was, once it is unreachable.
+     * Must not reference the lease itself, or it would never become unreachable.
+     */
+    private static final class LeakWatch<T> implements Runnable {
+        private final T codec;
+        private final KindPool<T> pool;
+        private final Throwable borrowSite;
+        private volatile boolean returned = false;
+
+        private LeakWatch(T codec, KindPool<T> pool, Throwable borrowSite) {
+            this.codec = codec;
+            this.pool = pool;
+            this.borrowSite = borrowSite;
+        }
+
+        @Override
+        public void run() {
+            if (!returned) {
+                pool.leaked(codec, borrowSite);
+            }
+        }
+    }
+
+    /**
+     * Free lists and counters for one codec type, one bounded queue per key.
+     */
+    private static final class KindPool<T> {
+        private final String type;
+        private final int maxIdlePerKey;
+        private final IntFunction<T> factory;
+        private final Consumer<T> reset;
+        private final Consumer<T> end;
+        private final ConcurrentHashMap<Integer, ArrayBlockingQueue<T>> idle = new ConcurrentHashMap<>();
+        private final AtomicLong live = new AtomicLong();
+        private final AtomicLong idleCount = new AtomicLong();
+        private final Counter created;
+        private final Counter leaked;
+
+        KindPool(String type, long nativeBytesEach, int maxIdlePerKey, IntFunction<T> factory,
+                 Consumer<T> reset, Consumer<T> end, MeterRegistry meterRegistry) {
+            this.type = type;
+            this.maxIdlePerKey = Math.max(1, maxIdlePerKey);
+            this.factory = factory;
+            this.reset = reset;
+            this.end = end;
+            this.created = Counter.builder("peerlink.codec.pool.created").tag("type", type)
+                    .description("Codec instances created").register(meterRegistry);
+            this.leaked = Counter.builder("peerlink.codec.pool.leaked").tag("type", type)
+                    .description("Codec leases dropped without being closed").register(meterRegistry);
+            Gauge.builder("peerlink.codec.pool.live", live, AtomicLong::get).tag("type", type)
+                    .description("Codec instances holding native zlib state").register(meterRegistry);
+            Gauge.builder("peerlink.codec.pool.idle", idleCount, AtomicLong::get).tag("type", type)
+                    .description("Codec instances waiting in the pool").register(meterRegistry);
+            Gauge.builder("peerlink.codec.pool.native.bytes", live, count -> count.get() * (double) nativeBytesEach)
+                    .tag("type", type).baseUnit("bytes")
+                    .description("Estimated native memory of live codec instances").register(meterRegistry);
+        }
+
+        Lease<T> borrow(int key, boolean trackSite) {
+            T codec = freeList(key).poll();
+            if (codec != null) {
+                idleCount.decrementAndGet();
+            } else {
+                codec = factory.apply(key);
+                live.incrementAndGet();
+                created.increment();
+            }
+            return new Lease<>(codec, key, this, trackSite);
+        }
+
+        void giveBack(int key, T codec) {
+            try {
+                reset.accept(codec);
+            } catch (RuntimeException e) {
+                discard(codec);
+                return;
+            }
+            if (freeList(key).offer(codec)) {
+                idleCount.incrementAndGet();
+            } else {
+                discard(codec);
+            }
+        }
+
+        void leaked(T codec, Throwable borrowSite) {
+            leaked.increment();
+            if (borrowSite != null) {
+                log.warn("A pooled {} was never returned; ending it", type, borrowSite);
+            } else {
+                log.warn("A pooled {} was never returned; ending it "
+                        + "(codecs.pool.track-leak-sites=true records where it was borrowed)", type);
+            }
+            discard(codec);
+        }
+
+        void endIdle() {
+            for (ArrayBlockingQueue<T> freeList : idle.values()) {
+                T codec;
+                while ((codec = freeList.poll()) != null) {
+                    idleCount.decrementAndGet();
+                    discard(codec);
+                }
+            }
+        }
+
+        private void discard(T codec) {
+            end.accept(codec);
+            live.decrementAndGet();
+        }
+
+        private ArrayBlockingQueue<T> freeList(int key) {
+            ArrayBlockingQueue<T> freeList = idle.get(key);
+            return freeList != null ? freeList : idle.computeIfAbsent(key, k -> new ArrayBlockingQueue<>(maxIdlePerKey));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package peerlinkfilesharingsystem.Service.CompressionDictionaryService;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Model.CompressionDictionary;
+import peerlinkfilesharingsystem.Repo.CompressionDictionaryRepo;
+import peerlinkfilesharingsystem.Repo.StoredBlobRepo;
+import peerlinkfilesharingsystem.Service.CompressionService.PresetDictionaryCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Versioned preset deflate dictionaries, one line of versions per file type.
+ *
+ * {@link #train} builds a dictionary from sample files, checks it on samples it
+ * was not trained on and publishes it as the type's next version only if it
+ * beats plain deflate. New small uploads of the type use the active version
+ * (codec DEFLATE_DICT); stored files name theirs by zlib DICTID, so older
+ * versions stay readable until no blob uses them any more.
+ */
+@Service
+@Slf4j
+public class CompressionDictionaryService {
+
+    // Deflate's window: a longer dictionary could not be referenced anyway
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    private static final double MIN_GAIN_PERCENT = 5.0;
+    private static final int EVALUATION_LEVEL = 6;
+
+    private final CompressionDictionaryRepo compressionDictionaryRepo;
+    private final StoredBlobRepo storedBlobRepo;
+
+    // fileType → active dictionary id; id and DICTID → content
+    private final ConcurrentHashMap<String, Long> activeByFileType = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, byte[]> contentById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, byte[]> contentByDictId = new ConcurrentHashMap<>();
+    // One training at a time; held across repository saves, so not a monitor
+    private final ReentrantLock trainLock = new ReentrantLock();
+
+    public CompressionDictionaryService(CompressionDictionaryRepo compressionDictionaryRepo,
+                                        StoredBlobRepo storedBlobRepo) {
+        this.compressionDictionaryRepo = compressionDictionaryRepo;
+        this.storedBlobRepo = storedBlobRepo;
+    }
+
+    @PostConstruct
+    public void loadActiveDictionaries() {
+        for (CompressionDictionary dictionary : compressionDictionaryRepo.findByActiveTrue()) {
+            cache(dictionary);
+            activeByFileType.put(dictionary.getFileType(), dictionary.getId());
+        }
+        log.info("Loaded {} active compression dictionaries", activeByFileType.size());
+    }
+
+    /**
+     * Id of the dictionary new uploads of fileType should use, or null.
+     */
+    public Long findActiveDictionaryId(String fileType) {
+        return fileType == null ? null : activeByFileType.get(fileType.toLowerCase());
+    }
+
+    public byte[] getContent(Long dictionaryId) {
+        byte[] content = contentById.get(dictionaryId);
+        if (content == null) {
+            content = compressionDictionaryRepo.findById(dictionaryId).map(this::cache).orElse(null);
+        }
+        return content;
+    }
+
+    /**
+     * Dictionary by the zlib DICTID found in a stored stream, or null.
+     */
+    public byte[] findContentByDictId(long dictId) {
+        byte[] content = contentByDictId.get(dictId);
+        if (content == null) {
+            content = compressionDictionaryRepo.findFirstByDictId(dictId).map(this::cache).orElse(null);
+        }
+        return content;
+    }
+
+    /**
+     * Trains a dictionary for fileType on 80% of the samples and publishes it if it
+     * makes the other 20% at least MIN_GAIN_PERCENT smaller than plain deflate.
+     *
+     * @return the new version, or null when nothing was published
+     */
+    public CompressionDictionary train(String fileType, List<byte[]> samples) {
+        trainLock.lock();
+        try {
+            List<byte[]> training = new ArrayList<>();
+            List<byte[]> heldOut = new ArrayList<>();
+            for (int i = 0; i < samples.size(); i++) {
+                (i % 5 == 4 ? heldOut : training).add(samples.get(i));
+            }
+
+            long startTime = System.currentTimeMillis();
+            byte[] content = DictionaryTrainer.train(training, MAX_DICTIONARY_SIZE);
+            long plain = DictionaryTrainer.deflatedSize(heldOut, null, EVALUATION_LEVEL);
+            long primed = DictionaryTrainer.deflatedSize(heldOut, content, EVALUATION_LEVEL);
+            double gainPercent = plain == 0 ? 0 : (1.0 - (double) primed / plain) * 100;
+            log.info("Dictionary for .{} trained on {} samples in {} ms: {} KB, held-out {} -> {} bytes ({}% smaller)",
+                    fileType, training.size(), System.currentTimeMillis() - startTime, content.length / 1024,
+                    plain, primed, String.format("%.1f", gainPercent));
+
+            if (content.length == 0 || gainPercent < MIN_GAIN_PERCENT) {
+                log.info("Dictionary for .{} not published: gain below {}%", fileType, MIN_GAIN_PERCENT);
+                return null;
+            }
+
+            long dictId = PresetDictionaryCodec.dictIdOf(content);
+            CompressionDictionary latest = compressionDictionaryRepo.findFirstByFileTypeOrderByVersionDesc(fileType)
+                    .orElse(null);
+            if (latest != null && latest.getDictId() == dictId && Boolean.TRUE.equals(latest.getActive())) {
+                log.info("Dictionary for .{} unchanged (v{})", fileType, latest.getVersion());
+                return null;
+            }
+            if (latest != null && Boolean.TRUE.equals(latest.getActive())) {
+                latest.setActive(false);
+                compressionDictionaryRepo.save(latest);
+            }
+
+            CompressionDictionary dictionary = CompressionDictionary.builder()
+                    .fileType(fileType)
+                    .version(latest == null ? 1 : latest.getVersion() + 1)
+                    .dictId(dictId)
+                    .content(content)
+                    .sampleCount(samples.size())
+                    .sampleGainPercent(gainPercent)
+                    .active(true)
+                    .build();
+            compressionDictionaryRepo.save(dictionary);
+            cache(dictionary);
+            activeByFileType.put(fileType, dictionary.getId());
+            log.info("Dictionary for .{} published as v{} (DICTID {})", fileType, dictionary.getVersion(),
+                    Long.toHexString(dictId));
+
+            removeUnusedVersions(fileType, dictionary.getVersion());
+            return dictionary;
+        } finally {
+            trainLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes inactive versions no stored blob was compressed with. The version just
+     * replaced is kept until the next rebuild: uploads that picked it before this
+     * publish may still be storing their blob.
+     */
+    private void removeUnusedVersions(String fileType, int currentVersion) {
+        for (CompressionDictionary old : compressionDictionaryRepo.findByFileTypeAndActiveFalse(fileType)) {
+            if (old.getVersion() < currentVersion - 1 && !storedBlobRepo.existsByDictionaryId(old.getId())) {
+                compressionDictionaryRepo.delete(old);
+                contentById.remove(old.getId());
+                contentByDictId.remove(old.getDictId());
+                log.info("Removed unused dictionary .{} v{}", fileType, old.getVersion());
+            }
+        }
+    }
+
+    private byte[] cache(CompressionDictionary dictionary) {
+        contentById.put(dictionary.getId(), dictionary.getContent());
+        contentByDictId.put(dictionary.getDictId(), dictionary.getContent());
+        return dictionary.getContent();
+    }
+}
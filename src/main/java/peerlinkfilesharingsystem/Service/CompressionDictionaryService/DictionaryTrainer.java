@@ -0,0 +1,178 @@
+package peerlinkfilesharingsystem.Service.CompressionDictionaryService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Builds a preset deflate dictionary from sample files of one type.
+ *
+ * 1. Every WINDOW-byte substring of every sample is hashed; a counting table
+ *    records in how many samples (not how often) each one occurs.
+ * 2. In each sample, runs of windows that occur in at least minSamples files
+ *    become candidate segments, scored by the summed counts of their windows.
+ * 3. The best segments are concatenated up to the dictionary size, best last:
+ *    deflate encodes short distances more cheaply, and the end of the
+ *    dictionary is the closest history.
+ *
+ * The counting table is fixed-size (hash collisions only inflate a few
+ * counts), so memory does not grow with the number of distinct substrings.
+ */
+final class DictionaryTrainer {
+
+    private static final int WINDOW = 12;
+    private static final int MAX_SEGMENT_LENGTH = 256;
+    private static final int MAX_CANDIDATES = 20_000;
+    private static final int COUNT_TABLE_BITS = 21;
+    private static final long PRIME = 0x100000001B3L;
+
+    private DictionaryTrainer() {
+    }
+
+    static byte[] train(List<byte[]> samples, int dictionarySize) {
+        int minSamples = Math.max(2, samples.size() / 10);
+        int[] counts = new int[1 << COUNT_TABLE_BITS];
+        long[] seenInSample = new long[1 << 16];
+
+        // 1. In how many samples each window occurs
+        long sampleMark = 0;
+        for (byte[] sample : samples) {
+            sampleMark++;
+            Arrays.fill(seenInSample, 0);
+            for (int pos = 0; pos + WINDOW <= sample.length; pos++) {
+                int bucket = bucket(hash(sample, pos));
+                int seenSlot = bucket & (seenInSample.length - 1);
+                // Tagged with the bucket: two buckets sharing a slot can at worst be counted twice
+                long tag = (sampleMark << 32) | bucket;
+                if (seenInSample[seenSlot] != tag) {
+                    seenInSample[seenSlot] = tag;
+                    counts[bucket]++;
+                }
+            }
+        }
+
+        // 2. Runs of common windows become candidate segments, deduplicated by content
+        Map<String, Segment> segments = new HashMap<>();
+        for (byte[] sample : samples) {
+            int runStart = -1;
+            long runScore = 0;
+            for (int pos = 0; pos + WINDOW <= sample.length + 1; pos++) {
+                int count = pos + WINDOW <= sample.length ? counts[bucket(hash(sample, pos))] : 0;
+                boolean common = count >= minSamples;
+                if (common && runStart < 0) {
+                    runStart = pos;
+                    runScore = 0;
+                }
+                if (common) {
+                    runScore += count;
+                }
+                int runLength = runStart < 0 ? 0 : pos - runStart + WINDOW;
+                if (runStart >= 0 && (!common || runLength >= MAX_SEGMENT_LENGTH)) {
+                    int end = common ? pos + WINDOW : pos - 1 + WINDOW;
+                    addSegment(segments, sample, runStart, end, runScore);
+                    runStart = -1;
+                }
+            }
+        }
+
+        // 3. Best segments, best last
+        List<Segment> ranked = new ArrayList<>(segments.values());
+        ranked.sort(Comparator.comparingLong((Segment s) -> s.score).reversed());
+        List<byte[]> chosen = new ArrayList<>();
+        byte[] selected = new byte[dictionarySize];
+        int total = 0;
+        for (Segment segment : ranked.subList(0, Math.min(ranked.size(), MAX_CANDIDATES))) {
+            if (total + segment.bytes.length > dictionarySize || contains(selected, total, segment.bytes)) {
+                continue;
+            }
+            chosen.add(segment.bytes);
+            System.arraycopy(segment.bytes, 0, selected, total, segment.bytes.length);
+            total += segment.bytes.length;
+            if (total + WINDOW > dictionarySize) {
+                break;
+            }
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(total);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            dictionary.writeBytes(chosen.get(i));
+        }
+        return dictionary.toByteArray();
+    }
+
+    /**
+     * Total deflated size of the samples, with or without a dictionary.
+     */
+    static long deflatedSize(List<byte[]> samples, byte[] dictionary, int level) {
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        Deflater deflater = new Deflater(level);
+        try {
+            for (byte[] sample : samples) {
+                deflater.reset();
+                if (dictionary != null && dictionary.length > 0) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(sample);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    total += deflater.deflate(buffer);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return total;
+    }
+
+    private static void addSegment(Map<String, Segment> segments, byte[] sample, int start, int end, long score) {
+        byte[] bytes = Arrays.copyOfRange(sample, start, end);
+        // ISO-8859-1 maps bytes 1:1, so the string is an exact content key
+        String key = new String(bytes, StandardCharsets.ISO_8859_1);
+        Segment existing = segments.get(key);
+        if (existing == null || existing.score < score) {
+            segments.put(key, new Segment(bytes, score));
+        }
+    }
+
+    private static boolean contains(byte[] haystack, int length, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static long hash(byte[] data, int pos) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = pos; i < pos + WINDOW; i++) {
+            h = (h ^ (data[i] & 0xff)) * PRIME;
+        }
+        return h;
+    }
+
+    private static int bucket(long hash) {
+        return (int) ((hash ^ (hash >>> 29)) & ((1 << COUNT_TABLE_BITS) - 1));
+    }
+
+    private static final class Segment {
+        private final byte[] bytes;
+        private final long score;
+
+        private Segment(byte[] bytes, long score) {
+            this.bytes = bytes;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package peerlinkfilesharingsystem.Service.CompressionQueueService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Exception.CompressionOverloadedException;
+import peerlinkfilesharingsystem.Model.StoredBlob;
+import peerlinkfilesharingsystem.Repo.StoredBlobRepo;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionSettings;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionStats;
+import peerlinkfilesharingsystem.Service.CompressionService.FileCompressionService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for upload compression.
+ *
+ * Uploads no longer compress on the request thread: each one is a job on a
+ * fixed set of compression workers behind a bounded queue, so twenty large
+ * uploads at once cannot take every core away from logins and downloads. The
+ * request thread waits for its job. A user may have at most max-jobs-per-user
+ * jobs queued or running.
+ *
+ * The queue counts as overloaded for a job when it is full, when the estimated
+ * wait (bytes ahead of it over the measured per-worker throughput) exceeds
+ * max-wait-seconds, or when its user is at their limit. What happens then is
+ * the overload-policy:
+ * <ul>
+ *   <li>STORE_RAW - the upload is stored uncompressed right away on the request
+ *       thread (plain I/O) and its blob is compressed later by
+ *       {@link #compressDeferredBlobs()} once the queue is idle</li>
+ *   <li>DOWNGRADE - the job is queued at deflate level 1; a full queue or a user
+ *       at their limit is still rejected</li>
+ *   <li>REJECT - {@link CompressionOverloadedException}, answered with 503 and a
+ *       Retry-After of the estimated wait</li>
+ * </ul>
+ *
+ * Metrics: peerlink.compression.queue.depth (jobs waiting), .active, .queued.bytes,
+ * .estimated.wait (seconds), timers .wait (queued until a worker took it) and
+ * .run, and counter .overload tagged outcome=stored_raw|downgraded|rejected.
+ */
+@Service
+@Slf4j
+public class CompressionQueueService {
+
+    public enum OverloadPolicy { STORE_RAW, DOWNGRADE, REJECT }
+
+    /**
+     * How a job was let in: at its predicted settings, at the fastest deflate
+     * level, or to be stored raw and compressed later.
+     */
+    public enum Admission { FULL, DOWNGRADED, STORE_RAW }
+
+    @FunctionalInterface
+    public interface Job<T> {
+        T run(Admission admission) throws IOException;
+    }
+
+    // Until real jobs have been measured; deflate at level 6 manages roughly this per core
+    private static final double INITIAL_BYTES_PER_SECOND = 40.0 * 1024 * 1024;
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+    // Small jobs are dominated by fixed costs and would skew the throughput estimate
+    private static final long MIN_MEASURED_JOB_BYTES = 1024 * 1024;
+    private static final long MAX_RETRY_AFTER_SECONDS = 300;
+
+    private final FileCompressionService compressionService;
+    private final BlobStoreService blobStoreService;
+    private final StoredBlobRepo storedBlobRepo;
+
+    private final int workers;
+    private final int maxJobsPerUser;
+    private final long maxWaitMs;
+    private final OverloadPolicy overloadPolicy;
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+
+    // userId -> jobs queued or running
+    private final ConcurrentHashMap<UUID, Integer> jobsPerUser = new ConcurrentHashMap<>();
+    private final AtomicLong runningBytes = new AtomicLong();
+    private volatile double bytesPerSecondPerWorker = INITIAL_BYTES_PER_SECOND;
+
+    private final Timer queueWait;
+    private final Timer jobRun;
+    private final Counter storedRaw;
+    private final Counter downgraded;
+    private final Counter rejected;
+
+    public CompressionQueueService(FileCompressionService compressionService,
+                                   BlobStoreService blobStoreService,
+                                   StoredBlobRepo storedBlobRepo,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${compression.queue.workers:0}") int workers,
+                                   @Value("${compression.queue.capacity:32}") int capacity,
+                                   @Value("${compression.queue.max-jobs-per-user:2}") int maxJobsPerUser,
+                                   @Value("${compression.queue.max-wait-seconds:30}") long maxWaitSeconds,
+                                   @Value("${compression.queue.overload-policy:STORE_RAW}") OverloadPolicy overloadPolicy) {
+        this.compressionService = compressionService;
+        this.blobStoreService = blobStoreService;
+        this.storedBlobRepo = storedBlobRepo;
+        // Each job can fan out over several cores itself (parallel blocks), so half the cores is plenty
+        this.workers = workers > 0 ? workers : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.maxJobsPerUser = Math.max(1, maxJobsPerUser);
+        this.maxWaitMs = maxWaitSeconds * 1000;
+        this.overloadPolicy = overloadPolicy;
+        this.meterRegistry = meterRegistry;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.workers, this.workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, capacity)), r -> {
+            Thread thread = new Thread(r, "compression-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("peerlink.compression.queue.depth", executor, e -> e.getQueue().size())
+                .description("Compression jobs waiting for a worker").register(meterRegistry);
+        Gauge.builder("peerlink.compression.queue.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Compression jobs running").register(meterRegistry);
+        this.queueWait = Timer.builder("peerlink.compression.queue.wait")
+                .description("Time jobs spent queued before a worker took them").register(meterRegistry);
+        this.jobRun = Timer.builder("peerlink.compression.queue.run")
+                .description("Time compression jobs ran").register(meterRegistry);
+        this.storedRaw = overloadCounter(meterRegistry, "stored_raw");
+        this.downgraded = overloadCounter(meterRegistry, "downgraded");
+        this.rejected = overloadCounter(meterRegistry, "rejected");
+
+        log.info("Compression queue: {} workers, {} slots, {} jobs per user, max wait {} s, overload policy {}",
+                this.workers, capacity, this.maxJobsPerUser, maxWaitSeconds, overloadPolicy);
+    }
+
+    /**
+     * Gauges that read the queue itself, registered once it is fully constructed.
+     */
+    @PostConstruct
+    public void registerQueueGauges() {
+        Gauge.builder("peerlink.compression.queue.queued.bytes", this, CompressionQueueService::queuedBytes)
+                .baseUnit("bytes").description("Original bytes of compression jobs waiting").register(meterRegistry);
+        Gauge.builder("peerlink.compression.queue.estimated.wait", this, q -> q.estimatedWaitMs() / 1000.0)
+                .baseUnit("seconds").description("Estimated wait for a newly queued job").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs a compression job on the compression workers and waits for its result,
+     * applying the overload policy when the queue cannot take it as it is.
+     *
+     * @param userId        whose job this is; null for background work, which has no per-user cap
+     * @param originalBytes how much the job will read, for the wait estimate
+     * @throws CompressionOverloadedException when the policy rejects the job
+     */
+    public <T> T submit(UUID userId, long originalBytes, Job<T> job) throws IOException {
+        boolean userAtLimit = userId != null && jobsPerUser.merge(userId, 1, Integer::sum) > maxJobsPerUser;
+        try {
+            long estimatedWaitMs = estimatedWaitMs();
+            Admission admission = Admission.FULL;
+            if (userAtLimit || estimatedWaitMs > maxWaitMs) {
+                String reason = userAtLimit
+                        ? "user " + userId + " already has " + maxJobsPerUser + " compression jobs"
+                        : "estimated compression wait " + estimatedWaitMs / 1000 + " s";
+                admission = overloaded(reason, userAtLimit, estimatedWaitMs);
+                if (admission == Admission.STORE_RAW) {
+                    return job.run(Admission.STORE_RAW);
+                }
+            }
+
+            QueuedJob<T> queued = new QueuedJob<>(job, admission, originalBytes);
+            try {
+                executor.execute(queued);
+            } catch (RejectedExecutionException e) {
+                if (overloaded("compression queue is full", true, estimatedWaitMs()) == Admission.STORE_RAW) {
+                    return job.run(Admission.STORE_RAW);
+                }
+                throw e;
+            }
+            if (admission == Admission.DOWNGRADED) {
+                downgraded.increment();
+            }
+            return queued.await(executor);
+        } finally {
+            if (userId != null) {
+                jobsPerUser.computeIfPresent(userId, (id, jobs) -> jobs > 1 ? jobs - 1 : null);
+            }
+        }
+    }
+
+    /**
+     * Compresses blobs that were stored raw under load, oldest first, one at a
+     * time and only while the queue has nothing else to do.
+     */
+    public void compressDeferredBlobs() {
+        List<StoredBlob> deferred = storedBlobRepo.findTop20ByDeferredCodecIsNotNullOrderByCreatedAtAsc();
+        if (deferred.isEmpty()) {
+            return;
+        }
+        log.info("{} raw blobs waiting for deferred compression", deferred.size());
+
+        int compressed = 0;
+        for (StoredBlob candidate : deferred) {
+            if (!isIdle()) {
+                log.info("Compression queue busy again - {} deferred blobs compressed this round", compressed);
+                return;
+            }
+            try {
+                if (submit(null, candidate.getOriginalSize(),
+                        admission -> admission == Admission.FULL && compressDeferred(candidate.getContentHash()))) {
+                    compressed++;
+                }
+            } catch (CompressionOverloadedException e) {
+                log.info("Compression queue busy again - {} deferred blobs compressed this round", compressed);
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Deferred compression of blob {} failed: {}", candidate.getContentHash(), e.getMessage(), e);
+            }
+        }
+        log.info("{} deferred blobs compressed", compressed);
+    }
+
+    private boolean compressDeferred(String contentHash) throws IOException {
+        StoredBlob blob = blobStoreService.findBlob(contentHash);
+        if (blob == null || blob.getCodec() != CompressionCodec.STORE || blob.getDeferredCodec() == null) {
+            return false;
+        }
+
+        CompressionSettings settings = CompressionSettings.builder()
+                .codec(blob.getDeferredCodec())
+                .compressionLevel(blob.getDeferredCompressionLevel())
+                .chunkSize(64 * 1024)
+                .build();
+        String stagingPath = blobStoreService.stagingPathFor(contentHash + ".packed");
+        boolean replaced = false;
+        try {
+            CompressionStats stats;
+            try (InputStream in = compressionService.openStoredFile(blob.getStoragePath(), blob.getCodec())) {
+                stats = compressionService.compressStream(in, stagingPath, settings, null);
+            }
+            replaced = blobStoreService.replaceDeferred(contentHash, stagingPath, stats);
+            return replaced;
+        } finally {
+            if (!replaced && Files.exists(Paths.get(stagingPath))) {
+                blobStoreService.discardStaging(stagingPath, settings.getCodec());
+            }
+        }
+    }
+
+    /**
+     * Applies the overload policy to a job the queue will not take as it is.
+     *
+     * @param mustNotQueue the job cannot be queued at all (queue full or user at their limit)
+     */
+    private Admission overloaded(String reason, boolean mustNotQueue, long estimatedWaitMs) {
+        switch (overloadPolicy) {
+            case STORE_RAW:
+                storedRaw.increment();
+                log.warn("Compression overloaded ({}) - storing the upload raw for now", reason);
+                return Admission.STORE_RAW;
+            case DOWNGRADE:
+                if (!mustNotQueue) {
+                    log.warn("Compression overloaded ({}) - downgrading to the fastest level", reason);
+                    return Admission.DOWNGRADED;
+                }
+                break;
+            default:
+                break;
+        }
+        rejected.increment();
+        long retryAfterSeconds = Math.min(MAX_RETRY_AFTER_SECONDS, Math.max(1, (estimatedWaitMs + 999) / 1000));
+        log.warn("Compression overloaded ({}) - rejecting, retry after {} s", reason, retryAfterSeconds);
+        throw new CompressionOverloadedException("Server is busy compressing other uploads (" + reason + ")",
+                retryAfterSeconds);
+    }
+
+    private boolean isIdle() {
+        return executor.getActiveCount() == 0 && executor.getQueue().isEmpty();
+    }
+
+    /**
+     * Time a job queued now would wait for a worker: everything queued plus, on
+     * average, half of what is running, spread over all workers.
+     */
+    long estimatedWaitMs() {
+        if (executor.getActiveCount() < workers && executor.getQueue().isEmpty()) {
+            return 0;
+        }
+        double backlogBytes = queuedBytes() + runningBytes.get() / 2.0;
+        return (long) (backlogBytes * 1000 / (bytesPerSecondPerWorker * workers));
+    }
+
+    private long queuedBytes() {
+        long bytes = 0;
+        for (Runnable queued : executor.getQueue()) {
+            if (queued instanceof QueuedJob<?> job) {
+                bytes += job.originalBytes;
+            }
+        }
+        return bytes;
+    }
+
+    private void recordThroughput(long bytes, long nanos) {
+        if (bytes < MIN_MEASURED_JOB_BYTES || nanos <= 0) {
+            return;
+        }
+        double measured = bytes * 1_000_000_000.0 / nanos;
+        bytesPerSecondPerWorker += THROUGHPUT_SMOOTHING * (measured - bytesPerSecondPerWorker);
+    }
+
+    private static Counter overloadCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("peerlink.compression.queue.overload").tag("outcome", outcome)
+                .description("Compression jobs that met an overloaded queue").register(meterRegistry);
+    }
+
+    /**
+     * A job waiting in (or taken from) the executor queue, with the future its
+     * submitter waits on.
+     */
+    private final class QueuedJob<T> implements Runnable {
+        private final Job<T> job;
+        private final Admission admission;
+        private final long originalBytes;
+        private final long queuedAt = System.nanoTime();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        QueuedJob(Job<T> job, Admission admission, long originalBytes) {
+            this.job = job;
+            this.admission = admission;
+            this.originalBytes = Math.max(0, originalBytes);
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;
+            }
+            long startedAt = System.nanoTime();
+            queueWait.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+            runningBytes.addAndGet(originalBytes);
+            try {
+                result.complete(job.run(admission));
+                recordThroughput(originalBytes, System.nanoTime() - startedAt);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                runningBytes.addAndGet(-originalBytes);
+                jobRun.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        T await(ThreadPoolExecutor executor) throws IOException {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                // Still queued: drop it; already running: let it finish, nobody reads the result
+                result.cancel(false);
+                executor.remove(this);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for compression");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) {
+                    throw io;
+                }
+                if (cause instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                if (cause instanceof Error error) {
+                    throw error;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+}
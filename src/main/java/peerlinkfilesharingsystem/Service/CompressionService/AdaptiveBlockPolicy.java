@@ -0,0 +1,155 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+import peerlinkfilesharingsystem.Service.CompressionService.BlockModeSummary.BlockMode;
+
+import java.util.zip.Deflater;
+
+/**
+ * Chooses store, fast or dense deflate per block, so one upload can follow its
+ * content: a tar mixing text with embedded media stores the media blocks and
+ * deflates the text ones.
+ *
+ * Every block is first sampled with a level-1 trial deflate of a slice:
+ * - nearly incompressible samples store the block;
+ * - otherwise the block is deflated densely (the predicted level) as long as
+ *   dense blocks have measurably beaten the fast sample and kept a minimum
+ *   throughput; when they stop paying off blocks go fast, and every
+ *   DENSE_RETRY_INTERVAL-th block retries dense to notice when content changes.
+ *
+ * Any mode yields a normal GZIP member, so decoding is unchanged. Shared by the
+ * block workers of one stream, hence synchronized bookkeeping.
+ */
+class AdaptiveBlockPolicy {
+
+    private static final int SAMPLE_BYTES = 32 * 1024;
+    private static final double STORE_RATIO = 0.92;
+    // Dense must beat the fast sample by at least this much of the input...
+    private static final double MIN_DENSE_GAIN = 0.02;
+    // ...and not drop below this throughput
+    private static final double MIN_DENSE_MB_PER_SECOND = 8.0;
+    private static final int DENSE_RETRY_INTERVAL = 16;
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private final int denseLevel;
+    private final int strategy;
+    private final BufferPoolService bufferPool;
+    private final CodecPoolService codecPool;
+
+    private final long[] blocks = new long[BlockMode.values().length];
+    private final long[] inputBytes = new long[BlockMode.values().length];
+    private final long[] outputBytes = new long[BlockMode.values().length];
+    private final long[] nanos = new long[BlockMode.values().length];
+
+    private boolean denseMeasured = false;
+    private double denseGain = 0;
+    private double denseMbPerSecond = 0;
+    private int blocksSinceDense = 0;
+
+    AdaptiveBlockPolicy(int denseLevel, int strategy, BufferPoolService bufferPool, CodecPoolService codecPool) {
+        this.denseLevel = denseLevel;
+        this.strategy = strategy;
+        this.bufferPool = bufferPool;
+        this.codecPool = codecPool;
+    }
+
+    /**
+     * Picks a mode for the block, encodes it as a GZIP member and records the outcome.
+     */
+    GzipMemberEncoder.Member encode(byte[] data, int off, int len) {
+        double sampleRatio = sampleRatio(data, off, len);
+        BlockMode mode = choose(sampleRatio);
+
+        long start = System.nanoTime();
+        GzipMemberEncoder.Member member;
+        switch (mode) {
+            case STORED:
+                member = GzipMemberEncoder.encode(data, off, len, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY,
+                        bufferPool, codecPool);
+                break;
+            case FAST:
+                member = GzipMemberEncoder.encode(data, off, len, Deflater.BEST_SPEED, strategy, bufferPool,
+                        codecPool);
+                break;
+            case DENSE:
+            default:
+                member = GzipMemberEncoder.encode(data, off, len, denseLevel, strategy, bufferPool, codecPool);
+                break;
+        }
+        record(mode, sampleRatio, len, member.length, System.nanoTime() - start);
+        return member;
+    }
+
+    synchronized BlockModeSummary getSummary() {
+        return new BlockModeSummary(denseLevel, blocks, inputBytes, outputBytes, nanos);
+    }
+
+    private synchronized BlockMode choose(double sampleRatio) {
+        if (sampleRatio >= STORE_RATIO) {
+            return BlockMode.STORED;
+        }
+        if (denseLevel <= Deflater.BEST_SPEED) {
+            return BlockMode.FAST;
+        }
+        if (!denseMeasured || blocksSinceDense >= DENSE_RETRY_INTERVAL) {
+            blocksSinceDense = 0;
+            return BlockMode.DENSE;
+        }
+        if (denseGain >= MIN_DENSE_GAIN && denseMbPerSecond >= MIN_DENSE_MB_PER_SECOND) {
+            blocksSinceDense = 0;
+            return BlockMode.DENSE;
+        }
+        blocksSinceDense++;
+        return BlockMode.FAST;
+    }
+
+    private synchronized void record(BlockMode mode, double sampleRatio, int len, int memberLength, long elapsedNanos) {
+        int i = mode.ordinal();
+        blocks[i]++;
+        inputBytes[i] += len;
+        outputBytes[i] += memberLength;
+        nanos[i] += elapsedNanos;
+
+        if (mode == BlockMode.DENSE && len > 0) {
+            double gain = sampleRatio - (double) memberLength / len;
+            double mbPerSecond = len / 1024.0 / 1024.0 / Math.max(1, elapsedNanos) * 1_000_000_000.0;
+            if (!denseMeasured) {
+                denseGain = gain;
+                denseMbPerSecond = mbPerSecond;
+                denseMeasured = true;
+            } else {
+                denseGain += EWMA_WEIGHT * (gain - denseGain);
+                denseMbPerSecond += EWMA_WEIGHT * (mbPerSecond - denseMbPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Level-1 deflate ratio of a slice from the middle of the block (headers at
+     * the start of a block are often unrepresentative).
+     */
+    private double sampleRatio(byte[] data, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int sampleLength = Math.min(len, SAMPLE_BYTES);
+        int sampleOff = off + (len - sampleLength) / 2;
+        CodecPoolService.Lease<Deflater> deflaterLease =
+                codecPool.borrowDeflater(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY, true);
+        Deflater deflater = deflaterLease.get();
+        byte[] out = bufferPool.acquire(sampleLength + 64);
+        try {
+            deflater.setInput(data, sampleOff, sampleLength);
+            deflater.finish();
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(out);
+            }
+            return (double) compressed / sampleLength;
+        } finally {
+            deflaterLease.close();
+            bufferPool.release(out);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Block compressor: input is cut into fixed-size blocks and every block is
+ * deflated as an independent GZIP member. Members are written in input order
+ * and their compressed offsets are recorded into a {@link BlockIndex}, which
+ * is what makes the stored file seekable.
+ *
+ * With parallelism > 1 blocks are deflated on the shared worker pool (pigz
+ * style). At most {@code parallelism} blocks are in flight per stream, which
+ * caps both the cores and the memory (about 2 x parallelism x blockSize) one
+ * upload can use. With parallelism 1 blocks are deflated on the caller's thread.
+ *
+ * With an {@link AdaptiveBlockPolicy} each block gets its own mode (stored, fast
+ * or dense) instead of the fixed level and strategy.
+ *
+ * Block buffers and encoded members come from the {@link BufferPoolService}
+ * and go back to it once a member is written, so a steady stream of uploads
+ * reuses the same arrays. Deflaters come from the {@link CodecPoolService}.
+ */
+class BlockGzipOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int blockSize;
+    private final int parallelism;
+    private final int level;
+    private final int strategy;
+    private final AdaptiveBlockPolicy adaptivePolicy;
+    private final BufferPoolService bufferPool;
+    private final CodecPoolService codecPool;
+    private final Deque<PendingBlock> pending = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockFill = 0;
+    private long blocksSubmitted = 0;
+    private long uncompressedLength = 0;
+    private long compressedLength = 0;
+    private long[] memberOffsets = new long[64];
+    private int membersWritten = 0;
+    private boolean closed = false;
+
+    BlockGzipOutputStream(OutputStream out, ExecutorService executor, int blockSize, int parallelism,
+                          int level, int strategy, AdaptiveBlockPolicy adaptivePolicy,
+                          BufferPoolService bufferPool, CodecPoolService codecPool) {
+        this.out = out;
+        this.executor = executor;
+        this.blockSize = blockSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.level = level;
+        this.strategy = strategy;
+        this.adaptivePolicy = adaptivePolicy;
+        this.bufferPool = bufferPool;
+        this.codecPool = codecPool;
+        this.block = bufferPool.acquire(blockSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[blockFill++] = (byte) b;
+        if (blockFill == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockFill);
+            System.arraycopy(b, off, block, blockFill, n);
+            blockFill += n;
+            off += n;
+            len -= n;
+            if (blockFill == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // An empty input still has to produce one (empty) member to be valid GZIP
+            if (blockFill > 0 || blocksSubmitted == 0) {
+                submitBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeNextMember();
+            }
+        } finally {
+            pending.forEach(PendingBlock::discard);
+            pending.clear();
+            bufferPool.release(block);
+            block = null;
+            out.close();
+        }
+    }
+
+    /**
+     * Offsets of every member written so far; complete once the stream is closed.
+     */
+    BlockIndex getIndex() {
+        long[] offsets = Arrays.copyOf(memberOffsets, membersWritten + 1);
+        offsets[membersWritten] = compressedLength;
+        return new BlockIndex(blockSize, uncompressedLength, offsets);
+    }
+
+    /**
+     * Per-mode totals when blocks were compressed adaptively, otherwise null.
+     */
+    BlockModeSummary getBlockModes() {
+        return adaptivePolicy != null ? adaptivePolicy.getSummary() : null;
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int len = blockFill;
+        uncompressedLength += len;
+        blocksSubmitted++;
+
+        if (parallelism == 1) {
+            writeMember(encodeBlock(data, len));
+            blockFill = 0;
+            return;
+        }
+
+        PendingBlock pendingBlock = new PendingBlock(data, len);
+        pendingBlock.future = executor.submit(pendingBlock);
+        pending.addLast(pendingBlock);
+        // The block handed off is released by its task; close() needs no fresh one
+        block = closed ? null : bufferPool.acquire(blockSize);
+        blockFill = 0;
+
+        if (pending.size() >= parallelism) {
+            writeNextMember();
+        }
+    }
+
+    private GzipMemberEncoder.Member encodeBlock(byte[] data, int len) {
+        if (adaptivePolicy != null) {
+            return adaptivePolicy.encode(data, 0, len);
+        }
+        return GzipMemberEncoder.encode(data, 0, len, level, strategy, bufferPool, codecPool);
+    }
+
+    private void writeNextMember() throws IOException {
+        try {
+            writeMember(pending.removeFirst().future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing block");
+        } catch (ExecutionException e) {
+            throw new IOException("Block compression failed", e.getCause());
+        }
+    }
+
+    private void writeMember(GzipMemberEncoder.Member member) throws IOException {
+        try {
+            if (membersWritten + 1 >= memberOffsets.length) {
+                memberOffsets = Arrays.copyOf(memberOffsets, memberOffsets.length * 2);
+            }
+            memberOffsets[membersWritten++] = compressedLength;
+            out.write(member.bytes, 0, member.length);
+            compressedLength += member.length;
+        } finally {
+            member.release();
+        }
+    }
+
+    /**
+     * A block handed to the worker pool. Whoever claims it first owns its buffer:
+     * the task (which releases it once encoded) or discard() when the stream is
+     * abandoned before the task started.
+     */
+    private final class PendingBlock implements Callable<GzipMemberEncoder.Member> {
+        private final byte[] data;
+        private final int len;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private Future<GzipMemberEncoder.Member> future;
+
+        private PendingBlock(byte[] data, int len) {
+            this.data = data;
+            this.len = len;
+        }
+
+        @Override
+        public GzipMemberEncoder.Member call() {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                return encodeBlock(data, len);
+            } finally {
+                bufferPool.release(data);
+            }
+        }
+
+        private void discard() {
+            if (claimed.compareAndSet(false, true)) {
+                future.cancel(false);
+                bufferPool.release(data);
+            } else if (future.isDone()) {
+                try {
+                    GzipMemberEncoder.Member member = future.get();
+                    if (member != null) {
+                        member.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // Nothing was encoded, nothing to give back
+                }
+            }
+        }
+    }
+}
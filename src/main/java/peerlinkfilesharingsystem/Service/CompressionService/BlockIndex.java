@@ -0,0 +1,116 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Offset index for block-compressed files.
+ *
+ * The data file is a run of GZIP members, each holding exactly blockSize
+ * uncompressed bytes (the last one may be shorter). The index stores the
+ * compressed start of every member, so the block holding uncompressed
+ * offset N is found with one division and read with one positioned read.
+ *
+ * Sidecar layout (big-endian), stored at "storagePath.idx":
+ *   int magic 'PLBI', byte version, int blockSize, long uncompressedLength,
+ *   int blockCount, long[blockCount + 1] compressed offsets
+ */
+public class BlockIndex {
+
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x504C4249; // "PLBI"
+    private static final byte VERSION = 1;
+
+    private final int blockSize;
+    private final long uncompressedLength;
+    private final long[] compressedOffsets;
+
+    BlockIndex(int blockSize, long uncompressedLength, long[] compressedOffsets) {
+        this.blockSize = blockSize;
+        this.uncompressedLength = uncompressedLength;
+        this.compressedOffsets = compressedOffsets;
+    }
+
+    public static String indexPathFor(String storagePath) {
+        return storagePath + INDEX_SUFFIX;
+    }
+
+    /**
+     * Loads the index stored next to storagePath, or null when the file was
+     * written as one monolithic stream.
+     */
+    public static BlockIndex load(String storagePath) throws IOException {
+        File indexFile = new File(indexPathFor(storagePath));
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a block index: " + indexFile);
+            }
+            int blockSize = in.readInt();
+            long uncompressedLength = in.readLong();
+            int blockCount = in.readInt();
+            long[] offsets = new long[blockCount + 1];
+            for (int i = 0; i <= blockCount; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new BlockIndex(blockSize, uncompressedLength, offsets);
+        }
+    }
+
+    /**
+     * Written to a temp file and moved into place so a reader never sees a half-written index.
+     */
+    void save(String storagePath) throws IOException {
+        Path target = Paths.get(indexPathFor(storagePath));
+        Path temp = Paths.get(indexPathFor(storagePath) + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(blockSize);
+            out.writeLong(uncompressedLength);
+            out.writeInt(getBlockCount());
+            for (long offset : compressedOffsets) {
+                out.writeLong(offset);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public int blockFor(long uncompressedOffset) {
+        return (int) (uncompressedOffset / blockSize);
+    }
+
+    public long blockStart(int block) {
+        return (long) block * blockSize;
+    }
+
+    public int blockLength(int block) {
+        return (int) Math.min(blockSize, uncompressedLength - blockStart(block));
+    }
+
+    public long compressedOffset(int block) {
+        return compressedOffsets[block];
+    }
+
+    public int compressedLength(int block) {
+        return (int) (compressedOffsets[block + 1] - compressedOffsets[block]);
+    }
+
+    public int getBlockCount() {
+        return compressedOffsets.length - 1;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+}
@@ -0,0 +1,74 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import java.util.Arrays;
+
+/**
+ * What adaptive block compression actually did with one upload: per mode, how
+ * many blocks, input and output bytes, and the time spent deflating them.
+ */
+public class BlockModeSummary {
+
+    public enum BlockMode {
+        STORED, // Deflate stored blocks - incompressible content, costs only framing
+        FAST,   // Level 1
+        DENSE   // The predicted level
+    }
+
+    private final int denseLevel;
+    private final long[] blocks;
+    private final long[] inputBytes;
+    private final long[] outputBytes;
+    private final long[] nanos;
+
+    BlockModeSummary(int denseLevel, long[] blocks, long[] inputBytes, long[] outputBytes, long[] nanos) {
+        this.denseLevel = denseLevel;
+        this.blocks = Arrays.copyOf(blocks, blocks.length);
+        this.inputBytes = Arrays.copyOf(inputBytes, inputBytes.length);
+        this.outputBytes = Arrays.copyOf(outputBytes, outputBytes.length);
+        this.nanos = Arrays.copyOf(nanos, nanos.length);
+    }
+
+    public long getBlocks(BlockMode mode) {
+        return blocks[mode.ordinal()];
+    }
+
+    public long getInputBytes(BlockMode mode) {
+        return inputBytes[mode.ordinal()];
+    }
+
+    public long getOutputBytes(BlockMode mode) {
+        return outputBytes[mode.ordinal()];
+    }
+
+    /**
+     * Deflate level the content effectively got, weighted by input bytes
+     * (stored 0, fast 1, dense the predicted level) - what the model should learn.
+     */
+    public int getEffectiveCompressionLevel() {
+        long total = Arrays.stream(inputBytes).sum();
+        if (total == 0) {
+            return denseLevel;
+        }
+        double weighted = getInputBytes(BlockMode.FAST) * 1.0 + getInputBytes(BlockMode.DENSE) * (double) denseLevel;
+        return (int) Math.round(weighted / total);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        for (BlockMode mode : BlockMode.values()) {
+            int i = mode.ordinal();
+            if (blocks[i] == 0) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            double seconds = nanos[i] / 1_000_000_000.0;
+            summary.append(String.format("%s %d blocks %d KB -> %d KB (%.0f MB/s)",
+                    mode, blocks[i], inputBytes[i] / 1024, outputBytes[i] / 1024,
+                    seconds == 0 ? 0.0 : inputBytes[i] / 1024.0 / 1024.0 / seconds));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Stored form of a content-defined-chunked (CDC) file: the ordered list of
+ * chunks that rebuild it. Chunk bytes live in the chunk store, keyed by the
+ * first 128 bits of their SHA-256; the manifest never records where, so the
+ * store is free to move them.
+ *
+ * Layout (big-endian), written front to back while the upload streams in:
+ *   per chunk: long keyHigh, long keyLow, int length
+ *   trailer:   long totalLength, int chunkCount, byte version, int magic 'PLCM'
+ */
+public class ChunkManifest {
+
+    static final int ENTRY_SIZE = 8 + 8 + 4;
+    private static final int TRAILER_SIZE = 8 + 4 + 1 + 4;
+    private static final int MAGIC = 0x504C434D; // "PLCM"
+    private static final byte VERSION = 1;
+
+    private final long[] keyHigh;
+    private final long[] keyLow;
+    private final int[] lengths;
+    private final long[] starts;
+    private final long totalLength;
+
+    private ChunkManifest(long[] keyHigh, long[] keyLow, int[] lengths, long totalLength) {
+        this.keyHigh = keyHigh;
+        this.keyLow = keyLow;
+        this.lengths = lengths;
+        this.totalLength = totalLength;
+        this.starts = new long[lengths.length + 1];
+        for (int i = 0; i < lengths.length; i++) {
+            starts[i + 1] = starts[i] + lengths[i];
+        }
+    }
+
+    public static ChunkManifest load(String manifestPath) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(manifestPath)));
+        if (data.limit() < TRAILER_SIZE) {
+            throw new IOException("Not a chunk manifest: " + manifestPath);
+        }
+        data.position(data.limit() - TRAILER_SIZE);
+        long totalLength = data.getLong();
+        int chunkCount = data.getInt();
+        byte version = data.get();
+        int magic = data.getInt();
+        if (magic != MAGIC || version != VERSION
+                || (long) chunkCount * ENTRY_SIZE + TRAILER_SIZE != data.limit()) {
+            throw new IOException("Not a chunk manifest: " + manifestPath);
+        }
+
+        long[] keyHigh = new long[chunkCount];
+        long[] keyLow = new long[chunkCount];
+        int[] lengths = new int[chunkCount];
+        data.position(0);
+        for (int i = 0; i < chunkCount; i++) {
+            keyHigh[i] = data.getLong();
+            keyLow[i] = data.getLong();
+            lengths[i] = data.getInt();
+        }
+        ChunkManifest manifest = new ChunkManifest(keyHigh, keyLow, lengths, totalLength);
+        if (manifest.starts[chunkCount] != totalLength) {
+            throw new IOException("Chunk manifest lengths do not add up: " + manifestPath);
+        }
+        return manifest;
+    }
+
+    static void writeEntry(DataOutputStream out, long keyHigh, long keyLow, int length) throws IOException {
+        out.writeLong(keyHigh);
+        out.writeLong(keyLow);
+        out.writeInt(length);
+    }
+
+    static void writeTrailer(DataOutputStream out, long totalLength, int chunkCount) throws IOException {
+        out.writeLong(totalLength);
+        out.writeInt(chunkCount);
+        out.writeByte(VERSION);
+        out.writeInt(MAGIC);
+    }
+
+    /**
+     * Chunk holding uncompressed offset, by binary search over the chunk starts.
+     */
+    public int chunkFor(long offset) {
+        int low = 0;
+        int high = lengths.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public long chunkStart(int chunk) {
+        return starts[chunk];
+    }
+
+    public int chunkLength(int chunk) {
+        return lengths[chunk];
+    }
+
+    public long keyHigh(int chunk) {
+        return keyHigh[chunk];
+    }
+
+    public long keyLow(int chunk) {
+        return keyLow[chunk];
+    }
+
+    public int getChunkCount() {
+        return lengths.length;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+}
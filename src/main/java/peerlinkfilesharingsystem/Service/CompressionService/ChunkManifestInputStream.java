@@ -0,0 +1,169 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+import peerlinkfilesharingsystem.Service.ChunkStoreService.ChunkStoreService;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+
+/**
+ * Rebuilds a CDC-stored file from its {@link ChunkManifest}.
+ *
+ * Like {@link SeekableBlockInputStream}, {@link #skip(long)} and
+ * {@link #seek(long)} only move the position: the chunk holding it is found
+ * by binary search over the manifest and inflated on the next read. Pack
+ * files are opened once per stream; buffers and the Inflater are borrowed
+ * from the {@link BufferPoolService} and {@link CodecPoolService} and returned
+ * on close.
+ */
+public class ChunkManifestInputStream extends InputStream {
+
+    private final ChunkManifest manifest;
+    private final ChunkStoreService chunkStore;
+    private final Map<Integer, FileChannel> packs = new HashMap<>();
+    private final CodecPoolService.Lease<Inflater> inflaterLease;
+    private final Inflater inflater;
+    private final BufferPoolService bufferPool;
+
+    private byte[] chunkData;
+    private ByteBuffer compressedData;
+    private int loadedChunk = -1;
+    private long position = 0;
+    private boolean closed = false;
+
+    public ChunkManifestInputStream(String manifestPath, ChunkStoreService chunkStore,
+                                    BufferPoolService bufferPool, CodecPoolService codecPool) throws IOException {
+        this.manifest = ChunkManifest.load(manifestPath);
+        this.chunkStore = chunkStore;
+        this.bufferPool = bufferPool;
+        this.inflaterLease = codecPool.borrowInflater(true);
+        this.inflater = inflaterLease.get();
+    }
+
+    public long length() {
+        return manifest.getTotalLength();
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public void seek(long newPosition) throws IOException {
+        if (newPosition < 0 || newPosition > length()) {
+            throw new EOFException("Seek outside of file: " + newPosition + " / " + length());
+        }
+        position = newPosition;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length()) {
+            return -1;
+        }
+        int chunk = loadChunkAt(position);
+        int value = chunkData[(int) (position - manifest.chunkStart(chunk))] & 0xff;
+        position++;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length()) {
+            return -1;
+        }
+        int chunk = loadChunkAt(position);
+        int offsetInChunk = (int) (position - manifest.chunkStart(chunk));
+        int n = Math.min(len, manifest.chunkLength(chunk) - offsetInChunk);
+        System.arraycopy(chunkData, offsetInChunk, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, length() - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            inflaterLease.close();
+            bufferPool.release(chunkData);
+            bufferPool.release(compressedData);
+            chunkData = null;
+            compressedData = null;
+            for (FileChannel pack : packs.values()) {
+                pack.close();
+            }
+        }
+    }
+
+    private int loadChunkAt(long offset) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (loadedChunk >= 0 && offset >= manifest.chunkStart(loadedChunk)
+                && offset < manifest.chunkStart(loadedChunk) + manifest.chunkLength(loadedChunk)) {
+            return loadedChunk;
+        }
+        int chunk = manifest.chunkFor(offset);
+        inflateChunk(chunk);
+        loadedChunk = chunk;
+        return chunk;
+    }
+
+    private void inflateChunk(int chunk) throws IOException {
+        String name = "chunk " + Long.toHexString(manifest.keyHigh(chunk)) + Long.toHexString(manifest.keyLow(chunk));
+        ChunkStoreService.ChunkLocation location = chunkStore.locate(manifest.keyHigh(chunk), manifest.keyLow(chunk));
+        if (location == null) {
+            throw new FileNotFoundException("Missing " + name);
+        }
+
+        // Cleared before each acquire so a failed one cannot lead close() to release twice
+        if (compressedData == null || compressedData.capacity() < location.length) {
+            bufferPool.release(compressedData);
+            compressedData = null;
+            compressedData = bufferPool.acquireDirect(location.length);
+        } else {
+            compressedData.clear().limit(location.length);
+        }
+        int chunkLength = manifest.chunkLength(chunk);
+        if (chunkData == null || chunkData.length < chunkLength) {
+            bufferPool.release(chunkData);
+            chunkData = null;
+            chunkData = bufferPool.acquire(chunkLength);
+        }
+
+        FileChannel pack = packs.get(location.packId);
+        if (pack == null) {
+            pack = FileChannel.open(chunkStore.packPath(location.packId), StandardOpenOption.READ);
+            packs.put(location.packId, pack);
+        }
+        while (compressedData.hasRemaining()) {
+            int n = pack.read(compressedData, location.offset + compressedData.position());
+            if (n < 0) {
+                throw new EOFException("Truncated " + name);
+            }
+        }
+
+        GzipMemberDecoder.decode(compressedData, location.length, chunkData, chunkLength, inflater, name);
+    }
+}
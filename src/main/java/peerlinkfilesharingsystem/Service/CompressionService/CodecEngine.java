@@ -0,0 +1,100 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.ChunkStoreService.ChunkStoreService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+/**
+ * Maps a {@link CompressionCodec} to the encoder used on upload and the
+ * matching decoder used on download.
+ */
+final class CodecEngine {
+
+    private CodecEngine() {
+    }
+
+    static OutputStream newEncoder(CompressionSettings settings, OutputStream out, ExecutorService blockExecutor,
+                                   ChunkStoreService chunkStore, BufferPoolService bufferPool,
+                                   CodecPoolService codecPool) throws IOException {
+        if (settings.getCodec() == CompressionCodec.STORE) {
+            return out;
+        }
+        if (settings.getCodec() == CompressionCodec.DEFLATE_DICT) {
+            if (settings.getDictionary() == null) {
+                throw new IOException("DEFLATE_DICT needs the dictionary content");
+            }
+            return PresetDictionaryCodec.newEncoder(out, clampLevel(settings.getCompressionLevel()),
+                    settings.getDictionary(), codecPool);
+        }
+        if (settings.getCodec() == CompressionCodec.CDC) {
+            // Level 0 keeps chunks stored - incompressible data still deduplicates
+            int level = settings.getCompressionLevel() != null && settings.getCompressionLevel() == 0
+                    ? Deflater.NO_COMPRESSION
+                    : clampLevel(settings.getCompressionLevel());
+            return new ContentDefinedChunkOutputStream(out, chunkStore, blockExecutor, bufferPool, codecPool,
+                    settings.getCdcAverageChunkSize(), settings.getParallelism(), level);
+        }
+
+        int level = settings.getCodec() == CompressionCodec.GZIP_HUFFMAN
+                ? Deflater.BEST_SPEED
+                : clampLevel(settings.getCompressionLevel());
+        int strategy = settings.getCodec() == CompressionCodec.GZIP_HUFFMAN
+                ? Deflater.HUFFMAN_ONLY
+                : Deflater.DEFAULT_STRATEGY;
+
+        AdaptiveBlockPolicy adaptivePolicy = Boolean.TRUE.equals(settings.getAdaptiveBlocks())
+                ? new AdaptiveBlockPolicy(level, strategy, bufferPool, codecPool)
+                : null;
+
+        // Always block-compressed: the member offsets become the seek index
+        return new BlockGzipOutputStream(out, blockExecutor, settings.getBlockSize(),
+                settings.getParallelism(), level, strategy, adaptivePolicy, bufferPool, codecPool);
+    }
+
+    /**
+     * Opens a stored file for reading. Block-compressed files with an index get a
+     * seekable decoder; STORE files are plain file streams (skip is already a seek).
+     * CDC files are manifests and are rebuilt from the chunk store.
+     */
+    static InputStream openStored(String storagePath, CompressionCodec codec, ChunkStoreService chunkStore,
+                                  BufferPoolService bufferPool, CodecPoolService codecPool) throws IOException {
+        if (codec == CompressionCodec.STORE) {
+            return new FileInputStream(storagePath);
+        }
+        if (codec == CompressionCodec.CDC) {
+            return new ChunkManifestInputStream(storagePath, chunkStore, bufferPool, codecPool);
+        }
+        BlockIndex index = BlockIndex.load(storagePath);
+        if (index != null) {
+            return new SeekableBlockInputStream(storagePath, index, bufferPool, codecPool);
+        }
+        return newDecoder(codec, new FileInputStream(storagePath), bufferPool, codecPool);
+    }
+
+    static InputStream newDecoder(CompressionCodec codec, InputStream in, BufferPoolService bufferPool,
+                                  CodecPoolService codecPool) throws IOException {
+        switch (codec) {
+            case STORE:
+                return in;
+            case CDC:
+                throw new IOException("CDC files are rebuilt from the chunk store, not decoded as a stream");
+            case DELTA:
+                throw new IOException("DELTA files are rebuilt from their base blob, not decoded as a stream");
+            case DEFLATE_DICT:
+                throw new IOException("DEFLATE_DICT files need their preset dictionary to be decoded");
+            case GZIP:
+            case GZIP_HUFFMAN:
+            default:
+                return new PooledGzipInputStream(in, codecPool, bufferPool);
+        }
+    }
+
+    static int clampLevel(int level) {
+        return Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+}
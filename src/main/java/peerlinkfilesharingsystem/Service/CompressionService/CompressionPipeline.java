@@ -0,0 +1,212 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import lombok.extern.slf4j.Slf4j;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.BufferPoolService.PooledBufferedOutputStream;
+import peerlinkfilesharingsystem.Service.ChunkStoreService.ChunkStoreService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Single-pass upload pipeline.
+ *
+ * Bytes pushed into this stream are counted, compressed and written straight
+ * to the final storage path - the upload is read once and never lands in a
+ * temporary file first. Callers must end with {@link #finish()} on success or
+ * {@link #abort()} on failure so a half-written file is never left behind.
+ *
+ * The original bytes are also hashed (SHA-256) on the way through, which is
+ * the key the blob store deduplicates on.
+ */
+@Slf4j
+public class CompressionPipeline extends OutputStream {
+
+    private static final long PROGRESS_INTERVAL_BYTES = 8L * 1024 * 1024;
+
+    private final String outputFilePath;
+    private final CompressionCodec codec;
+    private final Long dictionaryId;
+    private final int chunkSize;
+    private final ProgressListener progressListener;
+    private final CountingOutputStream compressedOut;
+    private final OutputStream encoder;
+    private final MessageDigest contentDigest;
+
+    private long bytesRead = 0;
+    private long nextProgressMark = PROGRESS_INTERVAL_BYTES;
+    private boolean closed = false;
+
+    CompressionPipeline(String outputFilePath, CompressionSettings settings, ExecutorService blockExecutor,
+                        ChunkStoreService chunkStore, BufferPoolService bufferPool, CodecPoolService codecPool,
+                        ProgressListener progressListener) throws IOException {
+        this.outputFilePath = outputFilePath;
+        this.codec = settings.getCodec();
+        this.dictionaryId = codec == CompressionCodec.DEFLATE_DICT ? settings.getDictionaryId() : null;
+        this.chunkSize = settings.getChunkSize();
+        this.progressListener = progressListener;
+        this.compressedOut = new CountingOutputStream(
+                new PooledBufferedOutputStream(new FileOutputStream(outputFilePath), bufferPool, chunkSize));
+        try {
+            this.encoder = CodecEngine.newEncoder(settings, compressedOut, blockExecutor, chunkStore, bufferPool,
+                    codecPool);
+        } catch (IOException | RuntimeException e) {
+            compressedOut.close();
+            throw e;
+        }
+        this.contentDigest = newContentDigest();
+    }
+
+    /**
+     * Digest used for content hashes everywhere in the storage layer.
+     */
+    public static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        encoder.write(b);
+        contentDigest.update((byte) b);
+        bytesRead++;
+        reportProgressIfDue();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        encoder.write(b, off, len);
+        contentDigest.update(b, off, len);
+        bytesRead += len;
+        reportProgressIfDue();
+    }
+
+    /**
+     * Flushes the compressor trailer, closes the output file and returns the byte counts.
+     */
+    public CompressionStats finish() throws IOException {
+        if (closed) {
+            throw new IOException("Pipeline already closed: " + outputFilePath);
+        }
+        closed = true;
+        encoder.close();
+
+        // Single-block files gain nothing from an index - sequential decode is already one block
+        if (encoder instanceof BlockGzipOutputStream blockEncoder && blockEncoder.getIndex().getBlockCount() > 1) {
+            blockEncoder.getIndex().save(outputFilePath);
+        }
+
+        if (progressListener != null) {
+            progressListener.onProgress(bytesRead, getBytesWritten());
+        }
+
+        BlockModeSummary blockModes = encoder instanceof BlockGzipOutputStream blockEncoder
+                ? blockEncoder.getBlockModes()
+                : null;
+        if (blockModes != null) {
+            log.info("Adaptive blocks: {}", blockModes);
+        }
+
+        int chunkCount = (int) ((bytesRead + chunkSize - 1) / chunkSize);
+        return new CompressionStats(bytesRead, getBytesWritten(), chunkCount, codec,
+                HexFormat.of().formatHex(contentDigest.digest()), blockModes, dictionaryId);
+    }
+
+    /**
+     * Closes the pipeline and removes the partially written output.
+     */
+    public void abort() {
+        if (!closed) {
+            closed = true;
+            try {
+                encoder.close();
+            } catch (IOException e) {
+                log.debug("Ignoring close failure while aborting {}", outputFilePath, e);
+            }
+        }
+        if (encoder instanceof ContentDefinedChunkOutputStream cdcEncoder) {
+            cdcEncoder.releaseReferences();
+        }
+        for (String path : new String[]{outputFilePath, BlockIndex.indexPathFor(outputFilePath)}) {
+            File outputFile = new File(path);
+            if (outputFile.exists() && !outputFile.delete()) {
+                log.warn("Could not remove partial output: {}", path);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #finish()} so try-with-resources never leaves an open file handle.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            finish();
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Bytes this upload added to storage. For CDC that is the manifest plus the
+     * chunks that were not stored yet.
+     */
+    public long getBytesWritten() {
+        if (encoder instanceof ContentDefinedChunkOutputStream cdcEncoder) {
+            return compressedOut.getCount() + cdcEncoder.getNewChunkBytes();
+        }
+        return compressedOut.getCount();
+    }
+
+    private void reportProgressIfDue() {
+        if (bytesRead >= nextProgressMark) {
+            nextProgressMark = bytesRead + PROGRESS_INTERVAL_BYTES;
+            log.debug("Compressed {} MB so far...", bytesRead / 1024 / 1024);
+            if (progressListener != null) {
+                progressListener.onProgress(bytesRead, getBytesWritten());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(long bytesRead, long bytesWritten);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
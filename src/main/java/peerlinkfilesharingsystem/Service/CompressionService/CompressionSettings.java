@@ -0,0 +1,37 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import lombok.Builder;
+import lombok.Data;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+
+/**
+ * How one upload is encoded: codec and level from the predictor, plus the
+ * block layout. Compressed files are always written as independent blocks
+ * (see {@link BlockIndex}); large files compress those blocks in parallel.
+ * CDC files are cut into content-defined chunks of about cdcAverageChunkSize
+ * instead (see {@link ChunkManifest}). With adaptiveBlocks every block picks
+ * stored, fast or dense deflate from its own content (see {@link AdaptiveBlockPolicy}).
+ * DEFLATE_DICT files are one zlib stream primed with dictionaryId's content
+ * (see {@link PresetDictionaryCodec}).
+ */
+@Data
+@Builder
+public class CompressionSettings {
+    private CompressionCodec codec;
+    private Integer compressionLevel;
+    private Integer chunkSize;
+    @Builder.Default
+    private Integer blockSize = 1024 * 1024;
+    @Builder.Default
+    private Integer parallelism = 1;
+    @Builder.Default
+    private Integer cdcAverageChunkSize = 64 * 1024;
+    @Builder.Default
+    private Boolean adaptiveBlocks = false;
+    private Long dictionaryId;
+    private byte[] dictionary;
+
+    public boolean isParallel() {
+        return parallelism != null && parallelism > 1 && codec != CompressionCodec.STORE;
+    }
+}
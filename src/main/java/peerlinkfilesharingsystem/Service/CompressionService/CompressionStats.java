@@ -0,0 +1,20 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+
+@Data
+@AllArgsConstructor
+public class CompressionStats {
+    private long bytesRead;
+    private long bytesWritten;
+    private int chunkCount;
+    private CompressionCodec codec;
+    // SHA-256 of the original (uncompressed) bytes, hex
+    private String contentHash;
+    // Per-block modes of adaptive compression, null when the codec did not adapt
+    private BlockModeSummary blockModes;
+    // Preset dictionary of DEFLATE_DICT files, otherwise null
+    private Long dictionaryId;
+}
@@ -0,0 +1,271 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import lombok.extern.slf4j.Slf4j;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.ChunkStoreService.ChunkStoreService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * CDC encoder: cuts the input at content-defined boundaries (FastCDC gear
+ * hash with normalised chunking), stores each distinct chunk once in the
+ * {@link ChunkStoreService} and writes a {@link ChunkManifest} to the output.
+ *
+ * Boundaries depend only on the bytes around them, so an insert or delete in
+ * a new version of a file shifts one or two chunks; every other chunk hashes
+ * the same as before and is referenced instead of stored again.
+ *
+ * New chunks are deflated as GZIP members - on the shared worker pool when
+ * parallelism > 1, with at most {@code parallelism} chunks in flight. Chunk
+ * buffers and members are pooled and released once the chunk is stored.
+ */
+@Slf4j
+class ContentDefinedChunkOutputStream extends OutputStream {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: boundaries must come out the same on every run and every node
+        SplittableRandom random = new SplittableRandom(0x5045_4552_4C49_4E4BL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final DataOutputStream out;
+    private final ChunkStoreService chunkStore;
+    private final ExecutorService executor;
+    private final BufferPoolService bufferPool;
+    private final CodecPoolService codecPool;
+    private final int parallelism;
+    private final int level;
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long maskSmall;
+    private final long maskLarge;
+    private final MessageDigest chunkDigest = CompressionPipeline.newContentDigest();
+    private final Deque<Future<?>> pending = new ArrayDeque<>();
+    private final AtomicLong newChunkBytes = new AtomicLong();
+    // Chunk keys (high, low) this stream holds a reference on - released again on abort
+    private final List<long[]> acquiredRefs = new ArrayList<>();
+
+    private byte[] chunk;
+    private int fill = 0;
+    private long fingerprint = 0;
+    private long totalLength = 0;
+    private int chunkCount = 0;
+    private int dedupedChunks = 0;
+    private boolean closed = false;
+
+    ContentDefinedChunkOutputStream(OutputStream out, ChunkStoreService chunkStore, ExecutorService executor,
+                                    BufferPoolService bufferPool, CodecPoolService codecPool,
+                                    int averageSize, int parallelism, int level) {
+        this.out = new DataOutputStream(out);
+        this.chunkStore = chunkStore;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.codecPool = codecPool;
+        this.parallelism = Math.max(1, parallelism);
+        this.level = level;
+        int bits = 31 - Integer.numberOfLeadingZeros(Math.max(4096, averageSize));
+        this.averageSize = 1 << bits;
+        this.minSize = this.averageSize / 4;
+        this.maxSize = this.averageSize * 4;
+        // Harder to cut below the average, easier above: chunk sizes cluster around it
+        this.maskSmall = -1L << (64 - (bits + 2));
+        this.maskLarge = -1L << (64 - (bits - 2));
+        this.chunk = bufferPool.acquire(maxSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        chunk[fill++] = (byte) b;
+        if (isBoundary(b)) {
+            emitChunk();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            // Bytes below the minimum size are never hashed - copy them in one go
+            if (fill < minSize - 1) {
+                int n = Math.min(end - off, minSize - 1 - fill);
+                System.arraycopy(b, off, chunk, fill, n);
+                fill += n;
+                off += n;
+                continue;
+            }
+            int value = b[off++];
+            chunk[fill++] = (byte) value;
+            if (isBoundary(value)) {
+                emitChunk();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (fill > 0) {
+                emitChunk();
+            }
+            while (!pending.isEmpty()) {
+                awaitOldest();
+            }
+            ChunkManifest.writeTrailer(out, totalLength, chunkCount);
+            chunkStore.sync();
+            log.info("CDC: {} chunks, {} already stored, {} KB new chunk data",
+                    chunkCount, dedupedChunks, newChunkBytes.get() / 1024);
+        } finally {
+            // In-flight chunks are left to finish: releaseReferences() must see their references
+            bufferPool.release(chunk);
+            chunk = null;
+            out.close();
+        }
+    }
+
+    /**
+     * Compressed bytes this stream appended to chunk packs; chunks that were
+     * already stored cost nothing.
+     */
+    long getNewChunkBytes() {
+        return newChunkBytes.get();
+    }
+
+    /**
+     * Gives back every chunk reference taken so far - the manifest is being
+     * discarded. Waits for in-flight chunks first so none is missed.
+     */
+    void releaseReferences() {
+        while (!pending.isEmpty()) {
+            try {
+                pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // The chunk was never stored, so there is no reference to give back
+            }
+        }
+        List<long[]> refs;
+        synchronized (acquiredRefs) {
+            refs = new ArrayList<>(acquiredRefs);
+            acquiredRefs.clear();
+        }
+        for (long[] key : refs) {
+            try {
+                chunkStore.release(key[0], key[1]);
+            } catch (IOException e) {
+                log.warn("Could not release chunk reference while aborting", e);
+            }
+        }
+    }
+
+    private boolean isBoundary(int value) {
+        if (fill < minSize) {
+            return false;
+        }
+        fingerprint = (fingerprint << 1) + GEAR[value & 0xff];
+        long mask = fill < averageSize ? maskSmall : maskLarge;
+        return (fingerprint & mask) == 0 || fill >= maxSize;
+    }
+
+    private void emitChunk() throws IOException {
+        final int length = fill;
+        chunkDigest.update(chunk, 0, length);
+        byte[] hash = chunkDigest.digest();
+        final long keyHigh = toLong(hash, 0);
+        final long keyLow = toLong(hash, 8);
+
+        ChunkManifest.writeEntry(out, keyHigh, keyLow, length);
+        totalLength += length;
+        chunkCount++;
+        fill = 0;
+        fingerprint = 0;
+
+        if (chunkStore.addRefIfPresent(keyHigh, keyLow)) {
+            dedupedChunks++;
+            recordRef(keyHigh, keyLow);
+            return;
+        }
+
+        if (parallelism == 1) {
+            storeNewChunk(chunk, length, keyHigh, keyLow);
+            return;
+        }
+
+        final byte[] data = chunk;
+        pending.addLast(executor.submit(() -> {
+            try {
+                storeNewChunk(data, length, keyHigh, keyLow);
+            } finally {
+                bufferPool.release(data);
+            }
+            return null;
+        }));
+        chunk = bufferPool.acquire(maxSize);
+        if (pending.size() >= parallelism) {
+            awaitOldest();
+        }
+    }
+
+    private void storeNewChunk(byte[] data, int length, long keyHigh, long keyLow) throws IOException {
+        GzipMemberEncoder.Member member = GzipMemberEncoder.encode(data, 0, length, level,
+                Deflater.DEFAULT_STRATEGY, bufferPool, codecPool);
+        try {
+            if (chunkStore.storeChunk(keyHigh, keyLow, member.bytes, member.length)) {
+                newChunkBytes.addAndGet(member.length);
+            }
+        } finally {
+            member.release();
+        }
+        recordRef(keyHigh, keyLow);
+    }
+
+    private void recordRef(long keyHigh, long keyLow) {
+        synchronized (acquiredRefs) {
+            acquiredRefs.add(new long[]{keyHigh, keyLow});
+        }
+    }
+
+    private void awaitOldest() throws IOException {
+        try {
+            pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while storing chunk");
+        } catch (ExecutionException e) {
+            throw new IOException("Chunk store failed", e.getCause());
+        }
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xffL);
+        }
+        return value;
+    }
+}
@@ -1,79 +1,196 @@
 package peerlinkfilesharingsystem.Service.CompressionService;
 
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Model.StoredBlob;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.ChunkStoreService.ChunkStoreService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+import peerlinkfilesharingsystem.Service.CompressionDictionaryService.CompressionDictionaryService;
+import peerlinkfilesharingsystem.Service.DeltaStorageService.StoredDelta;
+import peerlinkfilesharingsystem.Service.DeltaUploadService.DeltaApplyingInputStream;
 
 import java.io.*;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ForkJoinPool;
 
 @Service
 @Slf4j
 public class FileCompressionService {
 
+    // zlib's own default, used when no prediction is available
+    private static final int DEFAULT_GZIP_LEVEL = 6;
+
+    // Shared by all uploads; each upload caps its own share via CompressionSettings.parallelism
+    private final ForkJoinPool blockCompressionPool =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final ChunkStoreService chunkStoreService;
+    private final BlobStoreService blobStoreService;
+    private final CompressionDictionaryService compressionDictionaryService;
+    private final BufferPoolService bufferPoolService;
+    private final CodecPoolService codecPoolService;
+
+    public FileCompressionService(ChunkStoreService chunkStoreService, BlobStoreService blobStoreService,
+                                  CompressionDictionaryService compressionDictionaryService,
+                                  BufferPoolService bufferPoolService, CodecPoolService codecPoolService) {
+        this.chunkStoreService = chunkStoreService;
+        this.blobStoreService = blobStoreService;
+        this.compressionDictionaryService = compressionDictionaryService;
+        this.bufferPoolService = bufferPoolService;
+        this.codecPoolService = codecPoolService;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        blockCompressionPool.shutdownNow();
+    }
+
     /**
-     * Compress entire file as a single GZIP stream
-     *
-     * WHY THIS APPROACH:
-     * - Creates ONE valid GZIP file
-     * - Decompression works perfectly
-     * - File integrity preserved
-     * - Compatible with all tools (7zip, gunzip, WinRAR, etc)
+     * Open a single-pass pipeline that encodes whatever is written to it with
+     * the given settings, straight into outputFilePath.
      */
-    public long compressFileToGzip(String inputFilePath, String outputFilePath,Integer chunkSize ) throws IOException {
-        log.info("Starting GZIP compression of entire file");
-        log.info("  Input: {}", inputFilePath);
-        log.info("  Output: {}", outputFilePath);
-
-        File inputFile = new File(inputFilePath);
-        if (!inputFile.exists()) {
-            throw new FileNotFoundException("Input file not found: " + inputFilePath);
+    public CompressionPipeline openPipeline(String outputFilePath, CompressionSettings settings,
+                                            CompressionPipeline.ProgressListener progressListener) throws IOException {
+        if (settings.getCodec() == CompressionCodec.DEFLATE_DICT && settings.getDictionary() == null) {
+            byte[] dictionary = settings.getDictionaryId() != null
+                    ? compressionDictionaryService.getContent(settings.getDictionaryId())
+                    : null;
+            if (dictionary == null) {
+                log.warn("Dictionary {} is gone, compressing with plain GZIP", settings.getDictionaryId());
+                settings.setCodec(CompressionCodec.GZIP);
+            }
+            settings.setDictionary(dictionary);
         }
+        return new CompressionPipeline(outputFilePath, settings, blockCompressionPool, chunkStoreService,
+                bufferPoolService, codecPoolService, progressListener);
+    }
 
-        long originalSize = inputFile.length();
-        log.info("  Original Size: {} bytes ({} MB)", originalSize, originalSize / 1024 / 1024);
-
-        long compressedSize = 0;
-
-        try (FileInputStream fis = new FileInputStream(inputFilePath);
-             FileOutputStream fos = new FileOutputStream(outputFilePath);
-             GZIPOutputStream gzipOut = new GZIPOutputStream(fos)) {
-
-            byte[] buffer = new byte[chunkSize];
-            int bytesRead;
-            long totalBytesRead = 0;
+    /**
+     * Open a stored file with the decoder matching its codec. Block-compressed files
+     * come back as a {@link SeekableBlockInputStream}, so skip() jumps straight to
+     * the block holding the target offset; CDC manifests as a {@link ChunkManifestInputStream}.
+     * DELTA files are rebuilt from their base blob (itself opened through here, so
+     * chains resolve recursively); they can only be read front to back, as can
+     * DEFLATE_DICT files, which are small.
+     */
+    public InputStream openStoredFile(String storagePath, CompressionCodec codec) throws IOException {
+        if (codec == CompressionCodec.DELTA) {
+            return openStoredDelta(storagePath);
+        }
+        if (codec == CompressionCodec.DEFLATE_DICT) {
+            // The DICTID is only an Adler-32, which two dictionaries can share; the blob records the exact one
+            Long dictionaryId = blobStoreService.findDictionaryId(storagePath);
+            PresetDictionaryCodec.DictionaryLookup dictionaries = dictionaryId != null
+                    ? dictId -> compressionDictionaryService.getContent(dictionaryId)
+                    : compressionDictionaryService::findContentByDictId;
+            InputStream in = new BufferedInputStream(new FileInputStream(storagePath));
+            try {
+                return PresetDictionaryCodec.newDecoder(in, dictionaries, codecPoolService);
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+        return CodecEngine.openStored(storagePath, codec, chunkStoreService, bufferPoolService,
+                codecPoolService);
+    }
 
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                gzipOut.write(buffer, 0, bytesRead);
-                totalBytesRead += bytesRead;
+    /**
+     * A GZIP stream into out (the format DELTA files are stored in) that uses a
+     * pooled Deflater and buffer; closing it closes out.
+     */
+    public OutputStream newGzipOutputStream(OutputStream out, int level) throws IOException {
+        return new PooledGzipOutputStream(out, level, codecPoolService, bufferPoolService);
+    }
 
-                if (totalBytesRead % (1024 * 1024) == 0) {  // Log every 1MB
-                    log.debug("Compressed {} MB so far...", totalBytesRead / 1024 / 1024);
-                }
+    private InputStream openStoredDelta(String storagePath) throws IOException {
+        DataInputStream in = new DataInputStream(new PooledGzipInputStream(
+                new FileInputStream(storagePath), codecPoolService, bufferPoolService));
+        try {
+            StoredDelta header = StoredDelta.read(in);
+            StoredBlob base = blobStoreService.findBlob(header.getBaseContentHash());
+            if (base == null) {
+                throw new FileNotFoundException("Base blob " + header.getBaseContentHash()
+                        + " of delta " + storagePath + " is missing");
             }
+            return new DeltaApplyingInputStream(in,
+                    () -> openStoredFile(base.getStoragePath(), base.getCodec()),
+                    header.getBaseLength(), 0);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
 
-            // CRITICAL: Finish the GZIP stream properly
-            gzipOut.finish();
-            gzipOut.flush();
+    /**
+     * Compress a stream into a single file in one pass
+     *
+     * WHY THIS APPROACH:
+     * - Input is read exactly once (no temp copy of the original)
+     * - GZIP codecs create ONE valid GZIP file, compatible with all tools (7zip, gunzip, WinRAR, etc)
+     * - The predicted level is really applied (plain GZIPOutputStream always uses the default)
+     * - Output is a run of independent GZIP members (still one valid GZIP file) plus a
+     *   block index, so downloads can seek; large files deflate those blocks in parallel
+     * - Partial output is removed if the stream fails mid-way
+     */
+    public CompressionStats compressStream(InputStream inputStream, String outputFilePath,
+                                           CompressionSettings settings,
+                                           CompressionPipeline.ProgressListener progressListener) throws IOException {
+        CompressionCodec codec = settings.getCodec();
+        log.info("Starting streaming {} compression (level {})", codec, settings.getCompressionLevel());
+        log.info("  Output: {}", outputFilePath);
+        if (settings.isParallel()) {
+            log.info("  Parallel: {} threads, {} KB blocks", settings.getParallelism(), settings.getBlockSize() / 1024);
+        }
 
-        } catch (IOException e) {
-            log.error("Error during GZIP compression", e);
-            File outputFile = new File(outputFilePath);
-            if (outputFile.exists()) {
-                outputFile.delete();
+        CompressionPipeline pipeline = openPipeline(outputFilePath, settings, progressListener);
+        CompressionStats stats;
+        int chunkSize = settings.getChunkSize();
+        byte[] buffer = bufferPoolService.acquire(chunkSize);
+        try {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer, 0, chunkSize)) != -1) {
+                pipeline.write(buffer, 0, bytesRead);
             }
+            stats = pipeline.finish();
+        } catch (IOException | RuntimeException e) {
+            log.error("Error during {} compression", codec, e);
+            pipeline.abort();
             throw e;
+        } finally {
+            bufferPoolService.release(buffer);
         }
 
-        File outputFile = new File(outputFilePath);
-        compressedSize = outputFile.length();
+        double compressionRatio = stats.getBytesRead() == 0 ? 0.0
+                : (1.0 - (double) stats.getBytesWritten() / stats.getBytesRead()) * 100;
+        log.info("{} compression complete:", codec);
+        log.info("  Original Size: {} bytes ({} MB)", stats.getBytesRead(), stats.getBytesRead() / 1024 / 1024);
+        log.info("  Compressed Size: {} bytes ({} MB)", stats.getBytesWritten(), stats.getBytesWritten() / 1024 / 1024);
+        log.info("  Compression Ratio: {}% saved", String.format("%.2f", compressionRatio));
 
-        double compressionRatio = (1.0 - (double) compressedSize / originalSize) * 100;
-        log.info("GZIP compression complete:");
-        log.info("  Original Size: {} bytes ({} MB)", originalSize, originalSize / 1024 / 1024);
-        log.info("  Compressed Size: {} bytes ({} MB)", compressedSize, compressedSize / 1024 / 1024);
-        log.info("  Compression Ratio: {:.2f}% saved", compressionRatio);
+        return stats;
+    }
 
-        return compressedSize;
+    /**
+     * Compress an existing file on disk into a single GZIP file.
+     */
+    public long compressFileToGzip(String inputFilePath, String outputFilePath, Integer chunkSize) throws IOException {
+        File inputFile = new File(inputFilePath);
+        if (!inputFile.exists()) {
+            throw new FileNotFoundException("Input file not found: " + inputFilePath);
+        }
+
+        try (InputStream fis = new FileInputStream(inputFile)) {
+            CompressionSettings settings = CompressionSettings.builder()
+                    .codec(CompressionCodec.GZIP)
+                    .compressionLevel(DEFAULT_GZIP_LEVEL)
+                    .chunkSize(chunkSize)
+                    .build();
+            return compressStream(fis, outputFilePath, settings, null).getBytesWritten();
+        }
     }
 
 
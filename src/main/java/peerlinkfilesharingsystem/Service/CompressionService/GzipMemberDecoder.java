@@ -0,0 +1,65 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes one member written by {@link GzipMemberEncoder} into a caller buffer
+ * and verifies its CRC32. The Inflater is supplied by the caller so one
+ * instance can be reused across members. The member may sit in a direct
+ * buffer: the Inflater reads it in place.
+ */
+final class GzipMemberDecoder {
+
+    static final int HEADER_SIZE = 10;
+    static final int TRAILER_SIZE = 8;
+
+    private GzipMemberDecoder() {
+    }
+
+    /**
+     * @param what names the member in error messages ("block 12", "chunk 3fa9...")
+     */
+    static void decode(ByteBuffer member, int memberLength, byte[] out, int expectedLength,
+                       Inflater inflater, String what) throws ZipException {
+        // Members are written with a fixed 10-byte header, no optional fields
+        if (memberLength < HEADER_SIZE + TRAILER_SIZE
+                || (member.get(0) & 0xff) != 0x1f || (member.get(1) & 0xff) != 0x8b || member.get(3) != 0) {
+            throw new ZipException("Unexpected GZIP member header in " + what);
+        }
+
+        inflater.reset();
+        member.limit(memberLength - TRAILER_SIZE).position(HEADER_SIZE);
+        inflater.setInput(member);
+        try {
+            int inflated = 0;
+            while (inflated < expectedLength && !inflater.finished()) {
+                int n = inflater.inflate(out, inflated, expectedLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != expectedLength) {
+                throw new ZipException(what + " inflated to " + inflated + " bytes, expected " + expectedLength);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt " + what + ": " + e.getMessage());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out, 0, expectedLength);
+        int trailer = memberLength - TRAILER_SIZE;
+        member.limit(memberLength);
+        long storedCrc = (member.get(trailer) & 0xffL)
+                | (member.get(trailer + 1) & 0xffL) << 8
+                | (member.get(trailer + 2) & 0xffL) << 16
+                | (member.get(trailer + 3) & 0xffL) << 24;
+        if (storedCrc != crc.getValue()) {
+            throw new ZipException("CRC mismatch in " + what);
+        }
+    }
+}
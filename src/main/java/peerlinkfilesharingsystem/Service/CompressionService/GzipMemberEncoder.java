@@ -0,0 +1,99 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes one block as a complete, self-contained GZIP member
+ * (header + raw deflate + CRC32/ISIZE trailer).
+ *
+ * Members written back to back form a valid multi-member GZIP file
+ * (RFC 1952 section 2.2), so GZIPInputStream and gunzip decode them
+ * as one stream.
+ *
+ * The member is deflated straight into a pooled buffer sized for the worst
+ * case (stored blocks), so encoding allocates no heap arrays; whoever writes
+ * the {@link Member} out hands the buffer back with {@link Member#release()}.
+ * The Deflater is borrowed from the {@link CodecPoolService} for the one member.
+ */
+final class GzipMemberEncoder {
+
+    // Same fixed header GZIPOutputStream writes: no flags, no mtime
+    static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int TRAILER_SIZE = 8;
+
+    private GzipMemberEncoder() {
+    }
+
+    static Member encode(byte[] data, int off, int len, int level, int strategy, BufferPoolService bufferPool,
+                         CodecPoolService codecPool) {
+        CodecPoolService.Lease<Deflater> deflaterLease = codecPool.borrowDeflater(level, strategy, true);
+        Deflater deflater = deflaterLease.get();
+        byte[] member = bufferPool.acquire(maxMemberLength(len));
+        try {
+            deflater.setInput(data, off, len);
+            deflater.finish();
+
+            System.arraycopy(HEADER, 0, member, 0, HEADER.length);
+            int length = HEADER.length;
+            while (!deflater.finished()) {
+                if (length == member.length - TRAILER_SIZE) {
+                    // Not expected with the worst-case bound, but never truncate
+                    byte[] larger = bufferPool.acquire(member.length * 2);
+                    System.arraycopy(member, 0, larger, 0, length);
+                    bufferPool.release(member);
+                    member = larger;
+                }
+                length += deflater.deflate(member, length, member.length - TRAILER_SIZE - length);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(data, off, len);
+            length = writeIntLE(member, length, (int) crc.getValue());
+            length = writeIntLE(member, length, len);
+            return new Member(member, length, bufferPool);
+        } catch (RuntimeException e) {
+            bufferPool.release(member);
+            throw e;
+        } finally {
+            deflaterLease.close();
+        }
+    }
+
+    /**
+     * Header, trailer and zlib's deflateBound() for incompressible input.
+     */
+    static int maxMemberLength(int len) {
+        return HEADER.length + len + (len >> 12) + (len >> 14) + (len >> 25) + 13 + TRAILER_SIZE;
+    }
+
+    private static int writeIntLE(byte[] out, int pos, int value) {
+        out[pos] = (byte) value;
+        out[pos + 1] = (byte) (value >>> 8);
+        out[pos + 2] = (byte) (value >>> 16);
+        out[pos + 3] = (byte) (value >>> 24);
+        return pos + 4;
+    }
+
+    /**
+     * An encoded member: the first {@code length} bytes of a pooled buffer.
+     */
+    static final class Member {
+        final byte[] bytes;
+        final int length;
+        private final BufferPoolService bufferPool;
+
+        private Member(byte[] bytes, int length, BufferPoolService bufferPool) {
+            this.bytes = bytes;
+            this.length = length;
+            this.bufferPool = bufferPool;
+        }
+
+        void release() {
+            bufferPool.release(bytes);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * GZIPInputStream replacement that inflates with a pooled Inflater and reads
+ * through a pooled buffer, both handed back on close.
+ *
+ * Decodes the same input: RFC 1952 headers with any optional fields, CRC32 and
+ * ISIZE checked per member, members back to back read as one stream, and
+ * anything after the last member that is not another header ignored.
+ */
+public final class PooledGzipInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in;
+    private final BufferPoolService bufferPool;
+    private final CodecPoolService.Lease<Inflater> inflaterLease;
+    private final Inflater inflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] single = new byte[1];
+
+    private byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private long memberLength = 0;
+    private boolean eof = false;
+    private boolean closed = false;
+
+    public PooledGzipInputStream(InputStream in, CodecPoolService codecPool, BufferPoolService bufferPool)
+            throws IOException {
+        this.in = in;
+        this.bufferPool = bufferPool;
+        this.inflaterLease = codecPool.borrowInflater(true);
+        this.inflater = inflaterLease.get();
+        this.buffer = bufferPool.acquire(BUFFER_SIZE);
+        try {
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (eof) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt GZIP data: " + e.getMessage());
+            }
+            if (n > 0) {
+                crc.update(b, off, n);
+                memberLength += n;
+                return n;
+            }
+            if (inflater.finished()) {
+                // Whatever the inflater did not consume starts the trailer
+                position = limit - inflater.getRemaining();
+                readTrailer();
+                if (!nextMember()) {
+                    eof = true;
+                    return -1;
+                }
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("GZIP member asks for a preset dictionary");
+            } else if (inflater.needsInput()) {
+                if (!fill()) {
+                    throw new EOFException("Unexpected end of GZIP input");
+                }
+                feedInflater();
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed || eof ? 0 : 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            in.close();
+        } finally {
+            inflaterLease.close();
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void readHeader() throws IOException {
+        if (readUByte() != 0x1f || readUByte() != 0x8b) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readUByte() != 8) {
+            throw new ZipException("Unsupported GZIP compression method");
+        }
+        int flags = readUByte();
+        skipBytes(6); // mtime, extra flags, OS
+        if ((flags & FEXTRA) != 0) {
+            skipBytes(readUByte() | (readUByte() << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            while (readUByte() != 0) {
+                // skip the zero-terminated file name
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readUByte() != 0) {
+                // skip the zero-terminated comment
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            skipBytes(2);
+        }
+
+        inflater.reset();
+        crc.reset();
+        memberLength = 0;
+        feedInflater();
+    }
+
+    private void readTrailer() throws IOException {
+        long storedCrc = readIntLE();
+        long storedLength = readIntLE();
+        if (storedCrc != crc.getValue()) {
+            throw new ZipException("CRC mismatch in GZIP member");
+        }
+        if (storedLength != (memberLength & 0xffffffffL)) {
+            throw new ZipException("Length mismatch in GZIP member");
+        }
+    }
+
+    /**
+     * Starts the next member if another header follows; trailing bytes that are
+     * not one end the stream, as with GZIPInputStream.
+     */
+    private boolean nextMember() throws IOException {
+        if (position >= limit && !fill()) {
+            return false;
+        }
+        try {
+            readHeader();
+            return true;
+        } catch (ZipException | EOFException e) {
+            return false;
+        }
+    }
+
+    private void feedInflater() {
+        if (position < limit) {
+            inflater.setInput(buffer, position, limit - position);
+            position = limit;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buffer, 0, BUFFER_SIZE);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+
+    private int readUByte() throws IOException {
+        if (position >= limit && !fill()) {
+            throw new EOFException("Unexpected end of GZIP header or trailer");
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private long readIntLE() throws IOException {
+        return readUByte() | (readUByte() << 8) | (readUByte() << 16) | ((long) readUByte() << 24);
+    }
+
+    private void skipBytes(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            readUByte();
+        }
+    }
+}
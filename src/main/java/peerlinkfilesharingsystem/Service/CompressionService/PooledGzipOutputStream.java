@@ -0,0 +1,84 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * GZIPOutputStream replacement that deflates with a pooled Deflater into a
+ * pooled buffer, both handed back on close. Writes one member with the same
+ * fixed header as {@link GzipMemberEncoder}.
+ */
+public class PooledGzipOutputStream extends DeflaterOutputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CodecPoolService.Lease<Deflater> deflaterLease;
+    private final BufferPoolService bufferPool;
+    private final CRC32 crc = new CRC32();
+    private boolean released = false;
+
+    public PooledGzipOutputStream(OutputStream out, int level, CodecPoolService codecPool,
+                                  BufferPoolService bufferPool) throws IOException {
+        this(out, codecPool.borrowDeflater(level, Deflater.DEFAULT_STRATEGY, true), bufferPool);
+    }
+
+    private PooledGzipOutputStream(OutputStream out, CodecPoolService.Lease<Deflater> deflaterLease,
+                                   BufferPoolService bufferPool) throws IOException {
+        // The superclass buffer is swapped for a pooled one right away
+        super(out, deflaterLease.get(), 1);
+        this.deflaterLease = deflaterLease;
+        this.bufferPool = bufferPool;
+        this.buf = bufferPool.acquire(BUFFER_SIZE);
+        try {
+            out.write(GzipMemberEncoder.HEADER);
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!def.finished()) {
+            super.finish();
+            writeIntLE((int) crc.getValue());
+            writeIntLE(def.getTotalIn());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        if (!released) {
+            released = true;
+            deflaterLease.close();
+            bufferPool.release(buf);
+        }
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+}
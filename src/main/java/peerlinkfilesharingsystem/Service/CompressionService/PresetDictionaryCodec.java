@@ -0,0 +1,113 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * DEFLATE_DICT streams: zlib (RFC 1950) deflate primed with a preset dictionary.
+ *
+ * Small files compress badly because deflate starts with an empty window; a
+ * dictionary of strings typical for the file type gives it history to match
+ * from the first byte. zlib puts the dictionary's Adler-32 (DICTID) into the
+ * stream header, so a stored file names the dictionary it needs and the
+ * trailer checksum still verifies the content. Deflaters and Inflaters are
+ * borrowed from the {@link CodecPoolService} for the life of the stream.
+ */
+public final class PresetDictionaryCodec {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @FunctionalInterface
+    public interface DictionaryLookup {
+        /**
+         * @return the dictionary the stream was compressed with, or null; its
+         *         Adler-32 must be dictId, the one the stream header names
+         */
+        byte[] findByDictId(long dictId);
+    }
+
+    private PresetDictionaryCodec() {
+    }
+
+    public static long dictIdOf(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return adler.getValue();
+    }
+
+    static OutputStream newEncoder(OutputStream out, int level, byte[] dictionary, CodecPoolService codecPool) {
+        CodecPoolService.Lease<Deflater> deflaterLease =
+                codecPool.borrowDeflater(level, Deflater.DEFAULT_STRATEGY, false);
+        Deflater deflater = deflaterLease.get();
+        deflater.setDictionary(dictionary);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflaterLease.close();
+                }
+            }
+        };
+    }
+
+    static InputStream newDecoder(InputStream in, DictionaryLookup dictionaries, CodecPoolService codecPool)
+            throws IOException {
+        byte[] header = in.readNBytes(2);
+        if (header.length < 2 || (header[0] & 0x0f) != Deflater.DEFLATED
+                || (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 != 0) {
+            throw new ZipException("Not a zlib stream");
+        }
+        byte[] dictIdBytes = null;
+        byte[] dictionary = null;
+        if ((header[1] & 0x20) != 0) {
+            dictIdBytes = in.readNBytes(4);
+            if (dictIdBytes.length < 4) {
+                throw new EOFException("zlib header ended inside DICTID");
+            }
+            long dictId = ((dictIdBytes[0] & 0xffL) << 24) | ((dictIdBytes[1] & 0xff) << 16)
+                    | ((dictIdBytes[2] & 0xff) << 8) | (dictIdBytes[3] & 0xff);
+            dictionary = dictionaries.findByDictId(dictId);
+            if (dictionary == null) {
+                throw new FileNotFoundException("Preset dictionary " + Long.toHexString(dictId) + " is not available");
+            }
+            if (dictIdOf(dictionary) != dictId) {
+                throw new ZipException("Preset dictionary does not match DICTID " + Long.toHexString(dictId));
+            }
+        }
+
+        // Borrowed only once the header is read, so a short or foreign stream has nothing to give back
+        CodecPoolService.Lease<Inflater> inflaterLease = codecPool.borrowInflater(false);
+        Inflater inflater = inflaterLease.get();
+        try {
+            if (dictionary != null) {
+                // Let zlib read the header itself; it then stops asking for the dictionary
+                inflater.setInput(new byte[]{header[0], header[1],
+                        dictIdBytes[0], dictIdBytes[1], dictIdBytes[2], dictIdBytes[3]});
+                inflater.inflate(new byte[1]);
+                inflater.setDictionary(dictionary);
+            } else {
+                inflater.setInput(header);
+            }
+        } catch (DataFormatException e) {
+            inflaterLease.close();
+            throw new ZipException("Invalid zlib header: " + e.getMessage());
+        } catch (RuntimeException e) {
+            inflaterLease.close();
+            throw e;
+        }
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflaterLease.close();
+                }
+            }
+        };
+    }
+}
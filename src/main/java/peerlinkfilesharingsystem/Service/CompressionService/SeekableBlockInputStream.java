@@ -0,0 +1,158 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+
+/**
+ * Decompressing stream over a block-compressed file.
+ *
+ * {@link #skip(long)} and {@link #seek(long)} only move the position; the
+ * target block is located through the {@link BlockIndex} and inflated on the
+ * next read, so reaching any offset costs one positioned read and one block
+ * inflate instead of decompressing everything in front of it.
+ *
+ * The block buffer, the direct buffer compressed blocks are read into and the
+ * Inflater are borrowed from the {@link BufferPoolService} and
+ * {@link CodecPoolService} and returned on close.
+ */
+public class SeekableBlockInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final BlockIndex index;
+    private final CodecPoolService.Lease<Inflater> inflaterLease;
+    private final Inflater inflater;
+    private final BufferPoolService bufferPool;
+
+    private byte[] blockData;
+    private ByteBuffer compressedData;
+    private int loadedBlock = -1;
+    private long position = 0;
+    private boolean closed = false;
+
+    public SeekableBlockInputStream(String storagePath, BlockIndex index, BufferPoolService bufferPool,
+                                    CodecPoolService codecPool) throws IOException {
+        this.channel = FileChannel.open(Paths.get(storagePath), StandardOpenOption.READ);
+        this.index = index;
+        this.bufferPool = bufferPool;
+        this.blockData = bufferPool.acquire(index.getBlockSize());
+        this.inflaterLease = codecPool.borrowInflater(true);
+        this.inflater = inflaterLease.get();
+    }
+
+    public long length() {
+        return index.getUncompressedLength();
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public void seek(long newPosition) throws IOException {
+        if (newPosition < 0 || newPosition > length()) {
+            throw new EOFException("Seek outside of file: " + newPosition + " / " + length());
+        }
+        position = newPosition;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length()) {
+            return -1;
+        }
+        int block = loadBlockAt(position);
+        int value = blockData[(int) (position - index.blockStart(block))] & 0xff;
+        position++;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length()) {
+            return -1;
+        }
+        int block = loadBlockAt(position);
+        int offsetInBlock = (int) (position - index.blockStart(block));
+        int n = Math.min(len, index.blockLength(block) - offsetInBlock);
+        System.arraycopy(blockData, offsetInBlock, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, length() - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        if (loadedBlock < 0 || position >= length() || index.blockFor(position) != loadedBlock) {
+            return 0;
+        }
+        return (int) (index.blockStart(loadedBlock) + index.blockLength(loadedBlock) - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            inflaterLease.close();
+            bufferPool.release(blockData);
+            bufferPool.release(compressedData);
+            blockData = null;
+            compressedData = null;
+            channel.close();
+        }
+    }
+
+    private int loadBlockAt(long offset) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        int block = index.blockFor(offset);
+        if (block != loadedBlock) {
+            inflateBlock(block);
+            loadedBlock = block;
+        }
+        return block;
+    }
+
+    private void inflateBlock(int block) throws IOException {
+        int compressedLength = index.compressedLength(block);
+        if (compressedData == null || compressedData.capacity() < compressedLength) {
+            // Cleared first so a failed acquire cannot lead close() to release it twice
+            bufferPool.release(compressedData);
+            compressedData = null;
+            compressedData = bufferPool.acquireDirect(compressedLength);
+        } else {
+            compressedData.clear().limit(compressedLength);
+        }
+
+        long filePosition = index.compressedOffset(block);
+        while (compressedData.hasRemaining()) {
+            int n = channel.read(compressedData, filePosition + compressedData.position());
+            if (n < 0) {
+                throw new EOFException("Truncated block " + block);
+            }
+        }
+
+        GzipMemberDecoder.decode(compressedData, compressedLength, blockData, index.blockLength(block),
+                inflater, "block " + block);
+    }
+}
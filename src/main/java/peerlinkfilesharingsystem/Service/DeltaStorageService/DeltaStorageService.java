@@ -0,0 +1,233 @@
+package peerlinkfilesharingsystem.Service.DeltaStorageService;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Model.StoredBlob;
+import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+import peerlinkfilesharingsystem.Repo.StoredBlobRepo;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.CompressionService.BlockIndex;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionSettings;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionStats;
+import peerlinkfilesharingsystem.Service.CompressionService.FileCompressionService;
+import peerlinkfilesharingsystem.Service.DeltaUploadService.DeltaEncoder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Stores a new upload as a binary delta against the same user's previous upload
+ * of the same file name, when the delta is much smaller than the full blob.
+ *
+ * The conversion runs in the background after the upload has been stored
+ * normally, so uploads never wait for it: the previous version is indexed with
+ * {@link DeltaEncoder}, the new one is scanned against it, and the full blob is
+ * replaced by the delta only if it is at most max-ratio of its size.
+ *
+ * Deltas are forward (new version against old), so the old version can still be
+ * deleted on its own: the delta holds a reference on its base. Reading a delta
+ * decodes its base, which may itself be a delta; chains are capped at
+ * max-chain-depth, and {@link #rebaseDeepChains()} turns deltas deeper than
+ * rebase-depth back into full blobs so reads stay fast.
+ *
+ * CDC blobs are left alone - they already share unchanged chunks between versions.
+ */
+@Service
+@Slf4j
+public class DeltaStorageService {
+
+    private final FileTransferRepo fileTransferRepo;
+    private final StoredBlobRepo storedBlobRepo;
+    private final BlobStoreService blobStoreService;
+    private final FileCompressionService compressionService;
+
+    private final ExecutorService deltaExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "delta-storage");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${storage.delta.enabled:true}")
+    private boolean deltaEnabled;
+
+    @Value("${storage.delta.max-ratio:0.25}")
+    private double maxRatio;
+
+    @Value("${storage.delta.max-chain-depth:8}")
+    private int maxChainDepth;
+
+    @Value("${storage.delta.rebase-depth:4}")
+    private int rebaseDepth;
+
+    @Value("${storage.delta.min-file-size-kb:256}")
+    private long minFileSizeKb;
+
+    public DeltaStorageService(FileTransferRepo fileTransferRepo,
+                               StoredBlobRepo storedBlobRepo,
+                               BlobStoreService blobStoreService,
+                               FileCompressionService compressionService) {
+        this.fileTransferRepo = fileTransferRepo;
+        this.storedBlobRepo = storedBlobRepo;
+        this.blobStoreService = blobStoreService;
+        this.compressionService = compressionService;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        deltaExecutor.shutdownNow();
+        deltaExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queues delta conversion of a newly stored blob against the user's previous
+     * upload of the same name, if there is one. Called right after the blob was stored.
+     */
+    public void considerDeltaStorage(FileTransferEntity transfer, StoredBlob blob) {
+        if (!deltaEnabled || blob.getCodec() == CompressionCodec.CDC || blob.getCodec() == CompressionCodec.DELTA
+                || blob.getOriginalSize() < minFileSizeKb * 1024) {
+            return;
+        }
+
+        // The new transfer is not completed yet, so the latest completed one is the previous version
+        List<FileTransferEntity> previous = fileTransferRepo
+                .findTop2ByUserIdAndFileNameAndSuccessTrueAndDeletedFalseOrderByCompletedAtDesc(
+                        transfer.getUserId(), transfer.getFileName());
+        String baseContentHash = null;
+        for (FileTransferEntity candidate : previous) {
+            if (candidate.getContentHash() != null && !candidate.getContentHash().equals(blob.getContentHash())) {
+                baseContentHash = candidate.getContentHash();
+                break;
+            }
+        }
+        if (baseContentHash == null) {
+            return;
+        }
+
+        String contentHash = blob.getContentHash();
+        String base = baseContentHash;
+        log.info("Queued delta storage of {} ({}) against {}", contentHash, transfer.getFileName(), base);
+        deltaExecutor.submit(() -> {
+            try {
+                storeAsDelta(contentHash, base);
+            } catch (Exception e) {
+                log.error("Delta storage of {} against {} failed: {}", contentHash, base, e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Materialises every delta deeper than rebase-depth as a full blob, shallowest
+     * first - rebasing one shortens every chain stacked on it, so deeper ones
+     * often drop below the limit on their own.
+     */
+    public void rebaseDeepChains() {
+        if (!deltaEnabled) {
+            return;
+        }
+        List<StoredBlob> deep = storedBlobRepo.findByChainDepthGreaterThanOrderByChainDepthAsc(rebaseDepth);
+        if (deep.isEmpty()) {
+            return;
+        }
+        log.info("Rebasing up to {} delta blobs deeper than {}", deep.size(), rebaseDepth);
+
+        int rebased = 0;
+        for (StoredBlob candidate : deep) {
+            StoredBlob blob = blobStoreService.findBlob(candidate.getContentHash());
+            if (blob == null || blob.getCodec() != CompressionCodec.DELTA || blob.getChainDepth() <= rebaseDepth) {
+                continue;
+            }
+            try {
+                if (rebase(blob)) {
+                    rebased++;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Rebasing delta blob {} failed: {}", blob.getContentHash(), e.getMessage(), e);
+            }
+        }
+        log.info("Rebased {} delta blobs", rebased);
+    }
+
+    private void storeAsDelta(String contentHash, String baseContentHash) throws IOException {
+        StoredBlob blob = blobStoreService.findBlob(contentHash);
+        StoredBlob base = blobStoreService.findBlob(baseContentHash);
+        if (blob == null || base == null || blob.getCodec() == CompressionCodec.DELTA
+                || base.getCodec() == CompressionCodec.CDC) {
+            return;
+        }
+        if (base.getChainDepth() + 1 > maxChainDepth) {
+            log.info("Not storing {} as delta: base {} is already {} deltas deep",
+                    contentHash, baseContentHash, base.getChainDepth());
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        DeltaEncoder encoder;
+        try (InputStream baseIn = compressionService.openStoredFile(base.getStoragePath(), base.getCodec())) {
+            encoder = DeltaEncoder.forBase(baseIn, base.getOriginalSize());
+        }
+
+        String stagingPath = blobStoreService.stagingPathFor(contentHash + ".delta");
+        boolean worthIt = false;
+        try {
+            long maxLiteralBytes = (long) (blob.getOriginalSize() * maxRatio);
+            boolean encoded;
+            try (InputStream target = compressionService.openStoredFile(blob.getStoragePath(), blob.getCodec());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                         compressionService.newGzipOutputStream(new FileOutputStream(stagingPath),
+                                 Deflater.DEFAULT_COMPRESSION), 64 * 1024))) {
+                new StoredDelta(baseContentHash, base.getOriginalSize()).write(out);
+                encoded = encoder.encode(target, blob.getOriginalSize(), HexFormat.of().parseHex(contentHash),
+                        out, maxLiteralBytes);
+            }
+
+            long deltaSize = Files.size(Paths.get(stagingPath));
+            worthIt = encoded && deltaSize <= blob.getStoredSize() * maxRatio;
+            log.info("Delta of {} against {}: {} KB literal, {} KB stored vs {} KB full in {} ms{}",
+                    contentHash, baseContentHash, encoder.getLiteralBytes() / 1024, deltaSize / 1024,
+                    blob.getStoredSize() / 1024, System.currentTimeMillis() - startTime,
+                    worthIt ? "" : " - keeping the full blob");
+            if (worthIt) {
+                worthIt = blobStoreService.replaceWithDelta(contentHash, stagingPath, baseContentHash);
+            }
+        } finally {
+            if (!worthIt) {
+                Files.deleteIfExists(Paths.get(stagingPath));
+            }
+        }
+    }
+
+    private boolean rebase(StoredBlob blob) throws IOException {
+        String stagingPath = blobStoreService.stagingPathFor(blob.getContentHash() + ".full");
+        CompressionSettings settings = CompressionSettings.builder()
+                .codec(CompressionCodec.GZIP)
+                .compressionLevel(6)
+                .chunkSize(64 * 1024)
+                .build();
+
+        boolean replaced = false;
+        try {
+            CompressionStats stats;
+            try (InputStream in = compressionService.openStoredFile(blob.getStoragePath(), blob.getCodec())) {
+                stats = compressionService.compressStream(in, stagingPath, settings, null);
+            }
+            replaced = blobStoreService.replaceWithFull(blob.getContentHash(), stagingPath, stats);
+            return replaced;
+        } finally {
+            if (!replaced) {
+                Files.deleteIfExists(Paths.get(stagingPath));
+                Files.deleteIfExists(Paths.get(BlockIndex.indexPathFor(stagingPath)));
+            }
+        }
+    }
+}
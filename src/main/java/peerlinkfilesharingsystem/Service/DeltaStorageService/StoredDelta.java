@@ -0,0 +1,49 @@
+package peerlinkfilesharingsystem.Service.DeltaStorageService;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipException;
+
+/**
+ * Prefix of a DELTA-stored blob. The whole file is one GZIP stream:
+ *   int magic 'PLSD', 64 bytes base content hash (hex), long base length,
+ *   then the delta in the {@link peerlinkfilesharingsystem.Service.DeltaUploadService.DeltaApplyingInputStream} format.
+ * Naming the base inside the file lets a reader decode it with nothing but the path.
+ */
+public final class StoredDelta {
+
+    private static final int MAGIC = 0x504C5344; // "PLSD"
+
+    private final String baseContentHash;
+    private final long baseLength;
+
+    public StoredDelta(String baseContentHash, long baseLength) {
+        this.baseContentHash = baseContentHash;
+        this.baseLength = baseLength;
+    }
+
+    public static StoredDelta read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new ZipException("Not a stored delta");
+        }
+        byte[] hash = new byte[64];
+        in.readFully(hash);
+        return new StoredDelta(new String(hash, StandardCharsets.US_ASCII), in.readLong());
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.write(baseContentHash.getBytes(StandardCharsets.US_ASCII));
+        out.writeLong(baseLength);
+    }
+
+    public String getBaseContentHash() {
+        return baseContentHash;
+    }
+
+    public long getBaseLength() {
+        return baseLength;
+    }
+}
@@ -0,0 +1,243 @@
+package peerlinkfilesharingsystem.Service.DeltaUploadService;
+
+import peerlinkfilesharingsystem.Service.CompressionService.ChunkManifestInputStream;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionPipeline;
+import peerlinkfilesharingsystem.Service.CompressionService.SeekableBlockInputStream;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Rebuilds a new version from a delta while it is being read, so the result
+ * flows straight into the compression pipeline without a temporary copy.
+ *
+ * Delta layout (big-endian):
+ *   header: int magic 'PLDT', byte version, int blockSize, long newLength, 32 bytes SHA-256 of the new version
+ *   ops:    byte 1 (LITERAL), int length, bytes
+ *           byte 2 (COPY), int firstBlock, int blockCount - consecutive blocks of the base version
+ *           byte 0 (END)
+ *
+ * Copies are served from the base version's decoded stream. Blocks referenced
+ * in ascending order only move that stream forward; a reference backwards
+ * reopens it, which for seekable stored files is just a seek. A base that
+ * cannot seek (a plain GZIP stream) is decoded again from the start instead,
+ * so the bytes skipped through one are capped at MAX_BASE_PASSES times its
+ * length - otherwise a delta of backward copies costs blocks x size to apply.
+ *
+ * Length and SHA-256 of the rebuilt bytes are checked against the header at
+ * END; a mismatch fails the read with IllegalArgumentException, so the
+ * pipeline aborts and nothing is stored.
+ *
+ * Also the decoder of DELTA-stored blobs, whose base is itself a stored blob.
+ */
+public class DeltaApplyingInputStream extends InputStream {
+
+    static final int MAGIC = 0x504C4454; // "PLDT"
+    static final byte VERSION = 1;
+
+    static final byte OP_END = 0;
+    static final byte OP_LITERAL = 1;
+    static final byte OP_COPY = 2;
+    static final int MAX_LITERAL_BYTES = 8 * 1024 * 1024;
+    static final int MAX_BASE_PASSES = 4;
+
+    @FunctionalInterface
+    public interface BaseOpener {
+        InputStream open() throws IOException;
+    }
+
+    private final DataInputStream delta;
+    private final BaseOpener baseOpener;
+    private final long baseLength;
+    private final int blockSize;
+    private final long newLength;
+    private final byte[] expectedHash;
+    private final MessageDigest digest = CompressionPipeline.newContentDigest();
+
+    private InputStream base;
+    private long basePosition;
+    private boolean baseSeeks;
+    // Bytes decoded only to be skipped, over bases that cannot seek
+    private long baseBytesSkipped = 0;
+
+    // Current op: remaining bytes from the delta (literal) or from the base (copy)
+    private long literalRemaining = 0;
+    private long copyRemaining = 0;
+    private long produced = 0;
+    private long literalBytes = 0;
+    private long copiedBytes = 0;
+    private boolean ended = false;
+
+    /**
+     * Reads and checks the delta header; the ops are consumed as the stream is read.
+     *
+     * @param expectedBlockSize block size of the signatures the delta was computed
+     *                          against, or 0 to accept the one in the header
+     */
+    public DeltaApplyingInputStream(InputStream delta, BaseOpener baseOpener, long baseLength, int expectedBlockSize)
+            throws IOException {
+        this.delta = new DataInputStream(delta);
+        this.baseOpener = baseOpener;
+        this.baseLength = baseLength;
+
+        int magic = this.delta.readInt();
+        byte version = this.delta.readByte();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IllegalArgumentException("Not a delta (or unsupported version)");
+        }
+        int deltaBlockSize = this.delta.readInt();
+        if (deltaBlockSize <= 0 || (expectedBlockSize > 0 && deltaBlockSize != expectedBlockSize)) {
+            throw new IllegalArgumentException("Delta was computed with " + deltaBlockSize
+                    + "-byte blocks, the base signatures use " + expectedBlockSize);
+        }
+        this.blockSize = deltaBlockSize;
+        this.newLength = this.delta.readLong();
+        if (newLength < 0) {
+            throw new IllegalArgumentException("Negative length in delta header");
+        }
+        this.expectedHash = new byte[32];
+        this.delta.readFully(expectedHash);
+    }
+
+    long getNewLength() {
+        return newLength;
+    }
+
+    long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (literalRemaining == 0 && copyRemaining == 0) {
+            if (ended || !nextOp()) {
+                return -1;
+            }
+        }
+
+        int n;
+        if (literalRemaining > 0) {
+            n = delta.read(b, off, (int) Math.min(len, literalRemaining));
+            if (n < 0) {
+                throw new EOFException("Delta ended inside a literal");
+            }
+            literalRemaining -= n;
+            literalBytes += n;
+        } else {
+            n = base.read(b, off, (int) Math.min(len, copyRemaining));
+            if (n < 0) {
+                throw new EOFException("Base version ended inside a copied block");
+            }
+            copyRemaining -= n;
+            basePosition += n;
+            copiedBytes += n;
+        }
+
+        produced += n;
+        if (produced > newLength) {
+            throw new IllegalArgumentException("Delta rebuilds more than the announced " + newLength + " bytes");
+        }
+        digest.update(b, off, n);
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (base != null) {
+            base.close();
+        }
+    }
+
+    /**
+     * Reads the next op header.
+     *
+     * @return false at END, after the result was verified
+     */
+    private boolean nextOp() throws IOException {
+        byte op = delta.readByte();
+        switch (op) {
+            case OP_LITERAL:
+                int literalLength = delta.readInt();
+                if (literalLength < 0 || literalLength > MAX_LITERAL_BYTES) {
+                    throw new IllegalArgumentException("Literal of " + literalLength + " bytes in delta");
+                }
+                literalRemaining = literalLength;
+                return true;
+            case OP_COPY:
+                int firstBlock = delta.readInt();
+                int blockCount = delta.readInt();
+                long start = (long) firstBlock * blockSize;
+                long end = Math.min(start + (long) blockCount * blockSize, baseLength);
+                // The run may end in the short last block, but must not reach past it
+                if (firstBlock < 0 || blockCount <= 0
+                        || firstBlock + (long) blockCount > DeltaSignature.blockCount(baseLength, blockSize)) {
+                    throw new IllegalArgumentException("Copy of blocks " + firstBlock + "+" + blockCount
+                            + " outside the base version");
+                }
+                positionBase(start);
+                copyRemaining = end - start;
+                return true;
+            case OP_END:
+                ended = true;
+                verify();
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown delta op " + op);
+        }
+    }
+
+    private void positionBase(long offset) throws IOException {
+        if (base == null || offset < basePosition) {
+            if (base != null) {
+                base.close();
+            }
+            base = baseOpener.open();
+            basePosition = 0;
+            baseSeeks = base instanceof SeekableBlockInputStream || base instanceof ChunkManifestInputStream
+                    || base instanceof FileInputStream;
+        }
+        long toSkip = offset - basePosition;
+        if (!baseSeeks) {
+            baseBytesSkipped += toSkip;
+            if (baseBytesSkipped > MAX_BASE_PASSES * baseLength) {
+                throw new IllegalArgumentException("Delta copies backwards too often: it would decode the base version"
+                        + " more than " + MAX_BASE_PASSES + " times");
+            }
+        }
+        while (toSkip > 0) {
+            long skipped = base.skip(toSkip);
+            if (skipped <= 0) {
+                throw new EOFException("Base version shorter than expected");
+            }
+            toSkip -= skipped;
+        }
+        basePosition = offset;
+    }
+
+    private void verify() {
+        if (produced != newLength) {
+            throw new IllegalArgumentException("Delta rebuilt " + produced + " bytes, header announced " + newLength);
+        }
+        if (!MessageDigest.isEqual(expectedHash, digest.digest())) {
+            throw new IllegalArgumentException("Rebuilt version does not match the SHA-256 in the delta header");
+        }
+    }
+}
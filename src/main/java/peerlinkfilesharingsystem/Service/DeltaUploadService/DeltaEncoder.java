@@ -0,0 +1,226 @@
+package peerlinkfilesharingsystem.Service.DeltaUploadService;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Server-side rsync encoder: the same matching a delta-upload client does
+ * against {@link DeltaSignature}s, producing the delta format read by
+ * {@link DeltaApplyingInputStream}. Used to store a new version as a delta
+ * against the previous one.
+ *
+ * The base's block signatures are held in memory, sorted by weak checksum
+ * (about 28 bytes per block, no per-block objects). The new version is then
+ * scanned once with the rolling checksum; weak hits are confirmed with MD5.
+ */
+public final class DeltaEncoder {
+
+    private final int blockSize;
+    private final long baseLength;
+    private final int blockCount;
+    private final int lastBlockLength;
+    // (weak << 32 | blockIndex), sorted - all blocks with one weak checksum are adjacent
+    private final long[] weakIndex;
+    private final byte[] strong;
+    private final MessageDigest md5 = DeltaSignature.newStrongDigest();
+
+    private DataOutputStream out;
+    private int pendingCopyFirst = -1;
+    private int pendingCopyCount = 0;
+    private long literalBytes = 0;
+
+    private DeltaEncoder(int blockSize, long baseLength, long[] weakIndex, byte[] strong) {
+        this.blockSize = blockSize;
+        this.baseLength = baseLength;
+        this.blockCount = DeltaSignature.blockCount(baseLength, blockSize);
+        this.lastBlockLength = blockCount == 0 ? 0 : (int) (baseLength - (long) (blockCount - 1) * blockSize);
+        this.weakIndex = weakIndex;
+        this.strong = strong;
+    }
+
+    /**
+     * Reads the base version once and indexes its blocks.
+     */
+    public static DeltaEncoder forBase(InputStream base, long baseLength) throws IOException {
+        int blockSize = DeltaSignature.blockSizeFor(baseLength);
+        int blockCount = DeltaSignature.blockCount(baseLength, blockSize);
+        long[] weakIndex = new long[blockCount];
+        byte[] strong = new byte[blockCount * 16];
+        MessageDigest md5 = DeltaSignature.newStrongDigest();
+        byte[] block = new byte[blockSize];
+        for (int i = 0; i < blockCount; i++) {
+            int length = (int) Math.min(blockSize, baseLength - (long) i * blockSize);
+            if (base.readNBytes(block, 0, length) != length) {
+                throw new EOFException("Base version ended inside block " + i);
+            }
+            weakIndex[i] = ((long) DeltaSignature.weakChecksum(block, 0, length) << 32) | i;
+            md5.update(block, 0, length);
+            System.arraycopy(md5.digest(), 0, strong, i * 16, 16);
+        }
+        Arrays.sort(weakIndex);
+        return new DeltaEncoder(blockSize, baseLength, weakIndex, strong);
+    }
+
+    /**
+     * Writes the delta that turns the base into target.
+     *
+     * @param targetHash      SHA-256 of the target, recorded in the header
+     * @param maxLiteralBytes give up once more than this many bytes had to be sent literally
+     * @return false when the delta was abandoned because of maxLiteralBytes
+     */
+    public boolean encode(InputStream target, long targetLength, byte[] targetHash, DataOutputStream out,
+                          long maxLiteralBytes) throws IOException {
+        this.out = out;
+        out.writeInt(DeltaApplyingInputStream.MAGIC);
+        out.writeByte(DeltaApplyingInputStream.VERSION);
+        out.writeInt(blockSize);
+        out.writeLong(targetLength);
+        out.write(targetHash);
+
+        byte[] buffer = new byte[Math.max(4 * blockSize, 256 * 1024)];
+        int pos = 0;
+        int end = 0;
+        int literalStart = 0;
+        boolean eof = false;
+        boolean haveChecksum = false;
+        int a = 0;
+        int b = 0;
+
+        while (true) {
+            // Keep a full window plus the byte that rolls in next
+            if (end - pos <= blockSize && !eof) {
+                writeLiteral(buffer, literalStart, pos);
+                if (literalBytes > maxLiteralBytes) {
+                    return false;
+                }
+                System.arraycopy(buffer, pos, buffer, 0, end - pos);
+                end -= pos;
+                pos = 0;
+                literalStart = 0;
+                int n;
+                while (end < buffer.length && (n = target.read(buffer, end, buffer.length - end)) != -1) {
+                    end += n;
+                }
+                eof = end < buffer.length;
+                continue;
+            }
+            if (end - pos < blockSize) {
+                break;
+            }
+
+            if (!haveChecksum) {
+                a = 0;
+                b = 0;
+                for (int i = pos; i < pos + blockSize; i++) {
+                    a += buffer[i] & 0xff;
+                    b += a;
+                }
+                haveChecksum = true;
+            }
+
+            int match = findBlock((a & 0xffff) | (b << 16), buffer, pos, blockSize);
+            if (match >= 0) {
+                writeLiteral(buffer, literalStart, pos);
+                addCopy(match);
+                pos += blockSize;
+                literalStart = pos;
+                haveChecksum = false;
+            } else if (pos + blockSize < end) {
+                int old = buffer[pos] & 0xff;
+                a += (buffer[pos + blockSize] & 0xff) - old;
+                b += a - blockSize * old;
+                pos++;
+            } else {
+                pos++;
+                haveChecksum = false;
+            }
+        }
+
+        // The base's short last block can still match the tail exactly
+        int tailMatch = -1;
+        if (lastBlockLength > 0 && lastBlockLength < blockSize && end - literalStart >= lastBlockLength) {
+            int tailStart = end - lastBlockLength;
+            int weak = DeltaSignature.weakChecksum(buffer, tailStart, lastBlockLength);
+            if (findBlock(weak, buffer, tailStart, lastBlockLength) == blockCount - 1) {
+                tailMatch = tailStart;
+            }
+        }
+        writeLiteral(buffer, literalStart, tailMatch >= 0 ? tailMatch : end);
+        if (tailMatch >= 0) {
+            addCopy(blockCount - 1);
+        }
+        flushCopy();
+        out.writeByte(DeltaApplyingInputStream.OP_END);
+        out.flush();
+        return literalBytes <= maxLiteralBytes;
+    }
+
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    public long getBaseLength() {
+        return baseLength;
+    }
+
+    /**
+     * Block of the base whose checksums match the window, or -1.
+     */
+    private int findBlock(int weak, byte[] data, int off, int length) {
+        long key = (long) weak << 32;
+        int i = Arrays.binarySearch(weakIndex, key);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        byte[] digest = null;
+        for (; i < weakIndex.length && (int) (weakIndex[i] >>> 32) == weak; i++) {
+            int block = (int) weakIndex[i];
+            int blockLength = block == blockCount - 1 ? lastBlockLength : blockSize;
+            if (blockLength != length) {
+                continue;
+            }
+            if (digest == null) {
+                md5.update(data, off, length);
+                digest = md5.digest();
+            }
+            if (Arrays.equals(digest, 0, 16, strong, block * 16, block * 16 + 16)) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    private void addCopy(int block) throws IOException {
+        if (pendingCopyCount > 0 && block == pendingCopyFirst + pendingCopyCount) {
+            pendingCopyCount++;
+            return;
+        }
+        flushCopy();
+        pendingCopyFirst = block;
+        pendingCopyCount = 1;
+    }
+
+    private void flushCopy() throws IOException {
+        if (pendingCopyCount > 0) {
+            out.writeByte(DeltaApplyingInputStream.OP_COPY);
+            out.writeInt(pendingCopyFirst);
+            out.writeInt(pendingCopyCount);
+            pendingCopyCount = 0;
+        }
+    }
+
+    private void writeLiteral(byte[] data, int from, int to) throws IOException {
+        if (to <= from) {
+            return;
+        }
+        flushCopy();
+        out.writeByte(DeltaApplyingInputStream.OP_LITERAL);
+        out.writeInt(to - from);
+        out.write(data, from, to - from);
+        literalBytes += to - from;
+    }
+}
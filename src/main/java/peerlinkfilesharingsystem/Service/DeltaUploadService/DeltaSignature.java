@@ -0,0 +1,92 @@
+package peerlinkfilesharingsystem.Service.DeltaUploadService;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Block signatures of a base version, the first half of the rsync-style delta
+ * protocol. The client slides a window over its new version, looks every
+ * window's weak checksum up in these signatures, confirms hits with the strong
+ * one, and sends block references instead of those bytes.
+ *
+ * Signature layout (big-endian):
+ *   header:    int magic 'PLSG', byte version, int blockSize, long baseLength, int blockCount
+ *   per block: int weakChecksum, 16 bytes MD5
+ * The last block may be shorter than blockSize.
+ *
+ * The weak checksum is rsync's: for block bytes x_k..x_l (unsigned),
+ *   a = sum(x_i) mod 2^16,  b = sum((l - i + 1) * x_i) mod 2^16,  checksum = a | (b << 16)
+ * which rolls one byte forward in O(1):
+ *   a' = a - x_k + x_(l+1),  b' = b - (l - k + 1) * x_k + a'
+ */
+final class DeltaSignature {
+
+    static final int MAGIC = 0x504C5347; // "PLSG"
+    static final byte VERSION = 1;
+
+    private static final int MIN_BLOCK_SIZE = 2 * 1024;
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    private DeltaSignature() {
+    }
+
+    /**
+     * About sqrt(length) as a power of two (rsync's trade-off between signature
+     * size and match granularity), clamped to 2-128 KB.
+     */
+    static int blockSizeFor(long baseLength) {
+        int target = (int) Math.min(MAX_BLOCK_SIZE, Math.max(MIN_BLOCK_SIZE, (long) Math.sqrt(baseLength)));
+        return Integer.highestOneBit(target - 1) << 1;
+    }
+
+    static int blockCount(long baseLength, int blockSize) {
+        return (int) ((baseLength + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Reads the base version once and writes the signature of every block.
+     */
+    static void write(InputStream base, long baseLength, int blockSize, DataOutputStream out) throws IOException {
+        int blockCount = blockCount(baseLength, blockSize);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(blockSize);
+        out.writeLong(baseLength);
+        out.writeInt(blockCount);
+
+        MessageDigest md5 = newStrongDigest();
+        byte[] block = new byte[blockSize];
+        for (int i = 0; i < blockCount; i++) {
+            int length = (int) Math.min(blockSize, baseLength - (long) i * blockSize);
+            if (base.readNBytes(block, 0, length) != length) {
+                throw new EOFException("Base version ended inside block " + i);
+            }
+            out.writeInt(weakChecksum(block, 0, length));
+            md5.update(block, 0, length);
+            out.write(md5.digest());
+        }
+        out.flush();
+    }
+
+    static int weakChecksum(byte[] data, int off, int len) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < len; i++) {
+            a += data[off + i] & 0xff;
+            b += a;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    static MessageDigest newStrongDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package peerlinkfilesharingsystem.Service.DeltaUploadService;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Dto.FileUploadResponse;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Model.Users;
+import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.CompressionService.FileCompressionService;
+import peerlinkfilesharingsystem.Service.FileStorageService.FileStorageService;
+import peerlinkfilesharingsystem.Service.FileUploadService.FileUploadService;
+import peerlinkfilesharingsystem.Service.IntelligencePredictionService.CompressibilityProbe;
+import peerlinkfilesharingsystem.Service.IntelligencePredictionService.IntelligencePredictionService;
+import peerlinkfilesharingsystem.Service.StorageQuotaService.StorageQuotaService;
+import peerlinkfilesharingsystem.Service.TransferStatusService.TransferStatusService;
+import peerlinkfilesharingsystem.Service.UploadSupportService.UploadSupportService;
+
+import java.io.*;
+import java.time.LocalDateTime;
+
+/**
+ * Rsync-style delta upload of a new version of a file the user already stored.
+ *
+ * 1. The client fetches the block signatures of the base version
+ *    ({@link DeltaSignature}) - by transfer id or by file name, in which case
+ *    the user's latest successful upload of that name is the base.
+ * 2. It sends a delta of literal bytes and base block references.
+ * 3. The server rebuilds the new version on the fly from the delta and the
+ *    decoded base ({@link DeltaApplyingInputStream}) and stores it through the
+ *    normal upload path: predicted codec, compression pipeline, blob store.
+ *
+ * The rebuilt bytes are verified against the SHA-256 the client announced,
+ * so a wrong or stale delta fails instead of storing a corrupt version.
+ */
+@Service
+@Slf4j
+public class DeltaUploadService {
+
+    private static final long MAX_FILE_SIZE = 10 * 1024 * 1024 * 1024L;
+    private static final int SIGNATURE_BUFFER_SIZE = 64 * 1024;
+
+    private final FileTransferRepo fileTransferRepo;
+    private final FileStorageService fileStorageService;
+    private final FileCompressionService compressionService;
+    private final FileUploadService fileUploadService;
+    private final BlobStoreService blobStoreService;
+    private final IntelligencePredictionService intelligencePredictionService;
+    private final UploadSupportService uploadSupportService;
+    private final TransferStatusService transferStatusService;
+    private final StorageQuotaService storageQuotaService;
+
+    public DeltaUploadService(FileTransferRepo fileTransferRepo,
+                              FileStorageService fileStorageService,
+                              FileCompressionService compressionService,
+                              FileUploadService fileUploadService,
+                              BlobStoreService blobStoreService,
+                              IntelligencePredictionService intelligencePredictionService,
+                              UploadSupportService uploadSupportService,
+                              TransferStatusService transferStatusService,
+                              StorageQuotaService storageQuotaService) {
+        this.fileTransferRepo = fileTransferRepo;
+        this.fileStorageService = fileStorageService;
+        this.compressionService = compressionService;
+        this.fileUploadService = fileUploadService;
+        this.blobStoreService = blobStoreService;
+        this.intelligencePredictionService = intelligencePredictionService;
+        this.uploadSupportService = uploadSupportService;
+        this.transferStatusService = transferStatusService;
+        this.storageQuotaService = storageQuotaService;
+    }
+
+    /**
+     * Resolves and checks the base version: by transfer id, or else the latest
+     * successful upload of fileName. Must run on the request thread (it reads
+     * the logged-in user); the signatures themselves can then be streamed.
+     */
+    public FileTransferEntity resolveBase(String baseTransferId, String fileName) {
+        Users users = uploadSupportService.retriveLoggedInUser();
+        FileTransferEntity base;
+        if (baseTransferId != null && !baseTransferId.isBlank()) {
+            base = fileTransferRepo.findByTransferId(baseTransferId)
+                    .orElseThrow(() -> new IllegalArgumentException("Base transfer not found: " + baseTransferId));
+        } else if (fileName != null && !fileName.isBlank()) {
+            base = fileTransferRepo
+                    .findFirstByUserIdAndFileNameAndSuccessTrueAndDeletedFalseOrderByCompletedAtDesc(users.getId(), fileName)
+                    .orElseThrow(() -> new IllegalArgumentException("No earlier upload named " + fileName));
+        } else {
+            throw new IllegalArgumentException("baseTransferId or fileName is required");
+        }
+
+        fileStorageService.validateTransferAccess(users.getId().toString(), base);
+        blobStoreService.syncStoredEncoding(base);
+        if (!Boolean.TRUE.equals(base.getSuccess()) || Boolean.TRUE.equals(base.getDeleted())
+                || base.getStoragePath() == null || !new File(base.getStoragePath()).isFile()) {
+            throw new IllegalStateException("Transfer " + base.getTransferId() + " is not a stored file");
+        }
+        return base;
+    }
+
+    public int signatureBlockSize(FileTransferEntity base) {
+        return DeltaSignature.blockSizeFor(base.getFileSize());
+    }
+
+    /**
+     * Streams the block signatures of a base version resolved with {@link #resolveBase}.
+     */
+    public void writeSignatures(FileTransferEntity base, OutputStream out) throws IOException {
+        int blockSize = signatureBlockSize(base);
+        long startTime = System.currentTimeMillis();
+        try (InputStream stored = compressionService.openStoredFile(base.getStoragePath(), base.getCodec())) {
+            DataOutputStream signatureOut = new DataOutputStream(new BufferedOutputStream(out, SIGNATURE_BUFFER_SIZE));
+            DeltaSignature.write(stored, base.getFileSize(), blockSize, signatureOut);
+        }
+        log.info("Delta signatures of {} sent: {} blocks of {} KB in {} ms",
+                base.getTransferId(), DeltaSignature.blockCount(base.getFileSize(), blockSize),
+                blockSize / 1024, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Rebuilds the new version from the delta and stores it as a new transfer.
+     *
+     * @param fileName name of the new version; defaults to the base's name
+     */
+    public FileUploadResponse applyDelta(String baseTransferId, InputStream deltaBody, String fileName,
+                                         Integer latencyMs, Double networkSpeedMbps, String deviceType,
+                                         String clientIp) throws IOException {
+        FileTransferEntity base = resolveBase(baseTransferId, null);
+        Users users = uploadSupportService.retriveLoggedInUser();
+        String newFileName = fileName != null && !fileName.isBlank() ? fileName : base.getFileName();
+
+        // Should the base expire while we read it, its retired file waits for the lease to close
+        BlobStoreService.ReadLease baseLease = blobStoreService.leaseForRead(base.getStoragePath());
+        StorageQuotaService.Reservation reservation = null;
+        try (DeltaApplyingInputStream rebuilt = new DeltaApplyingInputStream(
+                new BufferedInputStream(deltaBody, SIGNATURE_BUFFER_SIZE),
+                () -> compressionService.openStoredFile(base.getStoragePath(), base.getCodec()),
+                base.getFileSize(), signatureBlockSize(base))) {
+
+            long newLength = rebuilt.getNewLength();
+            if (newLength > MAX_FILE_SIZE) {
+                throw new IllegalArgumentException("File Size Exceeded");
+            }
+            // The request body is only the delta; the header is the first place the real size is known
+            reservation = storageQuotaService.reserve(users.getId(), newLength);
+
+            String transferId = fileUploadService.generateUniqueShareId();
+            String extension = uploadSupportService.extractFileType(newFileName);
+            log.info("========== DELTA UPLOAD START ==========");
+            log.info("TransferID: {}, Base: {}", transferId, base.getTransferId());
+            log.info("Filename: {}, Size: {} bytes ({} MB)", newFileName, newLength, newLength / 1024 / 1024);
+
+            try (CompressibilityProbe.Prefix prefix = intelligencePredictionService.peekUpload(rebuilt)) {
+                IntelligencePredictionService.OptimizationParams params =
+                        intelligencePredictionService.predictOptimalParameters(
+                                newFileName, extension, networkSpeedMbps, latencyMs, newLength, deviceType,
+                                prefix.analyze());
+
+                FileTransferEntity transfer = new FileTransferEntity();
+                transfer.setTransferId(transferId);
+                transfer.setUserId(users.getId());
+                transfer.setFileName(newFileName);
+                transfer.setFileType(extension);
+                transfer.setDeviceType(deviceType);
+                transfer.setFileSize(newLength);
+                transfer.setLatencyMs(latencyMs);
+                transfer.setNetworkSpeedMbps(networkSpeedMbps);
+                transfer.setClientIp(clientIp);
+                transfer.setCodec(params.getCompressionCodec());
+                transfer.setCompressionLevel(params.getCompressionLevel());
+                transfer.setChunkSize(params.getChunkSize());
+                transfer.setExpiresAt(LocalDateTime.now().plusDays(2));
+                transfer.setStatus(TransferStatus.COMPRESSING);
+                fileTransferRepo.save(transfer);
+                reservation.persisted();
+
+                FileUploadResponse response;
+                try {
+                    response = fileUploadService.storeUpload(prefix.getInputStream(), transfer, params);
+                } catch (IOException | RuntimeException e) {
+                    transferStatusService.fail(transfer, "Delta upload failed: " + e.getMessage());
+                    throw e;
+                }
+
+                long sent = rebuilt.getLiteralBytes();
+                log.info("Delta upload {} rebuilt: {} KB literal, {} KB copied from {} ({}% not sent)",
+                        transferId, sent / 1024, rebuilt.getCopiedBytes() / 1024, base.getTransferId(),
+                        newLength == 0 ? 0 : rebuilt.getCopiedBytes() * 100 / newLength);
+                return response;
+            }
+        } finally {
+            if (reservation != null) {
+                reservation.close();
+            }
+            baseLease.close();
+        }
+    }
+}
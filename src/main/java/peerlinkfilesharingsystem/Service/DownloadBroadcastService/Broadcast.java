@@ -0,0 +1,218 @@
+package peerlinkfilesharingsystem.Service.DownloadBroadcastService;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One decode of a stored file shared by its readers.
+ *
+ * The ring holds decoded bytes [produced - window, produced). It is taken
+ * from the pool by the first slice decoded, so a broadcast whose readers all
+ * skip or leave before reading never holds one. Readers
+ * copy out of it without the lock and check afterwards that the producer has
+ * not reserved the region they copied for overwriting; if it has, the copy is
+ * thrown away and the reader detaches. The reader that needs bytes past
+ * {@code produced} decodes the next slice into the ring while the others wait
+ * on {@link #advanced}.
+ */
+@Slf4j
+class Broadcast {
+
+    // Decode in slices of at most this, so waiting readers see progress early
+    private static final int SLICE = 256 * 1024;
+
+    private final DownloadBroadcastService service;
+    private final String storagePath;
+    private final long length;
+    private final DownloadBroadcastService.Decoder decoder;
+    private final int window;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+
+    private byte[] ring;
+    private InputStream source;
+    private long produced = 0;
+    // Bytes up to this offset may be being written into the ring right now
+    private long reserved = 0;
+    private boolean producing = false;
+    private IOException failure;
+    private int readers = 0;
+    private boolean ringReleased = false;
+
+    Broadcast(DownloadBroadcastService service, String storagePath, long length,
+              DownloadBroadcastService.Decoder decoder, int window) {
+        this.service = service;
+        this.storagePath = storagePath;
+        this.length = length;
+        this.decoder = decoder;
+        this.window = window;
+    }
+
+    String storagePath() {
+        return storagePath;
+    }
+
+    DownloadBroadcastService.Decoder decoder() {
+        return decoder;
+    }
+
+    long length() {
+        return length;
+    }
+
+    void recordDetached() {
+        service.recordDetached();
+    }
+
+    /**
+     * Adds a reader starting at the first byte, if that byte is still in the window.
+     */
+    boolean join() {
+        lock.lock();
+        try {
+            if (ringReleased || failure != null || reserved > window) {
+                return false;
+            }
+            readers++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies decoded bytes at {@code position} into {@code b}.
+     *
+     * @return bytes copied, -1 at the end of the file, or 0 when the window has
+     * moved past {@code position} and the reader has to detach
+     */
+    int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        long available;
+        byte[] copyFrom;
+        lock.lock();
+        try {
+            while (position >= produced) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (!producing) {
+                    produceNextSlice();
+                    continue;
+                }
+                advanced.awaitUninterruptibly();
+            }
+            if (position < reserved - window) {
+                return 0;
+            }
+            available = produced;
+            copyFrom = ring;
+        } finally {
+            lock.unlock();
+        }
+
+        int n = (int) Math.min(len, available - position);
+        int at = (int) (position % window);
+        int first = Math.min(n, window - at);
+        System.arraycopy(copyFrom, at, b, off, first);
+        if (first < n) {
+            System.arraycopy(copyFrom, 0, b, off + first, n - first);
+        }
+
+        lock.lock();
+        try {
+            // The producer may have started overwriting what was just copied
+            return position < reserved - window ? 0 : n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops a reader; the last one out closes the decoder and returns the ring.
+     */
+    void leave() {
+        byte[] released;
+        lock.lock();
+        try {
+            readers--;
+            if (readers > 0 || ringReleased) {
+                return;
+            }
+            ringReleased = true;
+            released = ring;
+            ring = null;
+        } finally {
+            lock.unlock();
+        }
+        service.finished(this);
+        closeSource();
+        if (released != null) {
+            service.releaseRing(released);
+        }
+    }
+
+    /**
+     * Called with the lock held; decodes outside it and reacquires before returning.
+     */
+    private void produceNextSlice() {
+        producing = true;
+        if (ring == null) {
+            ring = service.acquireRing();
+        }
+        long start = produced;
+        int slice = (int) Math.min(Math.min(SLICE, window / 4), length - start);
+        reserved = start + slice;
+        lock.unlock();
+
+        int filled = 0;
+        IOException error = null;
+        try {
+            if (source == null) {
+                source = decoder.open();
+            }
+            while (filled < slice) {
+                int at = (int) ((start + filled) % window);
+                int n = source.read(ring, at, Math.min(slice - filled, window - at));
+                if (n == -1) {
+                    throw new EOFException("Stored file " + storagePath + " ended at "
+                            + (start + filled) + " of " + length + " bytes");
+                }
+                filled += n;
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException("Decoding " + storagePath + " failed", e);
+        }
+
+        lock.lock();
+        produced = start + filled;
+        producing = false;
+        if (error != null) {
+            log.warn("Shared decode of {} failed at {} bytes: {}", storagePath, produced, error.getMessage());
+            failure = error;
+            service.finished(this);
+        }
+        advanced.signalAll();
+    }
+
+    private void closeSource() {
+        if (source == null) {
+            return;
+        }
+        try {
+            source.close();
+        } catch (IOException e) {
+            log.debug("Closing shared decoder of {} failed: {}", storagePath, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package peerlinkfilesharingsystem.Service.DownloadBroadcastService;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A reader of a {@link Broadcast}. Reads come out of the shared window until
+ * the reader falls behind it or skips; from then on it reads its own decoded
+ * stream, opened and skipped to where it left off.
+ */
+@Slf4j
+class BroadcastInputStream extends InputStream {
+
+    private final Broadcast broadcast;
+    private final byte[] single = new byte[1];
+
+    private long position = 0;
+    private boolean attached = true;
+    private InputStream own;
+    private boolean closed = false;
+
+    BroadcastInputStream(Broadcast broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (attached) {
+            int n = broadcast.read(position, b, off, len);
+            if (n != 0) {
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            }
+            log.debug("Reader of {} fell behind the shared window at {} bytes", broadcast.storagePath(), position);
+            detach();
+        }
+        int n = own().read(b, off, len);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (attached) {
+            // A range starts away from the shared position; serve it alone
+            long target = Math.min(position + n, broadcast.length());
+            long skipped = target - position;
+            detach();
+            position = target;
+            return skipped;
+        }
+        long skipped = own().skip(n);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (attached) {
+            attached = false;
+            broadcast.leave();
+        }
+        if (own != null) {
+            own.close();
+        }
+    }
+
+    private void detach() {
+        attached = false;
+        broadcast.leave();
+        broadcast.recordDetached();
+    }
+
+    /**
+     * The reader's own decoded stream, opened at its position on first use.
+     */
+    private InputStream own() throws IOException {
+        if (own != null) {
+            return own;
+        }
+        own = broadcast.decoder().open();
+        long at = 0;
+        while (at < position) {
+            long skipped = own.skip(position - at);
+            if (skipped <= 0) {
+                if (own.read() == -1) {
+                    throw new EOFException("Stored file " + broadcast.storagePath() + " ended at " + at
+                            + " of " + broadcast.length() + " bytes");
+                }
+                skipped = 1;
+            }
+            at += skipped;
+        }
+        return own;
+    }
+}
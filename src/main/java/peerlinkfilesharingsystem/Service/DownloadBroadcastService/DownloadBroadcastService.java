@@ -0,0 +1,197 @@
+package peerlinkfilesharingsystem.Service.DownloadBroadcastService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single-flight decompression for concurrent downloads of the same file.
+ *
+ * Readers of one storage path share a {@link Broadcast}: the file is decoded
+ * once into a ring buffer (the replay window) and every reader copies its
+ * bytes from there. Decoding is done by whichever reader first needs bytes
+ * past the decoded end, so there is no extra thread and the group moves as
+ * fast as its fastest reader.
+ *
+ * A download of a file nobody else is reading decodes alone, without a ring:
+ * most downloads have no company, and each window is a humongous allocation
+ * the buffer pool only keeps a few of. The second concurrent reader starts a
+ * broadcast, and the ones after it join while the start of the file is still
+ * in the window; once it is not, the next one starts a new broadcast. A reader the
+ * window has moved past - a slow client - or one that skips (a Range request)
+ * detaches: it opens its own decoded stream at its position and continues
+ * alone, and the group never waits for it.
+ *
+ * Metrics: peerlink.download.broadcast.opens (outcome=alone|joined|started),
+ * peerlink.download.broadcast.detached and peerlink.download.broadcast.active.
+ */
+@Service
+@Slf4j
+public class DownloadBroadcastService {
+
+    private final BufferPoolService bufferPoolService;
+    private final boolean enabled;
+    private final int windowBytes;
+
+    // storagePath -> the broadcast new readers of that file join
+    private final ConcurrentHashMap<String, Broadcast> joinable = new ConcurrentHashMap<>();
+    // storagePath -> readers decoding it alone
+    private final ConcurrentHashMap<String, Integer> alone = new ConcurrentHashMap<>();
+
+    private final Counter aloneOpens;
+    private final Counter joined;
+    private final Counter started;
+    private final Counter detached;
+
+    public DownloadBroadcastService(BufferPoolService bufferPoolService, MeterRegistry meterRegistry,
+                                    @Value("${download.broadcast.enabled:true}") boolean enabled,
+                                    @Value("${download.broadcast.window-mb:8}") int windowMb) {
+        this.bufferPoolService = bufferPoolService;
+        this.enabled = enabled;
+        this.windowBytes = Math.min(Math.max(windowMb, 1), BufferPoolService.MAX_CLASS_SIZE / (1024 * 1024))
+                * 1024 * 1024;
+
+        this.aloneOpens = Counter.builder("peerlink.download.broadcast.opens").tag("outcome", "alone")
+                .description("Downloads with no concurrent reader, decoded without a window").register(meterRegistry);
+        this.joined = Counter.builder("peerlink.download.broadcast.opens").tag("outcome", "joined")
+                .description("Downloads that joined a decode already in flight").register(meterRegistry);
+        this.started = Counter.builder("peerlink.download.broadcast.opens").tag("outcome", "started")
+                .description("Downloads that started a new decode").register(meterRegistry);
+        this.detached = Counter.builder("peerlink.download.broadcast.detached")
+                .description("Readers that fell behind the window or skipped and decode on their own")
+                .register(meterRegistry);
+        Gauge.builder("peerlink.download.broadcast.active", joinable, ConcurrentHashMap::size)
+                .description("Files with a joinable broadcast").register(meterRegistry);
+
+        log.info("Download broadcast {}: {} MB replay window", enabled ? "enabled" : "disabled",
+                windowBytes / 1024 / 1024);
+    }
+
+    /**
+     * Whether downloads of a file stored with this codec should share one decode.
+     */
+    public boolean shouldBroadcast(CompressionCodec codec) {
+        return enabled && codec != CompressionCodec.STORE;
+    }
+
+    /**
+     * The decompressed file, decoded once for all concurrent readers.
+     * {@code decoder} opens a fresh decoded stream from the first byte.
+     */
+    public InputStream open(String storagePath, long originalSizeBytes, Decoder decoder) {
+        while (true) {
+            Broadcast current = joinable.get(storagePath);
+            if (current != null && current.join()) {
+                joined.increment();
+                return new BroadcastInputStream(current);
+            }
+            if (current == null && alone.merge(storagePath, 1, Integer::sum) == 1) {
+                aloneOpens.increment();
+                return new AloneInputStream(storagePath, decoder);
+            }
+            if (current == null) {
+                leftAlone(storagePath);
+            }
+            Broadcast fresh = new Broadcast(this, storagePath, originalSizeBytes, decoder, windowBytes);
+            boolean published = current == null
+                    ? joinable.putIfAbsent(storagePath, fresh) == null
+                    : joinable.replace(storagePath, current, fresh);
+            if (published) {
+                fresh.join();
+                started.increment();
+                return new BroadcastInputStream(fresh);
+            }
+            // Lost the race to another new broadcast: join that one instead
+        }
+    }
+
+    /**
+     * Opens the decoded stored file from its first byte.
+     */
+    public interface Decoder {
+        InputStream open() throws IOException;
+    }
+
+    void recordDetached() {
+        detached.increment();
+    }
+
+    void finished(Broadcast broadcast) {
+        joinable.remove(broadcast.storagePath(), broadcast);
+    }
+
+    byte[] acquireRing() {
+        return bufferPoolService.acquire(windowBytes);
+    }
+
+    void releaseRing(byte[] ring) {
+        bufferPoolService.release(ring);
+    }
+
+    private void leftAlone(String storagePath) {
+        alone.computeIfPresent(storagePath, (path, readers) -> readers == 1 ? null : readers - 1);
+    }
+
+    /**
+     * The decoded file for a reader with no company. The decoder is opened on
+     * first use and the reader is counted until the stream is closed.
+     */
+    private class AloneInputStream extends InputStream {
+
+        private final String storagePath;
+        private final Decoder decoder;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private InputStream source;
+
+        AloneInputStream(String storagePath, Decoder decoder) {
+            this.storagePath = storagePath;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return source().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return source().read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return source().skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            leftAlone(storagePath);
+            if (source != null) {
+                source.close();
+            }
+        }
+
+        private InputStream source() throws IOException {
+            if (closed.get()) {
+                throw new IOException("Stream closed");
+            }
+            if (source == null) {
+                source = decoder.open();
+            }
+            return source;
+        }
+    }
+}
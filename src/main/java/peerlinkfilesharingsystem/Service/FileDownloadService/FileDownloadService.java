@@ -9,20 +9,25 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import peerlinkfilesharingsystem.Dto.FileShareDownloadDTO;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
 import peerlinkfilesharingsystem.Enums.MarkFileAs;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
 import peerlinkfilesharingsystem.Exception.UnauthorizedFileAccessException;
 import peerlinkfilesharingsystem.Model.*;
 import peerlinkfilesharingsystem.Repo.FileDownloadRepo;
 import peerlinkfilesharingsystem.Repo.FileShareRepo;
 import peerlinkfilesharingsystem.Repo.FileTransferRepo;
 import peerlinkfilesharingsystem.Repo.UserRepo;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.BlockCacheService.BlockCacheService;
+import peerlinkfilesharingsystem.Service.DownloadBroadcastService.DownloadBroadcastService;
+import peerlinkfilesharingsystem.Service.CompressionService.FileCompressionService;
 import peerlinkfilesharingsystem.Service.FileStorageService.FileStorageService;
 import peerlinkfilesharingsystem.Service.IntelligencePredictionService.IntelligencePredictionService;
 
 import java.io.*;
 import java.time.LocalDateTime;
 import java.util.Optional;
-import java.util.zip.GZIPInputStream;
 
 @Service
 @Slf4j
@@ -31,6 +36,10 @@ public class FileDownloadService {
     private final FileDownloadRepo fileDownloadRepo;
     private final FileShareRepo fileShareRepo;
     private final FileStorageService fileStorageService;
+    private final FileCompressionService compressionService;
+    private final BlobStoreService blobStoreService;
+    private final BlockCacheService blockCacheService;
+    private final DownloadBroadcastService downloadBroadcastService;
     private FileTransferRepo fileTransferRepo;
     private IntelligencePredictionService intelligencePredictionService;
     private UserRepo userRepo;
@@ -41,12 +50,18 @@ public class FileDownloadService {
     public FileDownloadService(
             FileTransferRepo fileTransferRepo,
             UserRepo userRepo,
-            IntelligencePredictionService intelligencePredictionService, FileDownloadRepo fileDownloadRepo, FileShareRepo fileShareRepo, FileStorageService fileStorageService) {
+            IntelligencePredictionService intelligencePredictionService, FileDownloadRepo fileDownloadRepo, FileShareRepo fileShareRepo, FileStorageService fileStorageService,
+            FileCompressionService compressionService, BlobStoreService blobStoreService,
+            BlockCacheService blockCacheService, DownloadBroadcastService downloadBroadcastService) {
         this.fileTransferRepo = fileTransferRepo;
         this.intelligencePredictionService = intelligencePredictionService;
         this.fileDownloadRepo = fileDownloadRepo;
         this.fileShareRepo = fileShareRepo;
         this.fileStorageService = fileStorageService;
+        this.compressionService = compressionService;
+        this.blobStoreService = blobStoreService;
+        this.blockCacheService = blockCacheService;
+        this.downloadBroadcastService = downloadBroadcastService;
         this.userRepo = userRepo;
     }
 
@@ -120,6 +135,17 @@ public class FileDownloadService {
         }
     }
 
+    /**
+     * Codec recorded at upload time; rows written before codecs were recorded
+     * fall back to sniffing the GZIP magic bytes.
+     */
+    private CompressionCodec resolveCodec(FileTransferEntity transfer, File file) {
+        if (transfer.getCodec() != null) {
+            return transfer.getCodec();
+        }
+        return isGzipCompressed(file) ? CompressionCodec.GZIP : CompressionCodec.STORE;
+    }
+
     private String getFileExtension(String fileName) {
         if (fileName == null || fileName.lastIndexOf(".") == -1) {
             return "";
@@ -132,7 +158,7 @@ public class FileDownloadService {
      *
      * Features:
      * 1. Calculates optimal chunk size based on network speed & latency
-     * 2. Decompresses GZIP files on-the-fly if needed
+     * 2. Decodes the file on-the-fly with the codec it was stored with
      * 3. Streams data efficiently to avoid memory issues
      * 4. Logs progress metrics
      */
@@ -152,6 +178,10 @@ public class FileDownloadService {
                 log.info("File deleted from Storage");
                 throw new FileNotFoundException("File Expired");
             }
+            if (TransferStatus.isPending(transferOpt.get().getStatus())) {
+                log.info("Upload not finalized yet: {} ({})", transferId, transferOpt.get().getStatus());
+                throw new FileNotFoundException("Upload not completed");
+            }
 
             if (transferOpt.isEmpty()) {
                 log.error("Transfer not found: {}", transferId);
@@ -172,6 +202,8 @@ public class FileDownloadService {
             fileDownloadRepo.save(fileDownload);
             FileTransferEntity transfer = transferOpt.get();
             transfer.setDownloadCount(transfer.getDownloadCount() + 1);
+            // Delta storage and rebasing may have moved the content since this row was read
+            blobStoreService.syncStoredEncoding(transfer);
             String storagePath = transfer.getStoragePath();
 
             File file = new File(storagePath);
@@ -183,9 +215,10 @@ public class FileDownloadService {
 
             log.info("File found on disk - Size: {} bytes", file.length());
 
-            // Check if file is GZIP compressed
-            boolean isCompressed = isGzipCompressed(file);
-            log.info("File is {} compressed", isCompressed ? "GZIP" : "NOT");
+            // Pick the decoder matching the codec the file was stored with
+            CompressionCodec codec = resolveCodec(transfer, file);
+            boolean isCompressed = codec != CompressionCodec.STORE;
+            log.info("File is stored with codec {}", codec);
 
             // Get file extension
             String extension = getFileExtension(transfer.getFileName());
@@ -205,23 +238,22 @@ public class FileDownloadService {
             log.info("  Chunk Size: {} bytes", optimizationParams.getChunkSize());
             log.info("  Compression Level: {}", optimizationParams.getCompressionLevel());
 
-            // Create chunked input stream
-            InputStream baseInputStream = new FileInputStream(file);
+            // Streams are opened per request/range by the resource, decoded with adaptive chunk size
+            StoredFileResource storedFile = new StoredFileResource(
+                    storagePath,
+                    codec,
+                    transfer.getFileName(),
+                    transfer.getFileSize(),
+                    optimizationParams.getChunkSize(),
+                    compressionService
+            );
 
             if (isCompressed) {
-                baseInputStream = new GZIPInputStream(baseInputStream);
-                log.info("GZIPInputStream created - file will be decompressed");
+                log.info("File will be decompressed with {} decoder", codec);
             }
 
-            // Wrap in chunked resource with adaptive chunk size
-            ChunkedInputStream chunkedInputStream = new ChunkedInputStream(
-                    baseInputStream,
-                    optimizationParams.getChunkSize(),
-                    transfer.getFileName()
-            );
-
             return ChunkedDownloadResource.builder()
-                    .inputStream(chunkedInputStream)
+                    .resource(storedFile)
                     .fileName(transfer.getFileName())
                     .originalSizeBytes(transfer.getFileSize())
                     .compressedSizeBytes(transfer.getBytesTransferred())
@@ -301,6 +333,10 @@ public class FileDownloadService {
                 log.info("File deleted from Storage");
                 throw new FileNotFoundException("File Expired");
             }
+            if (TransferStatus.isPending(transferOpt.get().getStatus())) {
+                log.info("Upload not finalized yet: {} ({})", transferId, transferOpt.get().getStatus());
+                throw new FileNotFoundException("Upload not completed");
+            }
             if (transferOpt.isEmpty() || fileShare == null ) {
                 log.error("Transfer not found: {}", transferId);
                 return null;
@@ -322,6 +358,8 @@ public class FileDownloadService {
             fileDownloadRepo.save(fileDownload);
             FileTransferEntity transfer = transferOpt.get();
             transfer.setDownloadCount(transfer.getDownloadCount() + 1);
+            // Delta storage and rebasing may have moved the content since this row was read
+            blobStoreService.syncStoredEncoding(transfer);
             String storagePath = transfer.getStoragePath();
             fileTransferRepo.save(transfer);
             File file = new File(storagePath);
@@ -333,9 +371,10 @@ public class FileDownloadService {
 
             log.info("File found on disk - Size: {} bytes", file.length());
 
-            // Check if file is GZIP compressed
-            boolean isCompressed = isGzipCompressed(file);
-            log.info("File is {} compressed", isCompressed ? "GZIP" : "NOT");
+            // Pick the decoder matching the codec the file was stored with
+            CompressionCodec codec = resolveCodec(transfer, file);
+            boolean isCompressed = codec != CompressionCodec.STORE;
+            log.info("File is stored with codec {}", codec);
 
             // Get file extension
             String extension = getFileExtension(transfer.getFileName());
@@ -355,23 +394,30 @@ public class FileDownloadService {
             log.info("  Chunk Size: {} bytes", optimizationParams.getChunkSize());
             log.info("  Compression Level: {}", optimizationParams.getCompressionLevel());
 
-            // Create chunked input stream
-            InputStream baseInputStream = new FileInputStream(file);
+            // Streams are opened per request/range by the resource, decoded with adaptive chunk size
+            StoredFileResource storedFile = new StoredFileResource(
+                    storagePath,
+                    codec,
+                    transfer.getFileName(),
+                    transfer.getFileSize(),
+                    optimizationParams.getChunkSize(),
+                    compressionService
+            );
+            if (blockCacheService.shouldCache(transfer, codec)) {
+                // Popular public link: decode its blocks once and serve repeats from the cache
+                storedFile = storedFile.withBlockCache(blockCacheService);
+            }
+            if (downloadBroadcastService.shouldBroadcast(codec)) {
+                // A link that goes viral is downloaded by many at once: decompress it once for all of them
+                storedFile = storedFile.withBroadcast(downloadBroadcastService);
+            }
 
             if (isCompressed) {
-                baseInputStream = new GZIPInputStream(baseInputStream);
-                log.info("GZIPInputStream created - file will be decompressed");
+                log.info("File will be decompressed with {} decoder", codec);
             }
 
-            // Wrap in chunked resource with adaptive chunk size
-            ChunkedInputStream chunkedInputStream = new ChunkedInputStream(
-                    baseInputStream,
-                    optimizationParams.getChunkSize(),
-                    transfer.getFileName()
-            );
-
             return ChunkedDownloadResource.builder()
-                    .inputStream(chunkedInputStream)
+                    .resource(storedFile)
                     .fileName(transfer.getFileName())
                     .originalSizeBytes(transfer.getFileSize())
                     .compressedSizeBytes(transfer.getBytesTransferred())
@@ -406,7 +452,6 @@ public class FileDownloadService {
         private final InputStream delegate;
         private final int chunkSize;
         private final String fileName;
-        private final byte[] buffer;
         private long totalBytesRead = 0;
         private long startTime;
         private int chunkCount = 0;
@@ -416,7 +461,6 @@ public class FileDownloadService {
             this.delegate = delegate;
             this.chunkSize = chunkSize;
             this.fileName = fileName;
-            this.buffer = new byte[chunkSize];
             this.startTime = System.currentTimeMillis();
         }
 
@@ -457,6 +501,14 @@ public class FileDownloadService {
             return bytesRead;
         }
 
+        /**
+         * Delegated so a seekable decoder can jump to a range start instead of reading up to it.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            return delegate.skip(n);
+        }
+
         @Override
         public void close() throws IOException {
             long totalTime = System.currentTimeMillis() - startTime;
@@ -0,0 +1,143 @@
+package peerlinkfilesharingsystem.Service.FileDownloadService;
+
+import org.springframework.core.io.AbstractResource;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Service.BlockCacheService.BlockCacheService;
+import peerlinkfilesharingsystem.Service.CompressionService.FileCompressionService;
+import peerlinkfilesharingsystem.Service.DownloadBroadcastService.DownloadBroadcastService;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stored upload exposed as a Spring {@link org.springframework.core.io.Resource}
+ * in its original (decompressed) form.
+ *
+ * Every {@link #getInputStream()} call opens a fresh decoded stream, which is what
+ * Spring's range support needs: for a Range request it converts this resource into
+ * ResourceRegions and skips each stream to the region start. Block-compressed, CDC
+ * and STORE files skip by seeking, so a range near the end of a large file never
+ * inflates the blocks in front of it. DELTA files are rebuilt from their base and
+ * read through to the range start.
+ *
+ * {@link #asStoredEncoding()} gives the same file as its raw stored GZIP bytes, for
+ * clients that accept Content-Encoding: gzip and can decode it themselves.
+ * {@link #withBlockCache} makes the decoded streams of a hot file go through the
+ * {@link BlockCacheService}, so ranges and repeat downloads reuse decoded blocks.
+ * {@link #withBroadcast} makes concurrent downloads share one decode through the
+ * {@link DownloadBroadcastService}; with both, the cache fills its misses from the
+ * shared decode.
+ */
+public class StoredFileResource extends AbstractResource {
+
+    private final String storagePath;
+    private final CompressionCodec codec;
+    private final String fileName;
+    private final long originalSizeBytes;
+    private final int chunkSize;
+    private final FileCompressionService compressionService;
+    private final boolean storedEncoding;
+    private final BlockCacheService blockCache;
+    private final DownloadBroadcastService broadcast;
+
+    public StoredFileResource(String storagePath, CompressionCodec codec, String fileName, long originalSizeBytes,
+                              int chunkSize, FileCompressionService compressionService) {
+        this(storagePath, codec, fileName, originalSizeBytes, chunkSize, compressionService, false, null, null);
+    }
+
+    private StoredFileResource(String storagePath, CompressionCodec codec, String fileName, long originalSizeBytes,
+                               int chunkSize, FileCompressionService compressionService, boolean storedEncoding,
+                               BlockCacheService blockCache, DownloadBroadcastService broadcast) {
+        this.storagePath = storagePath;
+        this.codec = codec;
+        this.fileName = fileName;
+        this.originalSizeBytes = originalSizeBytes;
+        this.chunkSize = chunkSize;
+        this.compressionService = compressionService;
+        this.storedEncoding = storedEncoding;
+        this.blockCache = blockCache;
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * True when the bytes on disk are already a valid GZIP stream a client can decode.
+     */
+    public boolean isGzipEncoded() {
+        return codec == CompressionCodec.GZIP || codec == CompressionCodec.GZIP_HUFFMAN;
+    }
+
+    /**
+     * The same file served exactly as stored - no server-side decompression.
+     */
+    public StoredFileResource asStoredEncoding() {
+        return new StoredFileResource(storagePath, codec, fileName, originalSizeBytes, chunkSize,
+                compressionService, true, null, null);
+    }
+
+    /**
+     * The same file with its decoded streams served through the block cache.
+     */
+    public StoredFileResource withBlockCache(BlockCacheService blockCache) {
+        return new StoredFileResource(storagePath, codec, fileName, originalSizeBytes, chunkSize,
+                compressionService, storedEncoding, blockCache, broadcast);
+    }
+
+    /**
+     * The same file with concurrent decoded streams sharing a single decode.
+     */
+    public StoredFileResource withBroadcast(DownloadBroadcastService broadcast) {
+        return new StoredFileResource(storagePath, codec, fileName, originalSizeBytes, chunkSize,
+                compressionService, storedEncoding, blockCache, broadcast);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        InputStream source;
+        if (storedEncoding) {
+            source = new FileInputStream(storagePath);
+        } else {
+            DownloadBroadcastService.Decoder decoder = () -> compressionService.openStoredFile(storagePath, codec);
+            if (broadcast != null) {
+                DownloadBroadcastService.Decoder ownDecoder = decoder;
+                decoder = () -> broadcast.open(storagePath, originalSizeBytes, ownDecoder);
+            }
+            source = blockCache != null
+                    ? blockCache.open(storagePath, originalSizeBytes, decoder::open)
+                    : decoder.open();
+        }
+        return new FileDownloadService.ChunkedInputStream(source, chunkSize, fileName);
+    }
+
+    @Override
+    public boolean exists() {
+        return new File(storagePath).isFile();
+    }
+
+    @Override
+    public long contentLength() {
+        return storedEncoding ? new File(storagePath).length() : originalSizeBytes;
+    }
+
+    @Override
+    public String getFilename() {
+        return fileName;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Stored file [" + fileName + "] at " + storagePath + " (" + codec
+                + (storedEncoding ? ", as stored" : "")
+                + (blockCache != null ? ", block cached" : "")
+                + (broadcast != null ? ", broadcast" : "") + ")";
+    }
+
+    public String getStoragePath() {
+        return storagePath;
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+}
@@ -0,0 +1,57 @@
+package peerlinkfilesharingsystem.Service.FileDownloadService;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Zero-copy download path for bytes that go out exactly as stored
+ * (STORE files and GZIP files served with Content-Encoding: gzip).
+ *
+ * On Tomcat's NIO connector the file region is handed to the container's
+ * sendfile support, so bytes move from the page cache to the socket without
+ * entering the JVM heap. Connectors without sendfile get no special path: the
+ * download goes through the Resource and {@link FileDownloadService.ChunkedInputStream}
+ * like any other.
+ *
+ * The connector writes the region after the request has returned, so there are
+ * no per-second progress lines here; the byte count is logged when the region
+ * is handed over, in the same form as ChunkedInputStream's completion line.
+ */
+@Slf4j
+public final class ZeroCopyTransfer {
+
+    // Request attributes understood by Tomcat's Http11Processor
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Below this a normal write is as cheap as setting up sendfile (Tomcat DefaultServlet uses the same)
+    public static final long MIN_ZERO_COPY_BYTES = 48 * 1024;
+
+    private ZeroCopyTransfer() {
+    }
+
+    public static boolean isSendfileSupported(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR));
+    }
+
+    /**
+     * Hands [start, start + length) of the file to the container. The caller must
+     * set Content-Length to length and must not write a body.
+     */
+    public static void dispatchSendfile(HttpServletRequest request, String storagePath, long start, long length,
+                                        String fileName) throws IOException {
+        String canonicalPath = new File(storagePath).getCanonicalPath();
+        request.setAttribute(SENDFILE_FILENAME_ATTR, canonicalPath);
+        request.setAttribute(SENDFILE_START_ATTR, start);
+        request.setAttribute(SENDFILE_END_ATTR, start + length);
+
+        // The connector writes the file after the response is committed; whether it finishes is not seen here
+        log.info("Download handed to sendfile → File: {}, Bytes: {}-{}, Size: {} MB ({} bytes)",
+                fileName, start, start + length - 1, length / (1024 * 1024), length);
+    }
+}
@@ -66,7 +66,7 @@ public class FileShareService {
         Users users = retriveLoggedInUser();
 
         try {
-            fileStorageService.validateUserAccess(users.getId().toString(), fileTransferEntity.getStoragePath());
+            fileStorageService.validateTransferAccess(users.getId().toString(), fileTransferEntity);
         } catch (UnauthorizedFileAccessException ex) {
             return new ResponseEntity<>("Invalid Access", HttpStatus.UNAUTHORIZED);
         }
@@ -108,7 +108,7 @@ public class FileShareService {
             return ResponseEntity.status(404).body("File not found");
         }
         try {
-            fileStorageService.validateUserAccess(users.getId().toString(), fileOpt.get().getStoragePath());
+            fileStorageService.validateTransferAccess(users.getId().toString(), fileOpt.get());
         } catch (UnauthorizedFileAccessException ex) {
             return new ResponseEntity<>("Invalid Access", HttpStatus.UNAUTHORIZED);
         }
@@ -153,7 +153,7 @@ public class FileShareService {
                 );
         System.out.println(fileTransferEntity.getStoragePath());
         try {
-            fileStorageService.validateUserAccess(users.getId().toString(), fileTransferEntity.getStoragePath());
+            fileStorageService.validateTransferAccess(users.getId().toString(), fileTransferEntity);
         } catch (UnauthorizedFileAccessException ex) {
             return new ResponseEntity<>("Invalid Access", HttpStatus.UNAUTHORIZED);
         }
@@ -193,7 +193,7 @@ public class FileShareService {
             return ResponseEntity.status(404).body("File not found");
         }
         try {
-            fileStorageService.validateUserAccess(users.getId().toString(), fileOpt.get().getStoragePath());
+            fileStorageService.validateTransferAccess(users.getId().toString(), fileOpt.get());
         } catch (UnauthorizedFileAccessException ex) {
             return new ResponseEntity<>("Invalid Access", HttpStatus.UNAUTHORIZED);
         }
@@ -266,7 +266,7 @@ public class FileShareService {
                         "File transfer not found with ID: " + transferId)
                 );
         try {
-            fileStorageService.validateUserAccess(users.getId().toString(), fileTransferEntity.getStoragePath());
+            fileStorageService.validateTransferAccess(users.getId().toString(), fileTransferEntity);
         } catch (UnauthorizedFileAccessException ex) {
             return new ResponseEntity<>("Invalid Access", HttpStatus.UNAUTHORIZED);
         }
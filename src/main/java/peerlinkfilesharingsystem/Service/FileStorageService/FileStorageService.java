@@ -3,16 +3,20 @@ package peerlinkfilesharingsystem.Service.FileStorageService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
 import peerlinkfilesharingsystem.Exception.UnauthorizedFileAccessException;
 import peerlinkfilesharingsystem.Model.DeletedFiles;
 import peerlinkfilesharingsystem.Model.FileTransferEntity;
 import peerlinkfilesharingsystem.Repo.DeletedFilesRepo;
 import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.CompressionService.BlockIndex;
 
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
@@ -21,12 +25,15 @@ public class FileStorageService {
 
     private final FileTransferRepo fileTransferRepo;
     private final DeletedFilesRepo deletedFilesRepo;
+    private final BlobStoreService blobStoreService;
     @Value("${file.storage.path:./uploads}")
     private String baseUploadDirectory;
 
-    public FileStorageService(FileTransferRepo fileTransferRepo, DeletedFilesRepo deletedFilesRepo) {
+    public FileStorageService(FileTransferRepo fileTransferRepo, DeletedFilesRepo deletedFilesRepo,
+                              BlobStoreService blobStoreService) {
         this.fileTransferRepo = fileTransferRepo;
         this.deletedFilesRepo = deletedFilesRepo;
+        this.blobStoreService = blobStoreService;
     }
 
 
@@ -78,6 +85,20 @@ public class FileStorageService {
     }
 
 
+    /**
+     * Ownership check for a stored transfer. Deduplicated transfers share a blob
+     * outside any user directory, so ownership comes from the row, not the path.
+     */
+    public boolean validateTransferAccess(String requestingUserId, FileTransferEntity transfer) {
+        if (transfer.getUserId() == null || !transfer.getUserId().toString().equals(requestingUserId)) {
+            log.warn("SECURITY VIOLATION: User {} tried accessing transfer {}", requestingUserId, transfer.getTransferId());
+            throw new UnauthorizedFileAccessException("Access denied: You cannot access this file / Folder");
+        }
+        log.debug("Access granted: User {} accessing transfer {}", requestingUserId, transfer.getTransferId());
+        return true;
+    }
+
+
     public void validateTransferOwnership(String userId, String transferId, String storedPath) {
         if (!storedPath.contains("user_" + userId)) {
             log.warn("OWNERSHIP VIOLATION: User {} tried accessing transfer {} owned by another user",
@@ -116,19 +137,26 @@ public class FileStorageService {
                 deletedFilesRepo.save(deletedFiles);
 
                 file.setDeleted(true);
-                fileTransferRepo.save(file);
                 String filePath = file.getStoragePath();
                 File physicalFile = new File(filePath);
 
                 boolean deleted = false;
-                if (physicalFile.exists()) {
-                    deleted = physicalFile.delete();
-                    log.info("Deleted expired file: {} → {}", file.getFileName(), deleted);
+                if (file.getContentHash() != null) {
+                    // Shared blob: only this transfer's reference goes away, together with its row
+                    blobStoreService.release(file.getContentHash(), file, true);
+                    deleted = true;
+                    log.info("Released blob of expired file: {}", file.getFileName());
                 } else {
-                    log.warn("File not found on disk: {}", filePath);
+                    fileTransferRepo.save(file);
+                    if (physicalFile.exists()) {
+                        deleted = deleteStoredFile(filePath);
+                        log.info("Deleted expired file: {} → {}", file.getFileName(), deleted);
+                    } else {
+                        log.warn("File not found on disk: {}", filePath);
+                    }
+                    fileTransferRepo.delete(file);
                 }
 
-                fileTransferRepo.delete(file);
                 log.info("Deleted DB entry for file: {}", file.getTransferId());
 
                 if (!deleted) {
@@ -149,12 +177,20 @@ public class FileStorageService {
             return;
         }
 
-        expiredFiles.forEach(file -> {
+        List<FileTransferEntity> unreferenced = new ArrayList<>();
+        for (FileTransferEntity file : expiredFiles) {
             file.setDeleted(true);
-            file.setStatus("EXPIRED");
-        });
+            file.setStatus(TransferStatus.EXPIRED);
+            // deleteExpiredFiles skips rows already marked deleted, so the blob reference is dropped here,
+            // committed with the row so a crash in between cannot release it twice
+            if (file.getContentHash() != null) {
+                blobStoreService.release(file.getContentHash(), file, false);
+            } else {
+                unreferenced.add(file);
+            }
+        }
 
-        fileTransferRepo.saveAll(expiredFiles);
+        fileTransferRepo.saveAll(unreferenced);
 
         log.info("Expired files deleted: {}", expiredFiles.size());
     }
@@ -163,23 +199,28 @@ public class FileStorageService {
 
     public void deleteUnsuccessfulFilesinTransferEntity() {
 
-        List<FileTransferEntity> failedFiles = fileTransferRepo.findBySuccessFalseOrStatus("FAILED");
+        List<FileTransferEntity> failedFiles = fileTransferRepo.findBySuccessFalseOrStatus(TransferStatus.FAILED);
 
         log.info("Unsuccessful transfers found: {}", failedFiles.size());
 
         for (FileTransferEntity file : failedFiles) {
 
             try {
-                if (file.getStoragePath() != null) {
-                    File f = new File(file.getStoragePath());
-                    if (f.exists()) {
-                        boolean deleted = f.delete();
-                        log.info("Deleted failed file from disk: {} -> {}",
-                                file.getStoragePath(), deleted);
+                if (file.getContentHash() != null) {
+                    // The row goes in the same transaction, so a retry cannot release it again
+                    blobStoreService.release(file.getContentHash(), file, true);
+                    log.info("Released blob of failed transfer: {}", file.getTransferId());
+                } else {
+                    if (file.getStoragePath() != null) {
+                        File f = new File(file.getStoragePath());
+                        if (f.exists()) {
+                            boolean deleted = deleteStoredFile(file.getStoragePath());
+                            log.info("Deleted failed file from disk: {} -> {}",
+                                    file.getStoragePath(), deleted);
+                        }
                     }
+                    fileTransferRepo.delete(file);
                 }
-
-                fileTransferRepo.delete(file);
                 log.info("Deleted failed file metadata with transferId: {}", file.getTransferId());
 
             } catch (Exception e) {
@@ -188,6 +229,17 @@ public class FileStorageService {
         }
     }
 
+    /**
+     * Removes a stored file together with its block index sidecar, if it has one.
+     */
+    private boolean deleteStoredFile(String path) {
+        File index = new File(BlockIndex.indexPathFor(path));
+        if (index.exists() && !index.delete()) {
+            log.warn("Could not delete block index: {}", index.getPath());
+        }
+        return new File(path).delete();
+    }
+
 //    private void deleteFileFromDisk(String path) {
 //        if (path == null) return;
 //
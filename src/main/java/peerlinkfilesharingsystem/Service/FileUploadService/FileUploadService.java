@@ -2,32 +2,48 @@ package peerlinkfilesharingsystem.Service.FileUploadService;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import peerlinkfilesharingsystem.Dto.FileUploadResponse;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
+import peerlinkfilesharingsystem.Exception.CompressionOverloadedException;
 import peerlinkfilesharingsystem.Model.FileTransferEntity;
 import peerlinkfilesharingsystem.Model.IntelligentModelParametersEntity;
+import peerlinkfilesharingsystem.Model.StoredBlob;
 import peerlinkfilesharingsystem.Model.Users;
 import peerlinkfilesharingsystem.Repo.FileTransferRepo;
 import peerlinkfilesharingsystem.Repo.IntelligentModelParametersRepo;
-import peerlinkfilesharingsystem.Repo.UserRepo;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.CompressionQueueService.CompressionQueueService;
+import peerlinkfilesharingsystem.Service.DeltaStorageService.DeltaStorageService;
+import peerlinkfilesharingsystem.Service.CompressionService.BlockModeSummary;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionSettings;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionStats;
 import peerlinkfilesharingsystem.Service.CompressionService.FileCompressionService;
 import peerlinkfilesharingsystem.Service.FileStorageService.FileStorageService;
+import peerlinkfilesharingsystem.Service.IntelligencePredictionService.CompressibilityProbe;
 import peerlinkfilesharingsystem.Service.IntelligencePredictionService.IntelligencePredictionService;
+import peerlinkfilesharingsystem.Service.StorageQuotaService.StorageQuotaService;
+import peerlinkfilesharingsystem.Service.TransferStatusService.TransferStatusService;
+import peerlinkfilesharingsystem.Service.UploadSupportService.UploadSupportService;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.zip.Deflater;
 
 @Service
 @Slf4j
 public class FileUploadService {
 
+    private static final String STAGING_SUFFIX = ".part";
+
     private final FileStorageService fileStorageService;
     @Value("${file.storage.path:./uploads}")
     private String uploadDirectory;
@@ -36,14 +52,24 @@ public class FileUploadService {
     private IntelligencePredictionService intelligencePredictionService;
     private FileCompressionService compressionService;
     private IntelligentModelParametersRepo intelligentModelParametersRepo;
-    private UserRepo userRepo;
+    private UploadSupportService uploadSupportService;
+    private BlobStoreService blobStoreService;
+    private DeltaStorageService deltaStorageService;
+    private CompressionQueueService compressionQueueService;
+    private TransferStatusService transferStatusService;
+    private StorageQuotaService storageQuotaService;
 
 
     public FileUploadService(FileTransferRepo fileTransferRepo,
                              IntelligencePredictionService intelligencePredictionService,
                              FileCompressionService fileCompressionService,
                              IntelligentModelParametersRepo intelligentModelParametersRepo, FileStorageService fileStorageService,
-                             UserRepo userRepo
+                             UploadSupportService uploadSupportService,
+                             BlobStoreService blobStoreService,
+                             DeltaStorageService deltaStorageService,
+                             CompressionQueueService compressionQueueService,
+                             TransferStatusService transferStatusService,
+                             StorageQuotaService storageQuotaService
 
     ) {
         this.fileTransferRepo = fileTransferRepo;
@@ -51,7 +77,12 @@ public class FileUploadService {
         this.compressionService = fileCompressionService;
         this.intelligentModelParametersRepo = intelligentModelParametersRepo;
         this.fileStorageService = fileStorageService;
-        this.userRepo = userRepo;
+        this.uploadSupportService = uploadSupportService;
+        this.blobStoreService = blobStoreService;
+        this.deltaStorageService = deltaStorageService;
+        this.compressionQueueService = compressionQueueService;
+        this.transferStatusService = transferStatusService;
+        this.storageQuotaService = storageQuotaService;
 
     }
 
@@ -59,16 +90,18 @@ public class FileUploadService {
                                          Double networkSpeedMbps, String deviceType, String clientIp) {
         String transferId = String.valueOf(generateUniqueShareId());
         String filename = file.getOriginalFilename();
-        String extension = extractFileType(filename);
+        String extension = uploadSupportService.extractFileType(filename);
 
-        Users users  = retriveLoggedInUser();
+        Users users  = uploadSupportService.retriveLoggedInUser();
         log.info("========== UPLOAD START ==========");
         log.info("TransferID: {}", transferId);
         log.info("Filename: {}, Extension: {}", filename, extension);
         log.info("Original File Size: {} bytes ({} MB)", file.getSize(), file.getSize() / 1024 / 1024);
         log.info("Network Speed: {} Mbps, Latency: {} ms", networkSpeedMbps, latencyMs);
 
-        try {
+        // Peek at the first bytes so the content, not just the extension, picks the codec
+        try (InputStream upload = file.getInputStream();
+             CompressibilityProbe.Prefix prefix = intelligencePredictionService.peekUpload(upload)) {
             FileTransferEntity fileTransferEntity = new FileTransferEntity();
             fileTransferEntity.setTransferId(transferId);
             fileTransferEntity.setUserId(users.getId());
@@ -81,14 +114,17 @@ public class FileUploadService {
             fileTransferEntity.setClientIp(clientIp);
 //            fileTransferEntity.setExpiresAt(LocalDateTime.now().plusMinutes(1));
             fileTransferEntity.setExpiresAt(LocalDateTime.now().plusDays(2));
+            fileTransferEntity.setStatus(TransferStatus.COMPRESSING);
             log.info("FileTransferEntity created and saved");
 
             log.info("Requesting ML predictions...");
             IntelligencePredictionService.OptimizationParams params =
                     intelligencePredictionService.predictOptimalParameters(
-                            filename, extension, networkSpeedMbps, latencyMs, file.getSize(),deviceType);
+                            filename, extension, networkSpeedMbps, latencyMs, file.getSize(),deviceType,
+                            prefix.analyze());
 
             log.info("ML PREDICTION RESULTS:");
+            log.info("  Codec: {}", params.getCompressionCodec());
             log.info("  Compression Level: {} (higher = more compression)", params.getCompressionLevel());
             log.info("  Chunk Size: {} bytes ({} KB)", params.getChunkSize(), params.getChunkSize() / 1024);
             log.info("  Network Condition: {}", params.getNetworkCondition());
@@ -96,64 +132,26 @@ public class FileUploadService {
             log.info("  Predicted Success Rate: {}%", String.format("%.2f", params.getPredictedSuccessRate() * 100));
 
             fileTransferEntity.setCompressionLevel(params.getCompressionLevel());
+            fileTransferEntity.setCodec(params.getCompressionCodec());
             fileTransferEntity.setChunkSize(params.getChunkSize());
 
             String Userpath  = fileStorageService.createUserDirectory(String.valueOf(fileTransferEntity.getUserId()));
             if (fileStorageService.validateUserAccess(users.getId().toString(),Userpath)) {
                 fileTransferRepo.save(fileTransferEntity);
+                storageQuotaService.transferPersisted();
 
                 log.info("Starting compression process..." + Userpath);
-                long startTime = System.currentTimeMillis();
-
-                CompressionResult compressionResult = processUploadWithCompression(
-                        file.getInputStream(), fileTransferEntity, Userpath, params);
-
-                long duration = (System.currentTimeMillis() - startTime) / 1000;
-
-                double compressionRatioCalc = (1.0 - (double) compressionResult.totalBytesCompressed / compressionResult.totalBytesRead) * 100;
-                log.info("COMPRESSION RESULTS:");
-                log.info("  Original Size: {} bytes ({} MB)", compressionResult.totalBytesRead, compressionResult.totalBytesRead / 1024 / 1024);
-                log.info("  Compressed Size: {} bytes ({} MB)", compressionResult.totalBytesCompressed, compressionResult.totalBytesCompressed / 1024 / 1024);
-                log.info("  Compression Ratio: {}% saved", String.format("%.2f", compressionRatioCalc));
-                log.info("  Duration: {} seconds", duration);
-                log.info("  Chunks Processed: {}", compressionResult.chunkCount);
-
-                fileTransferEntity.setBytesTransferred(compressionResult.totalBytesCompressed);
-                fileTransferEntity.setTransferDurationSeconds((int) duration);
-                fileTransferEntity.setSuccess(true);
-                fileTransferEntity.setCompletedAt(LocalDateTime.now());
-                fileTransferEntity.setStoragePath(Userpath + "/" + transferId);
-                fileTransferRepo.save(fileTransferEntity);
-
-                log.info("Updating ML Model Parameters...");
-                updateMLParamsAfterUpload(
-                        extension,
-                        params.getNetworkCondition(),
-                        params.getCompressionLevel(),
-                        params.getChunkSize(),
-                        true);
-                log.info("ML Model Parameters updated");
-
-                double compressionRatio = (1.0 - (double) compressionResult.totalBytesCompressed / file.getSize()) * 100;
-
-
-                log.info("========== UPLOAD SUCCESS ==========\n");
-
-                return FileUploadResponse.builder()
-                        .fileId(fileTransferEntity.getFileId())
-                        .transferId(transferId)
-                        .fileName(filename)
-                        .fileSizeBytes(file.getSize())
-                        .compressedSizeBytes(compressionResult.totalBytesCompressed)
-                        .compressionRatioPercent(String.format("%.2f%%", compressionRatio))
-                        .appliedCompressionLevel(params.getCompressionLevel())
-                        .appliedChunkSize(params.getChunkSize())
-                        .success(true)
-                        .message("File uploaded successfully with " + String.format("%.2f%%", compressionRatio) + " compression")
-                        .uploadedAt(LocalDateTime.now())
-                        .build();
+                try {
+                    return storeUpload(prefix.getInputStream(), fileTransferEntity, params);
+                } catch (IOException | RuntimeException e) {
+                    transferStatusService.fail(fileTransferEntity, "Upload failed: " + e.getMessage());
+                    throw e;
+                }
             }
             return null;
+        } catch (CompressionOverloadedException e) {
+            log.warn("========== UPLOAD REJECTED: {} ==========", e.getMessage());
+            throw e;
         } catch (Exception e) {
             log.error("========== UPLOAD FAILED ==========", e);
             return FileUploadResponse.builder()
@@ -165,13 +163,241 @@ public class FileUploadService {
     }
 
 
+    /**
+     * Asynchronous variant of {@link #handleFile}: only makes the upload durable.
+     * The multipart body is moved into the user's directory and forced to disk,
+     * and the transfer is saved as RECEIVED with storagePath on the staged file;
+     * prediction and compression are left to background finalization.
+     */
+    public FileTransferEntity receiveFile(MultipartFile file, Integer latencyMs,
+                                          Double networkSpeedMbps, String deviceType, String clientIp) throws IOException {
+        log.info("========== UPLOAD RECEIVE (async) ==========");
+        FileTransferEntity transfer = newStagedTransfer(file.getOriginalFilename(), file.getSize(),
+                latencyMs, networkSpeedMbps, deviceType, clientIp);
+        if (transfer == null) {
+            return null;
+        }
+        Path stagingPath = Paths.get(transfer.getStoragePath());
+        file.transferTo(stagingPath);
+        try (FileChannel staged = FileChannel.open(stagingPath, StandardOpenOption.WRITE)) {
+            staged.force(true);
+        }
+        transferStatusService.moveTo(transfer, TransferStatus.RECEIVED);
+        storageQuotaService.transferPersisted();
+        return transfer;
+    }
+
+    /**
+     * Starts an upload whose body is still to be streamed into the returned
+     * transfer's staging file (its storagePath). The transfer is saved as
+     * UPLOADING; whoever writes the bytes moves it to RECEIVED.
+     * Returns null when the user's directory cannot be used.
+     */
+    public FileTransferEntity beginStagedUpload(String filename, long fileSize, Integer latencyMs,
+                                                Double networkSpeedMbps, String deviceType, String clientIp) {
+        log.info("========== UPLOAD RECEIVE (streamed) ==========");
+        FileTransferEntity transfer = newStagedTransfer(filename, fileSize,
+                latencyMs, networkSpeedMbps, deviceType, clientIp);
+        if (transfer == null) {
+            return null;
+        }
+        transferStatusService.moveTo(transfer, TransferStatus.UPLOADING);
+        storageQuotaService.transferPersisted();
+        return transfer;
+    }
+
+    private FileTransferEntity newStagedTransfer(String filename, long fileSize, Integer latencyMs,
+                                                 Double networkSpeedMbps, String deviceType, String clientIp) {
+        String transferId = String.valueOf(generateUniqueShareId());
+        Users users = uploadSupportService.retriveLoggedInUser();
+        log.info("TransferID: {}, Filename: {}, Size: {} bytes", transferId, filename, fileSize);
+
+        String userPath = fileStorageService.createUserDirectory(String.valueOf(users.getId()));
+        if (!fileStorageService.validateUserAccess(users.getId().toString(), userPath)) {
+            return null;
+        }
+
+        FileTransferEntity transfer = new FileTransferEntity();
+        transfer.setTransferId(transferId);
+        transfer.setUserId(users.getId());
+        transfer.setFileName(filename);
+        transfer.setFileType(uploadSupportService.extractFileType(filename));
+        transfer.setDeviceType(deviceType);
+        transfer.setFileSize(fileSize);
+        transfer.setLatencyMs(latencyMs);
+        transfer.setNetworkSpeedMbps(networkSpeedMbps);
+        transfer.setClientIp(clientIp);
+        // Points at the staged bytes until finalization, so expiry cleanup also removes them
+        transfer.setStoragePath(Paths.get(userPath, transferId + STAGING_SUFFIX).toString());
+        transfer.setExpiresAt(LocalDateTime.now().plusDays(2));
+        return transfer;
+    }
+
+    /**
+     * Compresses the original bytes into the blob store and records the finished
+     * transfer: entity, ML parameters and the client response. Shared by the
+     * single-request upload and committed upload sessions.
+     *
+     * Compression runs as a job on the {@link CompressionQueueService}; under load it
+     * may be downgraded, stored raw for later, or rejected with a
+     * {@link CompressionOverloadedException}.
+     */
+    public FileUploadResponse storeUpload(InputStream originalBytes,
+                                          FileTransferEntity transfer,
+                                          IntelligencePredictionService.OptimizationParams params) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        long sizeHint = transfer.getFileSize() != null ? transfer.getFileSize() : 0L;
+        CompressionResult compressionResult = params.getCompressionCodec() == CompressionCodec.STORE
+                // Nothing to deflate - a plain copy never needs a compression worker
+                ? processUploadWithCompression(originalBytes, transfer, params, CompressionQueueService.Admission.FULL)
+                : compressionQueueService.submit(transfer.getUserId(), sizeHint,
+                        admission -> processUploadWithCompression(originalBytes, transfer, params, admission));
+
+        long duration = (System.currentTimeMillis() - startTime) / 1000;
+
+        return recordCompletedUpload(transfer, params, compressionResult, duration);
+    }
+
+    /**
+     * Stores an upload whose original bytes are already complete on disk (a committed
+     * upload session). The file is hashed first, so content that is already stored
+     * is referenced without being compressed again. Safe to run again after a restart:
+     * the reference is saved with the transfer, and a transfer that already holds one
+     * does not take another.
+     */
+    public FileUploadResponse storeStagedUpload(String stagedFilePath,
+                                                FileTransferEntity transfer,
+                                                IntelligencePredictionService.OptimizationParams params) throws IOException {
+        if (transfer.getContentHash() != null) {
+            // An earlier attempt took the blob reference (saved with it) and was cut off before COMPLETED
+            StoredBlob held = blobStoreService.findBlob(transfer.getContentHash());
+            if (held != null) {
+                log.info("Transfer {} already references blob {} - completing without a new reference",
+                        transfer.getTransferId(), held.getContentHash());
+                return recordReferencedUpload(transfer, held, params);
+            }
+            transfer.setContentHash(null);
+        }
+
+        String contentHash = blobStoreService.hashFile(stagedFilePath);
+        StoredBlob existing = blobStoreService.referenceExisting(contentHash, transfer);
+        if (existing == null) {
+            try (InputStream staged = new BufferedInputStream(new FileInputStream(stagedFilePath), 64 * 1024)) {
+                return storeUpload(staged, transfer, params);
+            }
+        }
+
+        log.info("Content {} already stored - skipping compression", contentHash);
+        return recordReferencedUpload(transfer, existing, params);
+    }
+
+    /**
+     * Completes a transfer that points at an already stored blob the caller holds a
+     * new reference to - nothing is compressed or written.
+     */
+    public FileUploadResponse recordReferencedUpload(FileTransferEntity transfer,
+                                                     StoredBlob blob,
+                                                     IntelligencePredictionService.OptimizationParams params) {
+        attachBlob(transfer, blob);
+        int chunkCount = (int) ((transfer.getFileSize() + params.getChunkSize() - 1) / params.getChunkSize());
+        CompressionResult compressionResult = new CompressionResult(
+                transfer.getFileSize(), blob.getStoredSize(), chunkCount);
+        compressionResult.appliedCompressionLevel = params.getCompressionLevel();
+
+        return recordCompletedUpload(transfer, params, compressionResult, 0);
+    }
+
+    private FileUploadResponse recordCompletedUpload(FileTransferEntity transfer,
+                                                     IntelligencePredictionService.OptimizationParams params,
+                                                     CompressionResult compressionResult,
+                                                     long duration) {
+        double compressionRatioCalc = (1.0 - (double) compressionResult.totalBytesCompressed / compressionResult.totalBytesRead) * 100;
+        log.info("COMPRESSION RESULTS:");
+        log.info("  Original Size: {} bytes ({} MB)", compressionResult.totalBytesRead, compressionResult.totalBytesRead / 1024 / 1024);
+        log.info("  Compressed Size: {} bytes ({} MB)", compressionResult.totalBytesCompressed, compressionResult.totalBytesCompressed / 1024 / 1024);
+        log.info("  Compression Ratio: {}% saved", String.format("%.2f", compressionRatioCalc));
+        log.info("  Duration: {} seconds", duration);
+        log.info("  Chunks Processed: {}", compressionResult.chunkCount);
+
+        transfer.setBytesTransferred(compressionResult.totalBytesCompressed);
+        transfer.setTransferDurationSeconds((int) duration);
+        transfer.setSuccess(true);
+        transfer.setCompletedAt(LocalDateTime.now());
+        transferStatusService.moveTo(transfer, TransferStatus.COMPLETED);
+
+        if (compressionResult.admission == CompressionQueueService.Admission.FULL) {
+            log.info("Updating ML Model Parameters...");
+            updateMLParamsAfterUpload(
+                    transfer.getFileType(),
+                    params.getNetworkCondition(),
+                    params.getCompressionLevel(),
+                    params.getChunkSize(),
+                    true,
+                    compressionResult.blockModes);
+            log.info("ML Model Parameters updated");
+        } else {
+            // Load, not the prediction, decided how this one was stored
+            log.info("Upload admitted as {} - ML Model Parameters not updated", compressionResult.admission);
+        }
+
+        double compressionRatio = (1.0 - (double) compressionResult.totalBytesCompressed / transfer.getFileSize()) * 100;
+        String message = "File uploaded successfully with " + String.format("%.2f%%", compressionRatio) + " compression";
+        if (compressionResult.admission == CompressionQueueService.Admission.STORE_RAW) {
+            message += " (stored uncompressed under load; it is compressed in the background)";
+        } else if (compressionResult.admission == CompressionQueueService.Admission.DOWNGRADED) {
+            message += " (fastest level under load)";
+        }
+
+
+        log.info("========== UPLOAD SUCCESS ==========\n");
+
+        return FileUploadResponse.builder()
+                .fileId(transfer.getFileId())
+                .transferId(transfer.getTransferId())
+                .fileName(transfer.getFileName())
+                .fileSizeBytes(transfer.getFileSize())
+                .compressedSizeBytes(compressionResult.totalBytesCompressed)
+                .compressionRatioPercent(String.format("%.2f%%", compressionRatio))
+                .appliedCodec(transfer.getCodec().name())
+                .appliedCompressionLevel(compressionResult.appliedCompressionLevel)
+                .appliedChunkSize(params.getChunkSize())
+                .success(true)
+                .status(TransferStatus.COMPLETED.name())
+                .message(message)
+                .uploadedAt(LocalDateTime.now())
+                .build();
+    }
+
+
     private CompressionResult processUploadWithCompression(InputStream fileInputStream,
                                                            FileTransferEntity transfer,
-                                                           String path,
-                                                           IntelligencePredictionService.OptimizationParams params)
+                                                           IntelligencePredictionService.OptimizationParams params,
+                                                           CompressionQueueService.Admission admission)
             throws IOException {
 
-        log.info("Starting file compression process...");
+        log.info("Starting single-pass upload compression...");
+
+        CompressionSettings settings = toCompressionSettings(params);
+        switch (admission) {
+            case DOWNGRADED:
+                // CDC level 0 means stored chunks and stays that way
+                if (settings.getCompressionLevel() != null && settings.getCompressionLevel() > Deflater.BEST_SPEED) {
+                    settings.setCompressionLevel(Deflater.BEST_SPEED);
+                }
+                log.info("Compression queue overloaded - downgraded to level {}", settings.getCompressionLevel());
+                break;
+            case STORE_RAW:
+                settings.setCodec(CompressionCodec.STORE);
+                settings.setParallelism(1);
+                settings.setAdaptiveBlocks(false);
+                log.info("Compression queue overloaded - storing raw, {} level {} deferred",
+                        params.getCompressionCodec(), params.getCompressionLevel());
+                break;
+            default:
+                break;
+        }
+        transfer.setCompressionLevel(settings.getCompressionLevel());
 
         // Create upload directory if needed
         File uploadDir = new File(uploadDirectory);
@@ -179,55 +405,94 @@ public class FileUploadService {
             uploadDir.mkdirs();
         }
 
-        // Path for temporary original file
-        String tempOriginalPath = path + "/" + transfer.getTransferId() + ".tmp";
-        String finalCompressedPath = path + "/" + transfer.getTransferId();
-
-        // Step 1: Save original file temporarily
-        log.info("Saving original file to temp location...");
-        long originalFileSize = 0;
-        try (FileOutputStream tempFos = new FileOutputStream(tempOriginalPath)) {
-            int optimalBufferSize = params.getChunkSize();
-            byte[] buffer = new byte[optimalBufferSize];
-            int bytesRead;
-            while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                tempFos.write(buffer, 0, bytesRead);
-                originalFileSize += bytesRead;
-            }
+        // Request stream is compressed once into blob staging; the content hash decides where it ends up
+        String stagingPath = blobStoreService.stagingPathFor(transfer.getTransferId());
+        long expectedSize = transfer.getFileSize() != null ? transfer.getFileSize() : 0L;
+        int chunkSize = params.getChunkSize();
+
+        CompressionStats stats = compressionService.compressStream(
+                fileInputStream,
+                stagingPath,
+                settings,
+                (bytesRead, bytesWritten) -> {
+                    transfer.setNoOfChunksUploaded((int) ((bytesRead + chunkSize - 1) / chunkSize));
+                    transferStatusService.reportProgress(transfer, bytesRead);
+                    if (expectedSize > 0) {
+                        log.info("Upload {} progress: {}% ({} MB read, {} MB written)",
+                                transfer.getTransferId(),
+                                bytesRead * 100 / expectedSize,
+                                bytesRead / 1024 / 1024,
+                                bytesWritten / 1024 / 1024);
+                    }
+                });
+
+        log.info("Compression complete: {} bytes -> {} bytes", stats.getBytesRead(), stats.getBytesWritten());
+
+        StoredBlob blob = blobStoreService.storeOrReference(stagingPath, stats, transfer);
+        if (admission == CompressionQueueService.Admission.STORE_RAW && blob.getRefCount() == 1) {
+            // The preset dictionary is only worth it for small files, which are cheap anyway
+            CompressionCodec deferredCodec = params.getCompressionCodec() == CompressionCodec.DEFLATE_DICT
+                    ? CompressionCodec.GZIP
+                    : params.getCompressionCodec();
+            blobStoreService.deferCompression(blob.getContentHash(), deferredCodec, params.getCompressionLevel());
         }
-
-        log.info("Original file saved: {} bytes", originalFileSize);
-
-        // Step 2: Compress the entire file at once using GZIP
-        log.info("Compressing file with GZIP...");
-        long compressedFileSize = 0;
-        try {
-            compressedFileSize = compressionService.compressFileToGzip(
-                    tempOriginalPath,
-                    finalCompressedPath,params.getChunkSize());
-
-            double compressionRatio = (1.0 - (double) compressedFileSize / originalFileSize) * 100;
-            log.info("Compression complete: {} compression achieved", compressionRatio);
-
-        } finally {
-            // Clean up temporary file
-            File tempFile = new File(tempOriginalPath);
-            if (tempFile.exists()) {
-                tempFile.delete();
-                log.info("Temporary file cleaned up");
-            }
+        attachBlob(transfer, blob);
+        if (blob.getRefCount() == 1) {
+            // New content: maybe it is a small edit of the previous version
+            deltaStorageService.considerDeltaStorage(transfer, blob);
         }
 
-        transfer.setStoragePath(finalCompressedPath);
+        CompressionResult result = new CompressionResult(stats.getBytesRead(), blob.getStoredSize(), stats.getChunkCount());
+        result.blockModes = stats.getBlockModes();
+        result.admission = admission;
+        result.appliedCompressionLevel = settings.getCompressionLevel();
+        return result;
+    }
 
-        return new CompressionResult(originalFileSize, compressedFileSize, 1);
+    /**
+     * Points the transfer at a blob. The blob's codec wins: deduplicated content keeps
+     * the encoding it was first stored with.
+     */
+    private void attachBlob(FileTransferEntity transfer, StoredBlob blob) {
+        transfer.setContentHash(blob.getContentHash());
+        transfer.setStoragePath(blob.getStoragePath());
+        transfer.setCodec(blob.getCodec());
+    }
+
+
+    private CompressionSettings toCompressionSettings(IntelligencePredictionService.OptimizationParams params) {
+        return CompressionSettings.builder()
+                .codec(params.getCompressionCodec())
+                .compressionLevel(params.getCompressionLevel())
+                .chunkSize(params.getChunkSize())
+                .blockSize(params.getBlockSize())
+                .parallelism(params.getParallelism())
+                .cdcAverageChunkSize(params.getCdcAverageChunkSize())
+                .adaptiveBlocks(Boolean.TRUE.equals(params.getAdaptiveBlocks()))
+                .dictionaryId(params.getDictionaryId())
+                .build();
     }
 
 
     public void updateMLParamsAfterUpload(String fileType, String networkCondition,
                                           int compressionLevel, int chunkSize, boolean wasSuccessful) {
+        updateMLParamsAfterUpload(fileType, networkCondition, compressionLevel, chunkSize, wasSuccessful, null);
+    }
+
+    /**
+     * @param blockModes what adaptive compression did per block; when present the model
+     *                   learns the level the content effectively got, not the predicted one
+     */
+    public void updateMLParamsAfterUpload(String fileType, String networkCondition,
+                                          int compressionLevel, int chunkSize, boolean wasSuccessful,
+                                          BlockModeSummary blockModes) {
 
         log.info("Updating ML params for FileType: {}, NetworkCondition: {}", fileType, networkCondition);
+        if (blockModes != null) {
+            log.info("  Adaptive blocks: {}", blockModes);
+            log.info("  Predicted level {}, effective level {}", compressionLevel, blockModes.getEffectiveCompressionLevel());
+            compressionLevel = blockModes.getEffectiveCompressionLevel();
+        }
 
         Optional<IntelligentModelParametersEntity> entryOpt =
                 intelligentModelParametersRepo.findByFileTypeAndNetworkCondition(fileType, networkCondition);
@@ -271,13 +536,6 @@ public class FileUploadService {
         }
     }
 
-    private String extractFileType(String fileName) {
-        if (fileName != null && fileName.contains(".")) {
-            return fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
-        }
-        return "unknown";
-    }
-
     public Long generateRandomId() {
         return 10000 + (long)(Math.random() * 90000);
     }
@@ -292,21 +550,8 @@ public class FileUploadService {
         return randomId.toString();    }
 
 
-    private Users retriveLoggedInUser() {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if(authentication == null || !authentication.isAuthenticated())
-            throw new BadCredentialsException("Bad Credentials login ");
-        String username = authentication.getName();
-        Users user = userRepo.findByUsername(username);
-        if(user == null){
-            throw new UsernameNotFoundException("User Not Found");
-        }
-        return user;
-    }
-
-
     public List<FileTransferEntity> getRecentTransfers(Integer limit) {
-        Users users = retriveLoggedInUser();
+        Users users = uploadSupportService.retriveLoggedInUser();
         return fileTransferRepo.findLastUploads(users.getId(),limit);
     }
 
@@ -314,6 +559,9 @@ public class FileUploadService {
         long totalBytesRead;
         long totalBytesCompressed;
         int chunkCount;
+        BlockModeSummary blockModes;
+        CompressionQueueService.Admission admission = CompressionQueueService.Admission.FULL;
+        Integer appliedCompressionLevel;
 
         CompressionResult(long totalBytesRead, long totalBytesCompressed, int chunkCount) {
             this.totalBytesRead = totalBytesRead;
@@ -0,0 +1,284 @@
+package peerlinkfilesharingsystem.Service.InstantUploadService;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Dto.FileUploadResponse;
+import peerlinkfilesharingsystem.Dto.InstantUploadRequest;
+import peerlinkfilesharingsystem.Dto.InstantUploadResponse;
+import peerlinkfilesharingsystem.Exception.UnauthorizedFileAccessException;
+import peerlinkfilesharingsystem.Exception.UploadRateLimitedException;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Model.StoredBlob;
+import peerlinkfilesharingsystem.Model.Users;
+import peerlinkfilesharingsystem.Service.BlobStoreService.BlobStoreService;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionPipeline;
+import peerlinkfilesharingsystem.Service.CompressionService.FileCompressionService;
+import peerlinkfilesharingsystem.Service.FileUploadService.FileUploadService;
+import peerlinkfilesharingsystem.Service.IntelligencePredictionService.IntelligencePredictionService;
+import peerlinkfilesharingsystem.Service.StorageQuotaService.StorageQuotaService;
+import peerlinkfilesharingsystem.Service.UploadSupportService.UploadSupportService;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Instant upload: the client sends the SHA-256 and size of a file before any
+ * bytes, and when the blob store already holds that content the transfer is
+ * created as one more reference to it - nothing is sent or compressed.
+ *
+ * Knowing a hash is not proof of having the file (hashes leak through logs,
+ * share pages, public checksum lists), and accepting it alone would let anyone
+ * who learns a hash download the content. So the client must answer a
+ * challenge: SHA-256 of a fresh server nonce followed by a random byte range of
+ * its copy, checked against the stored blob before the transfer is created.
+ * The nonce matters for small files, whose range is the whole file and whose
+ * plain range hash would be the content hash the client already sent.
+ *
+ * Every well-formed request gets a challenge, stored or not, and an answer for
+ * content that is not stored fails exactly like a wrong answer. The timing still
+ * differs - only stored content has a range to decode - so whether a hash is
+ * stored does leak, and that oracle is accepted: faking a decode of comparable
+ * cost would double the work for every miss. What is bounded is how often it can
+ * be asked, and how many decodes a user can force: at most
+ * max-challenges-per-user challenges within the challenge TTL, answered or not.
+ */
+@Service
+@Slf4j
+public class InstantUploadService {
+
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+    private static final int PROOF_RANGE_BYTES = 64 * 1024;
+    private static final int NONCE_BYTES = 32;
+    private static final long CHALLENGE_TTL_SECONDS = 120;
+    private static final long MAX_FILE_SIZE = 10 * 1024 * 1024 * 1024L;
+
+    private final BlobStoreService blobStoreService;
+    private final FileCompressionService compressionService;
+    private final FileUploadService fileUploadService;
+    private final IntelligencePredictionService intelligencePredictionService;
+    private final UploadSupportService uploadSupportService;
+    private final StorageQuotaService storageQuotaService;
+
+    @Value("${upload.instant.max-challenges-per-user:10}")
+    private int maxChallengesPerUser;
+
+    private final SecureRandom random = new SecureRandom();
+    // Answered challenges stay until they expire, so they keep counting toward the cap
+    private final ConcurrentHashMap<String, PendingInstantUpload> pendingChallenges = new ConcurrentHashMap<>();
+    // userId -> challenges in pendingChallenges
+    private final ConcurrentHashMap<UUID, Integer> challengesByUser = new ConcurrentHashMap<>();
+
+    public InstantUploadService(BlobStoreService blobStoreService,
+                                FileCompressionService compressionService,
+                                FileUploadService fileUploadService,
+                                IntelligencePredictionService intelligencePredictionService,
+                                UploadSupportService uploadSupportService,
+                                StorageQuotaService storageQuotaService) {
+        this.blobStoreService = blobStoreService;
+        this.compressionService = compressionService;
+        this.fileUploadService = fileUploadService;
+        this.intelligencePredictionService = intelligencePredictionService;
+        this.uploadSupportService = uploadSupportService;
+        this.storageQuotaService = storageQuotaService;
+    }
+
+    /**
+     * Issues a proof-of-possession challenge for the file. Whether the content is
+     * stored is only decided when the answer comes back, so the response is the
+     * same for stored and unknown hashes.
+     */
+    public InstantUploadResponse requestInstantUpload(InstantUploadRequest request, Integer latencyMs,
+                                                      Double networkSpeedMbps, String deviceType, String clientIp) {
+        String contentHash = request.getContentHash() == null ? null : request.getContentHash().toLowerCase();
+        if (request.getFileName() == null || request.getFileName().isBlank()
+                || request.getFileSize() == null || request.getFileSize() <= 0
+                || contentHash == null || !SHA256_HEX.matcher(contentHash).matches()) {
+            throw new IllegalArgumentException("fileName, a positive fileSize and a SHA-256 hex contentHash are required");
+        }
+        if (request.getFileSize() > MAX_FILE_SIZE) {
+            throw new IllegalArgumentException("File Size Exceeded");
+        }
+
+        Users users = uploadSupportService.retriveLoggedInUser();
+        // Refused before the challenge, the same for stored and unknown content
+        storageQuotaService.checkQuota(users.getId(), request.getFileSize());
+        removeExpiredChallenges();
+
+        boolean stored = blobStoreService.isStored(contentHash, request.getFileSize());
+        int proofLength = (int) Math.min(PROOF_RANGE_BYTES, request.getFileSize());
+        long proofOffset = random.nextLong(request.getFileSize() - proofLength + 1);
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        String challengeId = UUID.randomUUID().toString();
+        LocalDateTime expiresAt = LocalDateTime.now().plusSeconds(CHALLENGE_TTL_SECONDS);
+
+        challengesByUser.compute(users.getId(), (userId, issued) -> {
+            if (issued != null && issued >= maxChallengesPerUser) {
+                log.warn("Instant upload challenge refused - User {} has {} outstanding", userId, issued);
+                throw new UploadRateLimitedException("Too many instant upload challenges - try again later",
+                        CHALLENGE_TTL_SECONDS);
+            }
+            return issued == null ? 1 : issued + 1;
+        });
+
+        pendingChallenges.put(challengeId, new PendingInstantUpload(users.getId(), request.getFileName(),
+                request.getFileSize(), contentHash, stored, nonce, proofOffset, proofLength, latencyMs,
+                networkSpeedMbps, deviceType, clientIp, expiresAt));
+
+        log.info("Instant upload {} - {} → challenge {} ({} bytes at {})",
+                stored ? "hit" : "miss", contentHash, challengeId, proofLength, proofOffset);
+
+        return InstantUploadResponse.builder()
+                .challengeId(challengeId)
+                .nonce(HexFormat.of().formatHex(nonce))
+                .proofOffset(proofOffset)
+                .proofLength(proofLength)
+                .expiresAt(expiresAt)
+                .message("Answer the challenge to complete the upload; if it is refused, upload the file normally")
+                .build();
+    }
+
+    /**
+     * Verifies the challenge answer and creates the transfer as a new blob reference.
+     * A challenge can be answered once.
+     */
+    public FileUploadResponse completeInstantUpload(String challengeId, String rangeHash) throws IOException {
+        PendingInstantUpload pending = pendingChallenges.get(challengeId);
+        if (pending == null || pending.expiresAt.isBefore(LocalDateTime.now())
+                || !pending.answered.compareAndSet(false, true)) {
+            throw new IllegalArgumentException("Unknown or expired challenge: " + challengeId);
+        }
+        Users users = uploadSupportService.retriveLoggedInUser();
+        if (!users.getId().equals(pending.userId)) {
+            throw new UnauthorizedFileAccessException("Access denied: This challenge was issued to another user");
+        }
+
+        // Unknown content and a wrong answer are refused alike
+        StoredBlob blob = pending.stored ? blobStoreService.findBlob(pending.contentHash) : null;
+        String expected = blob == null ? null
+                : hashStoredRange(blob, pending.nonce, pending.proofOffset, pending.proofLength);
+        if (expected == null || rangeHash == null
+                || !MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                        rangeHash.toLowerCase().getBytes(StandardCharsets.US_ASCII))) {
+            log.warn("Instant upload refused - User {} for {} (stored: {})",
+                    users.getId(), pending.contentHash, blob != null);
+            throw new UnauthorizedFileAccessException("Proof of possession failed - upload the file normally");
+        }
+
+        // Nothing is written, but the new transfer counts against the quota like any other
+        storageQuotaService.checkQuota(users.getId(), pending.fileSize);
+        StoredBlob referenced = blobStoreService.referenceExisting(pending.contentHash);
+        if (referenced == null) {
+            throw new IllegalStateException("Content is no longer stored - upload the file normally");
+        }
+
+        String transferId = fileUploadService.generateUniqueShareId();
+        String extension = uploadSupportService.extractFileType(pending.fileName);
+        log.info("========== INSTANT UPLOAD ==========");
+        log.info("TransferID: {}, Filename: {}, Blob: {}", transferId, pending.fileName, pending.contentHash);
+
+        IntelligencePredictionService.OptimizationParams params =
+                intelligencePredictionService.predictOptimalParameters(
+                        pending.fileName, extension, pending.networkSpeedMbps, pending.latencyMs,
+                        pending.fileSize, pending.deviceType);
+
+        FileTransferEntity transfer = new FileTransferEntity();
+        transfer.setTransferId(transferId);
+        transfer.setUserId(users.getId());
+        transfer.setFileName(pending.fileName);
+        transfer.setFileType(extension);
+        transfer.setDeviceType(pending.deviceType);
+        transfer.setFileSize(pending.fileSize);
+        transfer.setLatencyMs(pending.latencyMs);
+        transfer.setNetworkSpeedMbps(pending.networkSpeedMbps);
+        transfer.setClientIp(pending.clientIp);
+        transfer.setCompressionLevel(params.getCompressionLevel());
+        transfer.setChunkSize(params.getChunkSize());
+        transfer.setExpiresAt(LocalDateTime.now().plusDays(2));
+
+        try {
+            return fileUploadService.recordReferencedUpload(transfer, referenced, params);
+        } catch (RuntimeException e) {
+            blobStoreService.release(pending.contentHash);
+            throw e;
+        }
+    }
+
+    private String hashStoredRange(StoredBlob blob, byte[] nonce, long offset, int length) throws IOException {
+        MessageDigest digest = CompressionPipeline.newContentDigest();
+        digest.update(nonce);
+        try (InputStream in = compressionService.openStoredFile(blob.getStoragePath(), blob.getCodec())) {
+            long toSkip = offset;
+            while (toSkip > 0) {
+                long skipped = in.skip(toSkip);
+                if (skipped <= 0) {
+                    throw new EOFException("Stored blob shorter than expected: " + blob.getContentHash());
+                }
+                toSkip -= skipped;
+            }
+            byte[] range = in.readNBytes(length);
+            if (range.length != length) {
+                throw new EOFException("Stored blob shorter than expected: " + blob.getContentHash());
+            }
+            digest.update(range);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void removeExpiredChallenges() {
+        LocalDateTime now = LocalDateTime.now();
+        pendingChallenges.values().removeIf(pending -> {
+            if (!pending.expiresAt.isBefore(now)) {
+                return false;
+            }
+            challengesByUser.computeIfPresent(pending.userId, (userId, issued) -> issued > 1 ? issued - 1 : null);
+            return true;
+        });
+    }
+
+    private static class PendingInstantUpload {
+        final UUID userId;
+        final String fileName;
+        final long fileSize;
+        final String contentHash;
+        final boolean stored;
+        final byte[] nonce;
+        final long proofOffset;
+        final int proofLength;
+        final Integer latencyMs;
+        final Double networkSpeedMbps;
+        final String deviceType;
+        final String clientIp;
+        final LocalDateTime expiresAt;
+        final AtomicBoolean answered = new AtomicBoolean();
+
+        PendingInstantUpload(UUID userId, String fileName, long fileSize, String contentHash,
+                             boolean stored, byte[] nonce, long proofOffset, int proofLength, Integer latencyMs, Double networkSpeedMbps,
+                             String deviceType, String clientIp, LocalDateTime expiresAt) {
+            this.userId = userId;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.contentHash = contentHash;
+            this.stored = stored;
+            this.nonce = nonce;
+            this.proofOffset = proofOffset;
+            this.proofLength = proofLength;
+            this.latencyMs = latencyMs;
+            this.networkSpeedMbps = networkSpeedMbps;
+            this.deviceType = deviceType;
+            this.clientIp = clientIp;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package peerlinkfilesharingsystem.Service.IntelligencePredictionService;
+
+import peerlinkfilesharingsystem.Enums.CompressionStrategy;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how compressible an upload is from its first few hundred KB instead
+ * of its extension, which is wrong for renamed files, .db files full of blobs
+ * and unknown extensions.
+ *
+ * Three checks, cheapest first:
+ * 1. Magic bytes of formats that are compressed already (archives, media, ...).
+ * 2. Byte entropy of the sample - close to 8 bits/byte is incompressible.
+ * 3. Trial deflate (level 1) of part of the sample; the ratio picks the strategy.
+ *
+ * The sample is a prefix peeked from the upload stream ({@link Prefix}); the
+ * stream handed on replays it, so nothing is read twice.
+ */
+public final class CompressibilityProbe {
+
+    private static final int MIN_SAMPLE_BYTES = 4 * 1024;
+    private static final int TRIAL_BYTES = 128 * 1024;
+    private static final double RANDOM_ENTROPY_BITS = 7.95;
+
+    // Trial deflate ratio (compressed / original) thresholds
+    private static final double SKIP_RATIO = 0.97;
+    private static final double HIGH_RATIO = 0.40;
+    private static final double MEDIUM_RATIO = 0.75;
+
+    private CompressibilityProbe() {
+    }
+
+    /**
+     * Reads up to sampleBytes from the front of a stream without losing them, into
+     * a pooled buffer that closing the prefix gives back.
+     */
+    public static Prefix peek(InputStream in, int sampleBytes, BufferPoolService bufferPool) throws IOException {
+        byte[] sample = bufferPool.acquire(sampleBytes);
+        try {
+            int length = in.readNBytes(sample, 0, sampleBytes);
+            return new Prefix(sample, length, in, bufferPool);
+        } catch (IOException | RuntimeException e) {
+            bufferPool.release(sample);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the probe's verdict, or null when the sample is too small to tell
+     */
+    public static Result analyze(byte[] sample, int length) {
+        if (length < MIN_SAMPLE_BYTES) {
+            return null;
+        }
+
+        String format = detectCompressedFormat(sample, length);
+        if (format != null) {
+            return new Result(CompressionStrategy.SKIP, format, -1, -1);
+        }
+
+        double entropy = entropyBitsPerByte(sample, length);
+        if (entropy >= RANDOM_ENTROPY_BITS) {
+            return new Result(CompressionStrategy.SKIP, null, entropy, -1);
+        }
+
+        double ratio = trialDeflateRatio(sample, Math.min(length, TRIAL_BYTES));
+        CompressionStrategy strategy;
+        if (ratio >= SKIP_RATIO) {
+            strategy = CompressionStrategy.SKIP;
+        } else if (ratio <= HIGH_RATIO) {
+            strategy = CompressionStrategy.HIGH;
+        } else if (ratio <= MEDIUM_RATIO) {
+            strategy = CompressionStrategy.MEDIUM;
+        } else {
+            strategy = CompressionStrategy.LOW;
+        }
+        return new Result(strategy, null, entropy, ratio);
+    }
+
+    /**
+     * Shannon entropy of the byte histogram, 0 (constant) to 8 (uniform).
+     */
+    static double entropyBitsPerByte(byte[] data, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * (Math.log(p) / Math.log(2));
+            }
+        }
+        return entropy;
+    }
+
+    private static double trialDeflateRatio(byte[] data, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] out = new byte[64 * 1024];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(out);
+            }
+            return (double) compressed / length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Formats whose payload is compressed already; deflating them only burns CPU.
+     */
+    private static String detectCompressedFormat(byte[] b, int length) {
+        if (startsWith(b, length, 0, 0x1f, 0x8b)) return "gzip";
+        if (startsWith(b, length, 0, 'P', 'K', 0x03, 0x04)) return "zip";
+        if (startsWith(b, length, 0, '7', 'z', 0xbc, 0xaf, 0x27, 0x1c)) return "7z";
+        if (startsWith(b, length, 0, 'R', 'a', 'r', '!')) return "rar";
+        if (startsWith(b, length, 0, 'B', 'Z', 'h')) return "bzip2";
+        if (startsWith(b, length, 0, 0xfd, '7', 'z', 'X', 'Z', 0x00)) return "xz";
+        if (startsWith(b, length, 0, 0x28, 0xb5, 0x2f, 0xfd)) return "zstd";
+        if (startsWith(b, length, 0, 0x89, 'P', 'N', 'G')) return "png";
+        if (startsWith(b, length, 0, 0xff, 0xd8, 0xff)) return "jpeg";
+        if (startsWith(b, length, 0, 'G', 'I', 'F', '8')) return "gif";
+        if (startsWith(b, length, 0, 'R', 'I', 'F', 'F') && startsWith(b, length, 8, 'W', 'E', 'B', 'P')) return "webp";
+        if (startsWith(b, length, 4, 'f', 't', 'y', 'p')) return "mp4";
+        if (startsWith(b, length, 0, 0x1a, 0x45, 0xdf, 0xa3)) return "matroska";
+        if (startsWith(b, length, 0, 'O', 'g', 'g', 'S')) return "ogg";
+        if (startsWith(b, length, 0, 'f', 'L', 'a', 'C')) return "flac";
+        if (startsWith(b, length, 0, 'I', 'D', '3')) return "mp3";
+        if (startsWith(b, length, 0, 'w', 'O', 'F')) return "woff";
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int length, int offset, int... magic) {
+        if (offset + magic.length > length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[offset + i] & 0xff) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The peeked front of an upload stream. {@link #getInputStream()} is the whole
+     * stream again: the buffered prefix followed by the rest. Close the prefix once
+     * that stream has been consumed; it does not close the underlying stream.
+     */
+    public static final class Prefix implements Closeable {
+        private final int length;
+        private final InputStream rest;
+        private final BufferPoolService bufferPool;
+        private byte[] sample;
+
+        private Prefix(byte[] sample, int length, InputStream rest, BufferPoolService bufferPool) {
+            this.sample = sample;
+            this.length = length;
+            this.rest = rest;
+            this.bufferPool = bufferPool;
+        }
+
+        public Result analyze() {
+            return CompressibilityProbe.analyze(sample, length);
+        }
+
+        public InputStream getInputStream() {
+            return new SequenceInputStream(new ByteArrayInputStream(sample, 0, length), rest);
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public void close() {
+            bufferPool.release(sample);
+            sample = null;
+        }
+    }
+
+    public static final class Result {
+        private final CompressionStrategy strategy;
+        private final String detectedFormat;
+        private final double entropyBitsPerByte;
+        private final double trialRatio;
+
+        private Result(CompressionStrategy strategy, String detectedFormat, double entropyBitsPerByte,
+                       double trialRatio) {
+            this.strategy = strategy;
+            this.detectedFormat = detectedFormat;
+            this.entropyBitsPerByte = entropyBitsPerByte;
+            this.trialRatio = trialRatio;
+        }
+
+        public CompressionStrategy getStrategy() {
+            return strategy;
+        }
+
+        public String getDetectedFormat() {
+            return detectedFormat;
+        }
+
+        @Override
+        public String toString() {
+            if (detectedFormat != null) {
+                return strategy + " (" + detectedFormat + " signature)";
+            }
+            if (trialRatio < 0) {
+                return strategy + String.format(" (entropy %.2f bits/byte)", entropyBitsPerByte);
+            }
+            return strategy + String.format(" (entropy %.2f bits/byte, trial deflate %.0f%%)",
+                    entropyBitsPerByte, trialRatio * 100);
+        }
+    }
+}
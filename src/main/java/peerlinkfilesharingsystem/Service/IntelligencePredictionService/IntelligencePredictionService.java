@@ -4,11 +4,24 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Enums.CompressionCodec;
+import peerlinkfilesharingsystem.Enums.CompressionStrategy;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
 import peerlinkfilesharingsystem.Model.IntelligentModelParametersEntity;
 import peerlinkfilesharingsystem.Repo.FileTransferRepo;
 import peerlinkfilesharingsystem.Repo.IntelligentModelParametersRepo;
-
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CompressionDictionaryService.CompressionDictionaryService;
+import peerlinkfilesharingsystem.Service.CompressionService.FileCompressionService;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -22,6 +35,56 @@ public class IntelligencePredictionService {
     @Autowired
     private FileTransferRepo fileTransferRepo;
 
+    @Autowired
+    private CompressionDictionaryService compressionDictionaryService;
+
+    @Autowired
+    private FileCompressionService compressionService;
+
+    @Autowired
+    private BufferPoolService bufferPoolService;
+
+    @Value("${compression.parallel.max-threads-per-upload:4}")
+    private int maxThreadsPerUpload;
+
+    @Value("${compression.parallel.min-file-size-mb:64}")
+    private long parallelMinFileSizeMb;
+
+    @Value("${compression.parallel.block-size-kb:1024}")
+    private int parallelBlockSizeKb;
+
+    @Value("${storage.cdc.enabled:true}")
+    private boolean cdcEnabled;
+
+    @Value("${storage.cdc.min-file-size-mb:64}")
+    private long cdcMinFileSizeMb;
+
+    @Value("${storage.cdc.average-chunk-kb:64}")
+    private int cdcAverageChunkKb;
+
+    @Value("${compression.adaptive.enabled:true}")
+    private boolean adaptiveBlocksEnabled;
+
+    @Value("${storage.dictionary.enabled:true}")
+    private boolean dictionaryEnabled;
+
+    @Value("${storage.dictionary.max-file-size-kb:128}")
+    private long dictionaryMaxFileSizeKb;
+
+    @Value("${storage.dictionary.file-types:json,csv,log,txt,xml,yaml,yml,md,html,css,js,ts,java,py,sql}")
+    private List<String> dictionaryFileTypes;
+
+    @Value("${storage.dictionary.min-samples:20}")
+    private int dictionaryMinSamples;
+
+    @Value("${compression.probe.enabled:true}")
+    private boolean probeEnabled;
+
+    @Value("${compression.probe.sample-kb:256}")
+    private int probeSampleKb;
+
+    private static final int DICTIONARY_SAMPLE_BYTES = 16 * 1024;
+
     private static final Set<String> PRECOMPRESSED_FORMATS = Set.of(
             // Video formats (already highly compressed)
             "mp4", "mkv", "avi", "mov", "wmv", "flv", "webm", "m4v", "mpg", "mpeg",
@@ -68,6 +131,22 @@ public class IntelligencePredictionService {
             Integer latencyMs,
             Long fileSizeBytes,
             String deviceType) {
+        return predictOptimalParameters(fileName, extension, networkSpeedMbps, latencyMs, fileSizeBytes,
+                deviceType, null);
+    }
+
+    /**
+     * @param probe what {@link CompressibilityProbe} found in the upload's first bytes;
+     *              overrides the extension lookup. Null when no bytes were available.
+     */
+    public OptimizationParams predictOptimalParameters(
+            String fileName,
+            String extension,
+            Double networkSpeedMbps,
+            Integer latencyMs,
+            Long fileSizeBytes,
+            String deviceType,
+            CompressibilityProbe.Result probe) {
 
         log.info("=== PREDICTING OPTIMAL PARAMETERS ===");
         log.info("File: {}, Extension: {}, Size: {} MB", fileName, extension, fileSizeBytes / 1024.0 / 1024.0);
@@ -77,6 +156,12 @@ public class IntelligencePredictionService {
         log.info("Network Condition: {}", networkCondition);
 
         CompressionStrategy strategy = determineCompressionStrategy(extension);
+        if (probe != null) {
+            if (probe.getStrategy() != strategy) {
+                log.info("Content probe overrides extension strategy {}: {}", strategy, probe);
+            }
+            strategy = probe.getStrategy();
+        }
         log.info("Compression Strategy: {}", strategy);
 
         Optional<IntelligentModelParametersEntity> learnedParams =
@@ -98,9 +183,18 @@ public class IntelligencePredictionService {
             );
         }
 
+        params.setCompressionCodec(selectCodec(strategy, params.getCompressionLevel(), params.getNetworkCondition()));
+        applyPresetDictionary(params, extension, fileSizeBytes);
+        applyParallelism(params, fileSizeBytes);
+        applyChunkedStorage(params, fileSizeBytes);
+        params.setAdaptiveBlocks(adaptiveBlocksEnabled && (params.getCompressionCodec() == CompressionCodec.GZIP
+                || params.getCompressionCodec() == CompressionCodec.GZIP_HUFFMAN));
+
         log.info("=== PREDICTED PARAMETERS ===");
+        log.info("Codec: {}", params.getCompressionCodec());
         log.info("Compression Level: {}/9", params.getCompressionLevel());
         log.info("Chunk Size: {} KB", params.getChunkSize() / 1024);
+        log.info("Parallelism: {} x {} KB blocks", params.getParallelism(), params.getBlockSize() / 1024);
         log.info("Estimated Chunks: {}", (fileSizeBytes / params.getChunkSize()) + 1);
         log.info("Network Condition: {}", params.getNetworkCondition());
         log.info("Time Saving: {}%", params.getEstimatedTimeSavingPercent());
@@ -109,6 +203,28 @@ public class IntelligencePredictionService {
     }
 
 
+    /**
+     * Peeks at the front of an upload stream for {@link CompressibilityProbe}. Read
+     * the upload through the returned prefix's stream, which replays the peeked bytes,
+     * and close the prefix afterwards.
+     */
+    public CompressibilityProbe.Prefix peekUpload(InputStream upload) throws IOException {
+        return CompressibilityProbe.peek(upload, probeEnabled ? probeSampleKb * 1024 : 0, bufferPoolService);
+    }
+
+    /**
+     * Probes an upload that is already complete on disk (a committed upload session).
+     */
+    public CompressibilityProbe.Result probeFile(String path) throws IOException {
+        if (!probeEnabled) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(path);
+             CompressibilityProbe.Prefix prefix = CompressibilityProbe.peek(in, probeSampleKb * 1024, bufferPoolService)) {
+            return prefix.analyze();
+        }
+    }
+
     private CompressionStrategy determineCompressionStrategy(String extension) {
         if (PRECOMPRESSED_FORMATS.contains(extension.toLowerCase())) {
             return CompressionStrategy.SKIP; // Already compressed, don't waste CPU
@@ -337,6 +453,102 @@ public class IntelligencePredictionService {
     }
 
 
+    /**
+     * Small files of a type with a trained dictionary are deflated with it: on their
+     * own they are too short for deflate to find much to match.
+     */
+    private void applyPresetDictionary(OptimizationParams params, String extension, Long fileSizeBytes) {
+        if (!dictionaryEnabled || fileSizeBytes > dictionaryMaxFileSizeKb * 1024
+                || (params.getCompressionCodec() != CompressionCodec.GZIP
+                && params.getCompressionCodec() != CompressionCodec.GZIP_HUFFMAN)) {
+            return;
+        }
+        Long dictionaryId = compressionDictionaryService.findActiveDictionaryId(extension);
+        if (dictionaryId != null) {
+            params.setCompressionCodec(CompressionCodec.DEFLATE_DICT);
+            params.setDictionaryId(dictionaryId);
+        }
+    }
+
+    /**
+     * (Re)trains the preset dictionary of every configured file type from a sample
+     * of its recently stored small files (decoded, at most 16 KB each).
+     */
+    public void learnPresetDictionaries() {
+        if (!dictionaryEnabled) {
+            return;
+        }
+        for (String fileType : dictionaryFileTypes) {
+            List<FileTransferEntity> transfers = fileTransferRepo
+                    .findTop200ByFileTypeAndSuccessTrueAndDeletedFalseAndFileSizeLessThanEqualOrderByCompletedAtDesc(
+                            fileType, dictionaryMaxFileSizeKb * 1024);
+            List<byte[]> samples = new ArrayList<>();
+            Set<String> seenContent = new HashSet<>();
+            for (FileTransferEntity transfer : transfers) {
+                if (transfer.getStoragePath() == null || transfer.getFileSize() == null || transfer.getFileSize() == 0
+                        || (transfer.getContentHash() != null && !seenContent.add(transfer.getContentHash()))) {
+                    continue;
+                }
+                try (InputStream in = compressionService.openStoredFile(transfer.getStoragePath(), transfer.getCodec())) {
+                    samples.add(in.readNBytes(DICTIONARY_SAMPLE_BYTES));
+                } catch (IOException e) {
+                    log.warn("Skipping dictionary sample {}: {}", transfer.getTransferId(), e.getMessage());
+                }
+            }
+            if (samples.size() < dictionaryMinSamples) {
+                log.debug("Not enough .{} samples for a dictionary: {}", fileType, samples.size());
+                continue;
+            }
+            compressionDictionaryService.train(fileType, samples);
+        }
+    }
+
+    private CompressionCodec selectCodec(CompressionStrategy strategy, int compressionLevel, String networkCondition) {
+        if (strategy == CompressionStrategy.SKIP) {
+            return CompressionCodec.STORE; // Deflating media/archives only burns CPU
+        }
+        if ("EXCELLENT".equals(networkCondition) && compressionLevel <= 2) {
+            return CompressionCodec.GZIP_HUFFMAN; // Link is faster than LZ matching - cheapest pass only
+        }
+        return CompressionCodec.GZIP; // Deflate at the predicted level, denser on slower links
+    }
+
+    /**
+     * Large compressible files are deflated block-parallel (pigz style).
+     * Threads per upload are capped so one big upload cannot take every core.
+     */
+    private void applyParallelism(OptimizationParams params, Long fileSizeBytes) {
+        int blockSize = parallelBlockSizeKb * 1024;
+        params.setBlockSize(blockSize);
+
+        if (params.getCompressionCodec() == CompressionCodec.STORE
+                || fileSizeBytes < parallelMinFileSizeMb * 1024 * 1024) {
+            params.setParallelism(1);
+            return;
+        }
+
+        long blocks = (fileSizeBytes + blockSize - 1) / blockSize;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int parallelism = (int) Math.min(blocks, Math.min(cores, maxThreadsPerUpload));
+        params.setParallelism(Math.max(1, parallelism));
+    }
+
+    /**
+     * Large files are stored as content-defined chunks, so a new version of a file
+     * only stores the chunks that changed. Chunks are deflated at the predicted
+     * level; for formats that would have been stored raw they are kept raw (level 0).
+     */
+    private void applyChunkedStorage(OptimizationParams params, Long fileSizeBytes) {
+        params.setCdcAverageChunkSize(cdcAverageChunkKb * 1024);
+        if (!cdcEnabled || fileSizeBytes < cdcMinFileSizeMb * 1024 * 1024) {
+            return;
+        }
+        if (params.getCompressionCodec() == CompressionCodec.STORE) {
+            params.setCompressionLevel(0);
+        }
+        params.setCompressionCodec(CompressionCodec.CDC);
+    }
+
     private int roundToPowerOfTwo(int value) {
         int power = 1;
         while (power < value) {
@@ -467,17 +679,17 @@ public class IntelligencePredictionService {
                 .build();
     }
 
-    private enum CompressionStrategy {
-        SKIP,   // Already compressed - level 1
-        HIGH,   // Text/code - level 6-9
-        MEDIUM, // Images/PDFs - level 3-6
-        LOW     // Unknown - level 2-4
-    }
     @Data
     @Builder
     public static class OptimizationParams {
+        private CompressionCodec compressionCodec;
         private Integer compressionLevel;
         private Integer chunkSize;
+        private Integer blockSize;
+        private Integer parallelism;
+        private Integer cdcAverageChunkSize;
+        private Boolean adaptiveBlocks;
+        private Long dictionaryId;
         private String fileType;
         private String networkCondition;
         private Integer estimatedTimeSavingPercent;
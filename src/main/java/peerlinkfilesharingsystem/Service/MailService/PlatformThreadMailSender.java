@@ -0,0 +1,77 @@
+package peerlinkfilesharingsystem.Service.MailService;
+
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JavaMailSender that hands every send to a few platform threads.
+ *
+ * Jakarta Mail's SMTP transport connects and sends inside synchronized methods,
+ * so a virtual thread sending directly would stay pinned to its carrier for the
+ * whole SMTP conversation. The calling virtual thread only waits on the future,
+ * which unmounts it; callers still see the send as synchronous.
+ */
+public class PlatformThreadMailSender implements JavaMailSender {
+
+    private final JavaMailSender delegate;
+    private final ExecutorService sendExecutor;
+
+    public PlatformThreadMailSender(JavaMailSender delegate, int threads) {
+        this.delegate = delegate;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.sendExecutor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "mail-send-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return delegate.createMimeMessage();
+    }
+
+    @Override
+    public MimeMessage createMimeMessage(InputStream contentStream) throws MailException {
+        return delegate.createMimeMessage(contentStream);
+    }
+
+    @Override
+    public void send(MimeMessage... mimeMessages) throws MailException {
+        await(sendExecutor.submit(() -> delegate.send(mimeMessages)));
+    }
+
+    @Override
+    public void send(SimpleMailMessage... simpleMessages) throws MailException {
+        await(sendExecutor.submit(() -> delegate.send(simpleMessages)));
+    }
+
+    public void shutdown() {
+        sendExecutor.shutdown();
+    }
+
+    private void await(Future<?> send) {
+        try {
+            send.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send.cancel(true);
+            throw new MailSendException("Interrupted while sending mail", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MailException mailException) {
+                throw mailException;
+            }
+            throw new MailSendException("Mail send failed", e.getCause());
+        }
+    }
+}
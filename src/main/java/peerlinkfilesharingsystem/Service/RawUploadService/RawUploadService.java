@@ -0,0 +1,190 @@
+package peerlinkfilesharingsystem.Service.RawUploadService;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.TransferStatusService.TransferStatusService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Streams a raw (application/octet-stream) request body into a transfer's
+ * staging file with Servlet 3.1 non-blocking reads.
+ *
+ * The request goes asynchronous and a {@link ReadListener} copies whatever the
+ * container has buffered each time it reports data, so no thread is parked on
+ * a slow client between packets. Once Content-Length bytes are written and
+ * forced to disk the transfer moves to RECEIVED and the returned future
+ * completes; any error, a short or long body, or the request timing out fails
+ * the transfer and removes the staged bytes.
+ */
+@Service
+@Slf4j
+public class RawUploadService {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final TransferStatusService transferStatusService;
+    private final BufferPoolService bufferPoolService;
+
+    public RawUploadService(TransferStatusService transferStatusService, BufferPoolService bufferPoolService) {
+        this.transferStatusService = transferStatusService;
+        this.bufferPoolService = bufferPoolService;
+    }
+
+    /**
+     * Arranges for the body of {@code request} to be read into the UPLOADING
+     * {@code transfer}'s staging file. Reading starts once the handler returns a
+     * {@link DeferredResult} and the request has gone asynchronous.
+     */
+    public CompletableFuture<FileTransferEntity> receive(HttpServletRequest request, FileTransferEntity transfer) {
+        if (transfer.getStatus() != TransferStatus.UPLOADING) {
+            throw new IllegalStateException("Transfer " + transfer.getTransferId() + " is not waiting for its bytes");
+        }
+        BodyReceiver receiver = new BodyReceiver(request, transfer);
+        WebAsyncUtils.getAsyncManager(request)
+                .registerDeferredResultInterceptor(BodyReceiver.class.getName(), receiver);
+        return receiver.received;
+    }
+
+    /**
+     * Reads the body as the container makes it available. Callbacks for one
+     * request never overlap, so the state below needs no locking.
+     */
+    private final class BodyReceiver implements ReadListener, DeferredResultProcessingInterceptor {
+
+        private final HttpServletRequest request;
+        private final FileTransferEntity transfer;
+        private final long expectedBytes;
+        private final CompletableFuture<FileTransferEntity> received = new CompletableFuture<>();
+
+        private ServletInputStream in;
+        private FileChannel staging;
+        private byte[] buffer;
+        private long receivedBytes = 0;
+
+        private BodyReceiver(HttpServletRequest request, FileTransferEntity transfer) {
+            this.request = request;
+            this.transfer = transfer;
+            this.expectedBytes = transfer.getFileSize();
+        }
+
+        @Override
+        public <T> void preProcess(NativeWebRequest webRequest, DeferredResult<T> deferredResult) throws Exception {
+            // The request is asynchronous by now, which setReadListener requires
+            try {
+                staging = FileChannel.open(Paths.get(transfer.getStoragePath()),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                buffer = bufferPoolService.acquire(READ_BUFFER_SIZE);
+                in = request.getInputStream();
+                in.setReadListener(this);
+            } catch (IOException | RuntimeException e) {
+                abort(e);
+            }
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            if (received.isDone()) {
+                // Aborted already; the rest of the body is left to the container
+                return;
+            }
+            int n;
+            while (in.isReady() && (n = in.read(buffer)) != -1) {
+                if (receivedBytes + n > expectedBytes) {
+                    throw new IOException("Request body is longer than its Content-Length of " + expectedBytes);
+                }
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                while (chunk.hasRemaining()) {
+                    staging.write(chunk);
+                }
+                receivedBytes += n;
+            }
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException {
+            if (received.isDone()) {
+                return;
+            }
+            if (receivedBytes != expectedBytes) {
+                throw new IOException("Request body ended after " + receivedBytes + " of "
+                        + expectedBytes + " bytes");
+            }
+            staging.force(true);
+            release();
+            log.info("Raw upload {} received: {} bytes", transfer.getTransferId(), receivedBytes);
+            transferStatusService.moveTo(transfer, TransferStatus.RECEIVED);
+            received.complete(transfer);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            abort(t);
+        }
+
+        @Override
+        public <T> boolean handleTimeout(NativeWebRequest webRequest, DeferredResult<T> deferredResult) {
+            abort(new TimeoutException("Upload timed out after " + receivedBytes + " of "
+                    + expectedBytes + " bytes"));
+            return true;
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest webRequest, DeferredResult<T> deferredResult) {
+            // Client gone or container error before the body was complete
+            if (!received.isDone()) {
+                abort(new IOException("Request ended before the upload was received"));
+            }
+        }
+
+        private void abort(Throwable cause) {
+            if (received.isDone()) {
+                return;
+            }
+            log.warn("Raw upload {} aborted: {}", transfer.getTransferId(), cause.getMessage());
+            release();
+            File stagingFile = new File(transfer.getStoragePath());
+            if (stagingFile.exists() && !stagingFile.delete()) {
+                log.warn("Could not delete staging file: {}", transfer.getStoragePath());
+            }
+            try {
+                transferStatusService.fail(transfer, "Upload failed: " + cause.getMessage());
+            } catch (RuntimeException e) {
+                log.error("Could not mark raw upload {} as failed", transfer.getTransferId(), e);
+            }
+            received.completeExceptionally(cause);
+        }
+
+        private void release() {
+            if (staging != null) {
+                try {
+                    staging.close();
+                } catch (IOException e) {
+                    log.warn("Could not close staging file of {}: {}", transfer.getTransferId(), e.getMessage());
+                }
+                staging = null;
+            }
+            if (buffer != null) {
+                bufferPoolService.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package peerlinkfilesharingsystem.Service.StorageQuotaService;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
+import peerlinkfilesharingsystem.Exception.StorageQuotaExceededException;
+import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides whether an upload of a given size still fits, before any of its
+ * bytes are accepted: within the user's quota (original bytes of their live
+ * transfers, in flight ones included) and within the free space of the
+ * storage disk, keeping a reserve for compression output and staging files.
+ * Admitted uploads hold their size in memory until it shows up in the database
+ * and on disk.
+ */
+@Service
+@Slf4j
+public class StorageQuotaService {
+
+    public static final String RESERVATION_ATTRIBUTE = StorageQuotaService.class.getName() + ".reservation";
+
+    private static final List<TransferStatus> RELEASED = List.of(TransferStatus.FAILED, TransferStatus.EXPIRED);
+
+    private final FileTransferRepo fileTransferRepo;
+
+    @Value("${file.storage.path:./uploads}")
+    private String baseUploadDirectory;
+
+    // 0 = no per-user limit
+    @Value("${upload.quota.max-bytes-per-user:107374182400}")
+    private long maxBytesPerUser;
+
+    @Value("${upload.quota.min-free-disk-mb:1024}")
+    private long minFreeDiskMb;
+
+    // Room promised to admitted uploads whose bytes or rows are not there yet, so
+    // parallel uploads cannot all pass against the same free space
+    private final ReentrantLock lock = new ReentrantLock();
+    // userId -> bytes not yet counted by sumHeldBytes; guarded by lock
+    private final Map<UUID, Long> reservedByUser = new HashMap<>();
+    // guarded by lock
+    private long reservedOnDisk;
+
+    public StorageQuotaService(FileTransferRepo fileTransferRepo) {
+        this.fileTransferRepo = fileTransferRepo;
+    }
+
+    /**
+     * Checks and holds room for an upload whose bytes are still to come, counting
+     * the reservations of uploads admitted before it. The quota part is held until
+     * {@link Reservation#persisted()} (the transfer row then counts in the held
+     * bytes), the disk part until the reservation is closed.
+     *
+     * @throws StorageQuotaExceededException when {@code incomingBytes} more would
+     *         exceed the user's quota or leave the disk below its reserve
+     */
+    public Reservation reserve(UUID userId, long incomingBytes) {
+        lock.lock();
+        try {
+            checkQuotaLocked(userId, incomingBytes);
+
+            File storageRoot = new File(baseUploadDirectory);
+            long usable = storageRoot.exists() ? storageRoot.getUsableSpace() : 0;
+            // A missing root or a filesystem that reports nothing is left to the upload itself to fail on
+            if (usable > 0 && usable - reservedOnDisk - incomingBytes < minFreeDiskMb * 1024 * 1024) {
+                log.warn("Disk space refused for user {}: {} incoming, {} reserved, {} usable",
+                        userId, incomingBytes, reservedOnDisk, usable);
+                throw new StorageQuotaExceededException("Server storage is full");
+            }
+
+            reservedByUser.merge(userId, incomingBytes, Long::sum);
+            reservedOnDisk += incomingBytes;
+            return new Reservation(userId, incomingBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The per-user quota alone, for transfers that add held bytes without writing
+     * any (a new reference to a stored blob).
+     *
+     * @throws StorageQuotaExceededException when {@code incomingBytes} more would
+     *         exceed the user's quota
+     */
+    public void checkQuota(UUID userId, long incomingBytes) {
+        lock.lock();
+        try {
+            checkQuotaLocked(userId, incomingBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the reservation the upload admission filter took for the current
+     * request persisted; called right after the transfer row is saved.
+     */
+    public void transferPersisted() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null && attributes.getAttribute(RESERVATION_ATTRIBUTE,
+                RequestAttributes.SCOPE_REQUEST) instanceof Reservation reservation) {
+            reservation.persisted();
+        }
+    }
+
+    private void checkQuotaLocked(UUID userId, long incomingBytes) {
+        if (maxBytesPerUser > 0) {
+            long held = fileTransferRepo.sumHeldBytes(userId, RELEASED) + reservedByUser.getOrDefault(userId, 0L);
+            if (held + incomingBytes > maxBytesPerUser) {
+                log.warn("Quota refused for user {}: {} held or reserved + {} incoming > {} bytes",
+                        userId, held, incomingBytes, maxBytesPerUser);
+                throw new StorageQuotaExceededException("Storage quota exceeded: "
+                        + Math.max(0, maxBytesPerUser - held) / 1024 / 1024 + " MB left of "
+                        + maxBytesPerUser / 1024 / 1024 + " MB");
+            }
+        }
+    }
+
+    /**
+     * Room held for one upload; closing it more than once is harmless.
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private final UUID userId;
+        private final long bytes;
+        // Both guarded by lock
+        private boolean quotaReleased;
+        private boolean closed;
+
+        private Reservation(UUID userId, long bytes) {
+            this.userId = userId;
+            this.bytes = bytes;
+        }
+
+        /**
+         * The transfer row is saved with its size, so the quota no longer needs holding.
+         */
+        public void persisted() {
+            lock.lock();
+            try {
+                if (!quotaReleased) {
+                    quotaReleased = true;
+                    reservedByUser.computeIfPresent(userId, (id, reserved) -> reserved > bytes ? reserved - bytes : null);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            persisted();
+            lock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    reservedOnDisk -= bytes;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
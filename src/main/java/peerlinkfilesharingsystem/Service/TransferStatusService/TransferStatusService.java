@@ -0,0 +1,263 @@
+package peerlinkfilesharingsystem.Service.TransferStatusService;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import peerlinkfilesharingsystem.Dto.TransferStatusResponse;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
+import peerlinkfilesharingsystem.Exception.UnauthorizedFileAccessException;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Model.Users;
+import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+import peerlinkfilesharingsystem.Service.UploadSupportService.UploadSupportService;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Moves transfers through their {@link TransferStatus} lifecycle and reports it.
+ *
+ * Every status change goes through {@link #moveTo}, which refuses moves the
+ * lifecycle does not allow, saves the transfer and pushes the new state to
+ * whoever follows it. Compression progress is pushed as well but only kept in
+ * memory: a poll after a restart sees the saved status without a byte count.
+ *
+ * Followers get a Server-Sent Events stream: a "status" event with the current
+ * state straight away, "progress" events while compressing (at most one per
+ * percent) and a last "status" event once the transfer is finished, after
+ * which the stream is closed.
+ */
+@Service
+@Slf4j
+public class TransferStatusService {
+
+    private static final String STATUS_EVENT = "status";
+    private static final String PROGRESS_EVENT = "progress";
+    // Finished transfers keep their last message this long for pollers
+    private static final long FINISHED_RETENTION_MINUTES = 10;
+
+    private final FileTransferRepo fileTransferRepo;
+    private final UploadSupportService uploadSupportService;
+
+    @Value("${upload.status.sse-timeout-ms:1800000}")
+    private long sseTimeoutMs;
+
+    // transferId -> live progress of transfers this node is working on or recently finished
+    private final ConcurrentHashMap<String, Progress> progressByTransfer = new ConcurrentHashMap<>();
+    // transferId -> open event streams
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<SseEmitter>> followers = new ConcurrentHashMap<>();
+
+    public TransferStatusService(FileTransferRepo fileTransferRepo, UploadSupportService uploadSupportService) {
+        this.fileTransferRepo = fileTransferRepo;
+        this.uploadSupportService = uploadSupportService;
+    }
+
+    public void moveTo(FileTransferEntity transfer, TransferStatus next) {
+        moveTo(transfer, next, null);
+    }
+
+    /**
+     * Sets, saves and publishes the transfer's next status.
+     *
+     * @param message shown to pollers and followers, e.g. why it failed
+     * @throws IllegalStateException when the lifecycle does not allow the move
+     */
+    public void moveTo(FileTransferEntity transfer, TransferStatus next, String message) {
+        TransferStatus current = transfer.getStatus();
+        if (current != null && current != next && !current.canMoveTo(next)) {
+            throw new IllegalStateException("Transfer " + transfer.getTransferId()
+                    + " cannot move from " + current + " to " + next);
+        }
+        transfer.setStatus(next);
+        fileTransferRepo.save(transfer);
+        log.info("Transfer {} status: {} → {}{}", transfer.getTransferId(), current, next,
+                message != null ? " (" + message + ")" : "");
+
+        Progress progress = progressByTransfer.computeIfAbsent(transfer.getTransferId(), id -> new Progress());
+        progress.message = message;
+        progress.updatedAt = LocalDateTime.now();
+        if (next == TransferStatus.COMPRESSING) {
+            progress.bytesProcessed = 0;
+            progress.lastPublishedPercent = -1;
+        }
+        if (next.isTerminal()) {
+            progress.finishedAt = progress.updatedAt;
+        }
+        publish(transfer.getTransferId(), STATUS_EVENT, toResponse(transfer, progress), next.isTerminal());
+        forgetFinished();
+    }
+
+    /**
+     * Marks a transfer that could not be finished as failed, unless it already
+     * reached a final state (a failure after completion does not undo it).
+     */
+    public void fail(FileTransferEntity transfer, String message) {
+        if (transfer.getStatus() != null && transfer.getStatus().isTerminal()) {
+            return;
+        }
+        transfer.setSuccess(false);
+        moveTo(transfer, TransferStatus.FAILED, message);
+    }
+
+    /**
+     * Records how many original bytes have been compressed. Followers are told at
+     * most once per percent.
+     */
+    public void reportProgress(FileTransferEntity transfer, long bytesProcessed) {
+        Progress progress = progressByTransfer.computeIfAbsent(transfer.getTransferId(), id -> new Progress());
+        progress.bytesProcessed = bytesProcessed;
+        progress.updatedAt = LocalDateTime.now();
+        int percent = percentOf(bytesProcessed, transfer.getFileSize());
+        if (percent != progress.lastPublishedPercent) {
+            progress.lastPublishedPercent = percent;
+            publish(transfer.getTransferId(), PROGRESS_EVENT, toResponse(transfer, progress), false);
+        }
+    }
+
+    /**
+     * Current state of one of the logged-in user's transfers.
+     */
+    public TransferStatusResponse getStatus(String transferId) {
+        FileTransferEntity transfer = loadOwnedTransfer(transferId);
+        return toResponse(transfer, progressByTransfer.get(transferId));
+    }
+
+    /**
+     * An event stream following one of the logged-in user's transfers.
+     */
+    public SseEmitter follow(String transferId) {
+        TransferStatusResponse current = getStatus(transferId);
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        TransferStatus status = TransferStatus.valueOf(current.getStatus());
+        if (!status.isTerminal()) {
+            List<SseEmitter> streams = followers.computeIfAbsent(transferId, id -> new CopyOnWriteArrayList<>());
+            streams.add(emitter);
+            Runnable unfollow = () -> unfollow(transferId, emitter);
+            emitter.onCompletion(unfollow);
+            emitter.onTimeout(unfollow);
+            emitter.onError(e -> unfollow.run());
+        }
+        send(emitter, STATUS_EVENT, current);
+        if (status.isTerminal()) {
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    private void publish(String transferId, String eventName, TransferStatusResponse response, boolean last) {
+        List<SseEmitter> streams = last ? followers.remove(transferId) : followers.get(transferId);
+        if (streams == null) {
+            return;
+        }
+        for (SseEmitter emitter : streams) {
+            if (!send(emitter, eventName, response)) {
+                unfollow(transferId, emitter);
+            } else if (last) {
+                emitter.complete();
+            }
+        }
+    }
+
+    private boolean send(SseEmitter emitter, String eventName, TransferStatusResponse response) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name(eventName)
+                    .id(response.getTransferId() + "-" + response.getStatus() + "-" + response.getBytesProcessed())
+                    .data(response, MediaType.APPLICATION_JSON));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // Client went away or the stream already timed out
+            log.debug("Dropping status stream of {}: {}", response.getTransferId(), e.getMessage());
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private void unfollow(String transferId, SseEmitter emitter) {
+        followers.computeIfPresent(transferId, (id, streams) -> {
+            streams.remove(emitter);
+            return streams.isEmpty() ? null : streams;
+        });
+    }
+
+    private void forgetFinished() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(FINISHED_RETENTION_MINUTES);
+        progressByTransfer.values().removeIf(progress -> progress.finishedAt != null
+                && progress.finishedAt.isBefore(cutoff));
+    }
+
+    private TransferStatusResponse toResponse(FileTransferEntity transfer, Progress progress) {
+        TransferStatus status = transfer.getStatus() != null
+                ? transfer.getStatus()
+                // Rows from before the lifecycle was tracked
+                : Boolean.TRUE.equals(transfer.getSuccess()) ? TransferStatus.COMPLETED : TransferStatus.FAILED;
+        Long bytesProcessed = status == TransferStatus.COMPLETED
+                ? transfer.getFileSize()
+                : progress != null ? Long.valueOf(progress.bytesProcessed) : null;
+        boolean completed = status == TransferStatus.COMPLETED;
+        return TransferStatusResponse.builder()
+                .transferId(transfer.getTransferId())
+                .fileName(transfer.getFileName())
+                .status(status.name())
+                .fileSizeBytes(transfer.getFileSize())
+                .bytesProcessed(bytesProcessed)
+                .progressPercent(bytesProcessed != null ? percentOf(bytesProcessed, transfer.getFileSize()) : null)
+                .compressedSizeBytes(completed ? transfer.getBytesTransferred() : null)
+                .appliedCodec(completed && transfer.getCodec() != null ? transfer.getCodec().name() : null)
+                .message(progress != null && progress.message != null ? progress.message : defaultMessage(status))
+                .completedAt(transfer.getCompletedAt())
+                .updatedAt(progress != null ? progress.updatedAt : null)
+                .build();
+    }
+
+    private static String defaultMessage(TransferStatus status) {
+        switch (status) {
+            case UPLOADING:
+                return "Waiting for the remaining chunks";
+            case RECEIVED:
+                return "Upload received - waiting for compression";
+            case COMPRESSING:
+                return "Compressing";
+            case COMPLETED:
+                return "Upload completed";
+            case FAILED:
+                return "Upload failed";
+            default:
+                return "Upload expired";
+        }
+    }
+
+    private static int percentOf(long bytes, Long total) {
+        if (total == null || total <= 0) {
+            return 0;
+        }
+        return (int) Math.min(100, bytes * 100 / total);
+    }
+
+    private FileTransferEntity loadOwnedTransfer(String transferId) {
+        Users users = uploadSupportService.retriveLoggedInUser();
+        FileTransferEntity transfer = fileTransferRepo.findByTransferId(transferId)
+                .orElseThrow(() -> new IllegalArgumentException("Transfer not found: " + transferId));
+        if (!users.getId().equals(transfer.getUserId())) {
+            log.warn("OWNERSHIP VIOLATION: User {} tried following transfer {}", users.getId(), transferId);
+            throw new UnauthorizedFileAccessException("Access denied: This transfer does not belong to you");
+        }
+        return transfer;
+    }
+
+    /**
+     * What this node knows about a transfer beyond its saved row.
+     */
+    private static final class Progress {
+        private volatile long bytesProcessed;
+        private volatile int lastPublishedPercent = -1;
+        private volatile String message;
+        private volatile LocalDateTime updatedAt;
+        private volatile LocalDateTime finishedAt;
+    }
+}
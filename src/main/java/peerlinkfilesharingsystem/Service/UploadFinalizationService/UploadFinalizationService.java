@@ -0,0 +1,221 @@
+package peerlinkfilesharingsystem.Service.UploadFinalizationService;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Dto.FileUploadResponse;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
+import peerlinkfilesharingsystem.Exception.CompressionOverloadedException;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+import peerlinkfilesharingsystem.Service.FileUploadService.FileUploadService;
+import peerlinkfilesharingsystem.Service.IntelligencePredictionService.IntelligencePredictionService;
+import peerlinkfilesharingsystem.Service.TransferStatusService.TransferStatusService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finishes uploads whose bytes are already durably staged (RECEIVED): content
+ * probe, prediction, compression through the compression queue, checksum and
+ * the final FileTransferEntity update, then the staging file is removed.
+ *
+ * This runs on the caller's thread, or in the background so the upload request
+ * can be answered with 202 as soon as the bytes are safe; the client follows
+ * the transfer through the {@link TransferStatusService}. A background run the
+ * compression queue turns away goes back to RECEIVED and is retried after the
+ * queue's Retry-After. Transfers still RECEIVED or COMPRESSING at startup were
+ * cut off by a restart and are picked up again; one that had already taken its
+ * blob reference completes on it instead of taking a second.
+ */
+@Service
+@Slf4j
+public class UploadFinalizationService {
+
+    private final FileUploadService fileUploadService;
+    private final IntelligencePredictionService intelligencePredictionService;
+    private final TransferStatusService transferStatusService;
+    private final FileTransferRepo fileTransferRepo;
+    private final ScheduledExecutorService finalizationExecutor;
+
+    // Transfers being finalized right now, so a retried commit and a background run never overlap
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public UploadFinalizationService(FileUploadService fileUploadService,
+                                     IntelligencePredictionService intelligencePredictionService,
+                                     TransferStatusService transferStatusService,
+                                     FileTransferRepo fileTransferRepo,
+                                     @Value("${upload.finalize.workers:4}") int workers,
+                                     @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.fileUploadService = fileUploadService;
+        this.intelligencePredictionService = intelligencePredictionService;
+        this.transferStatusService = transferStatusService;
+        this.fileTransferRepo = fileTransferRepo;
+        AtomicInteger threadCount = new AtomicInteger();
+        // Finalization mostly waits on disk, the database and the compression queue
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("upload-finalize-", 1).factory()
+                : r -> {
+                    Thread thread = new Thread(r, "upload-finalize-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+        this.finalizationExecutor = Executors.newScheduledThreadPool(Math.max(1, workers), threadFactory);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        finalizationExecutor.shutdownNow();
+        finalizationExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        List<FileTransferEntity> interrupted = fileTransferRepo.findByStatusInAndDeletedFalse(
+                List.of(TransferStatus.RECEIVED, TransferStatus.COMPRESSING));
+        if (interrupted.isEmpty()) {
+            return;
+        }
+        log.info("Resuming finalization of {} received uploads", interrupted.size());
+        for (FileTransferEntity transfer : interrupted) {
+            if (transfer.getStatus() == TransferStatus.COMPRESSING) {
+                transferStatusService.moveTo(transfer, TransferStatus.RECEIVED, "Resumed after a restart");
+            }
+            schedule(transfer.getTransferId(), 0);
+        }
+    }
+
+    /**
+     * Finalizes a RECEIVED transfer on the calling thread. When the compression
+     * queue turns it away it stays RECEIVED, is retried in the background and the
+     * {@link CompressionOverloadedException} is passed on.
+     */
+    public FileUploadResponse finalizeNow(FileTransferEntity transfer) throws IOException {
+        if (!inFlight.add(transfer.getTransferId())) {
+            throw new IllegalStateException("Transfer " + transfer.getTransferId() + " is already being finalized");
+        }
+        try {
+            return finalizeStaged(transfer);
+        } catch (CompressionOverloadedException e) {
+            schedule(transfer.getTransferId(), e.getRetryAfterSeconds());
+            throw e;
+        } finally {
+            inFlight.remove(transfer.getTransferId());
+        }
+    }
+
+    /**
+     * {@link #finalizeNow} on a finalization worker, for callers that answer once
+     * the upload is stored but should not hold their own thread meanwhile.
+     */
+    public CompletableFuture<FileUploadResponse> finalizeOnWorker(FileTransferEntity transfer) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return finalizeNow(transfer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, finalizationExecutor);
+    }
+
+    /**
+     * Queues a RECEIVED transfer for background finalization and returns the
+     * 202 body for the client.
+     */
+    public FileUploadResponse finalizeInBackground(FileTransferEntity transfer) {
+        schedule(transfer.getTransferId(), 0);
+        return FileUploadResponse.builder()
+                .fileId(transfer.getFileId())
+                .transferId(transfer.getTransferId())
+                .fileName(transfer.getFileName())
+                .fileSizeBytes(transfer.getFileSize())
+                .success(true)
+                .status(transfer.getStatus().name())
+                .message("Upload received - compressing in the background")
+                .uploadedAt(LocalDateTime.now())
+                .build();
+    }
+
+    private void schedule(String transferId, long delaySeconds) {
+        finalizationExecutor.schedule(() -> runScheduled(transferId), delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private void runScheduled(String transferId) {
+        if (!inFlight.add(transferId)) {
+            return;
+        }
+        try {
+            // Loaded only once claimed: a finalization that just ended may have moved it past RECEIVED
+            FileTransferEntity transfer = fileTransferRepo.findByTransferId(transferId).orElse(null);
+            if (transfer == null || transfer.getStatus() != TransferStatus.RECEIVED) {
+                return;
+            }
+            finalizeStaged(transfer);
+        } catch (CompressionOverloadedException e) {
+            log.info("Finalization of {} postponed {} s: {}", transferId, e.getRetryAfterSeconds(), e.getMessage());
+            schedule(transferId, e.getRetryAfterSeconds());
+        } catch (Exception e) {
+            log.error("Background finalization of {} failed: {}", transferId, e.getMessage(), e);
+        } finally {
+            inFlight.remove(transferId);
+        }
+    }
+
+    private FileUploadResponse finalizeStaged(FileTransferEntity transfer) throws IOException {
+        String stagingPath = transfer.getStoragePath();
+        transferStatusService.moveTo(transfer, TransferStatus.COMPRESSING);
+        try {
+            // Now that the bytes are here, the content decides the codec rather than the extension
+            IntelligencePredictionService.OptimizationParams params =
+                    intelligencePredictionService.predictOptimalParameters(
+                            transfer.getFileName(), transfer.getFileType(), transfer.getNetworkSpeedMbps(),
+                            transfer.getLatencyMs(), transfer.getFileSize(), transfer.getDeviceType(),
+                            intelligencePredictionService.probeFile(stagingPath));
+            if (transfer.getChunkSize() != null) {
+                // The client already chunked with the session's size; that is what the model should learn from
+                params.setChunkSize(transfer.getChunkSize());
+            }
+            transfer.setCodec(params.getCompressionCodec());
+            transfer.setCompressionLevel(params.getCompressionLevel());
+            transfer.setChunkSize(params.getChunkSize());
+            transfer.setReceivedChunks(null);
+
+            FileUploadResponse response = fileUploadService.storeStagedUpload(stagingPath, transfer, params);
+            // The blob store forced the new blob file, its index and directory entry before COMPLETED was saved
+            deleteStaging(stagingPath);
+            return response;
+        } catch (CompressionOverloadedException e) {
+            // Nothing was written yet: the staged bytes wait for the next attempt
+            transfer.setStoragePath(stagingPath);
+            transferStatusService.moveTo(transfer, TransferStatus.RECEIVED,
+                    "Server busy - compression retried in " + e.getRetryAfterSeconds() + " s");
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            log.error("Finalization of {} failed", transfer.getTransferId(), e);
+            deleteStaging(stagingPath);
+            transferStatusService.fail(transfer, "Upload failed: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    private void deleteStaging(String stagingPath) {
+        File staging = new File(stagingPath);
+        if (staging.exists() && !staging.delete()) {
+            log.warn("Could not delete staging file: {}", stagingPath);
+        }
+    }
+}
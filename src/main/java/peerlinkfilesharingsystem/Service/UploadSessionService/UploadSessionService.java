@@ -0,0 +1,383 @@
+package peerlinkfilesharingsystem.Service.UploadSessionService;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Dto.FileUploadResponse;
+import peerlinkfilesharingsystem.Dto.UploadSessionRequest;
+import peerlinkfilesharingsystem.Dto.UploadSessionResponse;
+import peerlinkfilesharingsystem.Enums.TransferStatus;
+import peerlinkfilesharingsystem.Exception.UnauthorizedFileAccessException;
+import peerlinkfilesharingsystem.Model.FileTransferEntity;
+import peerlinkfilesharingsystem.Model.Users;
+import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.FileStorageService.FileStorageService;
+import peerlinkfilesharingsystem.Service.FileUploadService.FileUploadService;
+import peerlinkfilesharingsystem.Service.IntelligencePredictionService.IntelligencePredictionService;
+import peerlinkfilesharingsystem.Service.StorageQuotaService.StorageQuotaService;
+import peerlinkfilesharingsystem.Service.TransferStatusService.TransferStatusService;
+import peerlinkfilesharingsystem.Service.UploadFinalizationService.UploadFinalizationService;
+import peerlinkfilesharingsystem.Service.UploadSupportService.UploadSupportService;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resumable uploads: a session is created with the file size, the client PUTs
+ * numbered chunks in any order (also in parallel), asks which chunks are still
+ * missing after a dropped connection, and finally commits.
+ *
+ * Chunks are written with positional FileChannel writes into a staging file
+ * preallocated to the full size, so arrival order does not matter and nothing
+ * is buffered in memory. The received-chunk bitmap is persisted on the
+ * FileTransferEntity after each chunk is forced to disk, so a session survives
+ * a server restart. Commit marks the transfer RECEIVED and hands the staged file
+ * to the {@link UploadFinalizationService}, on the request thread or in the
+ * background; the blob store compresses it through the normal pipeline unless
+ * the content is already stored.
+ * Chunk bodies are copied through pooled buffers, so concurrent chunk PUTs do
+ * not allocate their own.
+ */
+@Service
+@Slf4j
+public class UploadSessionService {
+
+    private static final String STAGING_SUFFIX = ".part";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_FILE_SIZE = 10 * 1024 * 1024 * 1024L;
+
+    private final FileTransferRepo fileTransferRepo;
+    private final IntelligencePredictionService intelligencePredictionService;
+    private final FileStorageService fileStorageService;
+    private final FileUploadService fileUploadService;
+    private final UploadSupportService uploadSupportService;
+    private final BufferPoolService bufferPoolService;
+    private final UploadFinalizationService uploadFinalizationService;
+    private final TransferStatusService transferStatusService;
+    private final StorageQuotaService storageQuotaService;
+
+    // Open staging channels of sessions receiving chunks on this node
+    private final ConcurrentHashMap<String, UploadSession> activeSessions = new ConcurrentHashMap<>();
+
+    public UploadSessionService(FileTransferRepo fileTransferRepo,
+                                IntelligencePredictionService intelligencePredictionService,
+                                FileStorageService fileStorageService,
+                                FileUploadService fileUploadService,
+                                UploadSupportService uploadSupportService,
+                                BufferPoolService bufferPoolService,
+                                UploadFinalizationService uploadFinalizationService,
+                                TransferStatusService transferStatusService,
+                                StorageQuotaService storageQuotaService) {
+        this.fileTransferRepo = fileTransferRepo;
+        this.intelligencePredictionService = intelligencePredictionService;
+        this.fileStorageService = fileStorageService;
+        this.fileUploadService = fileUploadService;
+        this.uploadSupportService = uploadSupportService;
+        this.bufferPoolService = bufferPoolService;
+        this.uploadFinalizationService = uploadFinalizationService;
+        this.transferStatusService = transferStatusService;
+        this.storageQuotaService = storageQuotaService;
+    }
+
+    public UploadSessionResponse createSession(UploadSessionRequest request, Integer latencyMs,
+                                               Double networkSpeedMbps, String deviceType,
+                                               String clientIp) throws IOException {
+        if (request.getFileName() == null || request.getFileName().isBlank()
+                || request.getFileSize() == null || request.getFileSize() <= 0) {
+            throw new IllegalArgumentException("fileName and a positive fileSize are required");
+        }
+        if (request.getFileSize() > MAX_FILE_SIZE) {
+            throw new IllegalArgumentException("File Size Exceeded");
+        }
+
+        Users users = uploadSupportService.retriveLoggedInUser();
+        // Chunks are small requests, so the full size is checked here, up front; the preallocated
+        // staging file and the saved row hold it from then on
+        StorageQuotaService.Reservation reservation = storageQuotaService.reserve(users.getId(), request.getFileSize());
+        try {
+            return createSession(request, users, latencyMs, networkSpeedMbps, deviceType, clientIp);
+        } finally {
+            reservation.close();
+        }
+    }
+
+    private UploadSessionResponse createSession(UploadSessionRequest request, Users users, Integer latencyMs,
+                                                Double networkSpeedMbps, String deviceType,
+                                                String clientIp) throws IOException {
+        String transferId = fileUploadService.generateUniqueShareId();
+        String extension = uploadSupportService.extractFileType(request.getFileName());
+
+        log.info("========== UPLOAD SESSION START ==========");
+        log.info("TransferID: {}", transferId);
+        log.info("Filename: {}, Extension: {}, Size: {} bytes ({} MB)",
+                request.getFileName(), extension, request.getFileSize(), request.getFileSize() / 1024 / 1024);
+
+        IntelligencePredictionService.OptimizationParams params =
+                intelligencePredictionService.predictOptimalParameters(
+                        request.getFileName(), extension, networkSpeedMbps, latencyMs,
+                        request.getFileSize(), deviceType);
+
+        String userPath = fileStorageService.createUserDirectory(String.valueOf(users.getId()));
+        fileStorageService.validateUserAccess(users.getId().toString(), userPath);
+        String stagingPath = userPath + "/" + transferId + STAGING_SUFFIX;
+
+        // Preallocate so every chunk can be written at its final offset
+        try (RandomAccessFile staging = new RandomAccessFile(stagingPath, "rw")) {
+            staging.setLength(request.getFileSize());
+        }
+
+        FileTransferEntity transfer = new FileTransferEntity();
+        transfer.setTransferId(transferId);
+        transfer.setUserId(users.getId());
+        transfer.setFileName(request.getFileName());
+        transfer.setFileType(extension);
+        transfer.setDeviceType(deviceType);
+        transfer.setFileSize(request.getFileSize());
+        transfer.setLatencyMs(latencyMs);
+        transfer.setNetworkSpeedMbps(networkSpeedMbps);
+        transfer.setClientIp(clientIp);
+        transfer.setCodec(params.getCompressionCodec());
+        transfer.setCompressionLevel(params.getCompressionLevel());
+        transfer.setChunkSize(params.getChunkSize());
+        transfer.setNoOfChunksUploaded(0);
+        transfer.setReceivedChunks(new byte[0]);
+        transfer.setStatus(TransferStatus.UPLOADING);
+        // Points at the staging file until commit, so expiry cleanup also removes abandoned sessions
+        transfer.setStoragePath(stagingPath);
+        transfer.setExpiresAt(LocalDateTime.now().plusDays(2));
+        fileTransferRepo.save(transfer);
+
+        log.info("Upload session created - ChunkSize: {} KB, TotalChunks: {}",
+                params.getChunkSize() / 1024, totalChunks(transfer));
+
+        return toResponse(transfer, new BitSet(), "Upload session created");
+    }
+
+    /**
+     * Writes one chunk at its offset. The chunk only counts as received once all its
+     * bytes arrived and were forced to disk; a short or failed PUT can simply be retried.
+     */
+    public UploadSessionResponse writeChunk(String transferId, int chunkIndex, InputStream body,
+                                            long contentLength) throws IOException {
+        FileTransferEntity transfer = loadOwnedSession(transferId);
+        int totalChunks = totalChunks(transfer);
+        if (chunkIndex < 0 || chunkIndex >= totalChunks) {
+            throw new IllegalArgumentException("Chunk index " + chunkIndex + " outside 0.." + (totalChunks - 1));
+        }
+
+        long offset = (long) chunkIndex * transfer.getChunkSize();
+        long expected = Math.min(transfer.getChunkSize(), transfer.getFileSize() - offset);
+        if (contentLength >= 0 && contentLength != expected) {
+            throw new IllegalArgumentException("Chunk " + chunkIndex + " must be " + expected
+                    + " bytes, got Content-Length " + contentLength);
+        }
+
+        UploadSession session = openSession(transfer);
+        long written = 0;
+        byte[] buffer = bufferPoolService.acquire(COPY_BUFFER_SIZE);
+        // Channel writes from a heap buffer would copy through a JDK per-thread direct buffer anyway
+        ByteBuffer source = bufferPoolService.acquireDirect(COPY_BUFFER_SIZE);
+        try {
+            int n;
+            // Reads one byte past the expected size so oversized bodies are rejected, not truncated
+            while ((n = body.read(buffer, 0, (int) Math.min(COPY_BUFFER_SIZE, expected - written + 1))) > 0) {
+                if (written + n > expected) {
+                    throw new IllegalArgumentException("Chunk " + chunkIndex + " is larger than " + expected + " bytes");
+                }
+                source.clear();
+                source.put(buffer, 0, n).flip();
+                long position = offset + written;
+                while (source.hasRemaining()) {
+                    position += session.channel.write(source, position);
+                }
+                written += n;
+            }
+        } finally {
+            bufferPoolService.release(buffer);
+            bufferPoolService.release(source);
+        }
+        if (written != expected) {
+            throw new IllegalArgumentException("Chunk " + chunkIndex + " ended after " + written
+                    + " of " + expected + " bytes");
+        }
+
+        session.channel.force(false);
+        BitSet received = session.markReceived(chunkIndex, fileTransferRepo);
+
+        log.info("Upload {} chunk {} stored ({} / {} chunks)",
+                transferId, chunkIndex, received.cardinality(), totalChunks);
+        return toResponse(transfer, received, "Chunk " + chunkIndex + " stored");
+    }
+
+    public UploadSessionResponse getSessionStatus(String transferId) {
+        FileTransferEntity transfer = loadOwnedTransfer(transferId);
+        UploadSession session = activeSessions.get(transferId);
+        BitSet received = session != null ? session.snapshot() : receivedChunks(transfer);
+        return toResponse(transfer, received, null);
+    }
+
+    /**
+     * Marks the fully received staging file RECEIVED and finalizes it, on this
+     * thread or (async) in the background. Fails with IllegalStateException while
+     * chunks are missing; a session still RECEIVED because the server was busy can
+     * be committed again.
+     */
+    public FileUploadResponse commitSession(String transferId, boolean async) throws IOException {
+        FileTransferEntity transfer = loadOwnedTransfer(transferId);
+        if (transfer.getStatus() == TransferStatus.UPLOADING) {
+            UploadSession session = activeSessions.get(transferId);
+            BitSet received = session != null ? session.snapshot() : receivedChunks(transfer);
+            int totalChunks = totalChunks(transfer);
+            if (received.cardinality() < totalChunks) {
+                throw new IllegalStateException((totalChunks - received.cardinality()) + " of "
+                        + totalChunks + " chunks are still missing");
+            }
+            closeSession(transferId);
+
+            log.info("========== UPLOAD SESSION COMMIT ==========");
+            log.info("TransferID: {}, Chunks: {}", transferId, totalChunks);
+
+            transfer.setReceivedChunks(null);
+            transferStatusService.moveTo(transfer, TransferStatus.RECEIVED);
+        } else if (transfer.getStatus() != TransferStatus.RECEIVED) {
+            throw new IllegalStateException("Transfer " + transferId + " is not an open upload session");
+        }
+
+        return async
+                ? uploadFinalizationService.finalizeInBackground(transfer)
+                : uploadFinalizationService.finalizeNow(transfer);
+    }
+
+    public void abortSession(String transferId) {
+        FileTransferEntity transfer = loadOwnedSession(transferId);
+        closeSession(transferId);
+        if (!new File(transfer.getStoragePath()).delete()) {
+            log.warn("Could not delete staging file: {}", transfer.getStoragePath());
+        }
+        fileTransferRepo.delete(transfer);
+        log.info("Upload session {} aborted", transferId);
+    }
+
+    private UploadSession openSession(FileTransferEntity transfer) throws IOException {
+        try {
+            return activeSessions.computeIfAbsent(transfer.getTransferId(), id -> {
+                try {
+                    FileChannel channel = FileChannel.open(Paths.get(transfer.getStoragePath()),
+                            StandardOpenOption.WRITE);
+                    return new UploadSession(id, channel, receivedChunks(transfer));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void closeSession(String transferId) {
+        UploadSession session = activeSessions.remove(transferId);
+        if (session != null) {
+            try {
+                session.channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close staging file of {}: {}", transferId, e.getMessage());
+            }
+        }
+    }
+
+    private FileTransferEntity loadOwnedSession(String transferId) {
+        FileTransferEntity transfer = loadOwnedTransfer(transferId);
+        if (transfer.getStatus() != TransferStatus.UPLOADING) {
+            throw new IllegalStateException("Transfer " + transferId + " is not an open upload session");
+        }
+        return transfer;
+    }
+
+    private FileTransferEntity loadOwnedTransfer(String transferId) {
+        Users users = uploadSupportService.retriveLoggedInUser();
+        FileTransferEntity transfer = fileTransferRepo.findByTransferId(transferId)
+                .orElseThrow(() -> new IllegalArgumentException("Upload session not found: " + transferId));
+        if (!users.getId().equals(transfer.getUserId())) {
+            log.warn("OWNERSHIP VIOLATION: User {} tried accessing upload session {}", users.getId(), transferId);
+            throw new UnauthorizedFileAccessException("Access denied: This upload session does not belong to you");
+        }
+        return transfer;
+    }
+
+    private BitSet receivedChunks(FileTransferEntity transfer) {
+        return transfer.getReceivedChunks() != null ? BitSet.valueOf(transfer.getReceivedChunks()) : new BitSet();
+    }
+
+    private int totalChunks(FileTransferEntity transfer) {
+        return (int) ((transfer.getFileSize() + transfer.getChunkSize() - 1) / transfer.getChunkSize());
+    }
+
+    private UploadSessionResponse toResponse(FileTransferEntity transfer, BitSet received, String message) {
+        int totalChunks = totalChunks(transfer);
+        List<Integer> missing = new ArrayList<>(totalChunks - received.cardinality());
+        for (int i = received.nextClearBit(0); i < totalChunks; i = received.nextClearBit(i + 1)) {
+            missing.add(i);
+        }
+        return UploadSessionResponse.builder()
+                .transferId(transfer.getTransferId())
+                .fileName(transfer.getFileName())
+                .fileSizeBytes(transfer.getFileSize())
+                .chunkSize(transfer.getChunkSize())
+                .totalChunks(totalChunks)
+                .receivedChunks(received.cardinality())
+                .missingChunks(missing)
+                .status(transfer.getStatus().name())
+                .expiresAt(transfer.getExpiresAt())
+                .success(true)
+                .message(message)
+                .build();
+    }
+
+    /**
+     * Staging channel and received bitmap of one session. Positional channel writes
+     * are safe from several request threads; the bitmap is updated and persisted
+     * under the session lock so saves never go backwards.
+     */
+    private static class UploadSession {
+        private final String transferId;
+        private final FileChannel channel;
+        private final BitSet received;
+        // A lock, not a monitor: the repository update must not pin a virtual request thread
+        private final ReentrantLock lock = new ReentrantLock();
+
+        UploadSession(String transferId, FileChannel channel, BitSet received) {
+            this.transferId = transferId;
+            this.channel = channel;
+            this.received = received;
+        }
+
+        BitSet markReceived(int chunkIndex, FileTransferRepo fileTransferRepo) {
+            lock.lock();
+            try {
+                received.set(chunkIndex);
+                fileTransferRepo.updateReceivedChunks(transferId, received.toByteArray(), received.cardinality());
+                return (BitSet) received.clone();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        BitSet snapshot() {
+            lock.lock();
+            try {
+                return (BitSet) received.clone();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
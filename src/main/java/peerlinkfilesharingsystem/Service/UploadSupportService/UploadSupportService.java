@@ -0,0 +1,42 @@
+package peerlinkfilesharingsystem.Service.UploadSupportService;
+
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+import peerlinkfilesharingsystem.Model.Users;
+import peerlinkfilesharingsystem.Repo.UserRepo;
+
+/**
+ * Request details the upload paths share: who is uploading and the file type
+ * taken from the file name.
+ */
+@Service
+public class UploadSupportService {
+
+    private final UserRepo userRepo;
+
+    public UploadSupportService(UserRepo userRepo) {
+        this.userRepo = userRepo;
+    }
+
+    public Users retriveLoggedInUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if(authentication == null || !authentication.isAuthenticated())
+            throw new BadCredentialsException("Bad Credentials login ");
+        String username = authentication.getName();
+        Users user = userRepo.findByUsername(username);
+        if(user == null){
+            throw new UsernameNotFoundException("User Not Found");
+        }
+        return user;
+    }
+
+    public String extractFileType(String fileName) {
+        if (fileName != null && fileName.contains(".")) {
+            return fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
+        }
+        return "unknown";
+    }
+}
@@ -0,0 +1,201 @@
+package peerlinkfilesharingsystem.Benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent-transfer capacity of a running server: many slow clients upload at
+ * once and we measure how long each waits beyond its own transfer time.
+ *
+ * Run it once against a server started with spring.threads.virtual.enabled=false
+ * and once with it true, same arguments, and compare. A multipart upload holds
+ * its request thread while the body trickles in, so in platform mode everything
+ * past server.tomcat.threads.max (200) queues, while virtual threads take all of
+ * them at once.
+ *
+ *   java -cp target/test-classes peerlinkfilesharingsystem.Benchmark.TransferCapacityBenchmark \
+ *       --url=http://localhost:8080 --token=JWT --uploads=1000 --size-kb=1024 --rate-kbps=64 --label=platform
+ *
+ * Keep size-kb well above the socket buffers, otherwise the kernel absorbs the
+ * body and hides the queueing. The client side uses one virtual thread per
+ * upload, so it is never the bottleneck.
+ */
+public class TransferCapacityBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        String url = options.getOrDefault("url", "http://localhost:8080");
+        String token = options.get("token");
+        int uploads = Integer.parseInt(options.getOrDefault("uploads", "1000"));
+        int sizeKb = Integer.parseInt(options.getOrDefault("size-kb", "1024"));
+        int rateKbps = Integer.parseInt(options.getOrDefault("rate-kbps", "64"));
+        String label = options.getOrDefault("label", "server");
+        if (token == null) {
+            System.err.println("--token=<JWT of a test user> is required");
+            System.exit(2);
+        }
+
+        double idealSeconds = (double) sizeKb / rateKbps;
+        System.out.printf("[%s] %d concurrent uploads of %d KB at %d KB/s each (%.1f s per upload on its own)%n",
+                label, uploads, sizeKb, rateKbps, idealSeconds);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        byte[] content = new byte[sizeKb * 1024];
+        ThreadLocalRandom.current().nextBytes(content);
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peakInFlight = new AtomicInteger();
+        List<Future<Result>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < uploads; i++) {
+                int uploadNo = i;
+                futures.add(clients.submit(() -> upload(client, url, token, label + "-" + uploadNo + ".bin",
+                        content, rateKbps * 1024L, inFlight, peakInFlight)));
+            }
+        }
+        double wallSeconds = (System.nanoTime() - start) / 1e9;
+
+        List<Double> seconds = new ArrayList<>();
+        int failed = 0;
+        for (Future<Result> future : futures) {
+            Result result = future.get();
+            if (result.status / 100 == 2) {
+                seconds.add(result.seconds);
+            } else {
+                failed++;
+            }
+        }
+        Collections.sort(seconds);
+
+        System.out.printf("[%s] wall %.1f s, %d ok, %d failed%n", label, wallSeconds, seconds.size(), failed);
+        if (!seconds.isEmpty()) {
+            System.out.printf("[%s] per upload: p50 %.1f s, p95 %.1f s, max %.1f s (ideal %.1f s)%n", label,
+                    percentile(seconds, 50), percentile(seconds, 95), seconds.get(seconds.size() - 1), idealSeconds);
+            double totalMb = seconds.size() * (double) sizeKb / 1024;
+            System.out.printf("[%s] throughput %.1f MB/s, effective concurrent transfers %.0f, peak open %d%n",
+                    label, totalMb / wallSeconds, totalMb * 1024 / rateKbps / wallSeconds, peakInFlight.get());
+        }
+    }
+
+    private static Result upload(HttpClient client, String url, String token, String fileName, byte[] content,
+                                 long bytesPerSecond, AtomicInteger inFlight, AtomicInteger peakInFlight) {
+        String boundary = "----peerlink-bench-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(head.length + content.length + tail.length);
+        body.writeBytes(head);
+        body.writeBytes(content);
+        body.writeBytes(tail);
+        byte[] bodyBytes = body.toByteArray();
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/files/upload"))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .timeout(Duration.ofMinutes(30))
+                .POST(HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(
+                        () -> new ThrottledInputStream(bodyBytes, bytesPerSecond)), bodyBytes.length))
+                .build();
+
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        long start = System.nanoTime();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            return new Result(response.statusCode(), (System.nanoTime() - start) / 1e9);
+        } catch (IOException e) {
+            return new Result(-1, (System.nanoTime() - start) / 1e9);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(-1, (System.nanoTime() - start) / 1e9);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static double percentile(List<Double> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        return options;
+    }
+
+    private record Result(int status, double seconds) {
+    }
+
+    /**
+     * Hands out the body no faster than bytesPerSecond, like a slow client link.
+     */
+    private static final class ThrottledInputStream extends InputStream {
+
+        private static final int SLICE = 4 * 1024;
+
+        private final byte[] data;
+        private final long bytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private int position = 0;
+
+        ThrottledInputStream(byte[] data, long bytesPerSecond) {
+            this.data = data;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, SLICE), data.length - position);
+            long dueNanos = startNanos + (position + n) * 1_000_000_000L / bytesPerSecond;
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling");
+                }
+            }
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package peerlinkfilesharingsystem.Service.BlockCacheService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockCacheServiceTest {
+
+    private static final int BLOCK = 4 * 1024;
+    // 1 MB budget: about 250 blocks, two of them in the window
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    private final byte[] data = new byte[BLOCK];
+    private MeterRegistry meterRegistry;
+    private BlockCacheService cache;
+
+    @BeforeEach
+    void setUp() {
+        new Random(24).nextBytes(data);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new BlockCacheService(new BufferPoolService(meterRegistry, true, 16, 16), meterRegistry,
+                true, 1, 4, 3);
+    }
+
+    @Test
+    void servesDecodedBlocksFromCacheOnSecondRead() throws IOException {
+        byte[] file = new byte[10 * BLOCK + 100];
+        new Random(7).nextBytes(file);
+        AtomicInteger decodes = new AtomicInteger();
+        BlockCacheService.Decoder decoder = () -> {
+            decodes.incrementAndGet();
+            return new ByteArrayInputStream(file);
+        };
+
+        try (InputStream in = cache.open("blobs/file", file.length, decoder)) {
+            assertThat(in.readAllBytes()).isEqualTo(file);
+        }
+        try (InputStream in = cache.open("blobs/file", file.length, decoder)) {
+            in.skip(3L * BLOCK + 5);
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(file, 3 * BLOCK + 5, file.length));
+        }
+
+        assertThat(decodes.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("peerlink.download.cache.requests", "result", "hit").count()).isPositive();
+    }
+
+    @Test
+    void scanDoesNotFlushFrequentBlocks() {
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 100; i++) {
+                request("blobs/hot", i);
+            }
+        }
+
+        // A one-off read of a file four times the budget, while the hot file keeps being read
+        for (int i = 0; i < 1000; i++) {
+            request("blobs/scan", i);
+            if (i % 5 == 0) {
+                request("blobs/hot", i / 5 % 100);
+            }
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(isCached("blobs/hot", i)).as("hot block %d", i).isTrue();
+        }
+        assertThat(cache.getSizeBytes()).isLessThanOrEqualTo(MAX_BYTES);
+    }
+
+    @Test
+    void frequentNewcomerDisplacesColdBlocks() {
+        for (int i = 0; i < 400; i++) {
+            request("blobs/cold", i);
+        }
+        assertThat(cache.getSizeBytes()).isLessThanOrEqualTo(MAX_BYTES);
+
+        for (int round = 0; round < 5; round++) {
+            request("blobs/new", 0);
+            // Push it out of the window so it has to pass admission
+            request("blobs/filler", round * 2);
+            request("blobs/filler", round * 2 + 1);
+        }
+
+        assertThat(isCached("blobs/new", 0)).isTrue();
+    }
+
+    @Test
+    void pinnedBlockStaysReadableAfterEviction() {
+        request("blobs/pinned", 0);
+        BlockCacheService.Block block = cache.pin("blobs/pinned", 0);
+        assertThat(block).isNotNull();
+
+        for (int i = 0; i < 1000; i++) {
+            request("blobs/scan", i);
+        }
+
+        byte[] copy = new byte[BLOCK];
+        block.copyTo(0, copy, 0, BLOCK);
+        assertThat(copy).isEqualTo(data);
+        cache.unpin(block);
+    }
+
+    /**
+     * What a download does for one block: look it up and decode it on a miss.
+     */
+    private void request(String storagePath, long blockIndex) {
+        BlockCacheService.Block block = cache.pin(storagePath, blockIndex);
+        if (block == null) {
+            cache.put(storagePath, blockIndex, data, BLOCK);
+        } else {
+            cache.unpin(block);
+        }
+    }
+
+    private boolean isCached(String storagePath, long blockIndex) {
+        BlockCacheService.Block block = cache.pin(storagePath, blockIndex);
+        if (block == null) {
+            return false;
+        }
+        cache.unpin(block);
+        return true;
+    }
+}
@@ -0,0 +1,166 @@
+package peerlinkfilesharingsystem.Service.ChunkStoreService;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkStoreServiceTest {
+
+    private static final byte[] MEMBER = "not really a gzip member, the store never inflates".getBytes();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysStoredChunksAndReferences() throws IOException {
+        ChunkStoreService store = open();
+        store.storeChunk(1, 1, MEMBER, MEMBER.length);
+        store.storeChunk(2, 2, MEMBER, 10);
+        store.storeChunk(3, 3, MEMBER, 20);
+        assertThat(store.storeChunk(1, 1, MEMBER, MEMBER.length)).isFalse();
+        store.release(3, 3);
+        store.close();
+
+        ChunkStoreService reopened = open();
+        assertThat(reopened.getChunkCount()).isEqualTo(2);
+        ChunkStoreService.ChunkLocation second = reopened.locate(2, 2);
+        assertThat(second.packId).isZero();
+        assertThat(second.offset).isEqualTo(MEMBER.length);
+        assertThat(second.length).isEqualTo(10);
+        assertThat(reopened.locate(3, 3)).isNull();
+
+        // Two references on the first chunk survived the restart
+        reopened.release(1, 1);
+        assertThat(reopened.locate(1, 1)).isNotNull();
+        reopened.release(1, 1);
+        assertThat(reopened.locate(1, 1)).isNull();
+        reopened.close();
+    }
+
+    @Test
+    void cutsTornRecordSoLaterRecordsReplay() throws IOException {
+        ChunkStoreService store = open();
+        store.storeChunk(1, 1, MEMBER, MEMBER.length);
+        store.storeChunk(2, 2, MEMBER, MEMBER.length);
+        store.close();
+
+        // A crash in the middle of appending a reference record
+        Files.write(logPath(), new byte[]{2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1}, StandardOpenOption.APPEND);
+
+        ChunkStoreService afterCrash = open();
+        assertThat(afterCrash.getChunkCount()).isEqualTo(2);
+        afterCrash.storeChunk(3, 3, MEMBER, MEMBER.length);
+        afterCrash.addRefIfPresent(1, 1);
+        afterCrash.close();
+
+        ChunkStoreService reopened = open();
+        assertThat(reopened.getChunkCount()).isEqualTo(3);
+        assertThat(reopened.locate(3, 3)).isNotNull();
+        reopened.release(1, 1);
+        assertThat(reopened.locate(1, 1)).isNotNull();
+        reopened.close();
+    }
+
+    @Test
+    void ignoresCorruptTail() throws IOException {
+        ChunkStoreService store = open();
+        store.storeChunk(1, 1, MEMBER, MEMBER.length);
+        store.close();
+
+        Files.write(logPath(), new byte[64], StandardOpenOption.APPEND);
+
+        ChunkStoreService reopened = open();
+        assertThat(reopened.getChunkCount()).isEqualTo(1);
+        reopened.close();
+        assertThat(Files.size(logPath())).isEqualTo(1 + 16 + 4 + 8 + 4 + 4);
+    }
+
+    @Test
+    void compactsLogIntoOneEntryPerChunk() throws IOException {
+        ChunkStoreService store = open();
+        store.storeChunk(1, 1, MEMBER, MEMBER.length);
+        store.storeChunk(2, 2, MEMBER, MEMBER.length);
+        for (int i = 0; i < 60_000; i++) {
+            store.addRefIfPresent(1, 1);
+            store.release(1, 1);
+        }
+        store.addRefIfPresent(2, 2);
+        store.close();
+
+        ChunkStoreService reopened = open();
+        reopened.close();
+        assertThat(Files.size(logPath())).isEqualTo(2L * (1 + 16 + 4 + 8 + 4 + 4));
+
+        ChunkStoreService afterCompaction = open();
+        assertThat(afterCompaction.getChunkCount()).isEqualTo(2);
+        afterCompaction.release(2, 2);
+        assertThat(afterCompaction.locate(2, 2)).isNotNull();
+        afterCompaction.release(2, 2);
+        assertThat(afterCompaction.locate(2, 2)).isNull();
+        afterCompaction.close();
+    }
+
+    @Test
+    void deletesPackWithoutLiveChunks() throws IOException {
+        ChunkStoreService store = open();
+        store.storeChunk(1, 1, MEMBER, MEMBER.length);
+        store.close();
+
+        // Reopening rolls to a new pack, so the old one can go once its chunk does
+        ChunkStoreService reopened = open();
+        Path firstPack = reopened.packPath(0);
+        assertThat(firstPack).exists();
+        reopened.release(1, 1);
+        assertThat(firstPack).doesNotExist();
+        reopened.close();
+    }
+
+    @Test
+    void releaseIsOnDiskBeforePackIsDeleted() throws IOException {
+        ChunkStoreService store = open();
+        store.storeChunk(1, 1, MEMBER, MEMBER.length);
+        store.close();
+
+        ChunkStoreService reopened = open();
+        reopened.release(1, 1);
+        assertThat(reopened.packPath(0)).doesNotExist();
+        // Not closed: the release record must already be in the file
+        assertThat(Files.size(logPath())).isEqualTo((1 + 16 + 4 + 8 + 4 + 4) + (1 + 16 + 4));
+        reopened.close();
+    }
+
+    @Test
+    void keepsPacksWhenLogWasCut() throws IOException {
+        ChunkStoreService store = open();
+        store.storeChunk(1, 1, MEMBER, MEMBER.length);
+        store.close();
+        Path unknownPack = dir.resolve("chunks").resolve("packs").resolve("pack-5.dat");
+        Files.write(unknownPack, MEMBER);
+        Files.write(logPath(), new byte[]{1, 0, 0, 0}, StandardOpenOption.APPEND);
+
+        open().close();
+        assertThat(unknownPack).exists();
+
+        // The next clean start trusts the log again
+        open().close();
+        assertThat(unknownPack).doesNotExist();
+    }
+
+    private ChunkStoreService open() throws IOException {
+        ChunkStoreService store = new ChunkStoreService();
+        ReflectionTestUtils.setField(store, "baseUploadDirectory", dir.toString());
+        store.open();
+        return store;
+    }
+
+    private Path logPath() {
+        return dir.resolve("chunks").resolve("chunk-index.log");
+    }
+}
@@ -0,0 +1,70 @@
+package peerlinkfilesharingsystem.Service.CompressionDictionaryService;
+
+import org.junit.jupiter.api.Test;
+import peerlinkfilesharingsystem.Model.CompressionDictionary;
+import peerlinkfilesharingsystem.Repo.CompressionDictionaryRepo;
+import peerlinkfilesharingsystem.Repo.StoredBlobRepo;
+import peerlinkfilesharingsystem.Service.CompressionService.PresetDictionaryCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CompressionDictionaryServiceTest {
+
+    private final CompressionDictionaryRepo repo = mock(CompressionDictionaryRepo.class);
+    private final CompressionDictionaryService service =
+            new CompressionDictionaryService(repo, mock(StoredBlobRepo.class));
+
+    @Test
+    void findsActiveDictionaryByDictIdWithoutRepository() {
+        CompressionDictionary active = dictionary(1L, "json", 2, "active json strings");
+        when(repo.findByActiveTrue()).thenReturn(List.of(active));
+        service.loadActiveDictionaries();
+
+        assertThat(service.findActiveDictionaryId("JSON")).isEqualTo(1L);
+        assertThat(service.findContentByDictId(active.getDictId())).isEqualTo(active.getContent());
+        verify(repo, never()).findFirstByDictId(anyLong());
+    }
+
+    @Test
+    void loadsRetiredVersionOnceByDictId() {
+        CompressionDictionary retired = dictionary(7L, "json", 1, "older json strings");
+        retired.setActive(false);
+        when(repo.findByActiveTrue()).thenReturn(List.of());
+        when(repo.findFirstByDictId(retired.getDictId())).thenReturn(Optional.of(retired));
+        service.loadActiveDictionaries();
+
+        assertThat(service.findContentByDictId(retired.getDictId())).isEqualTo(retired.getContent());
+        assertThat(service.findContentByDictId(retired.getDictId())).isEqualTo(retired.getContent());
+        assertThat(service.getContent(7L)).isEqualTo(retired.getContent());
+        verify(repo, times(1)).findFirstByDictId(retired.getDictId());
+        assertThat(service.findActiveDictionaryId("json")).isNull();
+    }
+
+    @Test
+    void unknownDictIdIsNull() {
+        when(repo.findFirstByDictId(anyLong())).thenReturn(Optional.empty());
+
+        assertThat(service.findContentByDictId(0x1234L)).isNull();
+    }
+
+    private static CompressionDictionary dictionary(Long id, String fileType, int version, String text) {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        return CompressionDictionary.builder()
+                .id(id)
+                .fileType(fileType)
+                .version(version)
+                .dictId(PresetDictionaryCodec.dictIdOf(content))
+                .content(content)
+                .build();
+    }
+}
@@ -0,0 +1,155 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BlockIndexTest {
+
+    private static final int BLOCK = 16 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private BufferPoolService bufferPool;
+    private CodecPoolService codecPool;
+    private byte[] content;
+    private String storagePath;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        bufferPool = new BufferPoolService(meterRegistry, true, 16, 4);
+        codecPool = new CodecPoolService(meterRegistry, 4, false);
+
+        // Half text, half noise, ending in a short block
+        content = new byte[7 * BLOCK + 1234];
+        byte[] text = "peerlink block index round trip ".getBytes();
+        for (int i = 0; i < content.length / 2; i++) {
+            content[i] = text[i % text.length];
+        }
+        byte[] noise = new byte[content.length - content.length / 2];
+        new Random(4).nextBytes(noise);
+        System.arraycopy(noise, 0, content, content.length / 2, noise.length);
+
+        storagePath = dir.resolve("blob").toString();
+        BlockGzipOutputStream encoder = encode(storagePath, content);
+        encoder.getIndex().save(storagePath);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void savedIndexLoadsBack() throws IOException {
+        BlockIndex index = BlockIndex.load(storagePath);
+
+        assertThat(index).isNotNull();
+        assertThat(index.getBlockSize()).isEqualTo(BLOCK);
+        assertThat(index.getUncompressedLength()).isEqualTo(content.length);
+        assertThat(index.getBlockCount()).isEqualTo(8);
+        assertThat(index.blockLength(7)).isEqualTo(1234);
+        assertThat(index.compressedOffset(0)).isZero();
+        assertThat(index.compressedOffset(7) + index.compressedLength(7)).isEqualTo(Files.size(Path.of(storagePath)));
+        assertThat(index.blockFor(3L * BLOCK - 1)).isEqualTo(2);
+        assertThat(index.blockFor(3L * BLOCK)).isEqualTo(3);
+    }
+
+    @Test
+    void membersStayOneValidGzipFile() throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(Path.of(storagePath)))) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void decodesFromStartAndFromEverySeek() throws IOException {
+        BlockIndex index = BlockIndex.load(storagePath);
+        try (SeekableBlockInputStream in = new SeekableBlockInputStream(storagePath, index, bufferPool, codecPool)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+
+            for (long offset : new long[]{0, 1, BLOCK - 1, BLOCK, 5L * BLOCK + 77, content.length - 1}) {
+                in.seek(offset);
+                byte[] read = in.readNBytes(BLOCK + 10);
+                int expected = (int) Math.min(BLOCK + 10, content.length - offset);
+                assertThat(read).isEqualTo(Arrays.copyOfRange(content, (int) offset, (int) offset + expected));
+            }
+
+            in.seek(content.length);
+            assertThat(in.read()).isEqualTo(-1);
+            assertThatThrownBy(() -> in.seek(content.length + 1L)).isInstanceOf(EOFException.class);
+        }
+    }
+
+    @Test
+    void skipLandsOnSameBytesAsSeek() throws IOException {
+        BlockIndex index = BlockIndex.load(storagePath);
+        try (SeekableBlockInputStream in = new SeekableBlockInputStream(storagePath, index, bufferPool, codecPool)) {
+            in.readNBytes(100);
+            assertThat(in.skip(4L * BLOCK)).isEqualTo(4L * BLOCK);
+            assertThat(in.position()).isEqualTo(4L * BLOCK + 100);
+            assertThat(in.read()).isEqualTo(content[4 * BLOCK + 100] & 0xff);
+        }
+    }
+
+    @Test
+    void missingIndexMeansMonolithicFile() throws IOException {
+        assertThat(BlockIndex.load(dir.resolve("other").toString())).isNull();
+    }
+
+    @Test
+    void rejectsForeignSidecar() throws IOException {
+        Files.write(Path.of(BlockIndex.indexPathFor(storagePath)), new byte[]{'P', 'L', 'X', 'X', 1, 0, 0});
+
+        assertThatThrownBy(() -> BlockIndex.load(storagePath))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Not a block index");
+    }
+
+    @Test
+    void emptyInputIsOneEmptyMember() throws IOException {
+        String emptyPath = dir.resolve("empty").toString();
+        BlockGzipOutputStream encoder = encode(emptyPath, new byte[0]);
+
+        assertThat(encoder.getIndex().getBlockCount()).isEqualTo(1);
+        assertThat(encoder.getIndex().getUncompressedLength()).isZero();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(Path.of(emptyPath)))) {
+            assertThat(in.readAllBytes()).isEmpty();
+        }
+    }
+
+    private BlockGzipOutputStream encode(String path, byte[] data) throws IOException {
+        OutputStream file = new FileOutputStream(path);
+        BlockGzipOutputStream encoder = new BlockGzipOutputStream(file, executor, BLOCK, 2,
+                Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, null, bufferPool, codecPool);
+        try (encoder) {
+            new ByteArrayInputStream(data).transferTo(encoder);
+        }
+        return encoder;
+    }
+}
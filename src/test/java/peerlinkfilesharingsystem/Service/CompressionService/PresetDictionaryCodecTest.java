@@ -0,0 +1,137 @@
+package peerlinkfilesharingsystem.Service.CompressionService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import peerlinkfilesharingsystem.Service.CodecPoolService.CodecPoolService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class PresetDictionaryCodecTest {
+
+    private static final byte[] DICTIONARY = ("{\"transferId\":\"\",\"fileName\":\"\",\"fileSize\":0,"
+            + "\"compressionLevel\":6,\"networkSpeedMbps\":0.0,\"latencyMs\":0,\"deviceType\":\"DESKTOP\"}")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SMALL_FILE = ("{\"transferId\":\"a81f\",\"fileName\":\"notes.json\",\"fileSize\":812,"
+            + "\"compressionLevel\":6,\"networkSpeedMbps\":42.5,\"latencyMs\":18,\"deviceType\":\"DESKTOP\"}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final CodecPoolService codecPool = new CodecPoolService(new SimpleMeterRegistry(), 4, false);
+
+    @Test
+    void roundTripsThroughDictIdLookup() throws IOException {
+        byte[] stored = encode(SMALL_FILE, DICTIONARY);
+        List<Long> lookups = new ArrayList<>();
+
+        try (InputStream in = PresetDictionaryCodec.newDecoder(new ByteArrayInputStream(stored), dictId -> {
+            lookups.add(dictId);
+            return dictId == PresetDictionaryCodec.dictIdOf(DICTIONARY) ? DICTIONARY : null;
+        }, codecPool)) {
+            assertThat(in.readAllBytes()).isEqualTo(SMALL_FILE);
+        }
+        assertThat(lookups).containsExactly(PresetDictionaryCodec.dictIdOf(DICTIONARY));
+    }
+
+    @Test
+    void headerNamesDictionaryByAdler32() throws IOException {
+        byte[] stored = encode(SMALL_FILE, DICTIONARY);
+
+        // FDICT set, DICTID big-endian right after the two header bytes
+        assertThat(stored[1] & 0x20).isNotZero();
+        long dictId = ((stored[2] & 0xffL) << 24) | ((stored[3] & 0xff) << 16)
+                | ((stored[4] & 0xff) << 8) | (stored[5] & 0xff);
+        assertThat(dictId).isEqualTo(PresetDictionaryCodec.dictIdOf(DICTIONARY));
+    }
+
+    @Test
+    void dictionaryShrinksSmallFiles() throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(plain, new Deflater(6))) {
+            out.write(SMALL_FILE);
+        }
+
+        assertThat(encode(SMALL_FILE, DICTIONARY).length).isLessThan(plain.size());
+    }
+
+    @Test
+    void failsWhenDictionaryIsUnknown() throws IOException {
+        byte[] stored = encode(SMALL_FILE, DICTIONARY);
+
+        assertThatThrownBy(() -> PresetDictionaryCodec.newDecoder(new ByteArrayInputStream(stored),
+                dictId -> null, codecPool))
+                .isInstanceOf(FileNotFoundException.class)
+                .hasMessageContaining(Long.toHexString(PresetDictionaryCodec.dictIdOf(DICTIONARY)));
+    }
+
+    @Test
+    void rejectsDictionaryWithOtherDictId() throws IOException {
+        byte[] stored = encode(SMALL_FILE, DICTIONARY);
+        byte[] other = "a different dictionary".getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> PresetDictionaryCodec.newDecoder(new ByteArrayInputStream(stored),
+                dictId -> other, codecPool))
+                .isInstanceOf(ZipException.class)
+                .hasMessageContaining("does not match");
+    }
+
+    @Test
+    void truncatedHeaderBorrowsNoInflater() throws IOException {
+        byte[] stored = encode(SMALL_FILE, DICTIONARY);
+        CodecPoolService pool = spy(codecPool);
+
+        assertThatThrownBy(() -> PresetDictionaryCodec.newDecoder(new ByteArrayInputStream(stored, 0, 4),
+                dictId -> DICTIONARY, pool))
+                .isInstanceOf(EOFException.class);
+        verify(pool, never()).borrowInflater(anyBoolean());
+    }
+
+    @Test
+    void decodesZlibWithoutDictionary() throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(plain, new Deflater(6))) {
+            out.write(SMALL_FILE);
+        }
+
+        try (InputStream in = PresetDictionaryCodec.newDecoder(new ByteArrayInputStream(plain.toByteArray()),
+                dictId -> {
+                    throw new AssertionError("No dictionary should be looked up");
+                }, codecPool)) {
+            assertThat(in.readAllBytes()).isEqualTo(SMALL_FILE);
+        }
+    }
+
+    @Test
+    void rejectsNonZlibInput() {
+        byte[] gzipHeader = {0x1f, (byte) 0x8b, 8, 0};
+
+        assertThatThrownBy(() -> PresetDictionaryCodec.newDecoder(new ByteArrayInputStream(gzipHeader),
+                dictId -> DICTIONARY, codecPool))
+                .isInstanceOf(ZipException.class);
+    }
+
+    private byte[] encode(byte[] data, byte[] dictionary) throws IOException {
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        try (OutputStream out = PresetDictionaryCodec.newEncoder(stored, 6, dictionary, codecPool)) {
+            out.write(data);
+        }
+        return stored.toByteArray();
+    }
+}
@@ -0,0 +1,167 @@
+package peerlinkfilesharingsystem.Service.DeltaUploadService;
+
+import org.junit.jupiter.api.Test;
+import peerlinkfilesharingsystem.Service.CompressionService.CompressionPipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeltaApplyingInputStreamTest {
+
+    private static final int BLOCK = 2 * 1024;
+
+    private final byte[] base = random(64 * BLOCK + 300, 12);
+    private final AtomicInteger baseOpens = new AtomicInteger();
+
+    @Test
+    void rebuildsEncodedVersion() throws IOException {
+        byte[] target = editedCopy();
+        byte[] delta = encode(target, sha256(target));
+
+        try (DeltaApplyingInputStream in = apply(delta)) {
+            assertThat(in.getNewLength()).isEqualTo(target.length);
+            assertThat(in.readAllBytes()).isEqualTo(target);
+            assertThat(in.getCopiedBytes()).isGreaterThan(in.getLiteralBytes());
+            assertThat(in.getCopiedBytes() + in.getLiteralBytes()).isEqualTo(target.length);
+        }
+    }
+
+    @Test
+    void rejectsHashMismatchAtEnd() throws IOException {
+        byte[] target = editedCopy();
+        byte[] wrongHash = sha256(target);
+        wrongHash[0] ^= 1;
+        byte[] delta = encode(target, wrongHash);
+
+        try (DeltaApplyingInputStream in = apply(delta)) {
+            assertThatThrownBy(in::readAllBytes)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("SHA-256");
+        }
+    }
+
+    @Test
+    void rejectsLengthMismatch() throws IOException {
+        byte[] target = Arrays.copyOf(base, 3 * BLOCK);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, 3 * BLOCK + 1, sha256(target));
+        copy(out, 0, 3);
+        out.writeByte(DeltaApplyingInputStream.OP_END);
+
+        try (DeltaApplyingInputStream in = apply(bytes.toByteArray())) {
+            assertThatThrownBy(in::readAllBytes)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("header announced");
+        }
+    }
+
+    @Test
+    void rejectsCopyOutsideBase() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, BLOCK, new byte[32]);
+        copy(out, 64, 2);
+
+        try (DeltaApplyingInputStream in = apply(bytes.toByteArray())) {
+            assertThatThrownBy(in::read)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("outside the base version");
+        }
+    }
+
+    @Test
+    void copiesBackwardsWithinBudget() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        // The second half, then the first: one reopen
+        expected.write(base, 32 * BLOCK, base.length - 32 * BLOCK);
+        expected.write(base, 0, 32 * BLOCK);
+        byte[] target = expected.toByteArray();
+        DataOutputStream out = header(bytes, target.length, sha256(target));
+        copy(out, 32, 33);
+        copy(out, 0, 32);
+        out.writeByte(DeltaApplyingInputStream.OP_END);
+
+        try (DeltaApplyingInputStream in = apply(bytes.toByteArray())) {
+            assertThat(in.readAllBytes()).isEqualTo(target);
+        }
+        assertThat(baseOpens.get()).isEqualTo(2);
+    }
+
+    @Test
+    void capsBaseDecodedByBackwardCopies() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, 40L * BLOCK, new byte[32]);
+        // Each copy of a late block after an early one skips most of the base again
+        for (int i = 0; i < 20; i++) {
+            copy(out, 63, 1);
+            copy(out, 0, 1);
+        }
+        out.writeByte(DeltaApplyingInputStream.OP_END);
+
+        try (DeltaApplyingInputStream in = apply(bytes.toByteArray())) {
+            assertThatThrownBy(in::readAllBytes)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("copies backwards too often");
+        }
+        assertThat(baseOpens.get()).isLessThanOrEqualTo(DeltaApplyingInputStream.MAX_BASE_PASSES + 1);
+    }
+
+    private DeltaApplyingInputStream apply(byte[] delta) throws IOException {
+        return new DeltaApplyingInputStream(new ByteArrayInputStream(delta), () -> {
+            baseOpens.incrementAndGet();
+            return new ByteArrayInputStream(base);
+        }, base.length, 0);
+    }
+
+    private byte[] editedCopy() {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        target.write(base, 0, 10 * BLOCK + 17);
+        target.writeBytes(random(5000, 7));
+        target.write(base, 10 * BLOCK + 17, 30 * BLOCK);
+        target.write(base, 50 * BLOCK, base.length - 50 * BLOCK);
+        return target.toByteArray();
+    }
+
+    private byte[] encode(byte[] target, byte[] targetHash) throws IOException {
+        DeltaEncoder encoder = DeltaEncoder.forBase(new ByteArrayInputStream(base), base.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean encoded = encoder.encode(new ByteArrayInputStream(target), target.length, targetHash,
+                new DataOutputStream(bytes), Long.MAX_VALUE);
+        assertThat(encoded).isTrue();
+        return bytes.toByteArray();
+    }
+
+    private DataOutputStream header(ByteArrayOutputStream bytes, long newLength, byte[] hash) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(DeltaApplyingInputStream.MAGIC);
+        out.writeByte(DeltaApplyingInputStream.VERSION);
+        out.writeInt(BLOCK);
+        out.writeLong(newLength);
+        out.write(hash);
+        return out;
+    }
+
+    private static void copy(DataOutputStream out, int firstBlock, int blockCount) throws IOException {
+        out.writeByte(DeltaApplyingInputStream.OP_COPY);
+        out.writeInt(firstBlock);
+        out.writeInt(blockCount);
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return CompressionPipeline.newContentDigest().digest(data);
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,149 @@
+package peerlinkfilesharingsystem.Service.DownloadBroadcastService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import peerlinkfilesharingsystem.Service.BufferPoolService.BufferPoolService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class DownloadBroadcastServiceTest {
+
+    private static final String PATH = "blobs/ab/cd/abcd";
+    private static final int WINDOW = 1024 * 1024;
+
+    private final byte[] content = new byte[4 * WINDOW + 12345];
+    private final AtomicInteger decodes = new AtomicInteger();
+    private final DownloadBroadcastService.Decoder decoder = () -> {
+        decodes.incrementAndGet();
+        return new ByteArrayInputStream(content);
+    };
+
+    private MeterRegistry meterRegistry;
+    private BufferPoolService bufferPool;
+    private DownloadBroadcastService service;
+
+    @BeforeEach
+    void setUp() {
+        new Random(25).nextBytes(content);
+        meterRegistry = new SimpleMeterRegistry();
+        bufferPool = spy(new BufferPoolService(meterRegistry, true, 64, 8));
+        service = new DownloadBroadcastService(bufferPool, meterRegistry, true, 1);
+    }
+
+    @Test
+    void loneReaderDecodesWithoutRing() throws IOException {
+        try (InputStream in = service.open(PATH, content.length, decoder)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+
+        assertThat(opens("alone")).isEqualTo(1);
+        verify(bufferPool, never()).acquire(anyInt());
+    }
+
+    @Test
+    void concurrentReadersShareOneDecode() throws IOException {
+        InputStream first = service.open(PATH, content.length, decoder);
+        InputStream second = service.open(PATH, content.length, decoder);
+        InputStream third = service.open(PATH, content.length, decoder);
+
+        ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream thirdOut = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = second.read(buffer)) != -1) {
+            secondOut.write(buffer, 0, n);
+            int m = third.read(buffer);
+            assertThat(m).isPositive();
+            thirdOut.write(buffer, 0, m);
+        }
+        thirdOut.write(third.readAllBytes());
+
+        assertThat(first.readAllBytes()).isEqualTo(content);
+        assertThat(secondOut.toByteArray()).isEqualTo(content);
+        assertThat(thirdOut.toByteArray()).isEqualTo(content);
+        first.close();
+        second.close();
+        third.close();
+
+        assertThat(opens("alone")).isEqualTo(1);
+        assertThat(opens("started")).isEqualTo(1);
+        assertThat(opens("joined")).isEqualTo(1);
+        assertThat(decodes.get()).isEqualTo(2);
+        assertThat(meterRegistry.counter("peerlink.download.broadcast.detached").count()).isZero();
+        verify(bufferPool, times(1)).acquire(WINDOW);
+    }
+
+    @Test
+    void readerThatSkipsFirstDetachesWithoutRing() throws IOException {
+        try (InputStream first = service.open(PATH, content.length, decoder);
+             InputStream ranged = service.open(PATH, content.length, decoder)) {
+            long skipped = ranged.skip(WINDOW + 7);
+            byte[] tail = ranged.readAllBytes();
+
+            assertThat(skipped).isEqualTo(WINDOW + 7);
+            assertThat(tail).hasSize(content.length - (WINDOW + 7));
+            assertThat(tail[0]).isEqualTo(content[WINDOW + 7]);
+            assertThat(first.readAllBytes()).isEqualTo(content);
+        }
+
+        assertThat(meterRegistry.counter("peerlink.download.broadcast.detached").count()).isEqualTo(1);
+        verify(bufferPool, never()).acquire(anyInt());
+    }
+
+    @Test
+    void slowReaderDetachesAndContinuesAlone() throws IOException {
+        InputStream first = service.open(PATH, content.length, decoder);
+        InputStream fast = service.open(PATH, content.length, decoder);
+        InputStream slow = service.open(PATH, content.length, decoder);
+
+        int head = slow.read();
+        assertThat(fast.readAllBytes()).isEqualTo(content);
+
+        ByteArrayOutputStream slowOut = new ByteArrayOutputStream();
+        slowOut.write(head);
+        slowOut.write(slow.readAllBytes());
+        assertThat(slowOut.toByteArray()).isEqualTo(content);
+        assertThat(meterRegistry.counter("peerlink.download.broadcast.detached").count()).isEqualTo(1);
+
+        first.close();
+        fast.close();
+        slow.close();
+        verify(bufferPool, times(1)).release(any(byte[].class));
+    }
+
+    @Test
+    void lateReaderStartsNewBroadcastOnceStartHasLeftWindow() throws IOException {
+        InputStream first = service.open(PATH, content.length, decoder);
+        InputStream early = service.open(PATH, content.length, decoder);
+        early.readNBytes(2 * WINDOW);
+
+        try (InputStream late = service.open(PATH, content.length, decoder)) {
+            assertThat(late.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(early.readAllBytes()).hasSize(content.length - 2 * WINDOW);
+        first.close();
+        early.close();
+
+        assertThat(opens("started")).isEqualTo(2);
+        assertThat(opens("joined")).isZero();
+    }
+
+    private double opens(String outcome) {
+        return meterRegistry.counter("peerlink.download.broadcast.opens", "outcome", outcome).count();
+    }
+}
@@ -0,0 +1,78 @@
+package peerlinkfilesharingsystem.Service.StorageQuotaService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import peerlinkfilesharingsystem.Exception.StorageQuotaExceededException;
+import peerlinkfilesharingsystem.Repo.FileTransferRepo;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StorageQuotaServiceTest {
+
+    private static final long QUOTA = 100;
+
+    @TempDir
+    Path dir;
+
+    private final UUID userId = UUID.randomUUID();
+    private final FileTransferRepo fileTransferRepo = mock(FileTransferRepo.class);
+    private final StorageQuotaService service = new StorageQuotaService(fileTransferRepo);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "baseUploadDirectory", dir.toString());
+        ReflectionTestUtils.setField(service, "maxBytesPerUser", QUOTA);
+        ReflectionTestUtils.setField(service, "minFreeDiskMb", 0L);
+        when(fileTransferRepo.sumHeldBytes(eq(userId), any())).thenReturn(40L);
+    }
+
+    @Test
+    void parallelUploadsShareTheQuota() {
+        service.reserve(userId, 50);
+
+        assertThatThrownBy(() -> service.reserve(userId, 20))
+                .isInstanceOf(StorageQuotaExceededException.class);
+        assertThatThrownBy(() -> service.checkQuota(userId, 20))
+                .isInstanceOf(StorageQuotaExceededException.class);
+        // Other users are not held back by it
+        assertThatCode(() -> service.reserve(UUID.randomUUID(), 50).close()).doesNotThrowAnyException();
+    }
+
+    @Test
+    void persistedRowTakesOverTheQuota() {
+        StorageQuotaService.Reservation reservation = service.reserve(userId, 50);
+        when(fileTransferRepo.sumHeldBytes(eq(userId), any())).thenReturn(90L);
+        reservation.persisted();
+        reservation.persisted();
+
+        assertThatCode(() -> service.reserve(userId, 10).close()).doesNotThrowAnyException();
+        assertThatThrownBy(() -> service.reserve(userId, 11))
+                .isInstanceOf(StorageQuotaExceededException.class);
+    }
+
+    @Test
+    void parallelUploadsShareTheDisk() {
+        ReflectionTestUtils.setField(service, "maxBytesPerUser", 0L);
+        long usable = dir.toFile().getUsableSpace();
+        long share = usable / 10 * 6;
+
+        StorageQuotaService.Reservation first = service.reserve(userId, share);
+        assertThatThrownBy(() -> service.reserve(UUID.randomUUID(), share))
+                .isInstanceOf(StorageQuotaExceededException.class)
+                .hasMessageContaining("storage is full");
+
+        first.close();
+        first.close();
+        assertThatCode(() -> service.reserve(UUID.randomUUID(), share).close()).doesNotThrowAnyException();
+    }
+}